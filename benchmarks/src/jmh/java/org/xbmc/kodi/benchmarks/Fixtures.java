@@ -0,0 +1,277 @@
+package org.xbmc.kodi.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Kodi JSON-RPC responses shaped after the ones of a real library: same members, value
+ * types and art URL encoding, with varied titles and lengths. Generated from a fixed
+ * seed, so every run of a benchmark reads the same bytes.
+ */
+final class Fixtures
+{
+  static final String MOVIE = "movie";
+  static final String EPISODE = "episode";
+  static final String SONG = "song";
+
+  private static final String[] WORDS =
+  {
+    "the", "last", "silent", "river", "night", "of", "shadows", "return", "king", "a",
+    "star", "ghost", "city", "winter", "blue", "lost", "empire", "dream", "fire", "ocean",
+    "stranger", "house", "and", "secret", "garden", "storm", "broken", "road", "summer", "light"
+  };
+
+  private final Random mRandom;
+
+  Fixtures(long seed)
+  {
+    mRandom = new Random(seed);
+  }
+
+  /**
+   * @return the "moviedetails", "episodedetails" or "songdetails" object of a
+   * details response.
+   */
+  String details(String mediaType, int id)
+  {
+    StringBuilder out = new StringBuilder(1024);
+    if (mediaType.equals(MOVIE))
+      appendMovie(out, id);
+    else if (mediaType.equals(EPISODE))
+      appendEpisode(out, id);
+    else
+      appendSong(out, id);
+    return out.toString();
+  }
+
+  /**
+   * @return the response to request requestId of a details batch.
+   */
+  String detailsResponse(String mediaType, int id, long requestId)
+  {
+    return "{\"id\":" + requestId + ",\"jsonrpc\":\"2.0\",\"result\":{\"" + mediaType + "details\":"
+            + details(mediaType, id) + "}}";
+  }
+
+  /**
+   * @return a library page, as read by the title index: VideoLibrary.GetMovies with its
+   * limits, the items start to end of total.
+   */
+  String moviePage(int start, int end, int total)
+  {
+    StringBuilder out = new StringBuilder((end - start) * 512);
+    out.append("{\"id\":\"index\",\"jsonrpc\":\"2.0\",\"result\":{\"limits\":{\"end\":").append(end)
+            .append(",\"start\":").append(start).append(",\"total\":").append(total).append("},\"movies\":[");
+    for (int i = start; i < end; ++i)
+    {
+      if (i > start)
+        out.append(',');
+      appendMovieItem(out, i + 1);
+    }
+    return out.append("]}}").toString();
+  }
+
+  /**
+   * @return an empty library page, for the types not benchmarked.
+   */
+  static String emptyPage(String itemsKey)
+  {
+    return "{\"id\":\"index\",\"jsonrpc\":\"2.0\",\"result\":{\"limits\":{\"end\":0,\"start\":0,\"total\":0},\""
+            + itemsKey + "\":[]}}";
+  }
+
+  /**
+   * @param hits the number of items returned for each request, all of those on the server.
+   * @return the response to the suggestion batch.
+   */
+  String suggestionBatch(String[] requestIds, int[] hits)
+  {
+    String[] itemsKeys = { "movies", "tvshows", "albums", "artists", "movies", "tvshows" };
+    StringBuilder out = new StringBuilder(requestIds.length * 4096);
+    out.append('[');
+    for (int r = 0; r < requestIds.length; ++r)
+    {
+      if (r > 0)
+        out.append(',');
+      out.append("{\"id\":\"").append(requestIds[r]).append("\",\"jsonrpc\":\"2.0\",\"result\":{\"limits\":{\"end\":")
+              .append(hits[r]).append(",\"start\":0,\"total\":").append(hits[r]).append("},\"")
+              .append(itemsKeys[r]).append("\":[");
+      for (int i = 0; i < hits[r]; ++i)
+      {
+        if (i > 0)
+          out.append(',');
+        appendSearchItem(out, itemsKeys[r], r * 1000 + i + 1);
+      }
+      out.append("]}}");
+    }
+    return out.append(']').toString();
+  }
+
+  private void appendMovie(StringBuilder out, int id)
+  {
+    String title = title();
+    out.append("{\"art\":{\"fanart\":").append(art("movies", title, "fanart.jpg"))
+            .append(",\"poster\":").append(art("movies", title, "poster.jpg"))
+            .append(",\"thumb\":").append(mRandom.nextInt(4) == 0 ? "\"\"" : art("movies", title, "thumb.jpg"))
+            .append("},\"file\":").append(quote("smb://nas/movies/" + title + "/" + title + ".mkv"))
+            .append(",\"imdbnumber\":\"tt").append(1000000 + id)
+            .append("\",\"label\":").append(quote(title))
+            .append(",\"movieid\":").append(id)
+            .append(",\"plot\":").append(quote(sentence(40 + mRandom.nextInt(80))))
+            .append(",\"rating\":").append(mRandom.nextInt(100) / 10.0)
+            .append(",\"runtime\":").append(4800 + mRandom.nextInt(3600))
+            .append(",\"tagline\":").append(quote(sentence(6)))
+            .append(",\"title\":").append(quote(title))
+            .append(",\"trailer\":\"\",\"year\":").append(1950 + mRandom.nextInt(75))
+            .append('}');
+  }
+
+  private void appendMovieItem(StringBuilder out, int id)
+  {
+    String title = title();
+    out.append("{\"art\":{\"fanart\":").append(art("movies", title, "fanart.jpg"))
+            .append(",\"poster\":").append(art("movies", title, "poster.jpg"))
+            .append("},\"label\":").append(quote(title))
+            .append(",\"dateadded\":").append(quote(dateAdded(id)))
+            .append(",\"movieid\":").append(id)
+            .append(",\"originaltitle\":").append(quote(mRandom.nextInt(5) == 0 ? title() : title))
+            .append(",\"runtime\":").append(4800 + mRandom.nextInt(3600))
+            .append(",\"set\":").append(quote(mRandom.nextInt(8) == 0 ? title() + " Collection" : ""))
+            .append(",\"tagline\":").append(quote(sentence(6)))
+            .append(",\"title\":").append(quote(title))
+            .append(",\"year\":").append(1950 + mRandom.nextInt(75))
+            .append('}');
+  }
+
+  private void appendEpisode(StringBuilder out, int id)
+  {
+    String show = title();
+    int season = 1 + mRandom.nextInt(10);
+    int episode = 1 + mRandom.nextInt(24);
+    String path = "smb://nas/tv/" + show + "/Season " + season + "/";
+    out.append("{\"art\":{\"season.poster\":").append(art("tv", show, "season" + season + ".jpg"))
+            .append(",\"thumb\":").append(art("tv", show, "S" + season + "E" + episode + "-thumb.jpg"))
+            .append(",\"tvshow.fanart\":").append(art("tv", show, "fanart.jpg"))
+            .append(",\"tvshow.poster\":").append(art("tv", show, "poster.jpg"))
+            .append("},\"episode\":").append(episode)
+            .append(",\"episodeid\":").append(id)
+            .append(",\"file\":").append(quote(path + show + " S" + season + "E" + episode + ".mkv"))
+            .append(",\"firstaired\":\"").append(1990 + mRandom.nextInt(35)).append("-0")
+            .append(1 + mRandom.nextInt(9)).append("-1").append(mRandom.nextInt(10))
+            .append("\",\"label\":").append(quote(episode + ". " + title()))
+            .append(",\"plot\":").append(quote(sentence(30 + mRandom.nextInt(60))))
+            .append(",\"rating\":").append(mRandom.nextInt(100) / 10.0)
+            .append(",\"runtime\":").append(1200 + mRandom.nextInt(2400))
+            .append(",\"season\":").append(season)
+            .append(",\"showtitle\":").append(quote(show))
+            .append(",\"title\":").append(quote(title()))
+            .append(",\"tvshowid\":").append(1 + mRandom.nextInt(500))
+            .append('}');
+  }
+
+  private void appendSong(StringBuilder out, int id)
+  {
+    String artist = title();
+    String album = title();
+    String path = "smb://nas/music/" + artist + "/" + album + "/";
+    // a third of the songs have no album art, falling back to the artist
+    boolean albumArt = mRandom.nextInt(3) > 0;
+    out.append("{\"albumid\":").append(1 + mRandom.nextInt(5000))
+            .append(",\"art\":{")
+            .append(albumArt ? "\"album.thumb\":" + art("music", album, "folder.jpg") + "," : "")
+            .append("\"artist.fanart\":").append(art("music", artist, "fanart.jpg"))
+            .append(",\"artist.thumb\":").append(art("music", artist, "artist.jpg"))
+            .append("},\"artistid\":[").append(1 + mRandom.nextInt(2000))
+            .append("],\"displayartist\":").append(quote(artist))
+            .append(",\"file\":").append(quote(path + String.format("%02d", 1 + mRandom.nextInt(15)) + " " + title() + ".flac"))
+            .append(",\"label\":").append(quote(title()))
+            .append(",\"songid\":").append(id)
+            .append(",\"title\":").append(quote(title()))
+            .append('}');
+  }
+
+  private void appendSearchItem(StringBuilder out, String itemsKey, int id)
+  {
+    String title = title();
+    if (itemsKey.equals("artists"))
+    {
+      out.append("{\"art\":{\"fanart\":").append(art("music", title, "fanart.jpg"))
+              .append(",\"thumb\":").append(art("music", title, "artist.jpg"))
+              .append("},\"artist\":").append(quote(title))
+              .append(",\"artistid\":").append(id)
+              .append(",\"description\":").append(quote(sentence(20)))
+              .append(",\"label\":").append(quote(title))
+              .append('}');
+      return;
+    }
+
+    String idKey = itemsKey.equals("movies") ? "movieid" : itemsKey.equals("tvshows") ? "tvshowid" : "albumid";
+    String subtitleKey = itemsKey.equals("movies") ? "tagline" : itemsKey.equals("tvshows") ? "plot" : "displayartist";
+    out.append("{\"art\":{\"fanart\":").append(art("library", title, "fanart.jpg"))
+            .append(",\"poster\":").append(art("library", title, "poster.jpg"))
+            .append("},\"label\":").append(quote(title))
+            .append(",\"").append(idKey).append("\":").append(id)
+            .append(",\"").append(subtitleKey).append("\":").append(quote(sentence(8)))
+            .append(",\"title\":").append(quote(title))
+            .append(",\"year\":").append(1950 + mRandom.nextInt(75))
+            .append('}');
+  }
+
+  /**
+   * @return the date an item was added, later for the higher ids as in a real library.
+   */
+  private static String dateAdded(int id)
+  {
+    return String.format("%04d-%02d-%02d 21:04:33", 2000 + id / 4000 % 25, 1 + id / 300 % 12, 1 + id / 10 % 28);
+  }
+
+  private String title()
+  {
+    int words = 1 + mRandom.nextInt(4);
+    StringBuilder title = new StringBuilder();
+    for (int i = 0; i < words; ++i)
+    {
+      String word = WORDS[mRandom.nextInt(WORDS.length)];
+      if (i > 0)
+        title.append(' ');
+      title.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+    }
+    if (mRandom.nextInt(3) == 0)
+      title.append(' ').append(2 + mRandom.nextInt(8));
+    return title.toString();
+  }
+
+  private String sentence(int words)
+  {
+    StringBuilder sentence = new StringBuilder(words * 6);
+    for (int i = 0; i < words; ++i)
+    {
+      if (i > 0)
+        sentence.append(' ');
+      sentence.append(WORDS[mRandom.nextInt(WORDS.length)]);
+    }
+    return sentence.append('.').toString();
+  }
+
+  /**
+   * @return an art URL the way Kodi writes them: the URL encoded path, wrapped.
+   */
+  private static String art(String root, String folder, String file)
+  {
+    String path = "smb://nas/" + root + "/" + folder + "/" + file;
+    StringBuilder encoded = new StringBuilder("image://");
+    for (int i = 0; i < path.length(); ++i)
+    {
+      char c = path.charAt(i);
+      if (Character.isLetterOrDigit(c) || c == '.' || c == '-' || c == '_')
+        encoded.append(c);
+      else
+        encoded.append('%').append(String.format("%02x", (int) c));
+    }
+    return quote(encoded.append('/').toString());
+  }
+
+  private static String quote(String value)
+  {
+    return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+  }
+}
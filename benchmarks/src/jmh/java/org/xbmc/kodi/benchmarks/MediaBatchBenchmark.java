@@ -0,0 +1,99 @@
+package org.xbmc.kodi.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xbmc.kodi.jsonrpc.JsonMediaMapper;
+import org.xbmc.kodi.jsonrpc.RequestBuilder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The details lookups of getMedias for a whole library: the batch requests alone, and
+ * the round trip through an in-memory transport, parsing and mapping included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MediaBatchBenchmark
+{
+  // the default xbmc.mediaChunkSize
+  static final int CHUNK_SIZE = 20;
+
+  @Param({"1000", "10000", "50000"})
+  public int size;
+
+  private String[] mMediaTypes;
+  private int[] mIds;
+  private JsonMediaMapper mMapper;
+  private ReplayTransport mTransport;
+
+  @Setup
+  public void setUp()
+  {
+    mMapper = new JsonMediaMapper((url) -> MediaMapperBenchmark.CONTENT_URI + url);
+    mMediaTypes = new String[size];
+    mIds = new int[size];
+    // a mixed playlist, episodes first as in most libraries
+    for (int i = 0; i < size; ++i)
+    {
+      int kind = i % 10;
+      mMediaTypes[i] = kind < 5 ? Fixtures.EPISODE : kind < 8 ? Fixtures.MOVIE : Fixtures.SONG;
+      mIds[i] = i + 1;
+    }
+
+    Fixtures fixtures = new Fixtures(size);
+    mTransport = new ReplayTransport();
+    for (int start = 0; start < size; start += CHUNK_SIZE)
+    {
+      int end = Math.min(start + CHUNK_SIZE, size);
+      StringBuilder response = new StringBuilder("[");
+      for (int i = start; i < end; ++i)
+      {
+        if (i > start)
+          response.append(',');
+        response.append(fixtures.detailsResponse(mMediaTypes[i], mIds[i], i - start + 1));
+      }
+      mTransport.record(buildBatch(start, end), response.append(']').toString());
+    }
+  }
+
+  /**
+   * Same as XBMCJsonRPC.getMediasChunk: request i of the batch has id i + 1.
+   */
+  private String buildBatch(int start, int end)
+  {
+    RequestBuilder builder = RequestBuilder.obtain().beginBatch();
+    for (int i = start; i < end; ++i)
+      JsonMediaMapper.appendDetailsRequest(builder, mMediaTypes[i], mIds[i], i - start + 1);
+    return builder.endBatch().build();
+  }
+
+  @Benchmark
+  public void buildDetailsBatches(Blackhole blackhole)
+  {
+    for (int start = 0; start < size; start += CHUNK_SIZE)
+      blackhole.consume(buildBatch(start, Math.min(start + CHUNK_SIZE, size)));
+  }
+
+  @Benchmark
+  public void getMedias(Blackhole blackhole) throws IOException
+  {
+    for (int start = 0; start < size; start += CHUNK_SIZE)
+    {
+      int end = Math.min(start + CHUNK_SIZE, size);
+      String response = mTransport.request(buildBatch(start, end));
+      blackhole.consume(mMapper.readDetailsBatch(new StringReader(response),
+              Arrays.copyOfRange(mMediaTypes, start, end)));
+    }
+  }
+}
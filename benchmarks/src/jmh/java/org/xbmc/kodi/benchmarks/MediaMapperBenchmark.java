@@ -0,0 +1,104 @@
+package org.xbmc.kodi.benchmarks;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xbmc.kodi.jsonrpc.JsonMediaMapper;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps a whole library of details to the model classes, as done for every program of
+ * a channel: reading included, the mapping being done as the details are read.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MediaMapperBenchmark
+{
+  static final String CONTENT_URI = "content://org.xbmc.kodi.file/";
+
+  @Param({"1000", "10000", "50000"})
+  public int size;
+
+  private JsonMediaMapper mMapper;
+  private String[] mMovies;
+  private String[] mEpisodes;
+  private String[] mSongs;
+  private JsonObject[] mMovieTrees;
+
+  @Setup
+  public void setUp()
+  {
+    // the app resolves into content URIs of the file provider
+    mMapper = new JsonMediaMapper((url) -> CONTENT_URI + url);
+
+    Fixtures fixtures = new Fixtures(size);
+    mMovies = generate(fixtures, Fixtures.MOVIE);
+    mEpisodes = generate(fixtures, Fixtures.EPISODE);
+    mSongs = generate(fixtures, Fixtures.SONG);
+
+    mMovieTrees = new JsonObject[size];
+    for (int i = 0; i < size; ++i)
+      mMovieTrees[i] = JsonParser.parseString(mMovies[i]).getAsJsonObject();
+  }
+
+  private String[] generate(Fixtures fixtures, String mediaType)
+  {
+    String[] details = new String[size];
+    for (int i = 0; i < size; ++i)
+      details[i] = fixtures.details(mediaType, i + 1);
+    return details;
+  }
+
+  private void read(String[] details, String mediaType, Blackhole blackhole) throws IOException
+  {
+    for (String item : details)
+      blackhole.consume(mMapper.readMedia(new JsonReader(new StringReader(item)), mediaType));
+  }
+
+  @Benchmark
+  public void readMovie(Blackhole blackhole) throws IOException
+  {
+    read(mMovies, Fixtures.MOVIE, blackhole);
+  }
+
+  @Benchmark
+  public void readTVEpisode(Blackhole blackhole) throws IOException
+  {
+    read(mEpisodes, Fixtures.EPISODE, blackhole);
+  }
+
+  @Benchmark
+  public void readSong(Blackhole blackhole) throws IOException
+  {
+    read(mSongs, Fixtures.SONG, blackhole);
+  }
+
+  /**
+   * The lookups of a movie in a parsed tree, as still done by the leanback
+   * recommendations: poster, the thumb it falls back to, and fanart.
+   */
+  @Benchmark
+  public void extractKeyFromArtMap(Blackhole blackhole)
+  {
+    for (JsonObject details : mMovieTrees)
+    {
+      blackhole.consume(JsonMediaMapper.extractKeyFromArtMap(details, "poster"));
+      blackhole.consume(JsonMediaMapper.extractKeyFromArtMap(details, "thumb"));
+      blackhole.consume(JsonMediaMapper.extractKeyFromArtMap(details, "fanart"));
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package org.xbmc.kodi.benchmarks;
+
+import org.xbmc.kodi.jsonrpc.JsonRpcTransport;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stands in for the native _requestJSON: answers the requests recorded beforehand from
+ * memory, so that a benchmark only measures the Java side.
+ */
+final class ReplayTransport implements JsonRpcTransport
+{
+  private final Map<String, String> mResponses = new HashMap<>();
+
+  void record(String request, String response)
+  {
+    mResponses.put(request, response);
+  }
+
+  int size()
+  {
+    return mResponses.size();
+  }
+
+  @Override
+  public String request(String jsonRequest) throws IOException
+  {
+    String response = mResponses.get(jsonRequest);
+    if (response == null)
+      throw new IOException("ReplayTransport: no response recorded for " + jsonRequest);
+    return response;
+  }
+}
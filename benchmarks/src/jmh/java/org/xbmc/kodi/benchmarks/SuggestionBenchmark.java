@@ -0,0 +1,75 @@
+package org.xbmc.kodi.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xbmc.kodi.jsonrpc.SearchResponseReader;
+import org.xbmc.kodi.jsonrpc.SuggestionContext;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the suggestion rows of a query from the response to the suggestion batch, and
+ * from the previous rows when the query is typed further.
+ *
+ * <p>Kodi returns at most 10 items per request whatever the size of the library, see
+ * {@link TitleIndexBenchmark} for the library wide index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SuggestionBenchmark
+{
+  // as in XBMCJsonRPC
+  private static final String[] REQUEST_IDS = { "1", "2", "3", "4", "5", "6" };
+  private static final int[] FIELDS =
+  {
+    SuggestionContext.FIELDS_TITLE | SuggestionContext.FIELDS_ORIGINAL_TITLE | SuggestionContext.FIELDS_SET,
+    SuggestionContext.FIELDS_TITLE | SuggestionContext.FIELDS_ORIGINAL_TITLE,
+    SuggestionContext.FIELDS_TITLE | SuggestionContext.FIELDS_LABEL,
+    SuggestionContext.FIELDS_TITLE,
+    SuggestionContext.FIELDS_NONE,
+    SuggestionContext.FIELDS_NONE
+  };
+  // the actor/director requests only narrow when they found nothing
+  private static final int[] HITS = { 10, 7, 4, 2, 0, 0 };
+
+  private String mBatch;
+  private SuggestionContext mContext;
+
+  @Setup
+  public void setUp() throws IOException
+  {
+    mBatch = new Fixtures(HITS.length).suggestionBatch(REQUEST_IDS, HITS);
+    mContext = new SuggestionContext();
+  }
+
+  private SuggestionContext.Result collect(String query) throws IOException
+  {
+    SuggestionContext.Collector collector = mContext.new Collector(query, REQUEST_IDS, FIELDS);
+    SearchResponseReader.readBatch(new StringReader(mBatch), collector);
+    return collector.commit();
+  }
+
+  @Benchmark
+  public SuggestionContext.Result readSuggestionBatch() throws IOException
+  {
+    return collect("th");
+  }
+
+  /**
+   * A query typed further: the rows of the next query are narrowed from those read.
+   */
+  @Benchmark
+  public SuggestionContext.Result narrowSuggestions() throws IOException
+  {
+    collect("th");
+    return mContext.narrow("the");
+  }
+}
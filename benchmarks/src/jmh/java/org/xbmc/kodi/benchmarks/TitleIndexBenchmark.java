@@ -0,0 +1,108 @@
+package org.xbmc.kodi.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xbmc.kodi.jsonrpc.SearchHit;
+import org.xbmc.kodi.jsonrpc.TitleIndex;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The suggestions of a library wide query: building the title index from the library
+ * pages, bringing it up to date after a notification, and querying it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TitleIndexBenchmark
+{
+  // the page size of the index
+  private static final int PAGE_SIZE = 1000;
+
+  @Param({"1000", "10000", "50000"})
+  public int size;
+
+  // the movie pages by start, the other types are empty
+  private final Map<Integer, String> mPages = new HashMap<>();
+  // the movie notified as updated
+  private String mDetails;
+  private TitleIndex mIndex;
+
+  @Setup
+  public void setUp()
+  {
+    Fixtures fixtures = new Fixtures(size);
+    for (int start = 0; start < size; start += PAGE_SIZE)
+      mPages.put(start, fixtures.moviePage(start, Math.min(start + PAGE_SIZE, size), size));
+    mDetails = "[" + fixtures.detailsResponse(Fixtures.MOVIE, 1, 1) + "]";
+
+    mIndex = build();
+    if (mIndex.size() != size)
+      throw new IllegalStateException("TitleIndexBenchmark: indexed " + mIndex.size() + " of " + size);
+  }
+
+  /**
+   * Stands in for the transport: answers a page request from memory. Nothing was added
+   * since the index was built.
+   */
+  private String page(String request)
+  {
+    if (request.contains("\"VideoLibrary.GetMovieDetails\""))
+      return mDetails;
+    if (request.contains("\"filter\"") && request.contains("\"VideoLibrary.GetMovies\""))
+      return Fixtures.emptyPage("movies");
+    if (request.contains("\"VideoLibrary.GetTVShows\""))
+      return Fixtures.emptyPage("tvshows");
+    if (request.contains("\"AudioLibrary.GetAlbums\""))
+      return Fixtures.emptyPage("albums");
+    if (request.contains("\"AudioLibrary.GetArtists\""))
+      return Fixtures.emptyPage("artists");
+
+    int from = request.indexOf("\"start\":") + 8;
+    int to = from;
+    while (Character.isDigit(request.charAt(to)))
+      ++to;
+    return mPages.get(Integer.parseInt(request.substring(from, to)));
+  }
+
+  private TitleIndex build()
+  {
+    TitleIndex index = new TitleIndex();
+    // runs the build on this thread
+    index.refresh(this::page, Runnable::run);
+    return index;
+  }
+
+  @Benchmark
+  public TitleIndex buildTitleIndex()
+  {
+    return build();
+  }
+
+  /**
+   * The steady state: a movie was updated, e.g. played, only its details are asked.
+   */
+  @Benchmark
+  public TitleIndex syncTitleIndex()
+  {
+    mIndex.onNotification("VideoLibrary.OnUpdate",
+            "{\"jsonrpc\":\"2.0\",\"method\":\"VideoLibrary.OnUpdate\",\"params\":{\"data\":{\"item\":{\"id\":1,\"type\":\"movie\"},\"playcount\":1},\"sender\":\"xbmc\"}}");
+    mIndex.refresh(this::page, Runnable::run);
+    return mIndex;
+  }
+
+  @Benchmark
+  public List<SearchHit> searchTitleIndex()
+  {
+    return mIndex.search("ri", 10);
+  }
+}
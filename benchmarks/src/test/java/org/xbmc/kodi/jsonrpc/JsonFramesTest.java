@@ -0,0 +1,95 @@
+package org.xbmc.kodi.jsonrpc;
+
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JsonFramesTest
+{
+  @Test
+  public void splitsConcatenatedMessages() throws IOException
+  {
+    JsonFrames.FrameReader frames = new JsonFrames.FrameReader(
+            new StringReader(" {\"id\":1}\n[{\"id\":2},{\"id\":3}]{\"s\":\"}]\\\"{\"} "));
+    StringBuilder message = new StringBuilder();
+    assertTrue(frames.next(message));
+    assertEquals("{\"id\":1}", message.toString());
+    assertTrue(frames.next(message));
+    assertEquals("[{\"id\":2},{\"id\":3}]", message.toString());
+    assertTrue(frames.next(message));
+    assertEquals("{\"s\":\"}]\\\"{\"}", message.toString());
+    assertFalse(frames.next(message));
+  }
+
+  @Test
+  public void joinsMessagesSplitAcrossReads() throws IOException
+  {
+    // one char per read, even within escapes
+    JsonFrames.FrameReader frames = new JsonFrames.FrameReader(
+            new TrickleReader("{\"a\":\"x\\\"}\",\"b\":[1,{}]}{\"c\":2}"));
+    StringBuilder message = new StringBuilder();
+    assertTrue(frames.next(message));
+    assertEquals("{\"a\":\"x\\\"}\",\"b\":[1,{}]}", message.toString());
+    assertTrue(frames.next(message));
+    assertEquals("{\"c\":2}", message.toString());
+    assertFalse(frames.next(message));
+  }
+
+  @Test(expected = EOFException.class)
+  public void failsOnATruncatedMessage() throws IOException
+  {
+    new JsonFrames.FrameReader(new StringReader("{\"id\":1,\"result\":[")).next(new StringBuilder());
+  }
+
+  @Test
+  public void findsTheMembersOfEveryEnvelope()
+  {
+    String batch = "[{\"jsonrpc\":\"2.0\",\"params\":{\"id\":9},\"id\":\"a\"}, {\"id\" : 12,\"method\":\"X\"}]";
+    int[] spans = JsonFrames.findMembers(batch, "id");
+    assertEquals(4, spans.length);
+    assertEquals("\"a\"", batch.substring(spans[0], spans[1]));
+    assertEquals("12", batch.substring(spans[2], spans[3]));
+    assertEquals("a", JsonFrames.unquote(batch, spans[0], spans[1]));
+  }
+
+  @Test
+  public void ignoresKeysWithinValues()
+  {
+    String message = "{\"method\":\"VideoLibrary.OnUpdate\",\"params\":{\"data\":{\"id\":5}},\"text\":\"\\\"id\\\":7\"}";
+    assertEquals(0, JsonFrames.findMembers(message, "id").length);
+    int[] method = JsonFrames.findMembers(message, "method");
+    assertEquals("VideoLibrary.OnUpdate", JsonFrames.unquote(message, method[0], method[1]));
+  }
+
+  private static final class TrickleReader extends Reader
+  {
+    private final String mText;
+    private int mPosition = 0;
+
+    TrickleReader(String text)
+    {
+      mText = text;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length)
+    {
+      if (mPosition == mText.length())
+        return -1;
+      buffer[offset] = mText.charAt(mPosition++);
+      return 1;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+  }
+}
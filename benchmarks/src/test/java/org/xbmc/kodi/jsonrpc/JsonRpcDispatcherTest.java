@@ -0,0 +1,192 @@
+package org.xbmc.kodi.jsonrpc;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JsonRpcDispatcherTest
+{
+  private static final long NO_AGING_MS = 60 * 1000;
+
+  @Test
+  public void boundsTheCallsOfALane() throws Exception
+  {
+    JsonRpcDispatcher dispatcher = new JsonRpcDispatcher(4, new int[]{ 4, 2, 2 }, NO_AGING_MS);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger running = new AtomicInteger(0);
+    Future<?> last = null;
+    for (int i = 0; i < 4; ++i)
+      last = dispatcher.submit(JsonRpcDispatcher.LANE_BACKGROUND, () -> block(running, release));
+    Thread.sleep(100);
+    assertEquals(2, running.get());
+    assertEquals(2, dispatcher.getQueueDepth(JsonRpcDispatcher.LANE_BACKGROUND));
+
+    // the other lanes still run
+    assertEquals("ok", dispatcher.submit(JsonRpcDispatcher.LANE_INTERACTIVE, () -> "ok").get(5, TimeUnit.SECONDS));
+
+    release.countDown();
+    last.get(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void boundsTheCallsOfAllLanes() throws Exception
+  {
+    JsonRpcDispatcher dispatcher = new JsonRpcDispatcher(3, new int[]{ 3, 2, 2 }, NO_AGING_MS);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger running = new AtomicInteger(0);
+    Future<?> last = null;
+    for (int lane = 0; lane < 3; ++lane)
+    {
+      for (int i = 0; i < 2; ++i)
+        last = dispatcher.submit(lane, () -> block(running, release));
+    }
+    Thread.sleep(100);
+    assertEquals(3, running.get());
+
+    release.countDown();
+    last.get(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void runsTheMostUrgentLaneFirst() throws Exception
+  {
+    JsonRpcDispatcher dispatcher = new JsonRpcDispatcher(1, new int[]{ 1, 1, 1 }, NO_AGING_MS);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<String> order = new CopyOnWriteArrayList<>();
+    dispatcher.submit(JsonRpcDispatcher.LANE_NORMAL, () -> block(new AtomicInteger(), release));
+    Future<?> background = dispatcher.submit(JsonRpcDispatcher.LANE_BACKGROUND, () -> order.add("background"));
+    dispatcher.submit(JsonRpcDispatcher.LANE_INTERACTIVE, () -> order.add("interactive"));
+
+    release.countDown();
+    background.get(5, TimeUnit.SECONDS);
+    assertEquals("interactive", order.get(0));
+    assertEquals("background", order.get(1));
+  }
+
+  @Test
+  public void agesTheWaitingCalls() throws Exception
+  {
+    JsonRpcDispatcher dispatcher = new JsonRpcDispatcher(1, new int[]{ 1, 1, 1 }, 20);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<String> order = new CopyOnWriteArrayList<>();
+    dispatcher.submit(JsonRpcDispatcher.LANE_NORMAL, () -> block(new AtomicInteger(), release));
+    Future<?> background = dispatcher.submit(JsonRpcDispatcher.LANE_BACKGROUND, () -> order.add("background"));
+    // more than a lane of urgency gained
+    Thread.sleep(200);
+    Future<?> normal = dispatcher.submit(JsonRpcDispatcher.LANE_NORMAL, () -> order.add("normal"));
+
+    release.countDown();
+    background.get(5, TimeUnit.SECONDS);
+    normal.get(5, TimeUnit.SECONDS);
+    assertEquals("background", order.get(0));
+    assertEquals("normal", order.get(1));
+  }
+
+  @Test
+  public void neverAgesAboveTheInteractiveLane() throws Exception
+  {
+    JsonRpcDispatcher dispatcher = new JsonRpcDispatcher(1, new int[]{ 1, 1, 1 }, 20);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<String> order = new CopyOnWriteArrayList<>();
+    dispatcher.submit(JsonRpcDispatcher.LANE_NORMAL, () -> block(new AtomicInteger(), release));
+    Future<?> background = dispatcher.submit(JsonRpcDispatcher.LANE_BACKGROUND, () -> order.add("background"));
+    Thread.sleep(200);
+    dispatcher.submit(JsonRpcDispatcher.LANE_INTERACTIVE, () -> order.add("interactive"));
+
+    release.countDown();
+    background.get(5, TimeUnit.SECONDS);
+    assertEquals("interactive", order.get(0));
+    assertEquals("background", order.get(1));
+  }
+
+  @Test
+  public void startsInteractiveCallsWhileTheOtherLanesAreBusy() throws Exception
+  {
+    JsonRpcDispatcher dispatcher = JsonRpcDispatcher.get();
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger running = new AtomicInteger(0);
+    try
+    {
+      // leanback and sync calls stalled, more of them waiting
+      for (int i = 0; i < 4; ++i)
+      {
+        dispatcher.submit(JsonRpcDispatcher.LANE_NORMAL, () -> block(running, release));
+        dispatcher.submit(JsonRpcDispatcher.LANE_BACKGROUND, () -> block(running, release));
+      }
+      Thread.sleep(100);
+      assertEquals(5, running.get());
+
+      long begin = System.nanoTime();
+      assertEquals("ok", dispatcher.submit(JsonRpcDispatcher.LANE_INTERACTIVE, () -> "ok").get(5, TimeUnit.SECONDS));
+      assertTrue((System.nanoTime() - begin) / 1000000L < 1000);
+    }
+    finally
+    {
+      release.countDown();
+    }
+  }
+
+  @Test
+  public void dropsTheCallsCancelledWhileQueued() throws Exception
+  {
+    JsonRpcDispatcher dispatcher = new JsonRpcDispatcher(1, new int[]{ 1, 1, 1 }, NO_AGING_MS);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger ran = new AtomicInteger(0);
+    dispatcher.submit(JsonRpcDispatcher.LANE_NORMAL, () -> block(new AtomicInteger(), release));
+    Future<?> cancelled = dispatcher.submit(JsonRpcDispatcher.LANE_NORMAL, ran::incrementAndGet);
+    cancelled.cancel(false);
+    Future<?> last = dispatcher.submit(JsonRpcDispatcher.LANE_NORMAL, () -> "ok");
+
+    release.countDown();
+    last.get(5, TimeUnit.SECONDS);
+    assertEquals(0, ran.get());
+  }
+
+  @Test
+  public void rejectsCallsBeyondTheQueueSize() throws Exception
+  {
+    JsonRpcDispatcher dispatcher = new JsonRpcDispatcher(1, new int[]{ 1, 1, 1 }, NO_AGING_MS);
+    final CountDownLatch release = new CountDownLatch(1);
+    dispatcher.submit(JsonRpcDispatcher.LANE_BACKGROUND, () -> block(new AtomicInteger(), release));
+    for (int i = 0; i < JsonRpcDispatcher.QUEUE_SIZE; ++i)
+      dispatcher.submit(JsonRpcDispatcher.LANE_BACKGROUND, () -> "queued");
+    try
+    {
+      dispatcher.submit(JsonRpcDispatcher.LANE_BACKGROUND, () -> "rejected");
+      fail("the lane is full");
+    }
+    catch (RejectedExecutionException e)
+    {
+      // expected
+    }
+    finally
+    {
+      release.countDown();
+    }
+    assertTrue(dispatcher.toString().contains("background"));
+  }
+
+  private static Object block(AtomicInteger running, CountDownLatch release)
+  {
+    running.incrementAndGet();
+    try
+    {
+      release.await();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+    return null;
+  }
+}
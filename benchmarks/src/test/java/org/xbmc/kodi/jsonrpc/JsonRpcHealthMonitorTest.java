@@ -0,0 +1,129 @@
+package org.xbmc.kodi.jsonrpc;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JsonRpcHealthMonitorTest
+{
+  @Test
+  public void opensAfterConsecutiveFailuresOnly()
+  {
+    JsonRpcHealthMonitor health = new JsonRpcHealthMonitor();
+    health.reportSuccess();
+    for (int i = 1; i < JsonRpcHealthMonitor.FAILURE_THRESHOLD; ++i)
+      health.reportFailure();
+    // e.g. a call which overran its deadline
+    assertTrue(health.allowRequest());
+    assertEquals(JsonRpcHealthMonitor.STATE_UP, health.getState());
+
+    health.reportSuccess();
+    for (int i = 1; i < JsonRpcHealthMonitor.FAILURE_THRESHOLD; ++i)
+      health.reportFailure();
+    assertTrue(health.allowRequest());
+
+    health.reportFailure();
+    assertEquals(JsonRpcHealthMonitor.STATE_DOWN, health.getState());
+    assertFalse(health.allowRequest());
+    assertTrue(health.isOpen());
+  }
+
+  @Test
+  public void letsASingleProbeThroughWhenHalfOpen() throws Exception
+  {
+    final JsonRpcHealthMonitor health = new JsonRpcHealthMonitor();
+    open(health);
+    Thread.sleep(JsonRpcHealthMonitor.MIN_RETRY_MS + 100);
+
+    assertFalse(health.isOpen());
+    assertTrue(health.allowRequest());
+    // the same caller may go on, e.g. from the probe to the request
+    assertTrue(health.allowRequest());
+    ExecutorService others = Executors.newSingleThreadExecutor();
+    try
+    {
+      assertFalse(others.submit(health::allowRequest).get(5, TimeUnit.SECONDS));
+      assertTrue(others.submit(health::isOpen).get(5, TimeUnit.SECONDS));
+
+      health.reportSuccess();
+      assertTrue(others.submit(health::allowRequest).get(5, TimeUnit.SECONDS));
+    }
+    finally
+    {
+      others.shutdownNow();
+    }
+  }
+
+  @Test
+  public void reopensWhenTheProbeFails() throws Exception
+  {
+    JsonRpcHealthMonitor health = new JsonRpcHealthMonitor();
+    open(health);
+    Thread.sleep(JsonRpcHealthMonitor.MIN_RETRY_MS + 100);
+
+    assertTrue(health.allowRequest());
+    health.reportFailure();
+    assertFalse(health.allowRequest());
+    // the retry delay doubled
+    Thread.sleep(JsonRpcHealthMonitor.MIN_RETRY_MS + 100);
+    assertFalse(health.allowRequest());
+  }
+
+  @Test
+  public void countsAFailedProbeOnce() throws Exception
+  {
+    final JsonRpcHealthMonitor health = new JsonRpcHealthMonitor();
+    open(health);
+    Thread.sleep(JsonRpcHealthMonitor.MIN_RETRY_MS + 100);
+
+    assertTrue(health.allowRequest());
+    assertTrue(health.isProbing());
+    // the request of the probe reports the failure itself
+    assertFalse(health.check(() ->
+    {
+      health.reportFailure();
+      return health.isProbing();
+    }));
+    assertFalse(health.isProbing());
+    // opened once more only: the retry delay doubled, not quadrupled
+    Thread.sleep(2 * JsonRpcHealthMonitor.MIN_RETRY_MS + 100);
+    assertTrue(health.allowRequest());
+  }
+
+  @Test
+  public void doesNotProbeWhileOpen()
+  {
+    JsonRpcHealthMonitor health = new JsonRpcHealthMonitor();
+    final AtomicInteger probes = new AtomicInteger(0);
+    // a failed probe opens the circuit at once
+    assertFalse(health.check(() -> probes.incrementAndGet() < 0));
+    assertEquals(JsonRpcHealthMonitor.STATE_DOWN, health.getState());
+
+    assertFalse(health.check(() -> probes.incrementAndGet() > 0));
+    assertEquals(1, probes.get());
+  }
+
+  @Test
+  public void trustsTheStatusWhileValid()
+  {
+    JsonRpcHealthMonitor health = new JsonRpcHealthMonitor();
+    final AtomicInteger probes = new AtomicInteger(0);
+    assertTrue(health.check(() -> probes.incrementAndGet() > 0));
+    assertTrue(health.check(() -> probes.incrementAndGet() > 0));
+    assertEquals(1, probes.get());
+  }
+
+  private static void open(JsonRpcHealthMonitor health)
+  {
+    for (int i = 0; i < JsonRpcHealthMonitor.FAILURE_THRESHOLD; ++i)
+      health.reportFailure();
+    assertEquals(JsonRpcHealthMonitor.STATE_DOWN, health.getState());
+  }
+}
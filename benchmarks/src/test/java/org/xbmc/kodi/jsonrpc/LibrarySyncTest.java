@@ -0,0 +1,148 @@
+package org.xbmc.kodi.jsonrpc;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LibrarySyncTest
+{
+  private final List<String> mRequests = new ArrayList<>();
+  private String mAllMovies;
+  private String mAddedMovies;
+  private boolean mDown = false;
+
+  private final Function<String, String> mTransport = (request) -> {
+    if (mDown)
+      return null;
+    mRequests.add(request);
+    if (!request.contains("VideoLibrary.GetMovies"))
+      return "{\"id\":\"index\",\"jsonrpc\":\"2.0\",\"result\":{\"limits\":{\"start\":0,\"end\":0,\"total\":0}}}";
+    return request.contains("\"filter\"") ? mAddedMovies : mAllMovies;
+  };
+
+  @Before
+  public void setUp()
+  {
+    mAllMovies = movies(movie(1, "Alien", "2024-03-01 08:00:00"), movie(2, "Brazil", "2024-03-10 12:00:00"));
+    mAddedMovies = movies();
+  }
+
+  @Test
+  public void startsFromTheDayBeforeTheWatermark()
+  {
+    assertEquals("2024-03-09", LibrarySync.dayBefore("2024-03-10 12:00:00"));
+    assertEquals("2024-02-29", LibrarySync.dayBefore("2024-03-01"));
+    assertEquals("2023-12-31", LibrarySync.dayBefore("2024-01-01 00:00:00"));
+    assertNull(LibrarySync.dayBefore(null));
+    assertNull(LibrarySync.dayBefore("2024-03"));
+    assertNull(LibrarySync.dayBefore("2024-02-30"));
+    assertNull(LibrarySync.dayBefore("not a date"));
+  }
+
+  @Test
+  public void keepsTheLatestDateAdded()
+  {
+    List<SearchHit> items = Arrays.asList(
+            hit(1, "2024-03-01 08:00:00"), hit(2, null), hit(3, ""), hit(4, "2024-03-10 12:00:00"));
+    assertEquals("2024-03-10 12:00:00", LibrarySync.watermarkOf(items, null));
+    assertEquals("2024-03-10 12:00:00", LibrarySync.watermarkOf(items, "2024-02-01 00:00:00"));
+    assertEquals("2025-01-01 00:00:00", LibrarySync.watermarkOf(items, "2025-01-01 00:00:00"));
+    assertNull(LibrarySync.watermarkOf(new ArrayList<SearchHit>(), null));
+  }
+
+  @Test
+  public void fetchesOnlyWhatWasAddedOnceSynced()
+  {
+    MemoryLibraryStore store = new MemoryLibraryStore();
+    LibrarySync sync = new LibrarySync(store);
+    assertTrue(sync.sync(SearchHit.TYPE_MOVIE, mTransport));
+    assertEquals(2, store.getItems(SearchHit.TYPE_MOVIE).size());
+    assertEquals("2024-03-10 12:00:00", store.getWatermark(SearchHit.TYPE_MOVIE));
+    assertFalse(sync.isPending(SearchHit.TYPE_MOVIE));
+
+    mRequests.clear();
+    mAddedMovies = movies(movie(2, "Brazil", "2024-03-10 12:00:00"), movie(3, "Casablanca", "2024-03-11 09:30:00"));
+    sync.onNotification("VideoLibrary.OnScanFinished", "{\"jsonrpc\":\"2.0\",\"method\":\"VideoLibrary.OnScanFinished\"}");
+    assertTrue(sync.isPending(SearchHit.TYPE_MOVIE));
+    assertTrue(sync.sync(SearchHit.TYPE_MOVIE, mTransport));
+
+    assertEquals(1, mRequests.size());
+    assertTrue(mRequests.get(0), mRequests.get(0).contains("\"value\":\"2024-03-09\""));
+    assertEquals(3, store.getItems(SearchHit.TYPE_MOVIE).size());
+    assertEquals("2024-03-11 09:30:00", store.getWatermark(SearchHit.TYPE_MOVIE));
+  }
+
+  @Test
+  public void listsAStoreOfAPreviousRunInFull()
+  {
+    MemoryLibraryStore store = new MemoryLibraryStore();
+    assertTrue(new LibrarySync(store).sync(SearchHit.TYPE_MOVIE, mTransport));
+
+    // scraped again while the app did not run: same id, same date
+    mAllMovies = movies(movie(1, "Aliens", "2024-03-01 08:00:00"), movie(2, "Brazil", "2024-03-10 12:00:00"));
+    mRequests.clear();
+    assertTrue(new LibrarySync(store).sync(SearchHit.TYPE_MOVIE, mTransport));
+
+    assertEquals(1, mRequests.size());
+    assertFalse(mRequests.get(0), mRequests.get(0).contains("\"filter\""));
+    assertEquals("Aliens", store.getItems(SearchHit.TYPE_MOVIE).get(0).getTitle());
+  }
+
+  @Test
+  public void dropsTheItemsNotifiedRemoved()
+  {
+    MemoryLibraryStore store = new MemoryLibraryStore();
+    LibrarySync sync = new LibrarySync(store);
+    assertTrue(sync.sync(SearchHit.TYPE_MOVIE, mTransport));
+
+    sync.onNotification("VideoLibrary.OnRemove",
+            "{\"jsonrpc\":\"2.0\",\"method\":\"VideoLibrary.OnRemove\",\"params\":{\"data\":{\"id\":1,\"type\":\"movie\"}}}");
+    assertTrue(sync.sync(SearchHit.TYPE_MOVIE, mTransport));
+    List<SearchHit> items = store.getItems(SearchHit.TYPE_MOVIE);
+    assertEquals(1, items.size());
+    assertEquals(2, items.get(0).getId());
+  }
+
+  @Test
+  public void staysPendingWhenKodiDoesNotAnswer()
+  {
+    MemoryLibraryStore store = new MemoryLibraryStore();
+    LibrarySync sync = new LibrarySync(store);
+    mDown = true;
+    assertFalse(sync.sync(SearchHit.TYPE_MOVIE, mTransport));
+    assertTrue(sync.isPending(SearchHit.TYPE_MOVIE));
+    assertNull(store.getWatermark(SearchHit.TYPE_MOVIE));
+
+    mDown = false;
+    assertTrue(sync.sync(SearchHit.TYPE_MOVIE, mTransport));
+    assertEquals(2, store.getItems(SearchHit.TYPE_MOVIE).size());
+  }
+
+  private static String movie(long id, String title, String dateAdded)
+  {
+    return "{\"movieid\":" + id + ",\"label\":\"" + title + "\",\"title\":\"" + title + "\",\"dateadded\":\"" + dateAdded + "\"}";
+  }
+
+  private static String movies(String... movies)
+  {
+    return "{\"id\":\"index\",\"jsonrpc\":\"2.0\",\"result\":{\"limits\":{\"start\":0,\"end\":" + movies.length
+            + ",\"total\":" + movies.length + "},\"movies\":[" + String.join(",", movies) + "]}}";
+  }
+
+  private static SearchHit hit(long id, String dateAdded)
+  {
+    SearchHit hit = new SearchHit(SearchHit.TYPE_MOVIE);
+    hit.setId(id);
+    hit.setDateAdded(dateAdded);
+    return hit;
+  }
+}
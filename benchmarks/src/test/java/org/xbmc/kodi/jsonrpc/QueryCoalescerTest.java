@@ -0,0 +1,126 @@
+package org.xbmc.kodi.jsonrpc;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class QueryCoalescerTest
+{
+  @Test
+  public void runsTheNewestQueryOfABurst() throws Exception
+  {
+    final QueryCoalescer<String> coalescer = new QueryCoalescer<>(200);
+    final AtomicInteger runs = new AtomicInteger(0);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try
+    {
+      Future<String> first = executor.submit(() -> coalescer.execute("st", (query) -> {
+        runs.incrementAndGet();
+        return query;
+      }));
+      Thread.sleep(50);
+      Future<String> second = executor.submit(() -> coalescer.execute("star", (query) -> {
+        runs.incrementAndGet();
+        return query;
+      }));
+
+      assertEquals("star", first.get(5, TimeUnit.SECONDS));
+      assertEquals("star", second.get(5, TimeUnit.SECONDS));
+      assertEquals(1, runs.get());
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void supersededCallerWaitsNoLongerThanItsDeadline() throws Exception
+  {
+    final QueryCoalescer<String> coalescer = new QueryCoalescer<>(20);
+    final CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try
+    {
+      Future<String> superseded = executor.submit(() -> Deadline.after(300).run(
+              () -> coalescer.execute("st", (query) -> query)));
+      Thread.sleep(5);
+      // the newest query runs long
+      Future<String> newest = executor.submit(() -> coalescer.execute("star", (query) -> {
+        await(release);
+        return query;
+      }));
+
+      long begin = System.nanoTime();
+      try
+      {
+        superseded.get(5, TimeUnit.SECONDS);
+        fail("the superseded caller must time out");
+      }
+      catch (ExecutionException e)
+      {
+        assertTrue(e.getCause() instanceof JsonRpcTimeoutException);
+      }
+      assertTrue((System.nanoTime() - begin) / 1000000L < 2000);
+
+      release.countDown();
+      assertEquals("star", newest.get(5, TimeUnit.SECONDS));
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void cancelledCallerStopsWaiting() throws Exception
+  {
+    final QueryCoalescer<String> coalescer = new QueryCoalescer<>(20);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicBoolean cancelled = new AtomicBoolean(false);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try
+    {
+      Future<String> superseded = executor.submit(
+              () -> coalescer.execute("st", (query) -> query, cancelled::get, ""));
+      Thread.sleep(5);
+      Future<String> newest = executor.submit(() -> coalescer.execute("star", (query) -> {
+        await(release);
+        return query;
+      }));
+      Thread.sleep(100);
+      cancelled.set(true);
+
+      assertEquals("", superseded.get(5, TimeUnit.SECONDS));
+      release.countDown();
+      assertEquals("star", newest.get(5, TimeUnit.SECONDS));
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void await(CountDownLatch latch)
+  {
+    try
+    {
+      latch.await();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package org.xbmc.kodi.jsonrpc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class RequestTemplateTest
+{
+  private static final RequestTemplate OUTER = RequestTemplate.compile(
+          "{\"jsonrpc\":\"2.0\",\"method\":\"Files.GetDirectory\",\"params\":{\"directory\":\"%s\",%j,\"limits\":{\"end\":%d}},\"id\":1}");
+
+  @Test
+  public void bindsAConstantTemplate()
+  {
+    RequestTemplate bound = OUTER.bind(1, RequestTemplate.compile("\"media\":\"video\""));
+    assertEquals(2, bound.getSlotCount());
+    assertEquals("Files.GetDirectory", bound.getMethod());
+    assertEquals("{\"jsonrpc\":\"2.0\",\"method\":\"Files.GetDirectory\",\"params\":{\"directory\":\"a\\\"b\","
+                    + "\"media\":\"video\",\"limits\":{\"end\":5}},\"id\":1}",
+            RequestBuilder.obtain().begin(bound).arg("a\"b").arg(5).build());
+    assertLiteralCount(bound);
+  }
+
+  @Test
+  public void bindsATemplateWithSlots()
+  {
+    RequestTemplate bound = OUTER.bind(1, RequestTemplate.compile("\"media\":\"%s\",\"sort\":{\"limit\":%d}"));
+    assertEquals(4, bound.getSlotCount());
+    assertEquals("{\"jsonrpc\":\"2.0\",\"method\":\"Files.GetDirectory\",\"params\":{\"directory\":\"d\","
+                    + "\"media\":\"music\",\"sort\":{\"limit\":3},\"limits\":{\"end\":5}},\"id\":1}",
+            RequestBuilder.obtain().begin(bound).arg("d").arg("music").arg(3).arg(5).build());
+    assertLiteralCount(bound);
+  }
+
+  @Test
+  public void bindsEverySlotToAConstantRequest()
+  {
+    RequestTemplate bound = OUTER.bind(0, "d").bind(0, RequestTemplate.compile("\"media\":\"files\"")).bind(0, "7");
+    assertEquals(0, bound.getSlotCount());
+    assertEquals("{\"jsonrpc\":\"2.0\",\"method\":\"Files.GetDirectory\",\"params\":{\"directory\":\"d\","
+            + "\"media\":\"files\",\"limits\":{\"end\":7}},\"id\":1}", bound.request());
+    assertLiteralCount(bound);
+  }
+
+  /**
+   * A literal around every slot, none beyond.
+   */
+  private static void assertLiteralCount(RequestTemplate template)
+  {
+    for (int i = 0; i <= template.getSlotCount(); ++i)
+    {
+      if (template.literal(i) == null)
+        fail("no literal " + i);
+    }
+    try
+    {
+      template.literal(template.getSlotCount() + 1);
+      fail("a literal beyond the last slot");
+    }
+    catch (ArrayIndexOutOfBoundsException e)
+    {
+      // expected
+    }
+  }
+}
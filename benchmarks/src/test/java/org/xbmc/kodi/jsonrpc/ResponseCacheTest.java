@@ -0,0 +1,103 @@
+package org.xbmc.kodi.jsonrpc;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ResponseCacheTest
+{
+  private static final String MOVIES = "{\"jsonrpc\":\"2.0\",\"method\":\"VideoLibrary.GetMovies\",\"id\":1}";
+  private static final String ALBUMS = "{\"jsonrpc\":\"2.0\",\"method\":\"AudioLibrary.GetAlbums\",\"id\":2}";
+  private static final String PING = "{\"jsonrpc\":\"2.0\",\"method\":\"JSONRPC.Ping\",\"id\":3}";
+
+  private ResponseCache mCache;
+
+  @Before
+  public void setUp()
+  {
+    mCache = new ResponseCache(1024 * 1024)
+            .setTtl("VideoLibrary.GetMovies", 60000)
+            .setTtl("AudioLibrary.GetAlbums", 60000);
+  }
+
+  @Test
+  public void storesTheCacheableResponses()
+  {
+    mCache.put(MOVIES, "{\"result\":1}", mCache.getGeneration());
+    mCache.put(PING, "{\"result\":\"pong\"}", mCache.getGeneration());
+    mCache.put(ALBUMS, "{\"error\":{\"code\":-32602}}", mCache.getGeneration());
+
+    assertEquals("{\"result\":1}", mCache.get(MOVIES));
+    assertNull(mCache.get(PING));
+    assertNull(mCache.get(ALBUMS));
+  }
+
+  @Test
+  public void invalidatesByPrefix()
+  {
+    mCache.put(MOVIES, "{\"result\":1}", mCache.getGeneration());
+    mCache.put(ALBUMS, "{\"result\":2}", mCache.getGeneration());
+
+    mCache.onNotification("VideoLibrary.OnUpdate");
+    assertNull(mCache.get(MOVIES));
+    assertEquals("{\"result\":2}", mCache.get(ALBUMS));
+
+    mCache.invalidateAll();
+    assertNull(mCache.get(ALBUMS));
+    assertEquals(0, mCache.getBytes());
+  }
+
+  @Test
+  public void dropsResponsesRequestedBeforeAnInvalidation()
+  {
+    // the request is sent, then Kodi reports a change before the response is stored
+    long generation = mCache.getGeneration();
+    mCache.onNotification("VideoLibrary.OnRemove");
+    mCache.put(MOVIES, "{\"result\":\"stale\"}", generation);
+    assertNull(mCache.get(MOVIES));
+
+    mCache.put(MOVIES, "{\"result\":\"fresh\"}", mCache.getGeneration());
+    assertEquals("{\"result\":\"fresh\"}", mCache.get(MOVIES));
+  }
+
+  @Test
+  public void expiresAfterTheTtl() throws Exception
+  {
+    mCache.setTtl("VideoLibrary.GetMovies", 1);
+    mCache.put(MOVIES, "{\"result\":1}", mCache.getGeneration());
+    Thread.sleep(20);
+    assertNull(mCache.get(MOVIES));
+  }
+
+  @Test
+  public void evictsTheLeastRecentlyUsed()
+  {
+    // room for four of these entries
+    ResponseCache cache = new ResponseCache(2000).setTtl("VideoLibrary.GetMovies", 60000);
+    String response = "{\"result\":\"" + new String(new char[100]).replace('\0', 'x') + "\"}";
+    for (int id = 1; id <= 4; ++id)
+      cache.put(movies(id), response, cache.getGeneration());
+    cache.get(movies(1));
+    cache.put(movies(5), response, cache.getGeneration());
+
+    assertEquals(response, cache.get(movies(1)));
+    assertNull(cache.get(movies(2)));
+    assertEquals(4, cache.size());
+    assertEquals(1, cache.getEvictionCount());
+  }
+
+  @Test
+  public void readsTheMethodsOfABatch()
+  {
+    assertArrayEquals(new String[]{"VideoLibrary.GetMovies", "AudioLibrary.GetAlbums"},
+            ResponseCache.methodsOf("[" + MOVIES + "," + ALBUMS + "]"));
+  }
+
+  private static String movies(int id)
+  {
+    return MOVIES.replace("\"id\":1", "\"id\":" + id);
+  }
+}
@@ -0,0 +1,152 @@
+package org.xbmc.kodi.jsonrpc;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest
+{
+  @Test
+  public void sharesTheCallInFlight() throws Exception
+  {
+    final SingleFlight<Object> flights = new SingleFlight<>();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger calls = new AtomicInteger(0);
+    final Object result = new Object();
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try
+    {
+      Future<Object> leader = executor.submit(() -> flights.execute("key", () -> {
+        calls.incrementAndGet();
+        started.countDown();
+        await(release);
+        return result;
+      }));
+      started.await();
+      Future<Object> follower = executor.submit(() -> flights.execute("key", () -> {
+        calls.incrementAndGet();
+        return new Object();
+      }));
+      while (flights.getSharedCount() == 0)
+        Thread.sleep(1);
+      release.countDown();
+
+      assertSame(result, leader.get(5, TimeUnit.SECONDS));
+      assertSame(result, follower.get(5, TimeUnit.SECONDS));
+      assertEquals(1, calls.get());
+      assertEquals(1, flights.getCallCount());
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void forgetsCompletedCalls()
+  {
+    SingleFlight<String> flights = new SingleFlight<>();
+    assertEquals("a", flights.execute("key", () -> "a"));
+    assertEquals("b", flights.execute("key", () -> "b"));
+    assertEquals(2, flights.getCallCount());
+  }
+
+  @Test
+  public void sharesTheFailure() throws Exception
+  {
+    final SingleFlight<String> flights = new SingleFlight<>();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try
+    {
+      executor.submit(() -> flights.execute("key", () -> {
+        started.countDown();
+        await(release);
+        throw new IllegalStateException("failed");
+      }));
+      started.await();
+      Future<String> follower = executor.submit(() -> flights.execute("key", () -> "unused"));
+      while (flights.getSharedCount() == 0)
+        Thread.sleep(1);
+      release.countDown();
+
+      try
+      {
+        follower.get(5, TimeUnit.SECONDS);
+        fail("the failure of the call must be shared");
+      }
+      catch (ExecutionException e)
+      {
+        assertTrue(e.getCause() instanceof IllegalStateException);
+      }
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void followerWaitsNoLongerThanItsDeadline() throws Exception
+  {
+    final SingleFlight<String> flights = new SingleFlight<>();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(1);
+    try
+    {
+      // a slow call, e.g. on the background lane
+      Future<String> leader = executor.submit(() -> flights.execute("key", () -> {
+        started.countDown();
+        await(release);
+        return "late";
+      }));
+      started.await();
+
+      long begin = System.nanoTime();
+      try
+      {
+        Deadline.after(50).run(() -> flights.execute("key", () -> "unused"));
+        fail("the follower must time out");
+      }
+      catch (JsonRpcTimeoutException e)
+      {
+        long elapsedMs = (System.nanoTime() - begin) / 1000000L;
+        assertTrue("waited " + elapsedMs + "ms", elapsedMs < 2000);
+      }
+
+      // the call itself goes on for its own caller
+      release.countDown();
+      assertEquals("late", leader.get(5, TimeUnit.SECONDS));
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void await(CountDownLatch latch)
+  {
+    try
+    {
+      latch.await();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
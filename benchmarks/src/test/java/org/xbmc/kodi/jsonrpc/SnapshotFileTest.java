@@ -0,0 +1,107 @@
+package org.xbmc.kodi.jsonrpc;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotFileTest
+{
+  private File mFile;
+
+  @Before
+  public void setUp() throws IOException
+  {
+    mFile = File.createTempFile("snapshot", ".bin");
+  }
+
+  @After
+  public void tearDown()
+  {
+    mFile.delete();
+    new File(mFile.getPath() + ".tmp").delete();
+  }
+
+  @Test
+  public void readsBackWhatWasWritten()
+  {
+    assertTrue(new SnapshotFile.Writer()
+            .beginSection("movies", 3)
+            .add(1, "Am\u00e9lie", null)
+            .add(2L, "", "2024-03-10")
+            .beginSection("empty", 2)
+            .write(mFile));
+    assertFalse(new File(mFile.getPath() + ".tmp").exists());
+
+    SnapshotFile snapshot = SnapshotFile.open(mFile);
+    assertNotNull(snapshot);
+    SnapshotFile.Section movies = snapshot.getSection("movies");
+    assertEquals(3, movies.getFieldCount());
+    assertEquals(2, movies.size());
+    assertEquals(1, movies.getInt(0, 0, -1));
+    assertEquals("Am\u00e9lie", movies.getString(0, 1));
+    assertNull(movies.getString(0, 2));
+    assertEquals(2L, movies.getLong(1, 0, -1));
+    assertEquals("", movies.getString(1, 1));
+    assertEquals("2024-03-10", movies.getString(1, 2));
+    assertEquals(-1, movies.getInt(1, 2, -1));
+
+    assertEquals(0, snapshot.getSection("empty").size());
+    assertNull(snapshot.getSection("shows"));
+  }
+
+  @Test
+  public void replacesThePreviousFile()
+  {
+    assertTrue(new SnapshotFile.Writer().beginSection("a", 1).add("first").write(mFile));
+    assertTrue(new SnapshotFile.Writer().beginSection("a", 1).add("second").write(mFile));
+    assertEquals("second", SnapshotFile.open(mFile).getSection("a").getString(0, 0));
+  }
+
+  @Test
+  public void rejectsATruncatedFile() throws IOException
+  {
+    SnapshotFile.Writer writer = new SnapshotFile.Writer().beginSection("movies", 2);
+    for (int i = 0; i < 100; ++i)
+      writer.add(i, "Title " + i);
+    assertTrue(writer.write(mFile));
+    long length = mFile.length();
+
+    // cut at every kind of place: the header, a record table, the last record
+    for (long cut : new long[]{ 0, 6, 20, length / 3, length - 1 })
+    {
+      assertTrue(writer.write(mFile));
+      try (RandomAccessFile file = new RandomAccessFile(mFile, "rw"))
+      {
+        file.setLength(cut);
+      }
+      assertNull("cut at " + cut, SnapshotFile.open(mFile));
+    }
+  }
+
+  @Test
+  public void rejectsAnotherFile() throws IOException
+  {
+    try (RandomAccessFile file = new RandomAccessFile(mFile, "rw"))
+    {
+      file.writeBytes("not a snapshot at all");
+    }
+    assertNull(SnapshotFile.open(mFile));
+    assertNull(SnapshotFile.open(new File(mFile.getPath() + ".missing")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsARecordOfAnotherWidth()
+  {
+    new SnapshotFile.Writer().beginSection("a", 2).add("only one");
+  }
+}
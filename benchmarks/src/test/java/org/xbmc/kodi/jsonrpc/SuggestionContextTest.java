@@ -0,0 +1,46 @@
+package org.xbmc.kodi.jsonrpc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class SuggestionContextTest
+{
+  @Test
+  public void narrowsWhateverTheCaseOfTheQuery()
+  {
+    SuggestionContext context = new SuggestionContext();
+    fetch(context, "Star", "Star Wars", "Star Trek");
+
+    SuggestionContext.Result result = context.narrow("STAR W");
+    assertNotNull(result);
+    assertEquals("star w", result.getQuery());
+    assertEquals(1, result.getCategories().get(0).getHits().size());
+    assertEquals("Star Wars", result.getCategories().get(0).getHits().get(0).getTitle());
+  }
+
+  @Test
+  public void asksKodiForAQueryNotContainingTheLastOne()
+  {
+    SuggestionContext context = new SuggestionContext();
+    fetch(context, "star", "Star Wars");
+    assertNull(context.narrow("Wars"));
+  }
+
+  private static void fetch(SuggestionContext context, String query, String... titles)
+  {
+    SuggestionContext.Collector collector = context.new Collector(query, new String[]{"movies"},
+            new int[]{SuggestionContext.FIELDS_TITLE});
+    collector.beginResponse("movies");
+    for (String title : titles)
+    {
+      SearchHit hit = new SearchHit(SearchHit.TYPE_MOVIE);
+      hit.setTitle(title);
+      collector.onHit("movies", hit);
+    }
+    collector.endResponse("movies", titles.length);
+    collector.commit();
+  }
+}
@@ -0,0 +1,248 @@
+package org.xbmc.kodi.jsonrpc;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the transport against a stub of the Kodi TCP port on the loopback interface.
+ */
+public class TcpTransportTest
+{
+  private StubServer mServer;
+  private TcpTransport mTransport;
+  private ExecutorService mCallers;
+
+  @Before
+  public void setUp() throws IOException
+  {
+    mServer = new StubServer();
+    mTransport = new TcpTransport("127.0.0.1", mServer.getPort(), 5000);
+    mCallers = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void tearDown()
+  {
+    mCallers.shutdownNow();
+    mTransport.close();
+    mServer.close();
+  }
+
+  @Test
+  public void matchesOutOfOrderResponsesToTheirCallers() throws Exception
+  {
+    // both callers use the same id
+    Future<String> first = mCallers.submit(() -> mTransport.request("{\"method\":\"A\",\"id\":1}"));
+    String a = mServer.receive();
+    Future<String> second = mCallers.submit(() -> mTransport.request("{\"method\":\"B\",\"id\":1}"));
+    String b = mServer.receive();
+
+    String idA = idOf(a);
+    String idB = idOf(b);
+    assertFalse("the ids must be unique on the connection", idA.equals(idB));
+
+    mServer.send("{\"id\":" + idB + ",\"result\":\"b\"}");
+    mServer.send("{\"id\":" + idA + ",\"result\":\"a\"}");
+    assertEquals("{\"id\":1,\"result\":\"b\"}", second.get(5, TimeUnit.SECONDS));
+    assertEquals("{\"id\":1,\"result\":\"a\"}", first.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void restoresTheIdsOfABatch() throws Exception
+  {
+    Future<String> call = mCallers.submit(
+            () -> mTransport.request("[{\"method\":\"A\",\"id\":\"x\"},{\"method\":\"B\",\"id\":7}]"));
+    String batch = mServer.receive();
+    int[] spans = JsonFrames.findMembers(batch, "id");
+    assertEquals(4, spans.length);
+    String idA = batch.substring(spans[0], spans[1]);
+    String idB = batch.substring(spans[2], spans[3]);
+
+    mServer.send("[{\"id\":" + idB + ",\"result\":2},{\"id\":" + idA + ",\"result\":1}]");
+    assertEquals("[{\"id\":7,\"result\":2},{\"id\":\"x\",\"result\":1}]", call.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void readsResponsesSplitAcrossWrites() throws Exception
+  {
+    final BlockingQueue<String> notifications = new LinkedBlockingQueue<>();
+    mTransport.addListener((method, notification) -> notifications.add(method));
+    Future<String> call = mCallers.submit(() -> mTransport.request("{\"method\":\"A\",\"id\":3}"));
+    String id = idOf(mServer.receive());
+
+    String response = "{\"method\":\"VideoLibrary.OnScanStarted\"}{\"id\":" + id + ",\"result\":\"{[\\\"\"}";
+    int half = response.length() / 2;
+    mServer.send(response.substring(0, half));
+    Thread.sleep(50);
+    mServer.send(response.substring(half));
+
+    assertEquals("{\"id\":3,\"result\":\"{[\\\"\"}", call.get(5, TimeUnit.SECONDS));
+    assertEquals("VideoLibrary.OnScanStarted", notifications.poll(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void failsThePendingRequestsOnDisconnect() throws Exception
+  {
+    Future<String> call = mCallers.submit(() -> mTransport.request("{\"method\":\"A\",\"id\":1}"));
+    assertNotNull(mServer.receive());
+    mServer.close();
+
+    try
+    {
+      call.get(5, TimeUnit.SECONDS);
+      fail("the request must fail");
+    }
+    catch (ExecutionException e)
+    {
+      // sent, hence not to be sent again elsewhere
+      assertTrue(e.getCause() instanceof IOException);
+      assertFalse(e.getCause() instanceof ConnectException);
+    }
+  }
+
+  @Test
+  public void reportsAConnectFailure() throws Exception
+  {
+    int port = mServer.getPort();
+    mServer.close();
+    TcpTransport transport = new TcpTransport("127.0.0.1", port, 5000);
+    try
+    {
+      transport.request("{\"method\":\"A\",\"id\":1}");
+      fail("the connect must fail");
+    }
+    catch (ConnectException e)
+    {
+      // expected
+    }
+    // and fails fast until the retry delay passed
+    try
+    {
+      transport.request("{\"method\":\"A\",\"id\":1}");
+      fail("the connect must fail");
+    }
+    catch (ConnectException e)
+    {
+      // expected
+    }
+  }
+
+  @Test
+  public void waitsNoLongerThanTheDeadline() throws Exception
+  {
+    long begin = System.nanoTime();
+    IOException failure = Deadline.after(100).run(() -> {
+      try
+      {
+        mTransport.request("{\"method\":\"A\",\"id\":1}");
+        return null;
+      }
+      catch (IOException e)
+      {
+        return e;
+      }
+    });
+    long elapsedMs = (System.nanoTime() - begin) / 1000000L;
+    assertTrue(failure instanceof SocketTimeoutException);
+    assertTrue("waited " + elapsedMs + "ms", elapsedMs < 2000);
+  }
+
+  private static String idOf(String message)
+  {
+    int[] spans = JsonFrames.findMembers(message, "id");
+    assertEquals(2, spans.length);
+    return message.substring(spans[0], spans[1]);
+  }
+
+  /**
+   * Accepts one connection, queues the messages received and writes what it is told to.
+   */
+  private static final class StubServer
+  {
+    private final ServerSocket mServerSocket;
+    private final BlockingQueue<String> mReceived = new LinkedBlockingQueue<>();
+    private volatile Socket mSocket;
+
+    StubServer() throws IOException
+    {
+      mServerSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+      Thread thread = new Thread(this::serve, "StubServer");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    int getPort()
+    {
+      return mServerSocket.getLocalPort();
+    }
+
+    String receive() throws InterruptedException
+    {
+      String message = mReceived.poll(5, TimeUnit.SECONDS);
+      assertNotNull("no request received", message);
+      return message;
+    }
+
+    void send(String text) throws IOException
+    {
+      OutputStream out = mSocket.getOutputStream();
+      out.write(text.getBytes(StandardCharsets.UTF_8));
+      out.flush();
+    }
+
+    void close()
+    {
+      try
+      {
+        mServerSocket.close();
+        if (mSocket != null)
+          mSocket.close();
+      }
+      catch (IOException e)
+      {
+        e.printStackTrace();
+      }
+    }
+
+    private void serve()
+    {
+      try
+      {
+        mSocket = mServerSocket.accept();
+        JsonFrames.FrameReader frames = new JsonFrames.FrameReader(
+                new InputStreamReader(mSocket.getInputStream(), StandardCharsets.UTF_8));
+        StringBuilder message = new StringBuilder();
+        while (frames.next(message))
+          mReceived.add(message.toString());
+      }
+      catch (IOException e)
+      {
+        // closed by the test
+      }
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package org.xbmc.kodi.jsonrpc;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TitleIndexTest
+{
+  private TitleIndex mIndex;
+
+  @Before
+  public void setUp()
+  {
+    mIndex = new TitleIndex();
+    mIndex.seed(SearchHit.TYPE_MOVIE, Arrays.asList(
+            movie(1, "Lone Star", null),
+            movie(2, "Star Wars", null),
+            movie(3, "Starship Troopers", null),
+            movie(4, "Interstellar", null),
+            movie(5, "Le Fabuleux Destin d'Am\u00e9lie Poulain", "Am\u00e9lie")));
+    mIndex.seed(SearchHit.TYPE_TVSHOW, Collections.<SearchHit>emptyList());
+    mIndex.seed(SearchHit.TYPE_ALBUM, Collections.<SearchHit>emptyList());
+    mIndex.seed(SearchHit.TYPE_ARTIST, Collections.<SearchHit>emptyList());
+  }
+
+  @Test
+  public void ranksWordStartsFirst()
+  {
+    assertTrue(mIndex.isReady());
+    List<String> titles = titles(mIndex.search("star", 10));
+    assertEquals(Arrays.asList("Star Wars", "Starship Troopers", "Lone Star"), titles);
+  }
+
+  @Test
+  public void toleratesATypoInLongQueries()
+  {
+    assertEquals(Arrays.asList("Interstellar"), titles(mIndex.search("Interstelar", 10)));
+    assertEquals(Arrays.asList("Interstellar"), titles(mIndex.search("intarstellar", 10)));
+    // too many trigrams broken
+    assertEquals(0, mIndex.search("intrsetllar", 10).size());
+  }
+
+  @Test
+  public void matchesShortQueriesExactly()
+  {
+    assertEquals(0, mIndex.search("stra", 10).size());
+    assertEquals(Arrays.asList("Star Wars"), titles(mIndex.search("wa", 10)));
+  }
+
+  @Test
+  public void matchesOtherFieldsWithoutAccents()
+  {
+    assertEquals(Arrays.asList("Le Fabuleux Destin d'Am\u00e9lie Poulain"), titles(mIndex.search("AMELIE", 10)));
+    assertEquals("amelie the movie", TitleIndex.normalize("  Am\u00e9lie: the Movie!"));
+  }
+
+  @Test
+  public void returnsNoMoreThanTheLimit()
+  {
+    assertEquals(2, mIndex.search("star", 2).size());
+    assertEquals(0, mIndex.search("star", 0).size());
+    assertEquals(0, mIndex.search(" - ", 10).size());
+  }
+
+  private static SearchHit movie(long id, String title, String originalTitle)
+  {
+    SearchHit hit = new SearchHit(SearchHit.TYPE_MOVIE);
+    hit.setId(id);
+    hit.setTitle(title);
+    hit.setOriginalTitle(originalTitle);
+    return hit;
+  }
+
+  private static List<String> titles(List<SearchHit> hits)
+  {
+    List<String> titles = new ArrayList<>();
+    for (SearchHit hit : hits)
+      titles.add(hit.getTitle());
+    return titles;
+  }
+}
@@ -1,6 +1,9 @@
 package org.xbmc.kodi;
 
+import org.xbmc.kodi.channels.LibraryNotificationListener;
 import org.xbmc.kodi.channels.util.TvUtil;
+import org.xbmc.kodi.jsonrpc.JsonRpcDispatcher;
+import org.xbmc.kodi.jsonrpc.JsonRpcTimeoutException;
 
 import static android.content.pm.PackageManager.FEATURE_LEANBACK;
 
@@ -77,7 +80,15 @@ public class Main extends NativeActivity implements Choreographer.FrameCallback
       {
         public void run()
         {
-          mJsonRPC.updateLeanback(Main.this);
+          try
+          {
+            mJsonRPC.updateLeanback(Main.this);
+          }
+          catch (JsonRpcTimeoutException e)
+          {
+            // retried at the next refresh
+            Log.w(TAG, "Main: " + e.getMessage());
+          }
         }
       }.start();
       handler.postDelayed(this, XBMCProperties.getIntProperty("xbmc.leanbackrefresh", 60 * 60) * 1000L);
@@ -137,12 +148,14 @@ public class Main extends NativeActivity implements Choreographer.FrameCallback
           && mRecommendedLaunchers.contains(getLauncherName()))
       {
         TvUtil.scheduleSyncingChannel(this);
+        LibraryNotificationListener.start(this);
       }
       else if (Build.VERSION.SDK_INT < VERSION_CODES.O
                && getLauncherName().equals("com.google.android.leanbacklauncher"))
       {
         // Leanback
-        mJsonRPC = new XBMCJsonRPC(getApplicationContext());
+        mJsonRPC = new XBMCJsonRPC(getApplicationContext(), XBMCJsonRPC.TIMEOUT_LEANBACK_MS,
+                JsonRpcDispatcher.LANE_NORMAL);
         handler.removeCallbacks(leanbackUpdateRunnable);
         handler.postDelayed(leanbackUpdateRunnable, 30 * 1000);
       }
@@ -295,6 +308,7 @@ public class Main extends NativeActivity implements Choreographer.FrameCallback
   @Override
   public void onDestroy()
   {
+    LibraryNotificationListener.stop();
     TvUtil.cancelAllScheduledJobs(this);
 
     // unregister the InputDeviceListener implementation
@@ -1,18 +1,34 @@
 package org.xbmc.kodi;
 
+import java.io.IOException;
+import java.net.ConnectException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
-import android.app.SearchManager;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
@@ -21,23 +37,50 @@ import android.database.MatrixCursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.provider.BaseColumns;
 import android.util.Log;
 
 import org.xbmc.kodi.content.XBMCFileContentProvider;
-import org.xbmc.kodi.model.Album;
+import org.xbmc.kodi.content.XBMCLibraryDatabase;
+import org.xbmc.kodi.content.XBMCSuggestionCursor;
+import org.xbmc.kodi.jsonrpc.ChunkedBatch;
+import org.xbmc.kodi.jsonrpc.Deadline;
+import org.xbmc.kodi.jsonrpc.DirectoryPage;
+import org.xbmc.kodi.jsonrpc.JsonMediaMapper;
+import org.xbmc.kodi.jsonrpc.JsonRpcDispatcher;
+import org.xbmc.kodi.jsonrpc.JsonRpcExecutor;
+import org.xbmc.kodi.jsonrpc.JsonRpcHealthMonitor;
+import org.xbmc.kodi.jsonrpc.JsonRpcMetrics;
+import org.xbmc.kodi.jsonrpc.JsonRpcTimeoutException;
+import org.xbmc.kodi.jsonrpc.JsonRpcTransport;
+import org.xbmc.kodi.jsonrpc.LibrarySync;
+import org.xbmc.kodi.jsonrpc.RequestBuilder;
+import org.xbmc.kodi.jsonrpc.RequestTemplate;
+import org.xbmc.kodi.jsonrpc.ResponseCache;
+import org.xbmc.kodi.jsonrpc.SearchHit;
+import org.xbmc.kodi.jsonrpc.SearchResponseReader;
+import org.xbmc.kodi.jsonrpc.SingleFlight;
+import org.xbmc.kodi.jsonrpc.SnapshotFile;
+import org.xbmc.kodi.jsonrpc.SuggestionContext;
+import org.xbmc.kodi.jsonrpc.TcpTransport;
+import org.xbmc.kodi.jsonrpc.TitleIndex;
+import org.xbmc.kodi.jsonrpc.Utf8BufferReader;
 import org.xbmc.kodi.model.File;
 import org.xbmc.kodi.model.Media;
-import org.xbmc.kodi.model.Movie;
-import org.xbmc.kodi.model.MusicVideo;
-import org.xbmc.kodi.model.Song;
-import org.xbmc.kodi.model.TVEpisode;
-import org.xbmc.kodi.model.TVShow;
 
 public class XBMCJsonRPC
 {
   native String _requestJSON(String request);
 
+  /**
+   * Same as _requestJSON, with the response as UTF-8 bytes in a direct buffer from
+   * position 0 to its limit, or null. The memory belongs to the buffer, i.e. it is
+   * freed once the buffer is collected; the native side keeps no reference to it.
+   */
+  native ByteBuffer _requestJSONBuffer(String request);
+
   public final static String APP_NAME = "Kodi Search";
   public final static String COLUMN_FULL_PATH = "COLUMN_FULL_PATH";
   public final static String COLUMN_BASE_PATH = "COLUMN_BASE_PATH";
@@ -58,107 +101,634 @@ public class XBMCJsonRPC
   public final static String REQ_ID_SHOWS_ACTOR = "6";
 
   private final static int MAX_ITEMS = 20;
+  // the search requests ask for as many of each type
+  private final static int MAX_SEARCH_HITS = 10;
+
+  // request timeouts by caller: the search runs on binder threads of the launcher
+  public final static long TIMEOUT_INTERACTIVE_MS = 5 * 1000;
+  public final static long TIMEOUT_LEANBACK_MS = 30 * 1000;
+  public final static long TIMEOUT_SYNC_MS = 60 * 1000;
+  private final static long DEFAULT_TIMEOUT_MS = 30 * 1000;
+  private final static int DEFAULT_MAX_MEDIAS = 100;
+  private final static int DEFAULT_MEDIA_CHUNK_SIZE = 20;
+  private final static int MEDIA_PARALLELISM = 3;
 
   private static String TAG = "Kodi";
 
-  private String m_xbmc_web_url = "http://localhost:8080";
+  private final JsonRpcTransport mNativeTransport = this::_requestJSON;
+  private JsonRpcTransport mTransport = mNativeTransport;
   private HashSet<Integer> mRecomendationIds = new HashSet<Integer>();
   private XBMCTextureCache mTextureCache = null;
+  private final JsonMediaMapper mMediaMapper = new JsonMediaMapper(this::getImageUrl);
+  private boolean mUseTitleIndex = true;
+  private final long mTimeoutMs;
+  private final int mLane;
 
   private int MAX_RECOMMENDATIONS = 3;
 
-  private String GET_VERSION =
-          "{ \"jsonrpc\": \"2.0\", \"method\": \"JSONRPC.Version\", \"id\": 1 }";
-  private String RECOMMENDATION_MOVIES_JSON =
+  private final static RequestTemplate GET_VERSION = RequestTemplate.compile(
+          "{ \"jsonrpc\": \"2.0\", \"method\": \"JSONRPC.Version\", \"id\": 1 }");
+  private final static RequestTemplate RECOMMENDATION_MOVIES_JSON = RequestTemplate.compile(
                   "{\"jsonrpc\": \"2.0\", \"method\": \"VideoLibrary.GetMovies\", "
                   + "\"params\": { \"filter\": {\"field\": \"playcount\", \"operator\": \"is\", \"value\": \"0\"}, "
                   + "\"limits\": { \"start\" : 0, \"end\": 10}, "
                   + "\"properties\" : [\"imdbnumber\", \"title\", \"tagline\", \"art\", \"year\", \"runtime\", \"file\", \"plot\", \"rating\"], "
                   + "\"sort\": { \"order\": \"descending\", \"method\": \"random\", \"ignorearticle\": true } }, "
-                  + "\"id\": \"1\"}";
+                  + "\"id\": \"1\"}");
 
-  private String RECOMMENDATIONS_SHOWS_JSON =
-                 "{\"jsonrpc\":\"2.0\",\"method\":\"VideoLibrary.GetTVShows\",\"params\":{\"filter\":{\"and\":[{\"field\":\"playcount\",\"operator\":\"is\",\"value\":\"0\"},{\"field\":\"plot\",\"operator\":\"isnot\",\"value\":\"\"}]},\"limits\":{\"start\":0,\"end\":10},\"properties\":[\"imdbnumber\",\"title\",\"plot\",\"art\",\"studio\", \"year\", \"rating\"],\"sort\":{\"order\":\"descending\",\"method\":\"lastplayed\",\"ignorearticle\":true}},\"id\":\"1\"}";
+  private final static RequestTemplate RECOMMENDATIONS_SHOWS_JSON = RequestTemplate.compile(
+                 "{\"jsonrpc\":\"2.0\",\"method\":\"VideoLibrary.GetTVShows\",\"params\":{\"filter\":{\"and\":[{\"field\":\"playcount\",\"operator\":\"is\",\"value\":\"0\"},{\"field\":\"plot\",\"operator\":\"isnot\",\"value\":\"\"}]},\"limits\":{\"start\":0,\"end\":10},\"properties\":[\"imdbnumber\",\"title\",\"plot\",\"art\",\"studio\", \"year\", \"rating\"],\"sort\":{\"order\":\"descending\",\"method\":\"lastplayed\",\"ignorearticle\":true}},\"id\":\"1\"}");
 
-  private String RECOMMENDATIONS_ALBUMS_JSON =
-                 "{\"jsonrpc\": \"2.0\", \"method\": \"AudioLibrary.GetAlbums\", \"params\": { \"limits\": { \"start\" : 0, \"end\": 3}, \"properties\" : [\"title\", \"displayartist\", \"art\"], \"sort\": { \"order\": \"descending\", \"method\": \"random\", \"ignorearticle\": true } }, \"id\": \"1\"}";
+  private final static RequestTemplate RECOMMENDATIONS_ALBUMS_JSON = RequestTemplate.compile(
+                 "{\"jsonrpc\": \"2.0\", \"method\": \"AudioLibrary.GetAlbums\", \"params\": { \"limits\": { \"start\" : 0, \"end\": 3}, \"properties\" : [\"title\", \"displayartist\", \"art\"], \"sort\": { \"order\": \"descending\", \"method\": \"random\", \"ignorearticle\": true } }, \"id\": \"1\"}");
 
-  private String SEARCH_MOVIES_JSON =
+  private final static RequestTemplate SEARCH_MOVIES_JSON = RequestTemplate.compile(
                   "{\"jsonrpc\": \"2.0\", \"method\": \"VideoLibrary.GetMovies\", "
-                  + "\"params\": { \"filter\": {%s}, "
+                  + "\"params\": { \"filter\": {%j}, "
                   + "\"limits\": { \"start\" : 0, \"end\": 10}, "
-                  + "\"properties\" : [\"imdbnumber\", \"title\", \"tagline\", \"art\", \"year\", \"runtime\"], "
+                  + "\"properties\" : [\"imdbnumber\", \"title\", \"originaltitle\", \"set\", \"tagline\", \"art\", \"year\", \"runtime\"], "
                   + "\"sort\": { \"order\": \"ascending\", \"method\": \"title\", \"ignorearticle\": true } }, "
-                  + "\"id\": \"%s\"}";
+                  + "\"id\": \"%s\"}");
+
+  private final static RequestTemplate SEARCH_SHOWS_JSON = RequestTemplate.compile(
+           "{\"jsonrpc\":\"2.0\",\"method\":\"VideoLibrary.GetTVShows\",\"params\":{\"filter\":{%j},\"limits\":{\"start\":0,\"end\":10},\"properties\":[\"imdbnumber\",\"title\",\"originaltitle\",\"plot\",\"art\",\"year\"],\"sort\":{\"order\":\"descending\",\"method\":\"lastplayed\",\"ignorearticle\":true}},\"id\":\"%s\"}");
+
+  private final static RequestTemplate SEARCH_ALBUMS_JSON = RequestTemplate.compile(
+                 "{\"jsonrpc\": \"2.0\", \"method\": \"AudioLibrary.GetAlbums\", \"params\": {\"filter\":{%j},\"limits\": { \"start\" : 0, \"end\": 10}, \"properties\" : [\"title\", \"displayartist\", \"albumlabel\", \"art\"], \"sort\": { \"order\": \"descending\", \"method\": \"dateadded\", \"ignorearticle\": true } }, \"id\": \"%s\"}");
+
+  private final static RequestTemplate SEARCH_ARTISTS_JSON = RequestTemplate.compile(
+                 "{\"jsonrpc\": \"2.0\", \"method\": \"AudioLibrary.GetArtists\", \"params\": {\"filter\":{%j},\"limits\": { \"start\" : 0, \"end\": 10}, \"properties\" : [\"description\", \"art\"], \"sort\": { \"order\": \"descending\", \"method\": \"dateadded\", \"ignorearticle\": true } }, \"id\": \"%s\"}");
+
+  private final static RequestTemplate RETRIEVE_FILE_ITEMS = RequestTemplate.compile(
+          "{ \"jsonrpc\": \"2.0\", \"method\": \"Files.GetDirectory\", \"params\": { \"directory\" : \"%s\" }, \"id\": \"%s\" }");
+
+  private final static RequestTemplate RETRIEVE_FILE_PAGE = RequestTemplate.compile(
+          "{ \"jsonrpc\": \"2.0\", \"method\": \"Files.GetDirectory\", \"params\": { \"directory\" : \"%s\", \"limits\": { \"start\": %d, \"end\": %d } }, \"id\": \"1\" }");
+
+  private final static RequestTemplate FILTER_MOVIES = RequestTemplate.compile(
+          "\"or\": [" +
+          "{\"operator\": \"contains\", \"field\": \"title\", \"value\": \"%s\"}," +
+          "{\"operator\": \"contains\", \"field\": \"originaltitle\", \"value\": \"%s\"}," +
+          "{\"operator\": \"contains\", \"field\": \"set\", \"value\": \"%s\"}]");
+
+  private final static RequestTemplate FILTER_SHOWS = RequestTemplate.compile(
+          "\"or\": [" +
+          "{\"operator\": \"contains\", \"field\": \"title\", \"value\": \"%s\"}," +
+          "{\"operator\": \"contains\", \"field\": \"originaltitle\", \"value\": \"%s\"}]");
+
+  private final static RequestTemplate FILTER_ALBUMS = RequestTemplate.compile(
+          "\"or\": [" +
+          "{\"operator\": \"contains\", \"field\": \"album\", \"value\": \"%s\"}," +
+          "{\"operator\": \"contains\", \"field\": \"label\", \"value\": \"%s\"}]");
+
+  private final static RequestTemplate FILTER_ARTISTS = RequestTemplate.compile(
+          "\"operator\": \"contains\", \"field\": \"artist\", \"value\": \"%s\"");
+
+  private final static RequestTemplate FILTER_PEOPLE = RequestTemplate.compile(
+          "\"or\": [" +
+          "{\"operator\": \"contains\", \"field\": \"actor\", \"value\": \"%s\"}," +
+          "{\"operator\": \"contains\", \"field\": \"director\", \"value\": \"%s\"}]");
+
+  private final static RequestTemplate FILTER_MOVIES_ALL = RequestTemplate.compile(
+          "\"or\": [" +
+          "{\"operator\": \"contains\", \"field\": \"title\", \"value\": \"%s\"}," +
+          "{\"operator\": \"contains\", \"field\": \"originaltitle\", \"value\": \"%s\"}," +
+          "{\"operator\": \"contains\", \"field\": \"set\", \"value\": \"%s\"}," +
+          "{\"operator\": \"contains\", \"field\": \"actor\", \"value\": \"%s\"}," +
+          "{\"operator\": \"contains\", \"field\": \"director\", \"value\": \"%s\"}]");
+
+  private final static RequestTemplate FILTER_SHOWS_ALL = RequestTemplate.compile(
+          "\"or\": [" +
+          "{\"operator\": \"contains\", \"field\": \"title\", \"value\": \"%s\"}," +
+          "{\"operator\": \"contains\", \"field\": \"actor\", \"value\": \"%s\"}," +
+          "{\"operator\": \"contains\", \"field\": \"director\", \"value\": \"%s\"}]");
+
+  // Search requests, every remaining slot takes the query
+  private final static RequestTemplate SEARCH_MOVIES = SEARCH_MOVIES_JSON.bind(1, REQ_ID_MOVIES).bind(0, FILTER_MOVIES_ALL);
+  private final static RequestTemplate SEARCH_SHOWS = SEARCH_SHOWS_JSON.bind(1, REQ_ID_SHOWS).bind(0, FILTER_SHOWS_ALL);
+
+  private final static RequestTemplate SUGGEST_MOVIES = SEARCH_MOVIES_JSON.bind(1, REQ_ID_MOVIES).bind(0, FILTER_MOVIES);
+  private final static RequestTemplate SUGGEST_SHOWS = SEARCH_SHOWS_JSON.bind(1, REQ_ID_SHOWS).bind(0, FILTER_SHOWS);
+  private final static RequestTemplate SUGGEST_ALBUMS = SEARCH_ALBUMS_JSON.bind(1, REQ_ID_ALBUMS).bind(0, FILTER_ALBUMS);
+  private final static RequestTemplate SUGGEST_ARTISTS = SEARCH_ARTISTS_JSON.bind(1, REQ_ID_ARTISTS).bind(0, FILTER_ARTISTS);
+  private final static RequestTemplate SUGGEST_MOVIES_ACTOR = SEARCH_MOVIES_JSON.bind(1, REQ_ID_MOVIES_ACTOR).bind(0, FILTER_PEOPLE);
+  private final static RequestTemplate SUGGEST_SHOWS_ACTOR = SEARCH_SHOWS_JSON.bind(1, REQ_ID_SHOWS_ACTOR).bind(0, FILTER_PEOPLE);
+
+  // opened by the first instance, see openLibrary(). The index is built on the first
+  // suggestion query, see getSuggestions()
+  private static volatile TitleIndex sTitleIndex = null;
+  private static volatile XBMCLibraryDatabase sLibrary = null;
+
+  // the items of the title index as last synced, to answer at start before Kodi is up
+  private final static String SUGGESTIONS_SNAPSHOT = "suggestions.snapshot";
+  private final static String[] SNAPSHOT_SECTIONS = {"movies", "tvshows", "albums", "artists"};
+  private final static int SNAPSHOT_FIELDS = 11;
+  private static java.io.File sSnapshotFile = null;
+  private static boolean sSnapshotRestored = false;
+
+  // the requests of the suggestion batch and the fields their filters apply to
+  private final static String[] SUGGEST_REQUEST_IDS =
+  {
+    REQ_ID_MOVIES, REQ_ID_SHOWS, REQ_ID_ALBUMS, REQ_ID_ARTISTS, REQ_ID_MOVIES_ACTOR, REQ_ID_SHOWS_ACTOR
+  };
+  private final static int[] SUGGEST_FIELDS =
+  {
+    SuggestionContext.FIELDS_TITLE | SuggestionContext.FIELDS_ORIGINAL_TITLE | SuggestionContext.FIELDS_SET,
+    SuggestionContext.FIELDS_TITLE | SuggestionContext.FIELDS_ORIGINAL_TITLE,
+    SuggestionContext.FIELDS_TITLE | SuggestionContext.FIELDS_LABEL,
+    SuggestionContext.FIELDS_TITLE,
+    SuggestionContext.FIELDS_NONE,
+    SuggestionContext.FIELDS_NONE
+  };
 
-  private String SEARCH_SHOWS_JSON =
-           "{\"jsonrpc\":\"2.0\",\"method\":\"VideoLibrary.GetTVShows\",\"params\":{\"filter\":{%s},\"limits\":{\"start\":0,\"end\":10},\"properties\":[\"imdbnumber\",\"title\",\"plot\",\"art\",\"year\"],\"sort\":{\"order\":\"descending\",\"method\":\"lastplayed\",\"ignorearticle\":true}},\"id\":\"%s\"}";
+  private NotificationManager mNotificationManager;
 
-  private String SEARCH_ALBUMS_JSON =
-                 "{\"jsonrpc\": \"2.0\", \"method\": \"AudioLibrary.GetAlbums\", \"params\": {\"filter\":{%s},\"limits\": { \"start\" : 0, \"end\": 10}, \"properties\" : [\"title\", \"displayartist\", \"art\"], \"sort\": { \"order\": \"descending\", \"method\": \"dateadded\", \"ignorearticle\": true } }, \"id\": \"%s\"}";
+  // shared by all instances: the providers and the channel jobs each own one
+  private final static SingleFlight<String> sRequestFlights = new SingleFlight<>();
+  private final static SingleFlight<JsonElement> sParseFlights = new SingleFlight<>();
+  private final static SingleFlight<ByteBuffer> sBufferFlights = new SingleFlight<>();
+  // false once the native side turned out not to have _requestJSONBuffer
+  private static volatile boolean sNativeBuffers = true;
+  // one connection for the process
+  private static TcpTransport sTcpTransport = null;
+
+  private final static long CACHE_MAX_BYTES = 2 * 1024 * 1024;
+  private final static long LIST_TTL_MS = 10 * 60 * 1000;
+  private final static long DETAILS_TTL_MS = 30 * 60 * 1000;
+  private final static long DIRECTORY_TTL_MS = 2 * 60 * 1000;
+
+  // JSONRPC.Version and Player.* have no TTL: pings and player state are never cached
+  private final static ResponseCache sResponseCache = new ResponseCache(CACHE_MAX_BYTES)
+          .setTtl("VideoLibrary.GetMovies", LIST_TTL_MS)
+          .setTtl("VideoLibrary.GetTVShows", LIST_TTL_MS)
+          .setTtl("AudioLibrary.GetAlbums", LIST_TTL_MS)
+          .setTtl("AudioLibrary.GetArtists", LIST_TTL_MS)
+          .setTtl("VideoLibrary.GetMovieDetails", DETAILS_TTL_MS)
+          .setTtl("VideoLibrary.GetTVShowDetails", DETAILS_TTL_MS)
+          .setTtl("VideoLibrary.GetEpisodeDetails", DETAILS_TTL_MS)
+          .setTtl("VideoLibrary.GetMusicVideoDetails", DETAILS_TTL_MS)
+          .setTtl("AudioLibrary.GetAlbumDetails", DETAILS_TTL_MS)
+          .setTtl("AudioLibrary.GetSongDetails", DETAILS_TTL_MS)
+          .setTtl("Files.GetDirectory", DIRECTORY_TTL_MS);
 
-  private String SEARCH_ARTISTS_JSON =
-                 "{\"jsonrpc\": \"2.0\", \"method\": \"AudioLibrary.GetArtists\", \"params\": {\"filter\":{%s},\"limits\": { \"start\" : 0, \"end\": 10}, \"properties\" : [\"description\", \"art\"], \"sort\": { \"order\": \"descending\", \"method\": \"dateadded\", \"ignorearticle\": true } }, \"id\": \"%s\"}";
+  public XBMCJsonRPC(Context context)
+  {
+    this(context, DEFAULT_TIMEOUT_MS, JsonRpcDispatcher.LANE_NORMAL);
+  }
 
-  private String RETRIEVE_MOVIE_DETAILS =
-          "{ \"jsonrpc\": \"2.0\", \"method\": \"VideoLibrary.GetMovieDetails\", \"params\": { \"movieid\" : %s, \"properties\" : [\"imdbnumber\", \"title\", \"tagline\", \"art\", \"year\", \"runtime\", \"file\", \"plot\", \"trailer\", \"rating\"] }, \"id\": \"%s\" }";
+  /**
+   * @param timeoutMs how long a request may take when no {@link Deadline} is running,
+   *                  see the TIMEOUT_* defaults of the callers.
+   * @param lane      the {@link JsonRpcDispatcher} lane of the requests.
+   */
+  public XBMCJsonRPC(Context context, long timeoutMs, int lane)
+  {
+    mTimeoutMs = timeoutMs;
+    mLane = lane;
+    XBMCProperties.initialize(context);
+    if (XBMCProperties.getStringProperty("xbmc.jsonTransport", "native").equalsIgnoreCase("tcp"))
+      mTransport = getTcpTransport();
+    mUseTitleIndex = !XBMCProperties.getStringProperty("xbmc.titleIndex", "yes").equalsIgnoreCase("no");
+    openLibrary(context);
+    mTextureCache = new XBMCTextureCache();
+  }
 
-  private String RETRIEVE_EPISODE_DETAILS =
-          "{ \"jsonrpc\": \"2.0\", \"method\": \"VideoLibrary.GetEpisodeDetails\", \"params\": { \"episodeid\" : %s, \"properties\" : [\"title\", \"tvshowid\", \"showtitle\", \"season\", \"episode\", \"art\", \"file\", \"plot\", \"rating\", \"runtime\", \"firstaired\"] }, \"id\": \"%s\" }";
+  /**
+   * Concurrent callers with byte-identical requests share one native round trip. The
+   * parsed responses are shared too and must not be modified.
+   *
+   * @throws JsonRpcTimeoutException if the response did not come by the deadline.
+   */
+  public String request_string(final String jsonRequest)
+  {
+    String cached = sResponseCache.get(jsonRequest);
+    if (cached != null)
+      return cached;
 
-  private String RETRIEVE_TVSHOW_DETAILS =
-          "{ \"jsonrpc\": \"2.0\", \"method\": \"VideoLibrary.GetTVShowDetails\", \"params\": { \"tvshowid\" : %s, \"properties\" : [\"title\", \"studio\", \"art\", \"plot\", \"year\", \"rating\"] }, \"id\": \"%s\" }";
+    return sRequestFlights.execute(jsonRequest, () -> requestTransport(jsonRequest, true, mLane));
+  }
 
-  private String RETRIEVE_ALBUM_DETAILS =
-          "{ \"jsonrpc\": \"2.0\", \"method\": \"AudioLibrary.GetAlbumDetails\", \"params\": { \"albumid\" : %s, \"properties\" : [\"title\", \"displayartist\", \"art\",  \"artistid\"] }, \"id\": \"%s\" }";
+  /**
+   * Drops the cached responses made stale by a Kodi notification,
+   * e.g. "VideoLibrary.OnUpdate", and records the change for the title index.
+   *
+   * @param notification the whole notification.
+   */
+  public static void onLibraryNotification(String method, String notification)
+  {
+    sResponseCache.onNotification(method);
+    TitleIndex titleIndex = sTitleIndex;
+    if (titleIndex != null)
+      titleIndex.onNotification(method, notification);
+  }
 
-  private String RETRIEVE_SONG_DETAILS =
-          "{ \"jsonrpc\": \"2.0\", \"method\": \"AudioLibrary.GetSongDetails\", \"params\": { \"songid\" : %s, \"properties\" : [\"title\", \"displayartist\", \"art\", \"albumid\", \"artistid\", \"file\"] }, \"id\": \"%s\" }";
+  /**
+   * Has the title index rebuilt from the full library, the changes notified meanwhile
+   * being unknown, e.g. after a disconnection.
+   */
+  public static void onLibraryNotificationsMissed()
+  {
+    TitleIndex titleIndex = sTitleIndex;
+    if (titleIndex != null)
+      titleIndex.invalidate();
+  }
 
-  private String RETRIEVE_MUSICVIDEO_DETAILS =
-          "{ \"jsonrpc\": \"2.0\", \"method\": \"VideoLibrary.GetMusicVideoDetails\", \"params\": { \"musicvideoid\" : %s, \"properties\" : [\"title\", \"artist\", \"art\", \"file\"] }, \"id\": \"%s\" }";
+  /**
+   * Opens the library replica and the title index over it, unless xbmc.libraryReplica
+   * is "no": the index is then only held in memory. The database itself is only opened
+   * by the first sync or search, off the main thread.
+   */
+  public static synchronized void openLibrary(Context context)
+  {
+    if (sTitleIndex != null)
+      return;
 
-  private String RETRIEVE_FILE_ITEMS =
-          "{ \"jsonrpc\": \"2.0\", \"method\": \"Files.GetDirectory\", \"params\": { \"directory\" : \"%s\" }, \"id\": \"%s\" }";
+    XBMCProperties.initialize(context);
+    TitleIndex titleIndex;
+    if (!XBMCProperties.getStringProperty("xbmc.libraryReplica", "yes").equalsIgnoreCase("no"))
+    {
+      sLibrary = new XBMCLibraryDatabase(context.getApplicationContext());
+      titleIndex = new TitleIndex(new LibrarySync(sLibrary));
+    }
+    else
+      titleIndex = new TitleIndex();
 
-  private NotificationManager mNotificationManager;
+    if (!XBMCProperties.getStringProperty("xbmc.snapshot", "yes").equalsIgnoreCase("no")
+            && !XBMCProperties.getStringProperty("xbmc.titleIndex", "yes").equalsIgnoreCase("no"))
+    {
+      sSnapshotFile = new java.io.File(context.getApplicationContext().getFilesDir(), SUGGESTIONS_SNAPSHOT);
+      titleIndex.setOnSynced(XBMCJsonRPC::saveSnapshot);
+    }
+    sTitleIndex = titleIndex;
+  }
 
-  public XBMCJsonRPC(Context context)
+  /**
+   * Seeds the title index from the snapshot, once: the suggestions are answered from
+   * the moment the process starts, and reconciled by the sync once Kodi answers.
+   */
+  public static synchronized void restoreSnapshot()
   {
-    XBMCProperties.initialize(context);
-    String jsonPort = XBMCProperties.getStringProperty("xbmc.jsonPort", "8080");
-    m_xbmc_web_url = "http://localhost:" + jsonPort;
-    mTextureCache = new XBMCTextureCache();
+    if (sSnapshotRestored || sSnapshotFile == null)
+      return;
+    sSnapshotRestored = true;
+
+    SnapshotFile snapshot = SnapshotFile.open(sSnapshotFile);
+    if (snapshot == null)
+      return;
+
+    for (int type = 0; type < SNAPSHOT_SECTIONS.length; ++type)
+    {
+      SnapshotFile.Section section = snapshot.getSection(SNAPSHOT_SECTIONS[type]);
+      if (section == null || section.getFieldCount() != SNAPSHOT_FIELDS)
+        continue;
+
+      List<SearchHit> items = new ArrayList<>(section.size());
+      for (int i = 0; i < section.size(); ++i)
+      {
+        SearchHit item = new SearchHit(type);
+        item.setId(section.getLong(i, 0, -1));
+        item.setTitle(section.getString(i, 1));
+        item.setSubtitle(section.getString(i, 2));
+        item.setPoster(section.getString(i, 3));
+        item.setThumb(section.getString(i, 4));
+        item.setFanart(section.getString(i, 5));
+        item.setYear(section.getInt(i, 6, 0));
+        item.setRuntime(section.getLong(i, 7, 0));
+        item.setOriginalTitle(section.getString(i, 8));
+        item.setSet(section.getString(i, 9));
+        item.setLabel(section.getString(i, 10));
+        items.add(item);
+      }
+      sTitleIndex.seed(type, items);
+    }
+    Log.i(TAG, "XBMCJsonRPC: title index restored from snapshot, " + sTitleIndex.size() + " items");
+  }
+
+  /**
+   * Writes the items of the title index to the snapshot, once every type was indexed.
+   */
+  private static void saveSnapshot()
+  {
+    java.io.File file = sSnapshotFile;
+    if (file == null || !sTitleIndex.isReady())
+      return;
+
+    SnapshotFile.Writer writer = new SnapshotFile.Writer();
+    for (int type = 0; type < SNAPSHOT_SECTIONS.length; ++type)
+    {
+      writer.beginSection(SNAPSHOT_SECTIONS[type], SNAPSHOT_FIELDS);
+      for (SearchHit item : sTitleIndex.getItems(type))
+        writer.add(item.getId(), item.getTitle(), item.getSubtitle(), item.getPoster(), item.getThumb(),
+                item.getFanart(), item.getYear(), item.getRuntime(), item.getOriginalTitle(), item.getSet(),
+                item.getLabel());
+    }
+    if (!writer.write(file))
+      Log.w(TAG, "XBMCJsonRPC: cannot write " + file);
+  }
+
+  /**
+   * @return the library replica once it synced every media type, null before or if
+   * disabled.
+   */
+  private static XBMCLibraryDatabase syncedLibrary()
+  {
+    XBMCLibraryDatabase library = sLibrary;
+    return library != null && library.isSynced() ? library : null;
+  }
+
+  public static ResponseCache getResponseCache()
+  {
+    return sResponseCache;
+  }
+
+  /**
+   * @return the connection to the Kodi TCP port, carrying the notifications, and the
+   * requests too when xbmc.jsonTransport is "tcp". It is only opened on first use.
+   */
+  public static synchronized TcpTransport getTcpTransport()
+  {
+    if (sTcpTransport == null)
+    {
+      int port = XBMCProperties.getIntProperty("xbmc.jsonTcpPort", TcpTransport.DEFAULT_PORT);
+      sTcpTransport = new TcpTransport("localhost", port);
+    }
+    return sTcpTransport;
+  }
+
+  /**
+   * @return the TCP transport if it was created, null otherwise.
+   */
+  public static synchronized TcpTransport peekTcpTransport()
+  {
+    return sTcpTransport;
+  }
+
+  /**
+   * Runs the call off-thread and waits for it until the deadline of the running call, or
+   * the timeout of this instance. A call given up on still completes in the background,
+   * and fills the cache.
+   *
+   * @throws JsonRpcTimeoutException once the deadline passed.
+   */
+  private String requestTransport(final String jsonRequest, final boolean cache, int lane)
+  {
+    // read before the request: a library change meanwhile makes the response stale
+    final long generation = sResponseCache.getGeneration();
+    return dispatch(jsonRequest, lane, () -> {
+      String resp = send(jsonRequest);
+      if (cache)
+        sResponseCache.put(jsonRequest, resp, generation);
+      return resp;
+    }, String::length);
+  }
+
+  /**
+   * Same as {@link #requestTransport(String, boolean, int)}, with the response as UTF-8
+   * bytes. The response is not cached.
+   */
+  private ByteBuffer requestBuffer(final String jsonRequest, int lane)
+  {
+    return dispatch(jsonRequest, lane, () -> sendBuffer(jsonRequest), ByteBuffer::remaining);
+  }
+
+  private <V> V dispatch(String jsonRequest, int lane, Supplier<V> send, ToIntFunction<V> length)
+  {
+    JsonRpcHealthMonitor health = JsonRpcHealthMonitor.get();
+    if (!health.allowRequest())
+      return null;
+
+    Deadline deadline = Deadline.current();
+    if (deadline == null)
+      deadline = Deadline.after(mTimeoutMs);
+    if (deadline.isExpired())
+      throw new JsonRpcTimeoutException("XBMCJsonRPC: deadline passed before the request");
+
+    // measured from the caller, queueing included
+    long started = System.nanoTime();
+    V resp = null;
+    int outcome = JsonRpcMetrics.OUTCOME_ERROR;
+    Future<V> call;
+    try
+    {
+      // the transport waits no longer than the caller
+      final Deadline callDeadline = deadline;
+      call = JsonRpcDispatcher.get().submit(lane, () -> callDeadline.run(send));
+    }
+    catch (RejectedExecutionException e)
+    {
+      // the lane is full of calls waiting for Kodi: it is stalled
+      health.reportFailure();
+      record(jsonRequest, -1, started, JsonRpcMetrics.OUTCOME_TIMEOUT);
+      throw new JsonRpcTimeoutException("XBMCJsonRPC: too many stalled requests");
+    }
+
+    try
+    {
+      resp = call.get(deadline.remainingMs(), TimeUnit.MILLISECONDS);
+      if (resp != null)
+        outcome = JsonRpcMetrics.OUTCOME_OK;
+      else
+        reportUnanswered(health);
+      return resp;
+    }
+    catch (TimeoutException e)
+    {
+      // dropped if it is still queued
+      call.cancel(false);
+      Log.w(TAG, "XBMCJsonRPC: request timed out");
+      health.reportFailure();
+      outcome = JsonRpcMetrics.OUTCOME_TIMEOUT;
+      throw new JsonRpcTimeoutException("XBMCJsonRPC: no response by the deadline");
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      reportUnanswered(health);
+      return null;
+    }
+    catch (ExecutionException e)
+    {
+      Log.e(TAG, "XBMCJsonRPC: Failed to read JSON");
+      e.printStackTrace();
+      health.reportFailure();
+      return null;
+    }
+    finally
+    {
+      record(jsonRequest, resp != null ? length.applyAsInt(resp) : -1, started, outcome);
+    }
+  }
+
+  /**
+   * A probe let through by {@link JsonRpcHealthMonitor#allowRequest()} must report, or
+   * every other caller fails fast until it is taken as lost. The failures the transport
+   * reported already are not counted twice.
+   */
+  private static void reportUnanswered(JsonRpcHealthMonitor health)
+  {
+    if (health.isProbing())
+      health.reportFailure();
+  }
+
+  private static void record(String jsonRequest, int responseLength, long started, int outcome)
+  {
+    JsonRpcMetrics.get().recordRequest(JsonRpcMetrics.currentSite(), jsonRequest, responseLength,
+            System.nanoTime() - started, outcome);
   }
 
-  public String request_string(String jsonRequest)
+  private static void recordParse(String jsonRequest, long started)
   {
+    JsonRpcMetrics.get().recordParse(JsonRpcMetrics.currentSite(), jsonRequest, System.nanoTime() - started);
+  }
+
+  private String send(String jsonRequest)
+  {
+    JsonRpcHealthMonitor health = JsonRpcHealthMonitor.get();
     try
     {
-      return _requestJSON(jsonRequest);
+      String resp;
+      try
+      {
+        resp = mTransport.request(jsonRequest);
+      }
+      catch (ConnectException e)
+      {
+        // e.g. the TCP port is disabled in the Kodi settings. Only then: a request
+        // written to Kodi may have been run, and a timeout would last twice as long
+        Log.w(TAG, "XBMCJsonRPC: " + e.getMessage() + ", falling back to native");
+        resp = mNativeTransport.request(jsonRequest);
+      }
+      health.reportSuccess();
+      return resp;
     }
     catch (Exception e)
     {
+      // e.g. the TCP connection reset: counted like a timeout
       Log.e(TAG, "XBMCJsonRPC: Failed to read JSON");
       e.printStackTrace();
+      health.reportFailure();
       return null;
     }
     catch (UnsatisfiedLinkError e)
     {
       Log.e(TAG, "XBMCJsonRPC: _requestJSON: Not available");
+      health.reportFailure();
       return null;
     }
   }
 
-  public JsonObject request_object(String jsonRequest)
+  private ByteBuffer sendBuffer(String jsonRequest)
   {
+    JsonRpcHealthMonitor health = JsonRpcHealthMonitor.get();
     try
     {
+      ByteBuffer resp;
+      try
+      {
+        resp = _requestJSONBuffer(jsonRequest);
+      }
+      catch (UnsatisfiedLinkError e)
+      {
+        // an older native side: back to the String API from now on
+        Log.w(TAG, "XBMCJsonRPC: _requestJSONBuffer: Not available");
+        sNativeBuffers = false;
+        String str = _requestJSON(jsonRequest);
+        resp = str != null ? ByteBuffer.wrap(str.getBytes(StandardCharsets.UTF_8)) : null;
+      }
+      health.reportSuccess();
+      return resp;
+    }
+    catch (Exception e)
+    {
+      // e.g. the TCP connection reset: counted like a timeout
+      Log.e(TAG, "XBMCJsonRPC: Failed to read JSON");
+      e.printStackTrace();
+      health.reportFailure();
+      return null;
+    }
+    catch (UnsatisfiedLinkError e)
+    {
+      Log.e(TAG, "XBMCJsonRPC: _requestJSON: Not available");
+      health.reportFailure();
+      return null;
+    }
+  }
+
+  private interface ResponseParser<V>
+  {
+    V parse(Reader in) throws IOException;
+  }
+
+  /**
+   * Parses a response without holding it as a String when it can: from the bytes of the
+   * native side, unless the response is worth caching. Concurrent callers with
+   * byte-identical requests share one round trip.
+   *
+   * @return the parsed response, or null if the request failed.
+   * @throws JsonRpcTimeoutException if the response did not come by the deadline.
+   */
+  private <V> V request_parsed(final String jsonRequest, ResponseParser<V> parser) throws IOException
+  {
+    String resp = sResponseCache.get(jsonRequest);
+    if (resp == null && sNativeBuffers && mTransport == mNativeTransport)
+    {
+      // cached by the caller which sent the request, with the generation it was sent in
+      ByteBuffer bytes = sBufferFlights.execute(jsonRequest, () -> {
+        long generation = sResponseCache.getGeneration();
+        ByteBuffer fetched = requestBuffer(jsonRequest, mLane);
+        // the small responses are decoded and cached as before, the large ones never are
+        if (fetched != null && sResponseCache.accepts(jsonRequest, fetched.remaining()))
+          sResponseCache.put(jsonRequest, Utf8BufferReader.decode(fetched), generation);
+        return fetched;
+      });
+      if (bytes == null)
+        return null;
+      return parse(jsonRequest, new Utf8BufferReader(bytes.duplicate()), parser);
+    }
+    else if (resp == null)
+    {
+      resp = request_string(jsonRequest);
+      if (resp == null)
+        return null;
+    }
+    return parse(jsonRequest, new StringReader(resp), parser);
+  }
+
+  private static <V> V parse(String jsonRequest, Reader in, ResponseParser<V> parser) throws IOException
+  {
+    long started = System.nanoTime();
+    V parsed = parser.parse(in);
+    recordParse(jsonRequest, started);
+    return parsed;
+  }
+
+  private JsonElement request_element(final String jsonRequest)
+  {
+    return sParseFlights.execute(jsonRequest, () -> {
       String stringResp = request_string(jsonRequest);
       if (stringResp == null)
         return null;
 
-      return JsonParser.parseString(stringResp).getAsJsonObject();
+      long started = System.nanoTime();
+      JsonElement parsed = JsonParser.parseString(stringResp);
+      recordParse(jsonRequest, started);
+      return parsed;
+    });
+  }
+
+  public JsonObject request_object(String jsonRequest)
+  {
+    try
+    {
+      JsonElement resp = request_element(jsonRequest);
+      if (resp == null)
+        return null;
+
+      return resp.getAsJsonObject();
+    }
+    catch (JsonRpcTimeoutException e)
+    {
+      throw e;
     }
     catch (Exception e)
     {
@@ -172,11 +742,15 @@ public class XBMCJsonRPC
   {
     try
     {
-      String stringResp = request_string(jsonRequest);
-      if (stringResp == null)
+      JsonElement resp = request_element(jsonRequest);
+      if (resp == null)
         return null;
 
-      return JsonParser.parseString(stringResp).getAsJsonArray();
+      return resp.getAsJsonArray();
+    }
+    catch (JsonRpcTimeoutException e)
+    {
+      throw e;
     }
     catch (Exception e)
     {
@@ -186,6 +760,67 @@ public class XBMCJsonRPC
     }
   }
 
+  /**
+   * Asynchronous variants. The calls run on the shared {@link JsonRpcExecutor}, with the
+   * deadline of the caller. Failures are reported the same way as the synchronous calls
+   * (null or empty results); the only exceptional completion is a
+   * {@link JsonRpcTimeoutException}.
+   */
+  public CompletableFuture<JsonObject> request_object_async(final String jsonRequest)
+  {
+    return supplyAsync(() -> request_object(jsonRequest));
+  }
+
+  public CompletableFuture<JsonArray> request_array_async(final String jsonRequest)
+  {
+    return supplyAsync(() -> request_array(jsonRequest));
+  }
+
+  public CompletableFuture<List<File>> getFilesAsync(final String url)
+  {
+    return supplyAsync(() -> getFiles(url));
+  }
+
+  public CompletableFuture<List<Media>> getMediasAsync(final List<File> files)
+  {
+    return supplyAsync(() -> getMedias(files));
+  }
+
+  public CompletableFuture<Cursor> getSuggestionsAsync(final String query, final int limit)
+  {
+    return supplyAsync(() -> getSuggestions(query, limit));
+  }
+
+  private static <V> CompletableFuture<V> supplyAsync(final Supplier<V> call)
+  {
+    final Deadline deadline = Deadline.current();
+    final int site = JsonRpcMetrics.currentSite();
+    return CompletableFuture.supplyAsync(
+            () -> JsonRpcMetrics.atSite(site, () -> Deadline.run(deadline, call)), JsonRpcExecutor.get());
+  }
+
+  private CompletableFuture<JsonObject> recommendationsAsync(int site, final String jsonRequest)
+  {
+    return JsonRpcMetrics.atSite(site, () -> request_object_async(jsonRequest));
+  }
+
+  /**
+   * Waits for an asynchronous call, failing the way it did.
+   */
+  private static <V> V join(CompletableFuture<V> future)
+  {
+    try
+    {
+      return future.join();
+    }
+    catch (CompletionException e)
+    {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw e;
+    }
+  }
+
   public Bitmap getBitmap(Context ctx, String src)
   {
     try
@@ -208,11 +843,28 @@ public class XBMCJsonRPC
     return src;
   }
 
+  /**
+   * @return the cached availability of the JSON-RPC server, probing only when the
+   * status expired. Fails fast while the server is known down.
+   */
   public boolean Ping()
+  {
+    return JsonRpcHealthMonitor.get().check(this::probe);
+  }
+
+  /**
+   * Blocks until the JSON-RPC server answers or the timeout expires.
+   */
+  public boolean awaitAvailable(long timeoutMs)
+  {
+    return JsonRpcHealthMonitor.get().awaitAvailable(timeoutMs, this::probe);
+  }
+
+  private boolean probe()
   {
     try
     {
-      JsonObject req = request_object(GET_VERSION);
+      JsonObject req = request_object(GET_VERSION.request());
       if (req == null || !req.has("result"))
         return false;
     }
@@ -223,7 +875,12 @@ public class XBMCJsonRPC
     return true;
   }
 
-  public Cursor search(String query)
+  public Cursor search(final String query)
+  {
+    return JsonRpcMetrics.atSite(JsonRpcMetrics.SITE_SEARCH, () -> searchLibrary(query));
+  }
+
+  private Cursor searchLibrary(String query)
   {
       String[] menuCols = new String[] {
               BaseColumns._ID,
@@ -232,40 +889,49 @@ public class XBMCJsonRPC
               COLUMN_THUMB,
               COLUMN_FANART,
       };
-      MatrixCursor mc = new MatrixCursor(menuCols);
+      final MatrixCursor mc = new MatrixCursor(menuCols);
 
-      try
+      XBMCLibraryDatabase library = mUseTitleIndex ? syncedLibrary() : null;
+      if (library != null)
       {
-        JsonObject req = request_object(String.format(SEARCH_MOVIES_JSON, /*"\"operator\": \"contains\", \"field\": \"title\", \"value\": \"" + query + "\"", limit));*/
-        "\"or\": [" +
-        "{\"operator\": \"contains\", \"field\": \"title\", \"value\": \"" + query + "\"}," +
-        "{\"operator\": \"contains\", \"field\": \"originaltitle\", \"value\": \"" + query + "\"}," +
-        "{\"operator\": \"contains\", \"field\": \"set\", \"value\": \"" + query + "\"}," +
-        "{\"operator\": \"contains\", \"field\": \"actor\", \"value\": \"" + query + "\"}," +
-        "{\"operator\": \"contains\", \"field\": \"director\", \"value\": \"" + query + "\"}]"));
-
-        if (req == null || !req.has("result"))
-          return null;
+        for (SearchHit hit : library.search(query, SearchHit.TYPE_MOVIE, MAX_SEARCH_HITS))
+          addSearchRow(mc, hit);
+        for (SearchHit hit : library.search(query, SearchHit.TYPE_TVSHOW, MAX_SEARCH_HITS))
+          addSearchRow(mc, hit);
+        return mc;
+      }
 
-        JsonObject results = req.getAsJsonObject("result");
-        JsonArray movies = results.getAsJsonArray("movies");
+      SearchResponseReader.Sink sink = new SearchResponseReader.Sink()
+      {
+        @Override
+        public boolean beginResponse(String requestId)
+        {
+          return true;
+        }
 
-        for (int i = 0; i < movies.size(); ++i)
+        @Override
+        public boolean onHit(String requestId, SearchHit hit)
         {
-          JsonObject movie = movies.get(i).getAsJsonObject();
-
-          String poster = extractKeyFromArtMap(movie, "poster");
-          String thumb = extractKeyFromArtMap(movie, "thumb");
-          String fanart = extractKeyFromArtMap(movie, "fanart");
-
-          mc.addRow(new Object[]{
-            movie.get("movieid"),
-            movie.get("title"),
-            movie.get("tagline"),
-            poster != null && !poster.isEmpty() ? poster : thumb != null && !thumb.isEmpty() ? thumb : "",
-            fanart != null && !fanart.isEmpty() ? fanart : ""
-          });
+          addSearchRow(mc, hit);
+          return true;
         }
+      };
+
+      try
+      {
+        String req = RequestBuilder.obtain().begin(SEARCH_MOVIES).fill(query).build();
+        String resp = request_string(req);
+        if (resp == null)
+          return null;
+
+        long started = System.nanoTime();
+        boolean read = SearchResponseReader.readResponse(new StringReader(resp), REQ_ID_MOVIES, sink);
+        recordParse(req, started);
+        if (!read)
+          return null;
+      } catch (JsonRpcTimeoutException e)
+      {
+        throw e;
       } catch (Exception e)
       {
         e.printStackTrace();
@@ -274,34 +940,19 @@ public class XBMCJsonRPC
 
       try
       {
-        JsonObject req = request_object(String.format(SEARCH_SHOWS_JSON, /*"\"operator\": \"contains\", \"field\": \"title\", \"value\": \"" + query + "\"", limit));*/
-        "\"or\": [" +
-        "{\"operator\": \"contains\", \"field\": \"title\", \"value\": \"" + query + "\"}," +
-        "{\"operator\": \"contains\", \"field\": \"actor\", \"value\": \"" + query + "\"}," +
-        "{\"operator\": \"contains\", \"field\": \"director\", \"value\": \"" + query + "\"}]"));
-
-        if (req == null || !req.has("result"))
+        String req = RequestBuilder.obtain().begin(SEARCH_SHOWS).fill(query).build();
+        String resp = request_string(req);
+        if (resp == null)
           return null;
 
-        JsonObject results = req.getAsJsonObject("result");
-        JsonArray tvshows = results.getAsJsonArray("tvshows");
-
-        for (int i = 0; i < tvshows.size(); ++i)
-        {
-          JsonObject tvshow = tvshows.get(i).getAsJsonObject();
-
-          String poster = extractKeyFromArtMap(tvshow, "poster");
-          String thumb = extractKeyFromArtMap(tvshow, "thumb");
-          String fanart = extractKeyFromArtMap(tvshow, "fanart");
-
-          mc.addRow(new Object[]{
-            tvshow.get("movieid"),
-            tvshow.get("title"),
-            tvshow.get("plot"),
-            poster != null && !poster.isEmpty() ? poster : thumb != null && !thumb.isEmpty() ? thumb : "",
-            fanart != null && !fanart.isEmpty() ? fanart : ""
-          });
-        }
+        long started = System.nanoTime();
+        boolean read = SearchResponseReader.readResponse(new StringReader(resp), REQ_ID_SHOWS, sink);
+        recordParse(req, started);
+        if (!read)
+          return null;
+      } catch (JsonRpcTimeoutException e)
+      {
+        throw e;
       } catch (Exception e)
       {
         e.printStackTrace();
@@ -311,274 +962,264 @@ public class XBMCJsonRPC
       return mc;
   }
 
+  private static void addSearchRow(MatrixCursor mc, SearchHit hit)
+  {
+    mc.addRow(new Object[]{
+      hit.getId(),
+      hit.getTitle(),
+      hit.getSubtitle(),
+      hit.getCardImage(),
+      hit.getFanart() != null ? hit.getFanart() : ""
+    });
+  }
+
   public Cursor getSuggestions(String query, int limit)
   {
-    //Log.d(TAG, "query: " + query);
+    return getSuggestions(query, limit, null, null, null);
+  }
 
-    int totCount = 0;
-    String[] menuCols = new String[]
-    {
-        BaseColumns._ID,
-        SearchManager.SUGGEST_COLUMN_TEXT_1,
-        SearchManager.SUGGEST_COLUMN_TEXT_2,
-        SearchManager.SUGGEST_COLUMN_ICON_1,
-        SearchManager.SUGGEST_COLUMN_RESULT_CARD_IMAGE,
-        SearchManager.SUGGEST_COLUMN_INTENT_ACTION,
-        SearchManager.SUGGEST_COLUMN_INTENT_DATA,
-        SearchManager.SUGGEST_COLUMN_VIDEO_WIDTH,
-        SearchManager.SUGGEST_COLUMN_VIDEO_HEIGHT,
-        SearchManager.SUGGEST_COLUMN_PRODUCTION_YEAR,
-        SearchManager.SUGGEST_COLUMN_DURATION,
-        SearchManager.SUGGEST_COLUMN_SHORTCUT_ID
-    };
-    MatrixCursor mc = new MatrixCursor(menuCols);
-
-    String str_req = "[" +
-      String.format(SEARCH_MOVIES_JSON,
-        "\"or\": [" +
-        "{\"operator\": \"contains\", \"field\": \"title\", \"value\": \"" + query + "\"}," +
-        "{\"operator\": \"contains\", \"field\": \"originaltitle\", \"value\": \"" + query + "\"}," +
-        "{\"operator\": \"contains\", \"field\": \"set\", \"value\": \"" + query + "\"}]", REQ_ID_MOVIES) +
-      "," +
-      String.format(SEARCH_SHOWS_JSON,
-        "\"or\": [" +
-        "{\"operator\": \"contains\", \"field\": \"title\", \"value\": \"" + query + "\"}," +
-        "{\"operator\": \"contains\", \"field\": \"originaltitle\", \"value\": \"" + query + "\"}]", REQ_ID_SHOWS) +
-    "," +
-      String.format(SEARCH_ALBUMS_JSON,
-        "\"or\": [" +
-        "{\"operator\": \"contains\", \"field\": \"album\", \"value\": \"" + query + "\"}," +
-        "{\"operator\": \"contains\", \"field\": \"label\", \"value\": \"" + query + "\"}]", REQ_ID_ALBUMS) +
-    "," +
-      String.format(SEARCH_ARTISTS_JSON,
-        "\"operator\": \"contains\", \"field\": \"artist\", \"value\": \"" + query + "\"", REQ_ID_ARTISTS) +
-    "," +
-      String.format(SEARCH_MOVIES_JSON,
-        "\"or\": [" +
-         "{\"operator\": \"contains\", \"field\": \"actor\", \"value\": \"" + query + "\"}," +
-        "{\"operator\": \"contains\", \"field\": \"director\", \"value\": \"" + query + "\"}]", REQ_ID_MOVIES_ACTOR) +
-    "," +
-      String.format(SEARCH_SHOWS_JSON,
-        "\"or\": [" +
-        "{\"operator\": \"contains\", \"field\": \"actor\", \"value\": \"" + query + "\"}," +
-        "{\"operator\": \"contains\", \"field\": \"director\", \"value\": \"" + query + "\"}]", REQ_ID_SHOWS_ACTOR) +
-    "]";
-
-    JsonArray res_array = request_array(str_req);
-    if (res_array == null)
+  /**
+   * @param context    the suggestion context of the search session, or null. When the
+   *                   previous query of the session allows it, the suggestions are
+   *                   narrowed locally instead of asking Kodi.
+   * @param projection the suggestion columns to return, null for all of them.
+   * @param signal     cancels the query, or null. Cancellation is checked before the
+   *                   request is sent, before and while its response is parsed, and
+   *                   before the cursor is built.
+   * @throws OperationCanceledException if the query was canceled.
+   */
+  public Cursor getSuggestions(String query, int limit, SuggestionContext context, String[] projection,
+                               CancellationSignal signal)
+  {
+    List<SearchHit> hits = getSuggestionHits(query, limit, context, signal);
+    if (hits == null)
       return null;
 
-    int nb_movies = 0;
-    int nb_shows = 0;
-    for (int j = 0; j < res_array.size(); ++j)
+    throwIfCanceled(signal);
+    return new XBMCSuggestionCursor(this, hits, projection);
+  }
+
+  /**
+   * Same as {@link #getSuggestions(String, int, SuggestionContext, String[], CancellationSignal)}
+   * without building the cursor.
+   *
+   * @return the suggested items, or null on failure. The items must not be modified.
+   */
+  public List<SearchHit> getSuggestionHits(final String query, final int limit, final SuggestionContext context,
+                                           final CancellationSignal signal)
+  {
+    return JsonRpcMetrics.atSite(JsonRpcMetrics.SITE_SUGGESTIONS,
+            () -> suggestionHits(query, limit, context, signal));
+  }
+
+  /**
+   * Looks the suggestions up in this order, each source only completing the previous:
+   * <ol>
+   * <li>the title index, in memory, seeded from the snapshot at start: fuzzy matches of
+   * the titles;</li>
+   * <li>the library replica once synced: the titles and the actors and directors;</li>
+   * <li>the session context, narrowing the previous answer of Kodi, else Kodi itself:
+   * its categories fill in after the local hits.</li>
+   * </ol>
+   * The local hits are complete, and Kodi is not asked, once they reach the limit or
+   * hold 3 movies and shows: the actor/director categories would not be shown. Kodi is
+   * not asked either while it is down, the local hits being all there is.
+   */
+  private List<SearchHit> suggestionHits(String query, int limit, SuggestionContext context,
+                                         CancellationSignal signal)
+  {
+    //Log.d(TAG, "query: " + query);
+    throwIfCanceled(signal);
+
+    List<SearchHit> hits = new ArrayList<SearchHit>();
+    boolean local = false;
+    if (mUseTitleIndex)
     {
-      String id;
-      JsonObject resp;
-      try
-      {
-        resp = res_array.get(j).getAsJsonObject();
-        if (resp == null)
-          continue;
+      restoreSnapshot();
 
-        id = resp.get("id").getAsString();
-      }
-      catch (Exception e)
+      // the library pages would only churn the response cache: bypass it. They are
+      // fetched in the background, not within the time of the query
+      sTitleIndex.refresh(
+              (request) -> JsonRpcMetrics.atSite(JsonRpcMetrics.SITE_SUGGESTIONS, () -> Deadline.after(TIMEOUT_SYNC_MS).run(
+                      () -> sRequestFlights.execute(request, () -> requestTransport(request, false, JsonRpcDispatcher.LANE_BACKGROUND)))),
+              JsonRpcExecutor.get());
+
+      if (sTitleIndex.isReady())
       {
-        e.printStackTrace();
-        continue;
+        local = true;
+        addSuggestions(hits, sTitleIndex.search(query, limit), limit);
       }
+      if (isComplete(hits, limit))
+        return hits;
 
-      if (id.equals(REQ_ID_MOVIES) || ((nb_movies + nb_shows) < 3 && id.equals(REQ_ID_MOVIES_ACTOR)))
+      XBMCLibraryDatabase library = syncedLibrary();
+      if (library != null)
       {
-        searchmovies: try
-        {
-          if (resp == null || !resp.has("result"))
-            break searchmovies;
-          JsonObject results = resp.getAsJsonObject("result");
-          if (results == null || !results.has("movies"))
-            break searchmovies;
-          JsonArray movies = results.get("movies").getAsJsonArray();
-
-          for (int i = 0; i < movies.size() && totCount < limit; ++i)
-          {
-            JsonObject movie = movies.get(i).getAsJsonObject();
-
-            String poster = extractKeyFromArtMap(movie, "poster");
-            String thumb = extractKeyFromArtMap(movie, "thumb");
-
-            int rYear = 0;
-            long rDur = 0;
-            try
-            {
-              rYear = movie.get("year").getAsInt();
-              rDur = movie.get("runtime").getAsLong() * 1000;
-            }
-            catch (Exception e)
-            {
-              e.printStackTrace();
-            }
-            mc.addRow(new Object[]
-            {
-              movie.get("movieid").getAsString(),
-              movie.get("title").getAsString(),
-              movie.get("tagline").getAsString(),
-              XBMCFileContentProvider.buildUri(getDownloadUrl(
-                poster != null && !poster.isEmpty() ? poster : thumb != null && !thumb.isEmpty() ? thumb : ""
-              )).toString(),
-              XBMCFileContentProvider.buildUri(getDownloadUrl(
-                poster != null && !poster.isEmpty() ? poster : thumb != null && !thumb.isEmpty() ? thumb : ""
-              )).toString(),
-              Intent.ACTION_GET_CONTENT,
-              Uri.parse("videodb://movies/titles/" + movie.get("movieid").getAsString() + "?showinfo=true"),
-              0,
-              0,
-              rYear,
-              rDur,
-              -1
-            });
-            nb_movies++;
-            totCount++;
-          }
-        } catch (Exception e)
-        {
-          e.printStackTrace();
-        }
+        local = true;
+        addSuggestions(hits, library.search(query, limit), limit);
+        if (isComplete(hits, limit))
+          return hits;
       }
-      else if (id.equals(REQ_ID_SHOWS) || ((nb_movies + nb_shows) < 3 && id.equals(REQ_ID_SHOWS_ACTOR)))
-      {
-        searchtv: try
-        {
-          if(!resp.has("result"))
-            break searchtv;
-          JsonObject results = resp.getAsJsonObject("result");
-          if (results == null || !results.has("tvshows"))
-            break searchtv;
-          JsonArray tvshows = results.get("tvshows").getAsJsonArray();
-
-          for (int i = 0; i < tvshows.size() && totCount < limit; ++i)
-          {
-            JsonObject tvshow = tvshows.get(i).getAsJsonObject();
 
-            String poster = extractKeyFromArtMap(tvshow, "poster");
-            String thumb = extractKeyFromArtMap(tvshow, "thumb");
+      if (local && JsonRpcHealthMonitor.get().isOpen())
+        return hits;
+    }
 
-            int rYear = 0;
-            long rDur = 0;
-            try
-            {
-              rYear = tvshow.get("year").getAsInt();
-            }
-            catch (Exception e)
-            {
-              e.printStackTrace();
-            }
-            mc.addRow(new Object[]
-            {
-              tvshow.get("tvshowid").getAsString(),
-              tvshow.get("title").getAsString(),
-              tvshow.get("plot").getAsString(),
-              XBMCFileContentProvider.buildUri(getDownloadUrl(
-                poster != null && !poster.isEmpty() ? poster : thumb != null && !thumb.isEmpty() ? thumb : ""
-              )).toString(),
-              XBMCFileContentProvider.buildUri(getDownloadUrl(
-                poster != null && !poster.isEmpty() ? poster : thumb != null && !thumb.isEmpty() ? thumb : ""
-              )).toString(),
-              Intent.ACTION_GET_CONTENT,
-              Uri.parse("videodb://tvshows/titles/" + tvshow.get("tvshowid").getAsString() + "?showinfo=true"),
-              0,
-              0,
-              rYear,
-              45*60*1000,
-              -1
-            });
-            Log.d(TAG, "XBMCJsonRPC: tvshow: " + tvshow.get("title").getAsString() + ", " + tvshow.get("year").getAsInt());
-            nb_shows++;
-            totCount++;
-          }
-        } catch (Exception e)
-        {
-          e.printStackTrace();
-        }
-      }
-      else if (id.equals(REQ_ID_ALBUMS))
+    SuggestionContext.Result result = context != null ? context.narrow(query) : null;
+    if (result == null)
+    {
+      result = fetchSuggestions(query, context != null ? context : new SuggestionContext(), signal);
+      // Kodi failed: the local hits are better than nothing
+      if (result == null)
+        return local ? hits : null;
+    }
+
+    return selectSuggestions(result, limit, hits);
+  }
+
+  /**
+   * @return true if Kodi would add nothing to the hits: the limit is reached, or the
+   * actor/director categories are skipped anyway.
+   */
+  private static boolean isComplete(List<SearchHit> hits, int limit)
+  {
+    return hits.size() >= limit || countVideos(hits) >= 3;
+  }
+
+  private static int countVideos(List<SearchHit> hits)
+  {
+    int videos = 0;
+    for (SearchHit hit : hits)
+    {
+      if (hit.getType() == SearchHit.TYPE_MOVIE || hit.getType() == SearchHit.TYPE_TVSHOW)
+        ++videos;
+    }
+    return videos;
+  }
+
+  /**
+   * Appends the hits not in the suggestions yet, up to the limit.
+   *
+   * @return false once the limit is reached.
+   */
+  private static boolean addSuggestions(List<SearchHit> suggestions, List<SearchHit> hits, int limit)
+  {
+    for (SearchHit hit : hits)
+    {
+      if (suggestions.size() >= limit)
+        return false;
+      if (!containsHit(suggestions, hit))
+        suggestions.add(hit);
+    }
+    return suggestions.size() < limit;
+  }
+
+  private static boolean containsHit(List<SearchHit> hits, SearchHit hit)
+  {
+    for (SearchHit other : hits)
+    {
+      if (other.getType() == hit.getType() && other.getId() == hit.getId())
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Picks the suggestions among the candidates of every category, in batch order,
+   * after the local hits. The actor/director categories are only used while fewer than
+   * 3 movies and shows matched.
+   *
+   * @param local the hits found locally, the suggestions start with them.
+   */
+  private static List<SearchHit> selectSuggestions(SuggestionContext.Result result, int limit, List<SearchHit> local)
+  {
+    List<SearchHit> hits = new ArrayList<SearchHit>(local);
+    if (hits.size() >= limit)
+      return hits;
+
+    for (SuggestionContext.Category category : result.getCategories())
+    {
+      String requestId = category.getRequestId();
+      if ((requestId.equals(REQ_ID_MOVIES_ACTOR) || requestId.equals(REQ_ID_SHOWS_ACTOR)) && countVideos(hits) >= 3)
+        continue;
+
+      if (!addSuggestions(hits, category.getHits(), limit))
+        return hits;
+    }
+    return hits;
+  }
+
+  private static void throwIfCanceled(CancellationSignal signal)
+  {
+    if (signal != null)
+      signal.throwIfCanceled();
+  }
+
+  private SuggestionContext.Result fetchSuggestions(String query, SuggestionContext context,
+                                                    final CancellationSignal signal)
+  {
+    String str_req = RequestBuilder.obtain()
+            .beginBatch()
+            .begin(SUGGEST_MOVIES).fill(query)
+            .begin(SUGGEST_SHOWS).fill(query)
+            .begin(SUGGEST_ALBUMS).fill(query)
+            .begin(SUGGEST_ARTISTS).fill(query)
+            .begin(SUGGEST_MOVIES_ACTOR).fill(query)
+            .begin(SUGGEST_SHOWS_ACTOR).fill(query)
+            .endBatch()
+            .build();
+
+    String resp = request_string(str_req);
+    if (resp == null)
+      return null;
+    // the response is shared and cached: only its parsing is ours to skip
+    throwIfCanceled(signal);
+
+    try
+    {
+      final SuggestionContext.Collector collector = context.new Collector(query, SUGGEST_REQUEST_IDS, SUGGEST_FIELDS);
+      SearchResponseReader.Sink sink = collector;
+      if (signal != null)
       {
-        searchalbums: try
+        sink = new SearchResponseReader.Sink()
         {
-          if (!resp.has("result"))
-            break searchalbums;
-          JsonObject results = resp.getAsJsonObject("result");
-          if (results == null || !results.has("albums"))
-            break searchalbums;
-          JsonArray albums = results.get("albums").getAsJsonArray();
-
-          for (int i = 0; i < albums.size() && totCount < limit; ++i)
+          @Override
+          public boolean beginResponse(String requestId)
           {
-            JsonObject album = albums.get(i).getAsJsonObject();
-            String thumb = extractKeyFromArtMap(album, "thumb");
-
-            mc.addRow(new Object[]
-            {
-              album.get("albumid").getAsString(),
-              album.get("title").getAsString(),
-              album.get("displayartist").getAsString(),
-              XBMCFileContentProvider.buildUri(getDownloadUrl(thumb != null && !thumb.isEmpty() ? thumb : "" )).toString(),
-              XBMCFileContentProvider.buildUri(getDownloadUrl(thumb != null && !thumb.isEmpty() ? thumb : "" )).toString(),
-              Intent.ACTION_GET_CONTENT,
-              Uri.parse("musicdb://albums/" + album.get("albumid").getAsString() + "/"),
-              0,
-              0,
-              0,
-              0,
-              -1
-            });
-            totCount++;
+            signal.throwIfCanceled();
+            return collector.beginResponse(requestId);
           }
-        } catch (Exception e)
-        {
-          e.printStackTrace();
-        }
-      }
-      else if (id.equals(REQ_ID_ARTISTS))
-      {
-        searchartists: try
-        {
-          if (!resp.has("result"))
-            break searchartists;
-          JsonObject results = resp.getAsJsonObject("result");
-          if (results == null || !results.has("artists"))
-            break searchartists;
-          JsonArray artists = results.get("artists").getAsJsonArray();
-
-          for (int i = 0; i < artists.size() && totCount < limit; ++i)
+
+          @Override
+          public boolean onHit(String requestId, SearchHit hit)
           {
-            JsonObject artist = artists.get(i).getAsJsonObject();
-            String thumb = extractKeyFromArtMap(artist, "thumb");
+            signal.throwIfCanceled();
+            return collector.onHit(requestId, hit);
+          }
 
-            mc.addRow(new Object[]
-            {
-              artist.get("artistid").getAsString(),
-              artist.get("artist").getAsString(),
-              artist.get("description").getAsString(),
-              XBMCFileContentProvider.buildUri(getDownloadUrl(thumb != null && !thumb.isEmpty() ? thumb : "" )).toString(),
-              XBMCFileContentProvider.buildUri(getDownloadUrl(thumb != null && !thumb.isEmpty() ? thumb : "" )).toString(),
-              Intent.ACTION_GET_CONTENT,
-              Uri.parse("musicdb://artists/" + artist.get("artistid").getAsString() + "/"),
-              0,
-              0,
-              0,
-              0,
-              -1
-            });
-            totCount++;
+          @Override
+          public void endResponse(String requestId, int total)
+          {
+            collector.endResponse(requestId, total);
           }
-        } catch (Exception e)
-        {
-          e.printStackTrace();
-        }
+        };
       }
+      long started = System.nanoTime();
+      SearchResponseReader.readBatch(new StringReader(resp), sink);
+      recordParse(str_req, started);
+      // a canceled parse is never committed: the context keeps the previous candidates
+      return collector.commit();
+    }
+    catch (OperationCanceledException | JsonRpcTimeoutException e)
+    {
+      throw e;
+    }
+    catch (Exception e)
+    {
+      Log.e(TAG, "XBMCJsonRPC: Failed to parse JSON");
+      e.printStackTrace();
+      return null;
     }
-
-    return mc;
   }
 
   public void updateLeanback(Context ctx)
@@ -591,7 +1232,12 @@ public class XBMCJsonRPC
       mNotificationManager.cancel(id);
     mRecomendationIds.clear();
 
-    JsonObject rep = request_object(RECOMMENDATION_MOVIES_JSON);
+    // the three queries are independent, let them overlap
+    CompletableFuture<JsonObject> moviesRep = recommendationsAsync(JsonRpcMetrics.SITE_LEANBACK, RECOMMENDATION_MOVIES_JSON.request());
+    CompletableFuture<JsonObject> showsRep = recommendationsAsync(JsonRpcMetrics.SITE_LEANBACK, RECOMMENDATIONS_SHOWS_JSON.request());
+    CompletableFuture<JsonObject> albumsRep = recommendationsAsync(JsonRpcMetrics.SITE_LEANBACK, RECOMMENDATIONS_ALBUMS_JSON.request());
+
+    JsonObject rep = join(moviesRep);
     if (rep != null && rep.has("result"))
     {
       try
@@ -607,9 +1253,9 @@ public class XBMCJsonRPC
             JsonObject movie = movies.get(i).getAsJsonObject();
             int id = movie.get("movieid").getAsInt() + 1000000;
 
-            String poster = extractKeyFromArtMap(movie, "poster");
-            String thumb = extractKeyFromArtMap(movie, "thumb");
-            String fanart = extractKeyFromArtMap(movie, "fanart");
+            String poster = JsonMediaMapper.extractKeyFromArtMap(movie, "poster");
+            String thumb = JsonMediaMapper.extractKeyFromArtMap(movie, "thumb");
+            String fanart = JsonMediaMapper.extractKeyFromArtMap(movie, "fanart");
 
             final XBMCRecommendationBuilder notificationBuilder = new XBMCRecommendationBuilder()
                     .setContext(ctx)
@@ -651,7 +1297,7 @@ public class XBMCJsonRPC
       }
     }
 
-    rep = request_object(RECOMMENDATIONS_SHOWS_JSON);
+    rep = join(showsRep);
     if (rep != null && rep.has("result"))
     {
       try
@@ -667,9 +1313,9 @@ public class XBMCJsonRPC
             JsonObject tvshow = tvshows.get(i).getAsJsonObject();
             int id = tvshow.get("tvshowid").getAsInt() + 2000000;
 
-            String poster = extractKeyFromArtMap(tvshow, "poster");
-            String thumb = extractKeyFromArtMap(tvshow, "thumb");
-            String fanart = extractKeyFromArtMap(tvshow, "fanart");
+            String poster = JsonMediaMapper.extractKeyFromArtMap(tvshow, "poster");
+            String thumb = JsonMediaMapper.extractKeyFromArtMap(tvshow, "thumb");
+            String fanart = JsonMediaMapper.extractKeyFromArtMap(tvshow, "fanart");
 
             final XBMCRecommendationBuilder notificationBuilder = new XBMCRecommendationBuilder()
                     .setContext(ctx)
@@ -712,7 +1358,7 @@ public class XBMCJsonRPC
       }
     }
 
-    rep = request_object(RECOMMENDATIONS_ALBUMS_JSON);
+    rep = join(albumsRep);
     if (rep != null && rep.has("result"))
     {
       try
@@ -728,8 +1374,8 @@ public class XBMCJsonRPC
             JsonObject album = albums.get(i).getAsJsonObject();
             int id = album.get("albumid").getAsInt() + 3000000;
 
-            String thumb = extractKeyFromArtMap(album, "thumb");
-            String fanart = extractKeyFromArtMap(album, "fanart");
+            String thumb = JsonMediaMapper.extractKeyFromArtMap(album, "thumb");
+            String fanart = JsonMediaMapper.extractKeyFromArtMap(album, "fanart");
 
             final XBMCRecommendationBuilder notificationBuilder = new XBMCRecommendationBuilder()
                     .setContext(ctx)
@@ -818,402 +1464,103 @@ public class XBMCJsonRPC
     }
   }
 
-  public List<File> getFiles(String url)
-  {
-    List<File> files = new ArrayList<File>();
-
-    try
-    {
-      JsonObject req = request_object(String.format(RETRIEVE_FILE_ITEMS, url, "1"));
-
-      if (req == null || !req.has("result"))
-        return files;
-
-      JsonObject results = req.getAsJsonObject("result");
-      if (!results.has("files"))
-        return files;
-
-      JsonArray filesA = results.get("files").getAsJsonArray();
-
-      for (int i = 0; i < filesA.size(); ++i)
-      {
-        JsonObject fileO = filesA.get(i).getAsJsonObject();
-        Uri uri = Uri.parse(fileO.get("file").getAsString());
-        File file = File.createFile(fileO.get("label").getAsString(), fileO.get("filetype").getAsString(), XBMCFileContentProvider.buildUri(uri.toString()).toString());
-        if (fileO.has("id"))
-          file.setId(fileO.get("id").getAsInt());
-        if (fileO.has("type") && !fileO.get("type").getAsString().equals("unknown"))
-          file.setMediatype(fileO.get("type").getAsString());
-        files.add(file);
-      }
-    } catch (Exception e)
-    {
-      e.printStackTrace();
-    }
-
-    return files;
-  }
-
-  private Movie createMovieFromJson(JsonObject details)
+  /**
+   * Lists a slice of a directory.
+   *
+   * @param start the index of the first entry.
+   * @param count the maximum number of entries.
+   * @return the page, or null on failure.
+   */
+  public DirectoryPage getFilesPage(final String url, final int start, final int count)
   {
-    Movie med = new Movie();
-
-    try
-    {
-      med.setId(details.get("movieid").getAsInt());
-      med.setTitle(details.get("title").getAsString());
-      med.setDescription(details.get("plot").getAsString());
-      // poster
-      String poster = extractKeyFromArtMap(details, "poster");
-      if (poster != null && !poster.isEmpty())
-      {
-        med.setCardImageUrl(getImageUrl(poster));
-        med.setCardImageAspectRatio("2:3");
-      }
-      // fallback to thumb
-      else
-      {
-        poster = extractKeyFromArtMap(details, "thumb");
-        if (poster != null && !poster.isEmpty())
-        {
-          med.setCardImageUrl(getImageUrl(poster));
-          med.setCardImageAspectRatio("16:9");
-        }
-      }
-      // fanart
-      String fanart = extractKeyFromArtMap(details, "fanart");
-      if (fanart != null && !fanart.isEmpty())
-      {
-        med.setBackgroundImageUrl(getImageUrl(fanart));
-      }
-
-      med.setXbmcUrl("videodb://movies/titles/" + details.get("movieid").getAsString() + "?showinfo=true");
-      med.setCategory(Media.MEDIA_TYPE_MOVIE);
-
-      med.setYear(details.get("year").getAsString());
-      med.setRating(convertRating(details.get("rating").getAsDouble()));
-      med.setDuration(details.get("runtime").getAsInt() * 1000);
-    }
-    catch (Exception e)
-    {
-      return null;
-    }
-
-    return med;
+    return JsonRpcMetrics.atSite(JsonRpcMetrics.SITE_FILES, () -> filesPage(url, start, count));
   }
 
-  private TVShow createTVShowFromJson(JsonObject details)
+  private DirectoryPage filesPage(final String url, final int start, final int count)
   {
-    TVShow med = new TVShow();
-
+    String req = RequestBuilder.obtain()
+            .begin(RETRIEVE_FILE_PAGE).arg(url).arg(start).arg(start + count)
+            .build();
     try
     {
-      med.setId(details.get("tvshowid").getAsInt());
-      med.setTitle(details.get("title").getAsString());
-      med.setDescription(details.get("plot").getAsString());
-
-      // poster
-      String poster = extractKeyFromArtMap(details, "poster");
-      if (poster != null && !poster.isEmpty())
-      {
-        med.setCardImageUrl(getImageUrl(poster));
-        med.setCardImageAspectRatio("2:3");
-      }
-      // fallback to thumb
-      else
-      {
-        poster = extractKeyFromArtMap(details, "thumb");
-        if (poster != null && !poster.isEmpty())
-        {
-          med.setCardImageUrl(getImageUrl(poster));
-          med.setCardImageAspectRatio("16:9");
-        }
-      }
-      // fanart
-      String fanart = extractKeyFromArtMap(details, "fanart");
-      if (fanart != null && !fanart.isEmpty())
-      {
-        med.setBackgroundImageUrl(getImageUrl(fanart));
-      }
-      med.setXbmcUrl("videodb://tvshows/titles/" + details.get("tvshowid").getAsInt() + "/");
-      med.setCategory(Media.MEDIA_TYPE_TVSHOW);
-
-      med.setYear(details.get("year").getAsString());
-      med.setRating(convertRating(details.get("rating").getAsDouble()));
+      return request_parsed(req, (in) -> DirectoryPage.read(in, start, count));
     }
-    catch (Exception e)
+    catch (JsonRpcTimeoutException e)
     {
-      return null;
-    }
-
-    return med;
-  }
-
-  private TVEpisode createTVEpisodeFromJson(JsonObject details)
-  {
-    TVEpisode med = new TVEpisode();
-
-    try
-    {
-      med.setId(details.get("episodeid").getAsInt());
-      med.setTitle(details.get("title").getAsString());
-      med.setDescription(details.get("plot").getAsString());
-
-      // thumb
-      String thumb = extractKeyFromArtMap(details, "thumb");
-      if (thumb != null && !thumb.isEmpty())
-      {
-        med.setCardImageUrl(getImageUrl(thumb));
-        med.setCardImageAspectRatio("16:9");
-      }
-      // fanart
-      String fanart = extractKeyFromArtMap(details, "fanart");
-      if (fanart != null && !fanart.isEmpty())
-      {
-        med.setBackgroundImageUrl(getImageUrl(fanart));
-      }
-
-      med.setXbmcUrl("videodb://tvshows/titles/" + details.get("tvshowid").getAsInt() + "/" + details.get("episodeid").getAsInt() + "?showinfo=true");
-/*
-      String url = getDownloadUrl(details.get("file").getAsString());
-      if (!url.isEmpty())
-        med.setVideoUrl(url);
-*/
-      med.setCategory(Media.MEDIA_TYPE_TVEPISODE);
-
-      med.setShowTitle(details.get("showtitle").getAsString());
-      med.setSeason(details.get("season").getAsInt());
-      med.setEpisode(details.get("episode").getAsInt());
-      med.setRating(convertRating(details.get("rating").getAsDouble()));
-      med.setDuration(details.get("runtime").getAsInt() * 1000);
-      med.setFirstaired(details.get("firstaired").getAsString());
+      throw e;
     }
     catch (Exception e)
     {
+      Log.e(TAG, "XBMCJsonRPC: Failed to parse JSON");
+      e.printStackTrace();
       return null;
     }
-
-    return med;
   }
 
-  private Album createAlbumFromJson(JsonObject details)
+  public List<File> getFiles(final String url)
   {
-    Album med = new Album();
-
-    try
-    {
-      med.setId(details.get("albumid").getAsInt());
-      med.setTitle(details.get("title").getAsString());
-      med.setDescription(details.get("displayartist").getAsString());
-
-      // thumb
-      String thumb = extractKeyFromArtMap(details, "thumb");
-      if (thumb != null && !thumb.isEmpty())
-      {
-        med.setCardImageUrl(getImageUrl(thumb));
-        med.setCardImageAspectRatio("1:1");
-      }
-      // fanart
-      String fanart = extractKeyFromArtMap(details, "fanart");
-      if (fanart != null && !fanart.isEmpty())
-      {
-        med.setBackgroundImageUrl(getImageUrl(fanart));
-      }
-
-      med.setXbmcUrl("musicdb://albums/" + details.get("albumid").getAsString() + "/");
-      med.setCategory(Media.MEDIA_TYPE_ALBUM);
-    }
-    catch (Exception e)
-    {
-      return null;
-    }
-
-    return med;
+    return JsonRpcMetrics.atSite(JsonRpcMetrics.SITE_FILES, () -> files(url));
   }
 
-  private Song createSongFromJson(JsonObject details)
+  private List<File> files(String url)
   {
-    Song med = new Song();
+    List<File> files = new ArrayList<File>();
 
     try
     {
-      med.setId(details.get("songid").getAsInt());
-      med.setTitle(details.get("title").getAsString());
-      med.setDescription(details.get("displayartist").getAsString());
-
-      // album thumb
-      String thumb = extractKeyFromArtMap(details, "album.thumb");
-      if (thumb != null && !thumb.isEmpty())
-      {
-        med.setCardImageUrl(getImageUrl(thumb));
-        med.setCardImageAspectRatio("1:1");
-      }
-      // fallback to albumartist.thumb
-      else
-      {
-        thumb = extractKeyFromArtMap(details, "albumartist.thumb");
-        if (thumb != null && !thumb.isEmpty())
-        {
-          med.setCardImageUrl(getImageUrl(thumb));
-          med.setCardImageAspectRatio("1:1");
-        }
-        else
-        {
-          // fallback to artist.thumb
-          thumb = extractKeyFromArtMap(details, "artist.thumb");
-          if (thumb != null && !thumb.isEmpty())
-          {
-            med.setCardImageUrl(getImageUrl(thumb));
-            med.setCardImageAspectRatio("1:1");
-          }
-        }
-      }
-      // fanart
-      String fanart = extractKeyFromArtMap(details, "albumartist.fanart");
-      if (fanart != null && !fanart.isEmpty())
-      {
-        med.setBackgroundImageUrl(getImageUrl(fanart));
-      }
-      else
-      {
-        fanart = extractKeyFromArtMap(details, "artist.fanart");
-        if (fanart != null && !fanart.isEmpty())
-        {
-          med.setBackgroundImageUrl(getImageUrl(fanart));
-        }
-      }
+      // a whole directory, e.g. a large playlist: decoded as it is read, without a tree
+      DirectoryPage listing = request_parsed(
+              RequestBuilder.obtain().begin(RETRIEVE_FILE_ITEMS).arg(url).arg("1").build(),
+              (in) -> DirectoryPage.read(in, 0, 0));
+      if (listing == null)
+        return files;
 
-      String extension = "";
-      if (details.has("file") && !details.get("file").getAsString().isEmpty())
+      for (int i = 0; i < listing.size(); ++i)
       {
-        String file = details.get("file").getAsString();
-        extension = file.substring(file.lastIndexOf("."));
+        Uri uri = Uri.parse(listing.getFile(i));
+        File file = File.createFile(listing.getLabel(i), listing.getFileType(i), XBMCFileContentProvider.buildUri(uri.toString()).toString());
+        file.setId(listing.getId(i));
+        if (listing.getType(i) != null)
+          file.setMediatype(listing.getType(i));
+        files.add(file);
       }
-
-      if (details.has("albumid") && !details.get("albumid").getAsString().isEmpty())
-        med.setXbmcUrl("musicdb://albums/" + details.get("albumid").getAsString() + "/" + details.get("songid").getAsInt() + extension);
-      else
-        med.setXbmcUrl("musicdb://songs/" + details.get("songid").getAsInt() + extension);
-
-/*
-      String url = getDownloadUrl(details.get("file").getAsString());
-      if (!url.isEmpty())
-        med.setVideoUrl(url);
-*/
-
-      med.setCategory(Media.MEDIA_TYPE_SONG);
-    }
-    catch (Exception e)
+    } catch (JsonRpcTimeoutException e)
     {
-      return null;
-    }
-
-    return med;
-  }
-
-  private MusicVideo createMusicvideoFromJson(JsonObject details)
-  {
-    MusicVideo med = new MusicVideo();
-
-    try
-    {
-      med.setId(details.get("musicvideoid").getAsInt());
-      med.setTitle(details.get("title").getAsString());
-      JsonArray ja = details.get("artist").getAsJsonArray();
-      if (ja.size() > 0)
-        med.setDescription(ja.get(0).getAsString());
-      // thumb
-      String thumb = extractKeyFromArtMap(details, "thumb");
-      if (thumb != null && !thumb.isEmpty())
-      {
-        med.setCardImageUrl(getImageUrl(thumb));
-        med.setCardImageAspectRatio("1:1");
-      }
-      // fanart
-      String fanart = extractKeyFromArtMap(details, "fanart");
-      if (fanart != null && !fanart.isEmpty())
-      {
-        med.setBackgroundImageUrl(getImageUrl(fanart));
-      }
-
-      med.setXbmcUrl("videodb://musicvideos/titles/" + details.get("musicvideoid").getAsInt());
-
-      String url = getDownloadUrl(details.get("file").getAsString());
-      if (url != null && !url.isEmpty())
-        med.setVideoUrl(getImageUrl(url));
-
-      med.setCategory(Media.MEDIA_TYPE_MUSICVIDEO);
-    }
-    catch (Exception e)
+      throw e;
+    } catch (Exception e)
     {
-      return null;
+      e.printStackTrace();
     }
 
-    return med;
+    return files;
   }
 
   public List<Media> getSuggestions()
   {
     List<Media> medias = new ArrayList<Media>();
 
+    // the three queries are independent, let them overlap
+    CompletableFuture<List<Media>> moviesRep = recommendedMediasAsync(RECOMMENDATION_MOVIES_JSON.request(), "movie");
+    CompletableFuture<List<Media>> showsRep = recommendedMediasAsync(RECOMMENDATIONS_SHOWS_JSON.request(), "tvshow");
+    CompletableFuture<List<Media>> albumsRep = recommendedMediasAsync(RECOMMENDATIONS_ALBUMS_JSON.request(), "album");
+
+    List<Media> movies = join(moviesRep);
+    List<Media> tvshows = join(showsRep);
+    List<Media> albums = join(albumsRep);
+
     // count the number of categories with data
     int categories = 0;
-
-    JsonObject rep = request_object(RECOMMENDATION_MOVIES_JSON);
-    JsonArray movies = new JsonArray();
-    if (rep != null && rep.has("result"))
+    if (movies.size() > 0)
     {
-      try
-      {
-        JsonObject results = rep.getAsJsonObject("result");
-        if (results.has("movies"))
-        {
-          movies = results.get("movies").getAsJsonArray();
-          if (movies.size() > 0)
-          {
-            ++categories;
-          }
-        }
-      } catch (Exception e) {
-      }
+      ++categories;
     }
-
-    rep = request_object(RECOMMENDATIONS_SHOWS_JSON);
-    JsonArray tvshows = new JsonArray();
-    if (rep != null && rep.has("result"))
+    if (tvshows.size() > 0)
     {
-      try
-      {
-        JsonObject results = rep.getAsJsonObject("result");
-        if (results.has("tvshows"))
-        {
-          tvshows = results.get("tvshows").getAsJsonArray();
-          if (tvshows.size() > 0)
-          {
-            ++categories;
-          }
-        }
-      } catch (Exception e) {
-      }
+      ++categories;
     }
-
-    rep = request_object(RECOMMENDATIONS_ALBUMS_JSON);
-    JsonArray albums = new JsonArray();
-    if (rep != null && rep.has("result"))
+    if (albums.size() > 0)
     {
-      try
-      {
-        JsonObject results = rep.getAsJsonObject("result");
-        if (results.has("albums"))
-        {
-          albums = results.get("albums").getAsJsonArray();
-          if (albums.size() > 0)
-          {
-            ++categories;
-          }
-        }
-      } catch (Exception e) {
-      }
+      ++categories;
     }
 
     // distribution by the number of categories with data
@@ -1230,193 +1577,123 @@ public class XBMCJsonRPC
       MAX_RECOMMENDATIONS = 3; // 3x3 items
     }
 
-    if (movies.size() > 0)
-    {
-      int count = 0;
-      for (int i = 0; i < movies.size() && count < MAX_RECOMMENDATIONS; ++i)
+    medias.addAll(movies.subList(0, Math.min(movies.size(), MAX_RECOMMENDATIONS)));
+    medias.addAll(tvshows.subList(0, Math.min(tvshows.size(), MAX_RECOMMENDATIONS)));
+    medias.addAll(albums.subList(0, Math.min(albums.size(), MAX_RECOMMENDATIONS)));
+
+    return medias;
+  }
+
+  /**
+   * @param mediaType the type of the items of the listing.
+   * @return the items mapped as they are read, empty on failure.
+   */
+  private CompletableFuture<List<Media>> recommendedMediasAsync(final String jsonRequest, final String mediaType)
+  {
+    return JsonRpcMetrics.atSite(JsonRpcMetrics.SITE_RECOMMENDATIONS, () -> supplyAsync(() -> {
+      try
       {
-        try
-        {
-          JsonObject details = movies.get(i).getAsJsonObject();
-          Movie med = createMovieFromJson(details);
-          if (med != null)
-          {
-            medias.add(med);
-            ++count;
-          }
-        }
-        catch (Exception e)
-        {
-          continue;
-        }
+        List<Media> medias = request_parsed(jsonRequest, (in) -> mMediaMapper.readItems(in, mediaType));
+        if (medias != null)
+          return medias;
       }
-    }
-
-    if (tvshows.size() > 0)
-    {
-      int count = 0;
-      for (int i = 0; i < tvshows.size() && count < MAX_RECOMMENDATIONS; ++i)
+      catch (JsonRpcTimeoutException e)
       {
-        try
-        {
-          JsonObject tvshow = tvshows.get(i).getAsJsonObject();
-          TVShow med = createTVShowFromJson(tvshow);
-          if (med != null)
-          {
-            medias.add(med);
-            ++count;
-          }
-        }
-        catch (Exception e)
-        {
-          continue;
-        }
+        throw e;
       }
-    }
-
-    if (albums.size() > 0)
-    {
-      int count = 0;
-      for (int i = 0; i < albums.size() && count < MAX_RECOMMENDATIONS; ++i)
+      catch (Exception e)
       {
-        try
-        {
-          JsonObject album = albums.get(i).getAsJsonObject();
-          Album med = createAlbumFromJson(album);
-          if (med != null)
-          {
-            medias.add(med);
-            ++count;
-          }
-        }
-        catch (Exception e)
-        {
-          continue;
-        }
+        e.printStackTrace();
       }
-    }
-
-    return medias;
+      return new ArrayList<Media>();
+    }));
   }
 
   public List<Media> getMedias(List<File> files)
   {
-    List<Media> medias = new ArrayList<Media>();
-
-    try
-    {
-      int nbItems = 0;
-      String strReq = "[";
-      for (int i = 0; i < files.size()  && nbItems < MAX_ITEMS; ++i)
-      {
-        File file = files.get(i);
-        String mediaType = file.getMediatype();
-        long mediaId = file.getId();
-        if (mediaType.equals("movie"))
-          strReq += String.format(RETRIEVE_MOVIE_DETAILS, mediaId, String.valueOf(++nbItems));
-        else if (mediaType.equals("episode"))
-          strReq += String.format(RETRIEVE_EPISODE_DETAILS, mediaId, String.valueOf(++nbItems));
-        else if (mediaType.equals("tvshow"))
-          strReq += String.format(RETRIEVE_TVSHOW_DETAILS, mediaId, String.valueOf(++nbItems));
-        else if (mediaType.equals("album"))
-          strReq += String.format(RETRIEVE_ALBUM_DETAILS, mediaId, String.valueOf(++nbItems));
-        else if (mediaType.equals("song"))
-          strReq += String.format(RETRIEVE_SONG_DETAILS, mediaId, String.valueOf(++nbItems));
-        else if (mediaType.equals("musicvideo"))
-          strReq += String.format(RETRIEVE_MUSICVIDEO_DETAILS, mediaId, String.valueOf(++nbItems));
-
-        if (i+1 < files.size()  && nbItems < MAX_ITEMS)
-          strReq += ",";
-      }
-      strReq += "]";
+    return getMedias(files, null);
+  }
 
-      JsonArray reqBatch = request_array(strReq);
-      if (reqBatch == null)
-        return medias;
+  /**
+   * Looks up the details of the files, in chunks of xbmc.mediaChunkSize files per batch
+   * with up to {@link #MEDIA_PARALLELISM} batches at once, and at most xbmc.maxMedias
+   * files. Files of other types than the library ones are skipped.
+   *
+   * @param onMedias receives the medias chunk by chunk, in order, as soon as they are
+   *                 known. May be null.
+   * @return all the medias, in the order of the files.
+   */
+  public List<Media> getMedias(List<File> files, Consumer<List<Media>> onMedias)
+  {
+    int maxMedias = XBMCProperties.getIntProperty("xbmc.maxMedias", DEFAULT_MAX_MEDIAS);
+    int chunkSize = XBMCProperties.getIntProperty("xbmc.mediaChunkSize", DEFAULT_MEDIA_CHUNK_SIZE);
 
-      nbItems = 0;
-      for (int i = 0; i < reqBatch.size(); ++i)
-      {
-        JsonObject req = reqBatch.get(i).getAsJsonObject();
-        if (req == null || !req.has("result"))
-          continue;
+    List<File> requested = new ArrayList<File>();
+    for (int i = 0; i < files.size() && requested.size() < maxMedias; ++i)
+    {
+      File file = files.get(i);
+      if (JsonMediaMapper.detailsTemplate(file.getMediatype()) != null)
+        requested.add(file);
+    }
 
-        File file = files.get(i);
-        String mediaType = file.getMediatype();
-        if (mediaType.equals("movie"))
-        {
-          JsonObject details = req.getAsJsonObject("result").getAsJsonObject("moviedetails");
-          Movie med = createMovieFromJson(details);
-          if (med != null)
-          {
-            medias.add(med);
-            nbItems++;
-          }
-        }
-        else if (mediaType.equals("episode"))
-        {
-          JsonObject details = req.getAsJsonObject("result").getAsJsonObject("episodedetails");
-          TVEpisode med = createTVEpisodeFromJson(details);
-          if (med != null)
-          {
-            medias.add(med);
-            nbItems++;
-          }
-        }
-        else if (mediaType.equals("tvshow"))
-        {
-          JsonObject details = req.getAsJsonObject("result").getAsJsonObject("tvshowdetails");
-          TVShow med = createTVShowFromJson(details);
-          medias.add(med);
-          nbItems++;
-        }
-        else if (mediaType.equals("album"))
-        {
-          JsonObject details = req.getAsJsonObject("result").getAsJsonObject("albumdetails");
-          Album med = createAlbumFromJson(details);
-          medias.add(med);
-          nbItems++;
-        }
-        else if (mediaType.equals("song"))
-        {
-          JsonObject details = req.getAsJsonObject("result").getAsJsonObject("songdetails");
-          Song med = createSongFromJson(details);
-          medias.add(med);
-          nbItems++;
-        }
-        else if (mediaType.equals("musicvideo"))
-        {
-          JsonObject details = req.getAsJsonObject("result").getAsJsonObject("musicvideodetails");
-          MusicVideo med = createMusicvideoFromJson(details);
-          medias.add(med);
-          nbItems++;
-        }
-      }
-    } catch (Exception e)
+    // the chunks run on other threads: they get the deadline of the caller
+    final Deadline deadline = Deadline.current();
+    try
+    {
+      return ChunkedBatch.run(requested, chunkSize, MEDIA_PARALLELISM, JsonRpcExecutor.get(),
+              (chunk) -> JsonRpcMetrics.atSite(JsonRpcMetrics.SITE_MEDIAS,
+                      () -> Deadline.run(deadline, () -> getMediasChunk(chunk))), onMedias);
+    }
+    catch (JsonRpcTimeoutException e)
+    {
+      throw e;
+    }
+    catch (Exception e)
     {
       e.printStackTrace();
+      return new ArrayList<Media>();
     }
-
-    return medias;
   }
 
-  private String extractKeyFromArtMap(JsonObject details, String key)
+  private List<Media> getMediasChunk(List<File> files)
   {
-    if (details.has("art") && !details.get("art").getAsJsonObject().isJsonNull() &&
-      details.get("art").getAsJsonObject().has(key) &&
-      !details.get("art").getAsJsonObject().get(key).getAsString().isEmpty())
+    // the responses of a batch are matched by id: request i of the batch has id i + 1
+    RequestBuilder builder = RequestBuilder.obtain().beginBatch();
+    final String[] mediaTypes = new String[files.size()];
+    for (int i = 0; i < files.size(); ++i)
     {
-      return getDownloadUrl(details.get("art").getAsJsonObject().get(key).getAsString());
+      File file = files.get(i);
+      mediaTypes[i] = file.getMediatype();
+      JsonMediaMapper.appendDetailsRequest(builder, file.getMediatype(), file.getId(), i + 1);
     }
-    return null;
-  }
+    String strReq = builder.endBatch().build();
 
-  private String convertRating(Double rating)
-  {
-    if(rating == null || rating.doubleValue() <= 0.0)
-      return null;
+    Media[] found;
+    try
+    {
+      // mapped as the response is read, without a tree
+      found = request_parsed(strReq, (in) -> mMediaMapper.readDetailsBatch(in, mediaTypes));
+    }
+    catch (JsonRpcTimeoutException e)
+    {
+      throw e;
+    }
+    catch (Exception e)
+    {
+      Log.e(TAG, "XBMCJsonRPC: Failed to parse JSON");
+      e.printStackTrace();
+      return new ArrayList<Media>();
+    }
+    if (found == null)
+      return new ArrayList<Media>();
 
-    return String.valueOf(rating / 2.0);
+    List<Media> medias = new ArrayList<Media>(found.length);
+    for (Media media : found)
+    {
+      if (media != null)
+        medias.add(media);
+    }
+    return medias;
   }
 
   private String getImageUrl(String sUrl)
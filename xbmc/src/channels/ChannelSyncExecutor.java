@@ -0,0 +1,216 @@
+package org.xbmc.kodi.channels;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import org.xbmc.kodi.XBMCProperties;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process wide executor running the channel and program syncs of the job services.
+ *
+ * <p>At most xbmc.channelSyncThreads syncs run at once, on threads reused from one job
+ * to the next and let go once idle. The syncs of a same key, e.g. a channel id, run one
+ * after the other in submission order; the syncs of different keys run concurrently.
+ */
+public final class ChannelSyncExecutor
+{
+  private static final int DEFAULT_THREADS = 2;
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  private static ChannelSyncExecutor sInstance = null;
+
+  private final ThreadPoolExecutor mPool;
+  private final Object mLock = new Object();
+  // the syncs waiting for the one running under the same key; a key is in the map
+  // while one of its syncs runs
+  private final Map<Object, ArrayDeque<Entry>> mWaiting = new HashMap<>();
+
+  // statistics, under mLock
+  private long mSubmitted = 0;
+  private long mCompleted = 0;
+  private long mTotalWaitMs = 0;
+  private long mMaxWaitMs = 0;
+  private long mTotalRunMs = 0;
+  private long mMaxRunMs = 0;
+
+  private static class Entry
+  {
+    final Object mKey;
+    final Runnable mTask;
+    final long mQueuedAt = SystemClock.elapsedRealtime();
+
+    Entry(Object key, Runnable task)
+    {
+      mKey = key;
+      mTask = task;
+    }
+  }
+
+  private ChannelSyncExecutor(int threads)
+  {
+    mPool = new ThreadPoolExecutor(
+            threads,
+            threads,
+            KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new SyncThreadFactory("Kodi-ChannelSync-"));
+    mPool.allowCoreThreadTimeOut(true);
+  }
+
+  public static synchronized ChannelSyncExecutor get(Context context)
+  {
+    if (sInstance == null)
+    {
+      XBMCProperties.initialize(context);
+      int threads = XBMCProperties.getIntProperty("xbmc.channelSyncThreads", DEFAULT_THREADS);
+      sInstance = new ChannelSyncExecutor(Math.max(1, threads));
+    }
+    return sInstance;
+  }
+
+  /**
+   * @return the executor if it was created, null otherwise.
+   */
+  public static synchronized ChannelSyncExecutor peek()
+  {
+    return sInstance;
+  }
+
+  /**
+   * Runs the task once the syncs submitted before under the same key are done.
+   *
+   * @param key e.g. the channel id the task syncs.
+   */
+  public void execute(Object key, Runnable task)
+  {
+    Entry entry = new Entry(key, task);
+    synchronized (mLock)
+    {
+      ++mSubmitted;
+      ArrayDeque<Entry> waiting = mWaiting.get(key);
+      if (waiting != null)
+      {
+        waiting.add(entry);
+        return;
+      }
+      mWaiting.put(key, new ArrayDeque<Entry>());
+    }
+    submit(entry);
+  }
+
+  private void submit(final Entry entry)
+  {
+    mPool.execute(() -> run(entry));
+  }
+
+  private void run(Entry entry)
+  {
+    long started = SystemClock.elapsedRealtime();
+    try
+    {
+      entry.mTask.run();
+    }
+    catch (Exception e)
+    {
+      e.printStackTrace();
+    }
+    finally
+    {
+      // whatever the task threw, e.g. an Error, the next sync of the key must run
+      handOff(entry, started);
+    }
+  }
+
+  private void handOff(Entry entry, long started)
+  {
+    long ended = SystemClock.elapsedRealtime();
+    Entry next;
+    synchronized (mLock)
+    {
+      ++mCompleted;
+      long waitMs = started - entry.mQueuedAt;
+      mTotalWaitMs += waitMs;
+      mMaxWaitMs = Math.max(mMaxWaitMs, waitMs);
+      mTotalRunMs += ended - started;
+      mMaxRunMs = Math.max(mMaxRunMs, ended - started);
+
+      ArrayDeque<Entry> waiting = mWaiting.get(entry.mKey);
+      next = waiting.poll();
+      if (next == null)
+        mWaiting.remove(entry.mKey);
+    }
+    // back in the pool queue rather than run here: the other keys get their turn
+    if (next != null)
+      submit(next);
+  }
+
+  /**
+   * @return the syncs submitted and not yet started, whether waiting for a thread or
+   * for their key.
+   */
+  public int getQueued()
+  {
+    int queued = mPool.getQueue().size();
+    synchronized (mLock)
+    {
+      for (ArrayDeque<Entry> waiting : mWaiting.values())
+        queued += waiting.size();
+    }
+    return queued;
+  }
+
+  public int getActive()
+  {
+    return mPool.getActiveCount();
+  }
+
+  @Override
+  public String toString()
+  {
+    int queued = getQueued();
+    synchronized (mLock)
+    {
+      return "ChannelSyncExecutor{threads=" + mPool.getPoolSize() + "/" + mPool.getMaximumPoolSize()
+              + ", largest=" + mPool.getLargestPoolSize()
+              + ", active=" + mPool.getActiveCount()
+              + ", queued=" + queued
+              + ", keys=" + mWaiting.size()
+              + ", submitted=" + mSubmitted
+              + ", completed=" + mCompleted
+              + ", avgWaitMs=" + (mCompleted > 0 ? mTotalWaitMs / mCompleted : 0)
+              + ", maxWaitMs=" + mMaxWaitMs
+              + ", avgRunMs=" + (mCompleted > 0 ? mTotalRunMs / mCompleted : 0)
+              + ", maxRunMs=" + mMaxRunMs
+              + '}';
+    }
+  }
+
+  private static class SyncThreadFactory implements ThreadFactory
+  {
+    private final String mPrefix;
+    private final AtomicInteger mCount = new AtomicInteger(0);
+
+    SyncThreadFactory(String prefix)
+    {
+      mPrefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable r)
+    {
+      Thread thread = new Thread(r, mPrefix + mCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
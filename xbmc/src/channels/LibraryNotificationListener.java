@@ -0,0 +1,222 @@
+package org.xbmc.kodi.channels;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import org.xbmc.kodi.XBMCJsonRPC;
+import org.xbmc.kodi.XBMCProperties;
+import org.xbmc.kodi.channels.model.Subscription;
+import org.xbmc.kodi.channels.model.XBMCDatabase;
+import org.xbmc.kodi.channels.util.TvUtil;
+import org.xbmc.kodi.jsonrpc.TcpTransport;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes the channels when Kodi reports a library change, rather than polling them.
+ *
+ * <p>Listens to the notifications of the Kodi TCP port and schedules a program sync for
+ * the channels the change may affect only: video changes for the video playlists,
+ * music changes for the music playlists, both for mixed playlists, and anything for the
+ * suggestion channel. Updates sent while a library is scanned are ignored, the end of
+ * the scan refreshes the channels once.
+ *
+ * <p>While connected, the timed sync of the channels is only a safety net, see
+ * {@link TvUtil#scheduleTimedSyncingProgramsForChannel(Context, long)}.
+ */
+public class LibraryNotificationListener implements TcpTransport.NotificationListener
+{
+  private static final String TAG = "Kodi";
+  private static final long CONNECT_INTERVAL_MS = 30 * 1000;
+
+  private static final int SCOPE_NONE = 0;
+  private static final int SCOPE_VIDEO = 1;
+  private static final int SCOPE_MUSIC = 1 << 1;
+  // e.g. resume points, only shown by the suggestions
+  private static final int SCOPE_PLAYER = 1 << 2;
+
+  private static LibraryNotificationListener sInstance = null;
+
+  private final Context mContext;
+  private final TcpTransport mTransport;
+  private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+  private volatile boolean mConnected = false;
+  private boolean mWasConnected = false;
+  private volatile boolean mVideoScanning = false;
+  private volatile boolean mMusicScanning = false;
+
+  private LibraryNotificationListener(Context context)
+  {
+    mContext = context;
+    XBMCProperties.initialize(context);
+    // the notifications are recorded for the title index from the start
+    XBMCJsonRPC.openLibrary(context);
+    mTransport = XBMCJsonRPC.getTcpTransport();
+  }
+
+  /**
+   * Starts listening, unless xbmc.channelPush is "no". Kodi may not be up yet: the
+   * connection is retried until it is.
+   */
+  public static synchronized void start(Context context)
+  {
+    if (sInstance != null)
+      return;
+    XBMCProperties.initialize(context.getApplicationContext());
+    if (XBMCProperties.getStringProperty("xbmc.channelPush", "yes").equalsIgnoreCase("no"))
+      return;
+
+    sInstance = new LibraryNotificationListener(context.getApplicationContext());
+    sInstance.mTransport.addListener(sInstance);
+    sInstance.mExecutor.scheduleWithFixedDelay(
+            sInstance::keepConnected, 0, CONNECT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+  }
+
+  public static synchronized void stop()
+  {
+    if (sInstance == null)
+      return;
+    sInstance.mTransport.removeListener(sInstance);
+    sInstance.mExecutor.shutdownNow();
+    sInstance = null;
+  }
+
+  /**
+   * @return true while library changes are pushed, i.e. the channels need no polling.
+   */
+  public static synchronized boolean isListening()
+  {
+    return sInstance != null && sInstance.mConnected;
+  }
+
+  @Override
+  public void onNotification(String method, String notification)
+  {
+    // the cached responses must be dropped before the sync jobs read them
+    XBMCJsonRPC.onLibraryNotification(method, notification);
+
+    int scope = SCOPE_NONE;
+    switch (method)
+    {
+      case "VideoLibrary.OnScanStarted":
+        mVideoScanning = true;
+        break;
+      case "VideoLibrary.OnScanFinished":
+        mVideoScanning = false;
+        scope = SCOPE_VIDEO;
+        break;
+      case "VideoLibrary.OnUpdate":
+      case "VideoLibrary.OnRemove":
+        scope = mVideoScanning ? SCOPE_NONE : SCOPE_VIDEO;
+        break;
+      case "VideoLibrary.OnCleanFinished":
+        scope = SCOPE_VIDEO;
+        break;
+      case "AudioLibrary.OnScanStarted":
+        mMusicScanning = true;
+        break;
+      case "AudioLibrary.OnScanFinished":
+        mMusicScanning = false;
+        scope = SCOPE_MUSIC;
+        break;
+      case "AudioLibrary.OnUpdate":
+      case "AudioLibrary.OnRemove":
+        scope = mMusicScanning ? SCOPE_NONE : SCOPE_MUSIC;
+        break;
+      case "AudioLibrary.OnCleanFinished":
+        scope = SCOPE_MUSIC;
+        break;
+      case "Player.OnStop":
+        scope = SCOPE_PLAYER;
+        break;
+      default:
+        break;
+    }
+
+    if (scope != SCOPE_NONE)
+    {
+      final int affected = scope;
+      // called on the reading thread of the connection, which must not block
+      mExecutor.execute(() -> scheduleSyncs(affected));
+    }
+  }
+
+  private void keepConnected()
+  {
+    try
+    {
+      mTransport.connect();
+    }
+    catch (Exception e)
+    {
+      // Kodi is not up yet, or its TCP port is disabled
+    }
+
+    boolean connected = mTransport.isConnected();
+    if (connected == mConnected)
+      return;
+
+    Log.d(TAG, "LibraryNotificationListener: connected=" + connected);
+    mConnected = connected;
+    // changes pushed while disconnected were missed
+    boolean missed = connected && mWasConnected;
+    mWasConnected |= connected;
+    if (missed)
+      XBMCJsonRPC.onLibraryNotificationsMissed();
+
+    try
+    {
+      for (Subscription subscription : XBMCDatabase.getSubscriptions(mContext))
+      {
+        if (subscription.getChannelId() == 0)
+          continue;
+        TvUtil.scheduleTimedSyncingProgramsForChannel(mContext, subscription.getChannelId());
+        if (missed)
+          TvUtil.scheduleNotifiedSyncingProgramsForChannel(mContext, subscription.getChannelId());
+      }
+    }
+    catch (Exception e)
+    {
+      Log.e(TAG, "LibraryNotificationListener: Failed to reschedule syncs");
+      e.printStackTrace();
+    }
+  }
+
+  private void scheduleSyncs(int scope)
+  {
+    try
+    {
+      for (Subscription subscription : XBMCDatabase.getSubscriptions(mContext))
+      {
+        if (subscription.getChannelId() != 0 && (getScope(subscription.getUri()) & scope) != 0)
+          TvUtil.scheduleNotifiedSyncingProgramsForChannel(mContext, subscription.getChannelId());
+      }
+    }
+    catch (Exception e)
+    {
+      Log.e(TAG, "LibraryNotificationListener: Failed to schedule syncs");
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * @return the changes affecting the channel of a subscription.
+   */
+  private static int getScope(String uri)
+  {
+    if (uri.isEmpty())
+      return SCOPE_VIDEO | SCOPE_MUSIC | SCOPE_PLAYER;
+
+    String xbmcURL = Uri.parse(uri).getFragment();
+    if (xbmcURL == null)
+      xbmcURL = uri;
+    if (xbmcURL.startsWith("videodb://") || xbmcURL.contains("/playlists/video/"))
+      return SCOPE_VIDEO;
+    if (xbmcURL.startsWith("musicdb://") || xbmcURL.contains("/playlists/music/"))
+      return SCOPE_MUSIC;
+    return SCOPE_VIDEO | SCOPE_MUSIC;
+  }
+}
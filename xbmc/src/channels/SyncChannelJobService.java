@@ -17,8 +17,6 @@ package org.xbmc.kodi.channels;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import android.app.job.JobParameters;
 import android.app.job.JobScheduler;
@@ -37,6 +35,9 @@ import org.xbmc.kodi.channels.model.Subscription;
 import org.xbmc.kodi.channels.model.XBMCDatabase;
 import org.xbmc.kodi.channels.util.TvUtil;
 import org.xbmc.kodi.content.XBMCFileContentProvider;
+import org.xbmc.kodi.jsonrpc.Deadline;
+import org.xbmc.kodi.jsonrpc.JsonRpcDispatcher;
+import org.xbmc.kodi.jsonrpc.SnapshotFile;
 import org.xbmc.kodi.model.File;
 
 /**
@@ -47,6 +48,11 @@ public class SyncChannelJobService extends JobService
 {
 
   private static final String TAG = "Kodi";
+  // how long Kodi is waited for before the channels are set up from the snapshot
+  private static final long SNAPSHOT_WAIT_MS = 2 * 1000;
+  // the playlists of the last good listing
+  private static final String PLAYLISTS_SNAPSHOT = "playlists.snapshot";
+  private static final String PLAYLISTS_SECTION = "playlists";
 
   private SyncChannelTask mSyncChannelTask;
 
@@ -81,19 +87,21 @@ public class SyncChannelJobService extends JobService
   private static class SyncChannelTask
   {
     private final Context mContext;
-    private ExecutorService executor;
     private Handler handler;
+    private volatile boolean mCanceled = false;
 
     SyncChannelTask(Context context)
     {
       mContext = context;
-      executor = Executors.newSingleThreadExecutor();
       handler = new Handler(Looper.getMainLooper());
     }
 
     public void execute()
     {
-      executor.execute(() -> {
+      // the channel list is synced by one task at a time
+      ChannelSyncExecutor.get(mContext).execute(SyncChannelJobService.class, () -> {
+        if (mCanceled)
+          return;
         Boolean success = doInBackground();
         handler.post(() -> onPostExecute(success));
       });
@@ -103,7 +111,7 @@ public class SyncChannelJobService extends JobService
 
     protected void cancel()
     {
-      executor.shutdown();
+      mCanceled = true;
     }
 
     List<File> getFilesFromUrl(String url)
@@ -128,21 +136,71 @@ public class SyncChannelJobService extends JobService
       return list;
     }
 
+    /**
+     * @return the playlists of the last good listing, null if there is none.
+     */
+    List<File> readPlaylists()
+    {
+      SnapshotFile snapshot = SnapshotFile.open(new java.io.File(mContext.getFilesDir(), PLAYLISTS_SNAPSHOT));
+      SnapshotFile.Section section = snapshot != null ? snapshot.getSection(PLAYLISTS_SECTION) : null;
+      if (section == null || section.getFieldCount() != 3)
+        return null;
+
+      List<File> playlists = new ArrayList<>(section.size());
+      for (int i = 0; i < section.size(); ++i)
+        playlists.add(File.createFile(section.getString(i, 0), section.getString(i, 1), section.getString(i, 2)));
+      return playlists;
+    }
+
+    void savePlaylists(List<File> playlists)
+    {
+      SnapshotFile.Writer writer = new SnapshotFile.Writer().beginSection(PLAYLISTS_SECTION, 3);
+      for (File file : playlists)
+        writer.add(file.getName(), file.getCategory(), file.getUri());
+      if (!writer.write(new java.io.File(mContext.getFilesDir(), PLAYLISTS_SNAPSHOT)))
+        Log.w(TAG, "SyncChannelJobService: cannot write the playlists snapshot");
+    }
+
     protected Boolean doInBackground()
     {
-      XBMCJsonRPC json = new XBMCJsonRPC(mContext);
-      if (!json.Ping())
-        return false;
+      XBMCJsonRPC json = new XBMCJsonRPC(mContext, XBMCJsonRPC.TIMEOUT_SYNC_MS,
+              JsonRpcDispatcher.LANE_BACKGROUND);
+      List<File> playlistsContent = null;
+      if (!json.awaitAvailable(SNAPSHOT_WAIT_MS))
+      {
+        // Kodi is still starting, e.g. after a boot: set the channels up from the last
+        // good listing now, the job is rescheduled to reconcile once Kodi answers.
+        // Without a snapshot the job is rescheduled rather than hold a sync thread
+        playlistsContent = readPlaylists();
+        if (playlistsContent == null)
+          return false;
+      }
       json = null;
+      boolean fromSnapshot = playlistsContent != null;
 
       List<Subscription> subscriptions = XBMCDatabase.getSubscriptions(mContext);
       List<Subscription> freshsubscriptions = new ArrayList<>();
-      List<File> playlistsContent = new ArrayList<>();
       XBMCURIUtils uriutils = new XBMCURIUtils();
 
-      playlistsContent.addAll(getFilesFromUrl(uriutils.substitutePath("special://profile/playlists/video/")));
-      playlistsContent.addAll(getFilesFromUrl(uriutils.substitutePath("special://profile/playlists/mixed/")));
-      playlistsContent.addAll(getFilesFromUrl(uriutils.substitutePath("special://profile/playlists/music/")));
+      if (!fromSnapshot)
+      {
+        List<File> listing = new ArrayList<>();
+        // the provider runs on this thread: it gets the time of a job, not of a search
+        Deadline deadline = Deadline.after(XBMCJsonRPC.TIMEOUT_SYNC_MS);
+        deadline.run(() -> {
+          listing.addAll(getFilesFromUrl(uriutils.substitutePath("special://profile/playlists/video/")));
+          listing.addAll(getFilesFromUrl(uriutils.substitutePath("special://profile/playlists/mixed/")));
+          listing.addAll(getFilesFromUrl(uriutils.substitutePath("special://profile/playlists/music/")));
+          return null;
+        });
+        // a listing cut short would make its channels look gone
+        if (deadline.isExpired())
+          return false;
+        savePlaylists(listing);
+        playlistsContent = listing;
+      }
+      else
+        Log.i(TAG, "SyncChannelJobService: Kodi not up yet, channels set up from the snapshot");
 
       Subscription sub = Subscription.createSubscription(mContext.getString(R.string.suggestion_channel), "", R.drawable.ic_recommendation_80dp);
       if (subscriptions.size() == 0)  // First-run: Add default channel
@@ -214,6 +272,8 @@ public class SyncChannelJobService extends JobService
             scheduler.cancel(TvUtil.getTriggeredJobIdForChannelId(chanid));
           if (scheduler.getPendingJob(TvUtil.getTimedJobIdForChannelId(chanid)) != null)
             scheduler.cancel(TvUtil.getTimedJobIdForChannelId(chanid));
+          if (scheduler.getPendingJob(TvUtil.getNotifiedJobIdForChannelId(chanid)) != null)
+            scheduler.cancel(TvUtil.getNotifiedJobIdForChannelId(chanid));
 
           continue;
         }
@@ -222,7 +282,8 @@ public class SyncChannelJobService extends JobService
       }
       XBMCDatabase.saveSubscriptions(mContext, freshsubscriptions);
 
-      return true;
+      // not done until the listing was read from Kodi
+      return !fromSnapshot;
     }
   }
 }
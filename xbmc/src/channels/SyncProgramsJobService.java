@@ -31,6 +31,8 @@ import androidx.tvprovider.media.tv.TvContractCompat;
 
 import org.xbmc.kodi.Splash;
 import org.xbmc.kodi.XBMCJsonRPC;
+import org.xbmc.kodi.jsonrpc.JsonRpcDispatcher;
+import org.xbmc.kodi.jsonrpc.JsonRpcTimeoutException;
 import org.xbmc.kodi.model.Movie;
 import org.xbmc.kodi.model.TVShow;
 import org.xbmc.kodi.model.TVEpisode;
@@ -43,8 +45,6 @@ import org.xbmc.kodi.channels.util.TvUtil;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * Syncs programs for a channel. A channel id is required to be passed via the {@link
@@ -113,19 +113,23 @@ public class SyncProgramsJobService extends JobService
   private class SyncProgramsTask
   {
     private final Context mContext;
-    private ExecutorService executor;
     private Handler handler;
+    private volatile boolean mCanceled = false;
 
     private SyncProgramsTask(Context context)
     {
       mContext = context;
-      executor = Executors.newSingleThreadExecutor();
       handler = new Handler(Looper.getMainLooper());
     }
 
     public void execute(Long... channelIds)
     {
-      executor.execute(() -> {
+      // the programs of a channel are synced by one task at a time, other channels
+      // concurrently
+      Object key = channelIds.length == 1 ? channelIds[0] : SyncProgramsJobService.class;
+      ChannelSyncExecutor.get(mContext).execute(key, () -> {
+        if (mCanceled)
+          return;
         Boolean finished = doInBackground(channelIds);
         handler.post(() -> onPostExecute(finished));
       });
@@ -135,12 +139,15 @@ public class SyncProgramsJobService extends JobService
 
     protected void cancel()
     {
-      executor.shutdown();
+      mCanceled = true;
     }
 
     protected Boolean doInBackground(Long... channelIds)
     {
-      XBMCJsonRPC json = new XBMCJsonRPC(mContext);
+      // Kodi may still be starting: the job is rescheduled rather than hold a sync
+      // thread waiting for it
+      XBMCJsonRPC json = new XBMCJsonRPC(mContext, XBMCJsonRPC.TIMEOUT_SYNC_MS,
+                  JsonRpcDispatcher.LANE_BACKGROUND);
       if (!json.Ping())
         return false;
       json = null;
@@ -155,7 +162,16 @@ public class SyncProgramsJobService extends JobService
           if (subscription != null)
           {
             List<Media> cachedMedias = XBMCDatabase.getMedias(mContext, channelId);
-            syncPrograms(channelId, subscription.getUri(), cachedMedias);
+            try
+            {
+              syncPrograms(channelId, subscription.getUri(), cachedMedias);
+            }
+            catch (JsonRpcTimeoutException e)
+            {
+              // Kodi stalls: give the job back, it is rescheduled
+              Log.w(TAG, "SyncProgramsJobService: " + e.getMessage());
+              return false;
+            }
           }
         }
       }
@@ -191,14 +207,17 @@ public class SyncProgramsJobService extends JobService
         {
           Channel channel = Channel.fromCursor(cursor);
           
-          XBMCJsonRPC jsonrpc = new XBMCJsonRPC(mContext);
+          XBMCJsonRPC jsonrpc = new XBMCJsonRPC(mContext, XBMCJsonRPC.TIMEOUT_SYNC_MS,
+                  JsonRpcDispatcher.LANE_BACKGROUND);
           if (uri.isEmpty())
           {
             // Suggestion channel
             Log.d(TAG, "SyncProgramsJobService: Suggestion channel is browsable: " + channelId);
 
+            // fetched first: a timeout leaves the programs in place
+            List<Media> suggestions = jsonrpc.getSuggestions();
             deletePrograms(channelId, medias);
-            medias = createPrograms(channelId, jsonrpc.getSuggestions());
+            medias = createPrograms(channelId, suggestions);
           }
           else
           {
@@ -208,10 +227,17 @@ public class SyncProgramsJobService extends JobService
             List<File> files = jsonrpc.getFiles(xbmcURL);
 
             deletePrograms(channelId, medias);
-            medias = createPrograms(channelId, jsonrpc.getMedias(files));
+            // programs show up as their chunk of details arrives. Those inserted before
+            // a chunk times out are saved all the same, for the next run to delete them
+            final List<Media> added = new ArrayList<>();
+            medias = added;
+            jsonrpc.getMedias(files, chunk -> added.addAll(createPrograms(channelId, chunk)));
           }
           jsonrpc = null;
         }
+      }
+      finally
+      {
         XBMCDatabase.saveMedias(getApplicationContext(), channelId, medias);
       }
     }
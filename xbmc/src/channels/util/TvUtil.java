@@ -38,6 +38,7 @@ import androidx.tvprovider.media.tv.ChannelLogoUtils;
 import androidx.tvprovider.media.tv.TvContractCompat;
 
 import org.xbmc.kodi.Splash;
+import org.xbmc.kodi.channels.LibraryNotificationListener;
 import org.xbmc.kodi.channels.SyncChannelJobService;
 import org.xbmc.kodi.channels.SyncProgramsJobService;
 import org.xbmc.kodi.channels.model.Subscription;
@@ -52,6 +53,14 @@ public class TvUtil
   private static final int CHANNEL_JOB_ID = 500;
   private static final int CHANNEL_TRIGGERED_JOB_ID_OFFSET = 1000;
   private static final int CHANNEL_TIMED_JOB_ID_OFFSET = 2000;
+  private static final int CHANNEL_NOTIFIED_JOB_ID_OFFSET = 3000;
+
+  private static final long TIMED_SYNC_INTERVAL_MS = 30 * 60 * 1000;
+  // library changes are pushed: polling only catches what was missed
+  private static final long SAFETY_NET_SYNC_INTERVAL_MS = 6 * 60 * 60 * 1000;
+  // lets a burst of changes settle into one sync
+  private static final long NOTIFIED_SYNC_DELAY_MS = 10 * 1000;
+  private static final long NOTIFIED_SYNC_DEADLINE_MS = 60 * 1000;
 
   private static final String[] CHANNELS_PROJECTION = {
           TvContractCompat.Channels._ID,
@@ -258,28 +267,35 @@ public class TvUtil
    * Schedulers syncing programs for a channel on a time base. The scheduler will listen to a {@link Uri} for a
    * particular channel.
    *
+   * <p>While {@link LibraryNotificationListener} pushes the library changes the interval is
+   * a long safety net, rescheduled when the listener connects or disconnects.
+   *
    * @param context   for accessing the {@link JobScheduler}.
    * @param channelId for the channel to listen for changes.
    */
   public static void scheduleTimedSyncingProgramsForChannel(Context context, long channelId)
   {
+    long interval = LibraryNotificationListener.isListening()
+            ? SAFETY_NET_SYNC_INTERVAL_MS : TIMED_SYNC_INTERVAL_MS;
+
     JobScheduler scheduler =
             (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
-    if (scheduler.getPendingJob(getTimedJobIdForChannelId(channelId)) != null)
+    JobInfo pending = scheduler.getPendingJob(getTimedJobIdForChannelId(channelId));
+    if (pending != null && pending.getIntervalMillis() == interval)
       return;
 
     ComponentName componentName = new ComponentName(context, SyncProgramsJobService.class);
 
     JobInfo.Builder builder =
             new JobInfo.Builder(getTimedJobIdForChannelId(channelId), componentName);
-    builder.setPeriodic(1800000);
+    builder.setPeriodic(interval);
 
     PersistableBundle bundle = new PersistableBundle();
     bundle.putLong(TvContractCompat.EXTRA_CHANNEL_ID, channelId);
     builder.setExtras(bundle);
 
     JobInfo job = builder.build();
-    Log.d(TAG, "TvUtil: scheduleTimedSyncingProgramsForChannel: minperiod=" + job.getMinPeriodMillis());
+    Log.d(TAG, "TvUtil: scheduleTimedSyncingProgramsForChannel: period=" + interval + " minperiod=" + job.getMinPeriodMillis());
 
     try {
       scheduler.schedule(job);
@@ -288,6 +304,40 @@ public class TvUtil
     }
   }
 
+  /**
+   * Schedules syncing programs for a channel after a library change. Changes arriving
+   * while the sync is pending are covered by it.
+   *
+   * @param context   for accessing the {@link JobScheduler}.
+   * @param channelId for the channel affected by the change.
+   */
+  public static void scheduleNotifiedSyncingProgramsForChannel(Context context, long channelId)
+  {
+    JobScheduler scheduler =
+            (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+    if (scheduler.getPendingJob(getNotifiedJobIdForChannelId(channelId)) != null)
+      return;
+
+    ComponentName componentName = new ComponentName(context, SyncProgramsJobService.class);
+
+    JobInfo.Builder builder =
+            new JobInfo.Builder(getNotifiedJobIdForChannelId(channelId), componentName);
+    builder.setMinimumLatency(NOTIFIED_SYNC_DELAY_MS);
+    builder.setOverrideDeadline(NOTIFIED_SYNC_DEADLINE_MS);
+
+    PersistableBundle bundle = new PersistableBundle();
+    bundle.putLong(TvContractCompat.EXTRA_CHANNEL_ID, channelId);
+    builder.setExtras(bundle);
+
+    Log.d(TAG, "TvUtil: scheduleNotifiedSyncingProgramsForChannel: " + channelId);
+
+    try {
+      scheduler.schedule(builder.build());
+    } catch (IllegalStateException e) {
+      Log.w(TAG, "TvUtil: scheduleNotifiedSyncingProgramsForChannel - Exception: " + e.getMessage());
+    }
+  }
+
   public static int getTriggeredJobIdForChannelId(long channelId)
   {
     return (int) (CHANNEL_TRIGGERED_JOB_ID_OFFSET + channelId);
@@ -297,4 +347,9 @@ public class TvUtil
   {
     return (int) (CHANNEL_TIMED_JOB_ID_OFFSET + channelId);
   }
+
+  public static int getNotifiedJobIdForChannelId(long channelId)
+  {
+    return (int) (CHANNEL_NOTIFIED_JOB_ID_OFFSET + channelId);
+  }
 }
@@ -5,6 +5,16 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.net.Uri;
 
+import org.xbmc.kodi.XBMCJsonRPC;
+import org.xbmc.kodi.channels.ChannelSyncExecutor;
+import org.xbmc.kodi.jsonrpc.JsonRpcDispatcher;
+import org.xbmc.kodi.jsonrpc.JsonRpcHealthMonitor;
+import org.xbmc.kodi.jsonrpc.JsonRpcMetrics;
+import org.xbmc.kodi.jsonrpc.TcpTransport;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 /**
  * Created by koyin on 17/12/2017.
  */
@@ -46,4 +56,23 @@ public abstract class XBMCContentProvider extends ContentProvider
     return null;
   }
 
+  /**
+   * JSON-RPC statistics, e.g. "adb shell dumpsys activity provider org.xbmc.kodi".
+   */
+  @Override
+  public void dump(FileDescriptor fd, PrintWriter writer, String[] args)
+  {
+    JsonRpcMetrics.get().dump(writer);
+    writer.println(JsonRpcDispatcher.get());
+    writer.println(XBMCJsonRPC.getResponseCache());
+    writer.println(JsonRpcHealthMonitor.get());
+    // not created just to be dumped
+    TcpTransport transport = XBMCJsonRPC.peekTcpTransport();
+    if (transport != null)
+      writer.println(transport);
+    ChannelSyncExecutor executor = ChannelSyncExecutor.peek();
+    if (executor != null)
+      writer.println(executor);
+  }
+
 }
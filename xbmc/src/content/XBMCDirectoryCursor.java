@@ -0,0 +1,151 @@
+package org.xbmc.kodi.content;
+
+import android.database.Cursor;
+
+import org.xbmc.kodi.XBMCJsonRPC;
+import org.xbmc.kodi.jsonrpc.DirectoryPage;
+import org.xbmc.kodi.jsonrpc.JsonRpcTimeoutException;
+import org.xbmc.kodi.model.File;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cursor over a Kodi directory listing, fetched page by page as the consumer moves.
+ *
+ * <p>Only the last few pages visited are kept, so memory stays bounded whatever the
+ * size of the directory. Pages are fetched on the thread moving the cursor.
+ */
+public class XBMCDirectoryCursor extends XBMCRecordCursor
+{
+  public static final int PAGE_SIZE = 200;
+  private static final int MAX_PAGES = 3;
+
+  private static final String[] COLUMNS = new String[]
+          {
+                  File.NAME,
+                  File.CATEGORY,
+                  File.URI,
+                  File.ID,
+                  File.MEDIATYPE
+          };
+  private static final int COLUMN_NAME = 0;
+  private static final int COLUMN_CATEGORY = 1;
+  private static final int COLUMN_URI = 2;
+  private static final int COLUMN_ID = 3;
+  private static final int COLUMN_MEDIATYPE = 4;
+
+  private final XBMCJsonRPC mJsonRPC;
+  private final String mUrl;
+  private final int mCount;
+  private final Map<Integer, DirectoryPage> mPages =
+          new LinkedHashMap<Integer, DirectoryPage>(MAX_PAGES + 1, 0.75f, true)
+          {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, DirectoryPage> eldest)
+            {
+              return size() > MAX_PAGES;
+            }
+          };
+
+  private DirectoryPage mPage = null;
+  private int mRow = -1;
+
+  private XBMCDirectoryCursor(XBMCJsonRPC jsonRPC, String url, DirectoryPage first, String[] projection)
+  {
+    super(COLUMNS, projection);
+    mJsonRPC = jsonRPC;
+    mUrl = url;
+    mCount = first.getTotal();
+    mPages.put(0, first);
+  }
+
+  /**
+   * Fetches the first page of a directory.
+   *
+   * @param projection the columns to expose, null for all of them.
+   * @return the cursor, or null if the directory is empty or cannot be listed.
+   */
+  public static XBMCDirectoryCursor open(XBMCJsonRPC jsonRPC, String url, String[] projection)
+  {
+    DirectoryPage first = jsonRPC.getFilesPage(url, 0, PAGE_SIZE);
+    if (first == null || first.getTotal() <= 0 || first.size() == 0)
+      return null;
+    return new XBMCDirectoryCursor(jsonRPC, url, first, projection);
+  }
+
+  @Override
+  public int getCount()
+  {
+    return mCount;
+  }
+
+  @Override
+  public boolean onMove(int oldPosition, int newPosition)
+  {
+    int index = newPosition / PAGE_SIZE;
+    DirectoryPage page = mPages.get(index);
+    if (page == null)
+    {
+      try
+      {
+        page = mJsonRPC.getFilesPage(mUrl, index * PAGE_SIZE, PAGE_SIZE);
+      }
+      catch (JsonRpcTimeoutException e)
+      {
+        // the rows of this page are unavailable, the cursor stays usable
+        return false;
+      }
+      if (page == null)
+        return false;
+      mPages.put(index, page);
+    }
+
+    // the directory may have shrunk since the first page
+    int row = newPosition - page.getStart();
+    if (row >= page.size())
+      return false;
+
+    mPage = page;
+    mRow = row;
+    return true;
+  }
+
+  @Override
+  protected int getRecordType(int column)
+  {
+    switch (column)
+    {
+      case COLUMN_ID:
+        return Cursor.FIELD_TYPE_INTEGER;
+      case COLUMN_URI:
+        return mPage.getFile(mRow).isEmpty() ? Cursor.FIELD_TYPE_NULL : Cursor.FIELD_TYPE_STRING;
+      case COLUMN_MEDIATYPE:
+        return mPage.getType(mRow) == null ? Cursor.FIELD_TYPE_NULL : Cursor.FIELD_TYPE_STRING;
+      default:
+        return Cursor.FIELD_TYPE_STRING;
+    }
+  }
+
+  @Override
+  protected String getRecordString(int column)
+  {
+    switch (column)
+    {
+      case COLUMN_NAME:
+        return mPage.getLabel(mRow);
+      case COLUMN_CATEGORY:
+        return mPage.getFileType(mRow);
+      case COLUMN_URI:
+        return XBMCFileContentProvider.buildUri(mPage.getFile(mRow)).toString();
+      default:
+        return mPage.getType(mRow);
+    }
+  }
+
+  @Override
+  protected long getRecordLong(int column)
+  {
+    return mPage.getId(mRow);
+  }
+}
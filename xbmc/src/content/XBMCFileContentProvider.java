@@ -1,19 +1,18 @@
 package org.xbmc.kodi.content;
 
 import android.database.Cursor;
-import android.database.MatrixCursor;
 import android.net.Uri;
 import android.os.ParcelFileDescriptor;
 import android.util.Log;
 
 import org.xbmc.kodi.XBMCFile;
 import org.xbmc.kodi.XBMCJsonRPC;
-import org.xbmc.kodi.model.File;
+import org.xbmc.kodi.jsonrpc.JsonRpcDispatcher;
+import org.xbmc.kodi.jsonrpc.JsonRpcTimeoutException;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.List;
 
 public class XBMCFileContentProvider extends XBMCContentProvider
 {
@@ -47,7 +46,8 @@ public class XBMCFileContentProvider extends XBMCContentProvider
   @Override
   public boolean onCreate()
   {
-    mJsonRPC = new XBMCJsonRPC(getContext());
+    mJsonRPC = new XBMCJsonRPC(getContext(), XBMCJsonRPC.TIMEOUT_INTERACTIVE_MS,
+            JsonRpcDispatcher.LANE_INTERACTIVE);
     return true;
   }
 
@@ -57,32 +57,15 @@ public class XBMCFileContentProvider extends XBMCContentProvider
   {
     String xbmcURL = uri.getFragment();
 
-    List<File> files = mJsonRPC.getFiles(xbmcURL);
-    if (files.isEmpty())
-      return null;
-
-    String[] fileCols = new String[]
-            {
-                    File.NAME,
-                    File.CATEGORY,
-                    File.URI,
-                    File.ID,
-                    File.MEDIATYPE
-            };
-    MatrixCursor mc = new MatrixCursor(fileCols);
-
-    for (File file : files)
+    try
     {
-      mc.addRow(new Object[]
-              {
-                      file.getName(),
-                      file.getCategory(),
-                      file.getUri(),
-                      file.getId(),
-                      file.getMediatype()
-              });
+      return XBMCDirectoryCursor.open(mJsonRPC, xbmcURL, projection);
+    }
+    catch (JsonRpcTimeoutException e)
+    {
+      Log.w(TAG, "XBMCFileContentProvider.query: " + e.getMessage());
+      return null;
     }
-    return mc;
   }
 
   @Override
@@ -0,0 +1,307 @@
+package org.xbmc.kodi.content;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import org.xbmc.kodi.jsonrpc.LibraryStore;
+import org.xbmc.kodi.jsonrpc.SearchHit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * On device replica of the movies, tv shows, albums and artists of the library, kept in
+ * step by {@link org.xbmc.kodi.jsonrpc.LibrarySync}, with a full text index over the
+ * titles, original titles, movie sets, album labels, actors and directors.
+ *
+ * <p>Searches are answered from the replica without asking Kodi once every type synced,
+ * and the replica outlives the process: it answers them from the start, while the first
+ * sync refreshes it.
+ *
+ * <p>The index is an FTS4 table over the items table, kept current by triggers. Items
+ * are never written with INSERT OR REPLACE, which would skip the delete triggers.
+ */
+public class XBMCLibraryDatabase extends SQLiteOpenHelper implements LibraryStore
+{
+  private static final String DATABASE_NAME = "library.db";
+  private static final int DATABASE_VERSION = 1;
+
+  private static final String TABLE_ITEMS = "items";
+  private static final String TABLE_WATERMARKS = "watermarks";
+
+  private static final String[] ITEM_COLUMNS =
+          {"type", "id", "title", "subtitle", "poster", "thumb", "fanart", "year", "runtime",
+           "originaltitle", "movieset", "label", "people", "dateadded"};
+
+  private static final String SEARCH_QUERY = "SELECT items.type, items.id, items.title, items.subtitle, items.poster,"
+          + " items.thumb, items.fanart, items.year, items.runtime, items.originaltitle, items.movieset, items.label,"
+          + " items.people, items.dateadded FROM items JOIN items_fts ON items._id = items_fts.docid"
+          + " WHERE items_fts MATCH ?";
+  private static final String SEARCH_ORDER = " ORDER BY items.type, items.title COLLATE NOCASE LIMIT ?";
+
+  // the watermarks are never deleted: once true, for the life of the helper
+  private volatile boolean mSynced = false;
+
+  public XBMCLibraryDatabase(Context context)
+  {
+    super(context, DATABASE_NAME, null, DATABASE_VERSION);
+  }
+
+  @Override
+  public void onCreate(SQLiteDatabase db)
+  {
+    // _id keeps the rowids the index refers to stable across a VACUUM
+    db.execSQL("CREATE TABLE items (_id INTEGER PRIMARY KEY, type INTEGER NOT NULL, id INTEGER NOT NULL,"
+            + " title TEXT, subtitle TEXT, poster TEXT, thumb TEXT, fanart TEXT, year INTEGER, runtime INTEGER,"
+            + " originaltitle TEXT, movieset TEXT, label TEXT, people TEXT, dateadded TEXT, UNIQUE(type, id))");
+    // a row once the type synced, the value being null for an empty type
+    db.execSQL("CREATE TABLE watermarks (type INTEGER PRIMARY KEY, value TEXT)");
+    db.execSQL("CREATE VIRTUAL TABLE items_fts USING fts4(content=\"items\", title, originaltitle, movieset, label,"
+            + " people, tokenize=unicode61)");
+
+    db.execSQL("CREATE TRIGGER items_bu BEFORE UPDATE ON items BEGIN"
+            + " DELETE FROM items_fts WHERE docid = old._id; END");
+    db.execSQL("CREATE TRIGGER items_bd BEFORE DELETE ON items BEGIN"
+            + " DELETE FROM items_fts WHERE docid = old._id; END");
+    db.execSQL("CREATE TRIGGER items_au AFTER UPDATE ON items BEGIN"
+            + " INSERT INTO items_fts (docid, title, originaltitle, movieset, label, people)"
+            + " VALUES (new._id, new.title, new.originaltitle, new.movieset, new.label, new.people); END");
+    db.execSQL("CREATE TRIGGER items_ai AFTER INSERT ON items BEGIN"
+            + " INSERT INTO items_fts (docid, title, originaltitle, movieset, label, people)"
+            + " VALUES (new._id, new.title, new.originaltitle, new.movieset, new.label, new.people); END");
+  }
+
+  @Override
+  public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion)
+  {
+    // only a replica: the next sync fetches everything again
+    db.execSQL("DROP TABLE IF EXISTS items_fts");
+    db.execSQL("DROP TABLE IF EXISTS items");
+    db.execSQL("DROP TABLE IF EXISTS watermarks");
+    onCreate(db);
+  }
+
+  /**
+   * @return true once every media type synced.
+   */
+  public boolean isSynced()
+  {
+    if (mSynced)
+      return true;
+
+    try (Cursor cursor = getReadableDatabase().rawQuery("SELECT COUNT(*) FROM watermarks", null))
+    {
+      mSynced = cursor.moveToFirst() && cursor.getInt(0) >= 4;
+      return mSynced;
+    }
+    catch (Exception e)
+    {
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+  /**
+   * Finds the items with a word starting with every word of the query, in any of the
+   * indexed fields, by type then title.
+   */
+  public List<SearchHit> search(String query, int limit)
+  {
+    return search(query, -1, limit);
+  }
+
+  /**
+   * @param type a SearchHit.TYPE_*, -1 for every type.
+   */
+  public List<SearchHit> search(String query, int type, int limit)
+  {
+    List<SearchHit> hits = new ArrayList<>();
+    String match = matchOf(query);
+    if (match == null || limit <= 0)
+      return hits;
+
+    String sql = SEARCH_QUERY + (type >= 0 ? " AND items.type = " + type : "") + SEARCH_ORDER;
+    try (Cursor cursor = getReadableDatabase().rawQuery(sql, new String[]{match, Integer.toString(limit)}))
+    {
+      while (cursor.moveToNext())
+        hits.add(readItem(cursor));
+    }
+    catch (Exception e)
+    {
+      e.printStackTrace();
+    }
+    return hits;
+  }
+
+  /**
+   * @return the words of the query as prefix tokens, null if it has none. Lower case,
+   * so that no word is taken for an operator, e.g. "OR".
+   */
+  private static String matchOf(String query)
+  {
+    if (query == null)
+      return null;
+
+    StringBuilder match = new StringBuilder();
+    int i = 0;
+    while (i < query.length())
+    {
+      int codePoint = query.codePointAt(i);
+      if (!Character.isLetterOrDigit(codePoint))
+      {
+        i += Character.charCount(codePoint);
+        continue;
+      }
+
+      int start = i;
+      while (i < query.length() && Character.isLetterOrDigit(query.codePointAt(i)))
+        i += Character.charCount(query.codePointAt(i));
+      if (match.length() > 0)
+        match.append(' ');
+      match.append(query.substring(start, i).toLowerCase(Locale.ROOT)).append('*');
+    }
+    return match.length() > 0 ? match.toString() : null;
+  }
+
+  @Override
+  public String getWatermark(int type)
+  {
+    try (Cursor cursor = getReadableDatabase().query(TABLE_WATERMARKS, new String[]{"value"}, "type = ?",
+            new String[]{Integer.toString(type)}, null, null, null))
+    {
+      return cursor.moveToFirst() ? cursor.getString(0) : null;
+    }
+    catch (Exception e)
+    {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  @Override
+  public void replace(int type, List<SearchHit> items, String watermark)
+  {
+    write(type, items, watermark, true);
+  }
+
+  @Override
+  public void update(int type, List<SearchHit> items, String watermark)
+  {
+    write(type, items, watermark, false);
+  }
+
+  private void write(int type, List<SearchHit> items, String watermark, boolean replace)
+  {
+    try
+    {
+      SQLiteDatabase db = getWritableDatabase();
+      db.beginTransaction();
+      try
+      {
+        String[] typeArgs = {Integer.toString(type)};
+        if (replace)
+          db.delete(TABLE_ITEMS, "type = ?", typeArgs);
+
+        ContentValues values = new ContentValues();
+        for (SearchHit item : items)
+        {
+          values.clear();
+          putItem(values, item);
+          if (replace || db.update(TABLE_ITEMS, values, "type = ? AND id = ?",
+                  new String[]{typeArgs[0], Long.toString(item.getId())}) == 0)
+            db.insert(TABLE_ITEMS, null, values);
+        }
+
+        values.clear();
+        values.put("type", type);
+        values.put("value", watermark);
+        if (db.update(TABLE_WATERMARKS, values, "type = ?", typeArgs) == 0)
+          db.insert(TABLE_WATERMARKS, null, values);
+        db.setTransactionSuccessful();
+      }
+      finally
+      {
+        db.endTransaction();
+      }
+    }
+    catch (Exception e)
+    {
+      e.printStackTrace();
+    }
+  }
+
+  @Override
+  public void remove(int type, long id)
+  {
+    try
+    {
+      getWritableDatabase().delete(TABLE_ITEMS, "type = ? AND id = ?",
+              new String[]{Integer.toString(type), Long.toString(id)});
+    }
+    catch (Exception e)
+    {
+      e.printStackTrace();
+    }
+  }
+
+  @Override
+  public List<SearchHit> getItems(int type)
+  {
+    List<SearchHit> items = new ArrayList<>();
+    try (Cursor cursor = getReadableDatabase().query(TABLE_ITEMS, ITEM_COLUMNS, "type = ?",
+            new String[]{Integer.toString(type)}, null, null, null))
+    {
+      while (cursor.moveToNext())
+        items.add(readItem(cursor));
+    }
+    catch (Exception e)
+    {
+      e.printStackTrace();
+    }
+    return items;
+  }
+
+  private static void putItem(ContentValues values, SearchHit item)
+  {
+    values.put("type", item.getType());
+    values.put("id", item.getId());
+    values.put("title", item.getTitle());
+    values.put("subtitle", item.getSubtitle());
+    values.put("poster", item.getPoster());
+    values.put("thumb", item.getThumb());
+    values.put("fanart", item.getFanart());
+    values.put("year", item.getYear());
+    values.put("runtime", item.getRuntime());
+    values.put("originaltitle", item.getOriginalTitle());
+    values.put("movieset", item.getSet());
+    values.put("label", item.getLabel());
+    values.put("people", item.getPeople());
+    values.put("dateadded", item.getDateAdded());
+  }
+
+  /**
+   * Reads a row of ITEM_COLUMNS, in that order.
+   */
+  private static SearchHit readItem(Cursor cursor)
+  {
+    SearchHit item = new SearchHit(cursor.getInt(0));
+    item.setId(cursor.getLong(1));
+    item.setTitle(cursor.getString(2));
+    item.setSubtitle(cursor.getString(3));
+    item.setPoster(cursor.getString(4));
+    item.setThumb(cursor.getString(5));
+    item.setFanart(cursor.getString(6));
+    item.setYear(cursor.getInt(7));
+    item.setRuntime(cursor.getLong(8));
+    item.setOriginalTitle(cursor.getString(9));
+    item.setSet(cursor.getString(10));
+    item.setLabel(cursor.getString(11));
+    item.setPeople(cursor.getString(12));
+    item.setDateAdded(cursor.getString(13));
+    return item;
+  }
+}
@@ -4,9 +4,25 @@ import android.app.SearchManager;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Binder;
+import android.os.CancellationSignal;
 import android.util.Log;
 
 import org.xbmc.kodi.XBMCJsonRPC;
+import org.xbmc.kodi.XBMCProperties;
+import org.xbmc.kodi.jsonrpc.Deadline;
+import org.xbmc.kodi.jsonrpc.JsonRpcDispatcher;
+import org.xbmc.kodi.jsonrpc.JsonRpcExecutor;
+import org.xbmc.kodi.jsonrpc.JsonRpcTimeoutException;
+import org.xbmc.kodi.jsonrpc.QueryCoalescer;
+import org.xbmc.kodi.jsonrpc.SearchHit;
+import org.xbmc.kodi.jsonrpc.SuggestionContext;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 public class XBMCMediaContentProvider extends XBMCContentProvider
 {
@@ -17,7 +33,32 @@ public class XBMCMediaContentProvider extends XBMCContentProvider
   private static final int SEARCH_SUGGEST = 0;
   private static final UriMatcher URI_MATCHER = buildUriMatcher();
 
+  // one search session per calling app
+  private static final int MAX_SESSIONS = 8;
+  private static final int DEFAULT_QUIET_MS = 100;
+
   private XBMCJsonRPC mJsonRPC = null;
+  private int mQuietMs = DEFAULT_QUIET_MS;
+  private final Map<Integer, Session> mSessions =
+          new LinkedHashMap<Integer, Session>(MAX_SESSIONS, 0.75f, true)
+          {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Session> eldest)
+            {
+              return size() > MAX_SESSIONS;
+            }
+          };
+
+  private static class Session
+  {
+    final SuggestionContext mContext = new SuggestionContext();
+    final QueryCoalescer<List<SearchHit>> mCoalescer;
+
+    Session(int quietMs)
+    {
+      mCoalescer = new QueryCoalescer<>(quietMs);
+    }
+  }
 
   private static UriMatcher buildUriMatcher()
   {
@@ -30,29 +71,81 @@ public class XBMCMediaContentProvider extends XBMCContentProvider
   @Override
   public boolean onCreate()
   {
-    mJsonRPC  = new XBMCJsonRPC(getContext());
+    mJsonRPC  = new XBMCJsonRPC(getContext(), XBMCJsonRPC.TIMEOUT_INTERACTIVE_MS,
+            JsonRpcDispatcher.LANE_INTERACTIVE);
+    mQuietMs = XBMCProperties.getIntProperty("xbmc.suggestQuietMs", DEFAULT_QUIET_MS);
+    // ready by the first keystroke, whether Kodi is up or not
+    JsonRpcExecutor.get().execute(XBMCJsonRPC::restoreSnapshot);
     return true;
   }
 
   @Override
   public Cursor query(Uri uri, String[] projection, String selection,
           String[] selectionArgs, String sortOrder)
+  {
+    return query(uri, projection, selection, selectionArgs, sortOrder, null);
+  }
+
+  /**
+   * The search UI cancels the suggestion query of a keystroke as soon as the next one
+   * comes: a canceled query stops before parsing and throws OperationCanceledException.
+   */
+  @Override
+  public Cursor query(Uri uri, String[] projection, String selection,
+          String[] selectionArgs, String sortOrder, CancellationSignal cancellationSignal)
   {
     Log.d(TAG, "XBMCMediaContentProvider.query: " + uri.toString());
 
     switch (URI_MATCHER.match(uri))
     {
     case SEARCH_SUGGEST:
-      String query = uri.getLastPathSegment().toLowerCase();
+      String query = uri.getLastPathSegment().toLowerCase(Locale.ROOT);
       int limit = 10;
       try {
         limit = Integer.parseInt(uri.getQueryParameter("limit"));
       } catch (Exception e) {}
-      return mJsonRPC.getSuggestions(query, limit);
+      final Session session = getSession();
+      final int requested = limit;
+      List<SearchHit> hits;
+      try
+      {
+        // the deadline covers the wait for newer keystrokes too
+        hits = Deadline.after(XBMCJsonRPC.TIMEOUT_INTERACTIVE_MS).run(() -> session.mCoalescer.execute(query,
+                (newest) -> mJsonRPC.getSuggestionHits(newest, requested, session.mContext, cancellationSignal),
+                () -> cancellationSignal != null && cancellationSignal.isCanceled(),
+                Collections.<SearchHit>emptyList()));
+      }
+      catch (JsonRpcTimeoutException e)
+      {
+        Log.w(TAG, "XBMCMediaContentProvider.query: " + e.getMessage());
+        return null;
+      }
+      // superseded queries share the newest result: it may be for another limit
+      if (cancellationSignal != null)
+        cancellationSignal.throwIfCanceled();
+      if (hits == null)
+        return null;
+      if (hits.size() > limit)
+        hits = hits.subList(0, limit);
+      return new XBMCSuggestionCursor(mJsonRPC, hits, projection);
 
     default:
       throw new IllegalArgumentException("Unknown Uri: " + uri);
     }
   }
 
+  private Session getSession()
+  {
+    int uid = Binder.getCallingUid();
+    synchronized (mSessions)
+    {
+      Session session = mSessions.get(uid);
+      if (session == null)
+      {
+        session = new Session(mQuietMs);
+        mSessions.put(uid, session);
+      }
+      return session;
+    }
+  }
 }
@@ -0,0 +1,134 @@
+package org.xbmc.kodi.content;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+/**
+ * Base of the cursors reading their values straight from decoded records.
+ *
+ * <p>Values are computed when a column is read, never stored in rows, and only the
+ * columns of the projection are exposed. Subclasses address columns by their index
+ * in the full record column list; columns of the projection the record does not know
+ * read as null.
+ */
+public abstract class XBMCRecordCursor extends AbstractCursor
+{
+  private final String[] mColumnNames;
+  // projected column -> record column, -1 if unknown
+  private final int[] mColumns;
+
+  protected XBMCRecordCursor(String[] recordColumns, String[] projection)
+  {
+    if (projection == null)
+      projection = recordColumns;
+
+    mColumnNames = projection;
+    mColumns = new int[projection.length];
+    for (int i = 0; i < projection.length; ++i)
+    {
+      mColumns[i] = -1;
+      for (int j = 0; j < recordColumns.length; ++j)
+      {
+        if (recordColumns[j].equals(projection[i]))
+        {
+          mColumns[i] = j;
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return one of the Cursor.FIELD_TYPE_* of a record column at the current position.
+   */
+  protected abstract int getRecordType(int column);
+
+  /**
+   * Only called for FIELD_TYPE_STRING columns.
+   */
+  protected abstract String getRecordString(int column);
+
+  /**
+   * Only called for FIELD_TYPE_INTEGER columns.
+   */
+  protected abstract long getRecordLong(int column);
+
+  @Override
+  public String[] getColumnNames()
+  {
+    return mColumnNames;
+  }
+
+  @Override
+  public int getType(int column)
+  {
+    int record = mColumns[column];
+    return record < 0 ? Cursor.FIELD_TYPE_NULL : getRecordType(record);
+  }
+
+  @Override
+  public boolean isNull(int column)
+  {
+    return getType(column) == Cursor.FIELD_TYPE_NULL;
+  }
+
+  @Override
+  public String getString(int column)
+  {
+    switch (getType(column))
+    {
+      case Cursor.FIELD_TYPE_INTEGER:
+        return Long.toString(getRecordLong(mColumns[column]));
+      case Cursor.FIELD_TYPE_STRING:
+        return getRecordString(mColumns[column]);
+      default:
+        return null;
+    }
+  }
+
+  @Override
+  public long getLong(int column)
+  {
+    switch (getType(column))
+    {
+      case Cursor.FIELD_TYPE_INTEGER:
+        return getRecordLong(mColumns[column]);
+      case Cursor.FIELD_TYPE_STRING:
+        return Long.parseLong(getRecordString(mColumns[column]));
+      default:
+        return 0;
+    }
+  }
+
+  @Override
+  public short getShort(int column)
+  {
+    return (short) getLong(column);
+  }
+
+  @Override
+  public int getInt(int column)
+  {
+    return (int) getLong(column);
+  }
+
+  @Override
+  public float getFloat(int column)
+  {
+    return (float) getDouble(column);
+  }
+
+  @Override
+  public double getDouble(int column)
+  {
+    switch (getType(column))
+    {
+      case Cursor.FIELD_TYPE_INTEGER:
+        return getRecordLong(mColumns[column]);
+      case Cursor.FIELD_TYPE_STRING:
+        return Double.parseDouble(getRecordString(mColumns[column]));
+      default:
+        return 0;
+    }
+  }
+}
@@ -0,0 +1,169 @@
+package org.xbmc.kodi.content;
+
+import android.app.SearchManager;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+import org.xbmc.kodi.XBMCJsonRPC;
+import org.xbmc.kodi.jsonrpc.SearchHit;
+
+import java.util.List;
+
+/**
+ * Search suggestions cursor reading its values from the decoded hits.
+ *
+ * <p>Image and intent URIs are only built for the rows and columns actually read.
+ */
+public class XBMCSuggestionCursor extends XBMCRecordCursor
+{
+  public static final String[] COLUMNS = new String[]
+          {
+                  BaseColumns._ID,
+                  SearchManager.SUGGEST_COLUMN_TEXT_1,
+                  SearchManager.SUGGEST_COLUMN_TEXT_2,
+                  SearchManager.SUGGEST_COLUMN_ICON_1,
+                  SearchManager.SUGGEST_COLUMN_RESULT_CARD_IMAGE,
+                  SearchManager.SUGGEST_COLUMN_INTENT_ACTION,
+                  SearchManager.SUGGEST_COLUMN_INTENT_DATA,
+                  SearchManager.SUGGEST_COLUMN_VIDEO_WIDTH,
+                  SearchManager.SUGGEST_COLUMN_VIDEO_HEIGHT,
+                  SearchManager.SUGGEST_COLUMN_PRODUCTION_YEAR,
+                  SearchManager.SUGGEST_COLUMN_DURATION,
+                  SearchManager.SUGGEST_COLUMN_SHORTCUT_ID
+          };
+  private static final int COLUMN_ID = 0;
+  private static final int COLUMN_TEXT_1 = 1;
+  private static final int COLUMN_TEXT_2 = 2;
+  private static final int COLUMN_ICON_1 = 3;
+  private static final int COLUMN_CARD_IMAGE = 4;
+  private static final int COLUMN_INTENT_ACTION = 5;
+  private static final int COLUMN_INTENT_DATA = 6;
+  private static final int COLUMN_VIDEO_WIDTH = 7;
+  private static final int COLUMN_VIDEO_HEIGHT = 8;
+  private static final int COLUMN_YEAR = 9;
+  private static final int COLUMN_DURATION = 10;
+  private static final int COLUMN_SHORTCUT_ID = 11;
+
+  private static final long SHOW_DURATION_MS = 45 * 60 * 1000;
+
+  private final XBMCJsonRPC mJsonRPC;
+  private final List<SearchHit> mHits;
+  private SearchHit mHit = null;
+  // the image column is read twice per row
+  private int mImageRow = -1;
+  private String mImage = null;
+
+  /**
+   * @param hits       the hits, which must not change while the cursor is open.
+   * @param projection the columns to expose, null for all of them.
+   */
+  public XBMCSuggestionCursor(XBMCJsonRPC jsonRPC, List<SearchHit> hits, String[] projection)
+  {
+    super(COLUMNS, projection);
+    mJsonRPC = jsonRPC;
+    mHits = hits;
+  }
+
+  @Override
+  public int getCount()
+  {
+    return mHits.size();
+  }
+
+  @Override
+  public boolean onMove(int oldPosition, int newPosition)
+  {
+    mHit = mHits.get(newPosition);
+    return true;
+  }
+
+  @Override
+  protected int getRecordType(int column)
+  {
+    switch (column)
+    {
+      case COLUMN_ID:
+      case COLUMN_VIDEO_WIDTH:
+      case COLUMN_VIDEO_HEIGHT:
+      case COLUMN_YEAR:
+      case COLUMN_DURATION:
+      case COLUMN_SHORTCUT_ID:
+        return Cursor.FIELD_TYPE_INTEGER;
+      case COLUMN_ICON_1:
+      case COLUMN_CARD_IMAGE:
+        return getImage() == null ? Cursor.FIELD_TYPE_NULL : Cursor.FIELD_TYPE_STRING;
+      default:
+        return Cursor.FIELD_TYPE_STRING;
+    }
+  }
+
+  @Override
+  protected String getRecordString(int column)
+  {
+    switch (column)
+    {
+      case COLUMN_TEXT_1:
+        return mHit.getTitle();
+      case COLUMN_TEXT_2:
+        return mHit.getSubtitle();
+      case COLUMN_ICON_1:
+      case COLUMN_CARD_IMAGE:
+        return getImage();
+      case COLUMN_INTENT_ACTION:
+        return Intent.ACTION_GET_CONTENT;
+      default:
+        return getIntentData();
+    }
+  }
+
+  @Override
+  protected long getRecordLong(int column)
+  {
+    switch (column)
+    {
+      case COLUMN_ID:
+        return mHit.getId();
+      case COLUMN_YEAR:
+        return mHit.getYear();
+      case COLUMN_DURATION:
+        if (mHit.getType() == SearchHit.TYPE_MOVIE)
+          return mHit.getRuntime() * 1000;
+        if (mHit.getType() == SearchHit.TYPE_TVSHOW)
+          return SHOW_DURATION_MS;
+        return 0;
+      case COLUMN_SHORTCUT_ID:
+        return -1;
+      default:
+        return 0;
+    }
+  }
+
+  private String getImage()
+  {
+    if (mImageRow != getPosition())
+    {
+      Uri image = XBMCFileContentProvider.buildUri(mJsonRPC.getDownloadUrl(mHit.getCardImage()));
+      mImage = image != null ? image.toString() : null;
+      mImageRow = getPosition();
+    }
+    return mImage;
+  }
+
+  private String getIntentData()
+  {
+    long id = mHit.getId();
+    switch (mHit.getType())
+    {
+      case SearchHit.TYPE_MOVIE:
+        return "videodb://movies/titles/" + id + "?showinfo=true";
+      case SearchHit.TYPE_TVSHOW:
+        return "videodb://tvshows/titles/" + id + "?showinfo=true";
+      case SearchHit.TYPE_ALBUM:
+        return "musicdb://albums/" + id + "/";
+      default:
+        return "musicdb://artists/" + id + "/";
+    }
+  }
+}
@@ -0,0 +1,159 @@
+package org.xbmc.kodi.jsonrpc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Splits a list of lookups into chunks, e.g. one batch request each, and runs a bounded
+ * number of chunks at once.
+ *
+ * <p>The calling thread takes part: it runs chunks along with the helpers submitted to
+ * the executor and only waits for the chunks already started by a helper. Running from
+ * a thread of the same executor therefore cannot deadlock, even when the executor is
+ * saturated.
+ *
+ * <p>Results are handed to the consumer chunk by chunk, in list order, as soon as a
+ * chunk and all the chunks before it are done.
+ */
+public final class ChunkedBatch<T, R>
+{
+  private final List<T> mItems;
+  private final int mChunkSize;
+  private final int mChunkCount;
+  private final Function<List<T>, List<R>> mWork;
+  private final Consumer<List<R>> mConsumer;
+
+  private final AtomicInteger mNextChunk = new AtomicInteger(0);
+  private final Object mLock = new Object();
+  private final List<List<R>> mResults;
+  private int mDone = 0;
+  private int mDelivered = 0;
+  private RuntimeException mFailure = null;
+
+  private ChunkedBatch(List<T> items, int chunkSize, Function<List<T>, List<R>> work, Consumer<List<R>> consumer)
+  {
+    mItems = items;
+    mChunkSize = Math.max(1, chunkSize);
+    mChunkCount = (items.size() + mChunkSize - 1) / mChunkSize;
+    mWork = work;
+    mConsumer = consumer;
+    mResults = new ArrayList<>(Collections.<List<R>>nCopies(mChunkCount, null));
+  }
+
+  /**
+   * @param parallelism the maximum number of chunks running at once, the caller included.
+   * @param work        looks up one chunk. Its results need not match the chunk one for one.
+   * @param consumer    receives the results of every chunk, in order, never concurrently.
+   *                    May be null.
+   * @return the results of all the chunks, in order.
+   * @throws RuntimeException the first failure of a chunk, once all chunks are done.
+   */
+  public static <T, R> List<R> run(List<T> items, int chunkSize, int parallelism, Executor executor,
+                                   Function<List<T>, List<R>> work, Consumer<List<R>> consumer)
+  {
+    ChunkedBatch<T, R> batch = new ChunkedBatch<>(items, chunkSize, work, consumer);
+    return batch.run(parallelism, executor);
+  }
+
+  private List<R> run(int parallelism, Executor executor)
+  {
+    int helpers = Math.min(parallelism, mChunkCount) - 1;
+    for (int i = 0; i < helpers; ++i)
+    {
+      try
+      {
+        executor.execute(this::runChunks);
+      }
+      catch (RejectedExecutionException e)
+      {
+        break;
+      }
+    }
+    runChunks();
+
+    List<R> results = new ArrayList<>();
+    synchronized (mLock)
+    {
+      while (mDone < mChunkCount)
+      {
+        try
+        {
+          mLock.wait();
+        }
+        catch (InterruptedException e)
+        {
+          // the helpers finish on their own, the results so far are returned
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+      if (mFailure != null)
+        throw mFailure;
+      for (List<R> chunk : mResults)
+      {
+        if (chunk != null)
+          results.addAll(chunk);
+      }
+    }
+    return results;
+  }
+
+  private void runChunks()
+  {
+    int chunk;
+    while ((chunk = mNextChunk.getAndIncrement()) < mChunkCount)
+    {
+      int start = chunk * mChunkSize;
+      List<T> items = mItems.subList(start, Math.min(start + mChunkSize, mItems.size()));
+
+      List<R> result = null;
+      RuntimeException failure = null;
+      try
+      {
+        result = mWork.apply(items);
+      }
+      catch (RuntimeException e)
+      {
+        failure = e;
+      }
+      complete(chunk, result != null ? result : Collections.<R>emptyList(), failure);
+    }
+  }
+
+  private void complete(int chunk, List<R> result, RuntimeException failure)
+  {
+    synchronized (mLock)
+    {
+      mResults.set(chunk, result);
+      if (failure != null && mFailure == null)
+        mFailure = failure;
+
+      // holding the lock keeps the deliveries ordered and one at a time
+      while (mDelivered < mChunkCount && mResults.get(mDelivered) != null)
+      {
+        List<R> ready = mResults.get(mDelivered++);
+        if (mConsumer != null && !ready.isEmpty())
+        {
+          try
+          {
+            mConsumer.accept(ready);
+          }
+          catch (RuntimeException e)
+          {
+            if (mFailure == null)
+              mFailure = e;
+          }
+        }
+      }
+
+      ++mDone;
+      mLock.notifyAll();
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package org.xbmc.kodi.jsonrpc;
+
+import java.util.function.Supplier;
+
+/**
+ * The time by which a call must be answered.
+ *
+ * <p>A deadline is carried by the thread running the call, so that every request the
+ * call issues, however deep, shares it. {@link #run(Supplier)} installs it for the extent
+ * of a call; calls handed to another thread must be run there with the deadline of the
+ * caller, see {@link #current()}.
+ */
+public final class Deadline
+{
+  private static final ThreadLocal<Deadline> sCurrent = new ThreadLocal<>();
+
+  private final long mExpiresAt;
+
+  private Deadline(long expiresAt)
+  {
+    mExpiresAt = expiresAt;
+  }
+
+  public static Deadline after(long timeoutMs)
+  {
+    return new Deadline(now() + timeoutMs);
+  }
+
+  /**
+   * @return the deadline of the call running on this thread, or null.
+   */
+  public static Deadline current()
+  {
+    return sCurrent.get();
+  }
+
+  /**
+   * Runs a call with this deadline, or with the deadline already running if it is
+   * earlier: a nested call never extends the time given to its caller.
+   */
+  public <V> V run(Supplier<V> call)
+  {
+    Deadline previous = sCurrent.get();
+    if (previous != null && previous.mExpiresAt <= mExpiresAt)
+      return call.get();
+
+    sCurrent.set(this);
+    try
+    {
+      return call.get();
+    }
+    finally
+    {
+      if (previous != null)
+        sCurrent.set(previous);
+      else
+        sCurrent.remove();
+    }
+  }
+
+  /**
+   * Same as {@link #run(Supplier)} for a possibly null deadline.
+   */
+  public static <V> V run(Deadline deadline, Supplier<V> call)
+  {
+    return deadline != null ? deadline.run(call) : call.get();
+  }
+
+  public long remainingMs()
+  {
+    return Math.max(0, mExpiresAt - now());
+  }
+
+  public boolean isExpired()
+  {
+    return now() >= mExpiresAt;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "Deadline{remaining=" + remainingMs() + '}';
+  }
+
+  private static long now()
+  {
+    return System.nanoTime() / 1000000L;
+  }
+}
@@ -0,0 +1,211 @@
+package org.xbmc.kodi.jsonrpc;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * One page of a Files.GetDirectory listing, decoded into parallel arrays.
+ */
+public final class DirectoryPage
+{
+  private final int mStart;
+  private int mSize = 0;
+  private int mTotal = -1;
+  private String[] mFiles;
+  private String[] mLabels;
+  private String[] mFileTypes;
+  private String[] mTypes;
+  private long[] mIds;
+
+  private DirectoryPage(int start, int capacity)
+  {
+    mStart = start;
+    mFiles = new String[capacity];
+    mLabels = new String[capacity];
+    mFileTypes = new String[capacity];
+    mTypes = new String[capacity];
+    mIds = new long[capacity];
+  }
+
+  /**
+   * Decodes the response to a Files.GetDirectory request.
+   *
+   * @param start the index of the first entry requested.
+   * @param count the number of entries requested.
+   * @return the page, or null if the response has no result.
+   */
+  public static DirectoryPage read(Reader in, int start, int count) throws IOException
+  {
+    DirectoryPage page = new DirectoryPage(start, Math.max(count, 0));
+    boolean hasResult = false;
+
+    JsonReader reader = new JsonReader(in);
+    reader.beginObject();
+    while (reader.hasNext())
+    {
+      if (reader.nextName().equals("result") && reader.peek() == JsonToken.BEGIN_OBJECT)
+      {
+        hasResult = true;
+        page.readResult(reader);
+      }
+      else
+      {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    return hasResult ? page : null;
+  }
+
+  private void readResult(JsonReader reader) throws IOException
+  {
+    reader.beginObject();
+    while (reader.hasNext())
+    {
+      String name = reader.nextName();
+      if (name.equals("files") && reader.peek() == JsonToken.BEGIN_ARRAY)
+      {
+        reader.beginArray();
+        while (reader.hasNext())
+        {
+          if (reader.peek() == JsonToken.BEGIN_OBJECT)
+            readFile(reader);
+          else
+            reader.skipValue();
+        }
+        reader.endArray();
+      }
+      else if (name.equals("limits") && reader.peek() == JsonToken.BEGIN_OBJECT)
+      {
+        reader.beginObject();
+        while (reader.hasNext())
+        {
+          if (reader.nextName().equals("total"))
+            mTotal = JsonReaders.nextInt(reader, -1);
+          else
+            reader.skipValue();
+        }
+        reader.endObject();
+      }
+      else
+      {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    // a listing without limits holds everything
+    if (mTotal < 0)
+      mTotal = mStart + mSize;
+  }
+
+  private void readFile(JsonReader reader) throws IOException
+  {
+    String file = null;
+    String label = null;
+    String fileType = null;
+    String type = null;
+    long id = -1;
+
+    reader.beginObject();
+    while (reader.hasNext())
+    {
+      String name = reader.nextName();
+      if (name.equals("file"))
+        file = JsonReaders.nextString(reader, null);
+      else if (name.equals("label"))
+        label = JsonReaders.nextString(reader, null);
+      else if (name.equals("filetype"))
+        fileType = JsonReaders.nextString(reader, null);
+      else if (name.equals("type"))
+        type = JsonReaders.nextString(reader, null);
+      else if (name.equals("id"))
+        id = JsonReaders.nextLong(reader, -1);
+      else
+        reader.skipValue();
+    }
+    reader.endObject();
+
+    if (file == null || label == null || fileType == null)
+      return;
+
+    if (mSize == mFiles.length)
+      grow();
+    mFiles[mSize] = file;
+    mLabels[mSize] = label;
+    mFileTypes[mSize] = fileType;
+    mTypes[mSize] = "unknown".equals(type) ? null : type;
+    mIds[mSize] = id;
+    ++mSize;
+  }
+
+  private void grow()
+  {
+    int capacity = Math.max(16, mFiles.length * 2);
+    mFiles = Arrays.copyOf(mFiles, capacity);
+    mLabels = Arrays.copyOf(mLabels, capacity);
+    mFileTypes = Arrays.copyOf(mFileTypes, capacity);
+    mTypes = Arrays.copyOf(mTypes, capacity);
+    mIds = Arrays.copyOf(mIds, capacity);
+  }
+
+  /**
+   * @return the index of the first entry of the page in the whole listing.
+   */
+  public int getStart()
+  {
+    return mStart;
+  }
+
+  public int size()
+  {
+    return mSize;
+  }
+
+  /**
+   * @return the number of entries of the whole listing.
+   */
+  public int getTotal()
+  {
+    return mTotal;
+  }
+
+  public String getFile(int i)
+  {
+    return mFiles[i];
+  }
+
+  public String getLabel(int i)
+  {
+    return mLabels[i];
+  }
+
+  /**
+   * @return "file" or "directory".
+   */
+  public String getFileType(int i)
+  {
+    return mFileTypes[i];
+  }
+
+  /**
+   * @return the library media type, or null if the entry is not a library item.
+   */
+  public String getType(int i)
+  {
+    return mTypes[i];
+  }
+
+  /**
+   * @return the library id, or -1.
+   */
+  public long getId(int i)
+  {
+    return mIds[i];
+  }
+}
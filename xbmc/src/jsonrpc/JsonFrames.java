@@ -0,0 +1,242 @@
+package org.xbmc.kodi.jsonrpc;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Low level helpers for raw JSON-RPC messages, working on the text without parsing it.
+ *
+ * <p>An envelope is a request, response or notification object: the message itself, or
+ * every element of a batch.
+ */
+final class JsonFrames
+{
+  private JsonFrames()
+  {
+  }
+
+  /**
+   * Splits a stream of concatenated JSON values, as sent on the Kodi TCP port, into
+   * messages.
+   */
+  static final class FrameReader
+  {
+    private final Reader mIn;
+    private final char[] mBuffer = new char[8192];
+    private int mPosition = 0;
+    private int mLimit = 0;
+
+    FrameReader(Reader in)
+    {
+      mIn = in;
+    }
+
+    /**
+     * Reads the next top level object or array.
+     *
+     * @return false at the end of the stream.
+     * @throws EOFException if the stream ends within a message.
+     */
+    boolean next(StringBuilder out) throws IOException
+    {
+      out.setLength(0);
+      int depth = 0;
+      boolean inString = false;
+      boolean escape = false;
+
+      while (true)
+      {
+        if (mPosition == mLimit)
+        {
+          mLimit = mIn.read(mBuffer, 0, mBuffer.length);
+          mPosition = 0;
+          if (mLimit <= 0)
+          {
+            mLimit = 0;
+            if (depth > 0)
+              throw new EOFException("JsonFrames: truncated message");
+            return false;
+          }
+        }
+
+        int start = mPosition;
+        while (mPosition < mLimit)
+        {
+          char c = mBuffer[mPosition++];
+          if (depth == 0)
+          {
+            // whitespace between messages
+            if (c == '{' || c == '[')
+            {
+              depth = 1;
+              start = mPosition - 1;
+            }
+            else
+            {
+              start = mPosition;
+            }
+          }
+          else if (inString)
+          {
+            if (escape)
+              escape = false;
+            else if (c == '\\')
+              escape = true;
+            else if (c == '"')
+              inString = false;
+          }
+          else if (c == '"')
+          {
+            inString = true;
+          }
+          else if (c == '{' || c == '[')
+          {
+            ++depth;
+          }
+          else if ((c == '}' || c == ']') && --depth == 0)
+          {
+            out.append(mBuffer, start, mPosition - start);
+            return true;
+          }
+        }
+        if (depth > 0)
+          out.append(mBuffer, start, mPosition - start);
+      }
+    }
+  }
+
+  /**
+   * Finds the scalar values of a member in every envelope of a message.
+   *
+   * @return the [start, end) offsets of the values, two ints per envelope having the
+   * member, in message order.
+   */
+  static int[] findMembers(CharSequence message, String key)
+  {
+    int[] spans = new int[8];
+    int count = 0;
+
+    int length = message.length();
+    int i = skipWhitespace(message, 0);
+    if (i >= length)
+      return new int[0];
+    // envelopes are the message itself, or the elements of a batch
+    int envelopeDepth = message.charAt(i) == '[' ? 2 : 1;
+
+    int depth = 0;
+    boolean expectKey = false;
+    for (; i < length; ++i)
+    {
+      char c = message.charAt(i);
+      if (c == '"')
+      {
+        int end = skipString(message, i);
+        if (expectKey && depth == envelopeDepth)
+        {
+          expectKey = false;
+          int colon = skipWhitespace(message, end);
+          if (colon < length && message.charAt(colon) == ':' && regionEquals(message, i + 1, end - 1, key))
+          {
+            int valueStart = skipWhitespace(message, colon + 1);
+            int valueEnd = skipScalar(message, valueStart);
+            if (valueEnd > valueStart)
+            {
+              if (count + 2 > spans.length)
+                spans = Arrays.copyOf(spans, spans.length * 2);
+              spans[count++] = valueStart;
+              spans[count++] = valueEnd;
+            }
+          }
+        }
+        i = end - 1;
+      }
+      else if (c == '{' || c == '[')
+      {
+        ++depth;
+        expectKey = c == '{';
+      }
+      else if (c == '}' || c == ']')
+      {
+        --depth;
+      }
+      else if (c == ',')
+      {
+        expectKey = depth == envelopeDepth;
+      }
+    }
+
+    return Arrays.copyOf(spans, count);
+  }
+
+  /**
+   * @return the text of a string value without its quotes, or the scalar as is.
+   */
+  static String unquote(CharSequence message, int start, int end)
+  {
+    if (end - start >= 2 && message.charAt(start) == '"')
+      return message.subSequence(start + 1, end - 1).toString();
+    return message.subSequence(start, end).toString();
+  }
+
+  private static int skipWhitespace(CharSequence s, int i)
+  {
+    while (i < s.length() && Character.isWhitespace(s.charAt(i)))
+      ++i;
+    return i;
+  }
+
+  /**
+   * @return the offset after the closing quote of the string starting at i.
+   */
+  private static int skipString(CharSequence s, int i)
+  {
+    for (int j = i + 1; j < s.length(); ++j)
+    {
+      char c = s.charAt(j);
+      if (c == '\\')
+        ++j;
+      else if (c == '"')
+        return j + 1;
+    }
+    return s.length();
+  }
+
+  /**
+   * @return the end of the string, number or literal starting at i, i if it is an
+   * object or array.
+   */
+  private static int skipScalar(CharSequence s, int i)
+  {
+    if (i >= s.length())
+      return i;
+    char c = s.charAt(i);
+    if (c == '"')
+      return skipString(s, i);
+    if (c == '{' || c == '[')
+      return i;
+
+    int j = i;
+    while (j < s.length())
+    {
+      c = s.charAt(j);
+      if (c == ',' || c == '}' || c == ']' || Character.isWhitespace(c))
+        break;
+      ++j;
+    }
+    return j;
+  }
+
+  private static boolean regionEquals(CharSequence s, int start, int end, String key)
+  {
+    if (end - start != key.length())
+      return false;
+    for (int i = 0; i < key.length(); ++i)
+    {
+      if (s.charAt(start + i) != key.charAt(i))
+        return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,617 @@
+package org.xbmc.kodi.jsonrpc;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.xbmc.kodi.model.Album;
+import org.xbmc.kodi.model.Media;
+import org.xbmc.kodi.model.Movie;
+import org.xbmc.kodi.model.MusicVideo;
+import org.xbmc.kodi.model.Song;
+import org.xbmc.kodi.model.TVEpisode;
+import org.xbmc.kodi.model.TVShow;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps the library details returned by Kodi to the model classes, and builds the
+ * requests for them.
+ *
+ * <p>Items are decoded straight from the token stream, in a single pass over each:
+ * no intermediate JSON tree, and a missing or mistyped member leaves its default
+ * rather than failing the item. Only an item without id or title is dropped.
+ *
+ * <p>Plain Java: the image URLs are resolved by the caller, e.g. into content URIs.
+ */
+public final class JsonMediaMapper
+{
+  public interface ImageUrlResolver
+  {
+    /**
+     * @param url an art or file URL of the library, e.g. "image://...".
+     * @return the URL to load it from.
+     */
+    String getImageUrl(String url);
+  }
+
+  private static final RequestTemplate RETRIEVE_MOVIE_DETAILS = RequestTemplate.compile(
+          "{ \"jsonrpc\": \"2.0\", \"method\": \"VideoLibrary.GetMovieDetails\", \"params\": { \"movieid\" : %d, \"properties\" : [\"imdbnumber\", \"title\", \"tagline\", \"art\", \"year\", \"runtime\", \"file\", \"plot\", \"trailer\", \"rating\"] }, \"id\": \"%s\" }");
+
+  private static final RequestTemplate RETRIEVE_EPISODE_DETAILS = RequestTemplate.compile(
+          "{ \"jsonrpc\": \"2.0\", \"method\": \"VideoLibrary.GetEpisodeDetails\", \"params\": { \"episodeid\" : %d, \"properties\" : [\"title\", \"tvshowid\", \"showtitle\", \"season\", \"episode\", \"art\", \"file\", \"plot\", \"rating\", \"runtime\", \"firstaired\"] }, \"id\": \"%s\" }");
+
+  private static final RequestTemplate RETRIEVE_TVSHOW_DETAILS = RequestTemplate.compile(
+          "{ \"jsonrpc\": \"2.0\", \"method\": \"VideoLibrary.GetTVShowDetails\", \"params\": { \"tvshowid\" : %d, \"properties\" : [\"title\", \"studio\", \"art\", \"plot\", \"year\", \"rating\"] }, \"id\": \"%s\" }");
+
+  private static final RequestTemplate RETRIEVE_ALBUM_DETAILS = RequestTemplate.compile(
+          "{ \"jsonrpc\": \"2.0\", \"method\": \"AudioLibrary.GetAlbumDetails\", \"params\": { \"albumid\" : %d, \"properties\" : [\"title\", \"displayartist\", \"art\",  \"artistid\"] }, \"id\": \"%s\" }");
+
+  private static final RequestTemplate RETRIEVE_SONG_DETAILS = RequestTemplate.compile(
+          "{ \"jsonrpc\": \"2.0\", \"method\": \"AudioLibrary.GetSongDetails\", \"params\": { \"songid\" : %d, \"properties\" : [\"title\", \"displayartist\", \"art\", \"albumid\", \"artistid\", \"file\"] }, \"id\": \"%s\" }");
+
+  private static final RequestTemplate RETRIEVE_MUSICVIDEO_DETAILS = RequestTemplate.compile(
+          "{ \"jsonrpc\": \"2.0\", \"method\": \"VideoLibrary.GetMusicVideoDetails\", \"params\": { \"musicvideoid\" : %d, \"properties\" : [\"title\", \"artist\", \"art\", \"file\"] }, \"id\": \"%s\" }");
+
+  private final ImageUrlResolver mResolver;
+
+  public JsonMediaMapper(ImageUrlResolver resolver)
+  {
+    mResolver = resolver;
+  }
+
+  /**
+   * Adds the details request of a library item to a batch.
+   *
+   * @param mediaType the type of the item, see {@link #detailsTemplate(String)}.
+   * @param requestId the id of the request, to match its response.
+   */
+  public static RequestBuilder appendDetailsRequest(RequestBuilder builder, String mediaType, long mediaId,
+                                                    long requestId)
+  {
+    return builder.begin(detailsTemplate(mediaType)).arg(mediaId).arg(requestId);
+  }
+
+  /**
+   * Reads the responses of a details batch built with {@link #appendDetailsRequest}, the
+   * requests numbered from 1.
+   *
+   * @param mediaTypes the type of the item of every request, by id - 1.
+   * @return the items by id - 1, null for the ones not found or incomplete.
+   */
+  public Media[] readDetailsBatch(Reader in, String[] mediaTypes) throws IOException
+  {
+    Media[] found = new Media[mediaTypes.length];
+    Fields fields = new Fields();
+
+    JsonReader reader = new JsonReader(in);
+    reader.beginArray();
+    while (reader.hasNext())
+    {
+      if (reader.peek() != JsonToken.BEGIN_OBJECT)
+      {
+        reader.skipValue();
+        continue;
+      }
+
+      int index = -1;
+      String deferred = null;
+      reader.beginObject();
+      while (reader.hasNext())
+      {
+        String name = reader.nextName();
+        if (name.equals("id"))
+        {
+          index = JsonReaders.nextInt(reader, 0) - 1;
+        }
+        else if (name.equals("result"))
+        {
+          if (index >= 0 && index < found.length)
+            found[index] = readDetails(reader, mediaTypes[index], fields);
+          else if (index < 0)
+            // Kodi writes the id first, but nothing guarantees it: keep the result aside
+            deferred = JsonParser.parseReader(reader).toString();
+          else
+            reader.skipValue();
+        }
+        else
+        {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+
+      if (deferred != null && index >= 0 && index < found.length)
+        found[index] = readDetails(new JsonReader(new StringReader(deferred)), mediaTypes[index], fields);
+    }
+    reader.endArray();
+
+    return found;
+  }
+
+  /**
+   * Reads the response of a library listing, e.g. VideoLibrary.GetMovies.
+   *
+   * @param mediaType the type of the items, e.g. "movie" for the "movies" of the result.
+   * @return the items, without the incomplete ones. null if the response has no result.
+   */
+  public List<Media> readItems(Reader in, String mediaType) throws IOException
+  {
+    List<Media> medias = null;
+    String itemsKey = mediaType + "s";
+    Fields fields = new Fields();
+
+    JsonReader reader = new JsonReader(in);
+    reader.beginObject();
+    while (reader.hasNext())
+    {
+      if (reader.nextName().equals("result") && reader.peek() == JsonToken.BEGIN_OBJECT)
+      {
+        medias = new ArrayList<Media>();
+        reader.beginObject();
+        while (reader.hasNext())
+        {
+          if (reader.nextName().equals(itemsKey) && reader.peek() == JsonToken.BEGIN_ARRAY)
+          {
+            reader.beginArray();
+            while (reader.hasNext())
+            {
+              Media media = readMedia(reader, mediaType, fields);
+              if (media != null)
+                medias.add(media);
+            }
+            reader.endArray();
+          }
+          else
+          {
+            reader.skipValue();
+          }
+        }
+        reader.endObject();
+      }
+      else
+      {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    return medias;
+  }
+
+  /**
+   * Reads a library item, e.g. the "moviedetails" of a details response.
+   *
+   * @return the item, or null if the type is unknown or the item has no id or title.
+   */
+  public Media readMedia(JsonReader reader, String mediaType) throws IOException
+  {
+    return readMedia(reader, mediaType, new Fields());
+  }
+
+  private Media readDetails(JsonReader reader, String mediaType, Fields fields) throws IOException
+  {
+    if (reader.peek() != JsonToken.BEGIN_OBJECT)
+    {
+      reader.skipValue();
+      return null;
+    }
+
+    // the result of a details request has a single member, e.g. "moviedetails"
+    Media media = null;
+    reader.beginObject();
+    while (reader.hasNext())
+    {
+      if (reader.nextName().endsWith("details"))
+        media = readMedia(reader, mediaType, fields);
+      else
+        reader.skipValue();
+    }
+    reader.endObject();
+    return media;
+  }
+
+  private Media readMedia(JsonReader reader, String mediaType, Fields fields) throws IOException
+  {
+    if (reader.peek() != JsonToken.BEGIN_OBJECT)
+    {
+      reader.skipValue();
+      return null;
+    }
+
+    fields.read(reader);
+    switch (mediaType)
+    {
+      case "movie":
+        return createMovie(fields);
+      case "tvshow":
+        return createTVShow(fields);
+      case "episode":
+        return createTVEpisode(fields);
+      case "album":
+        return createAlbum(fields);
+      case "song":
+        return createSong(fields);
+      case "musicvideo":
+        return createMusicVideo(fields);
+      default:
+        return null;
+    }
+  }
+
+  private Movie createMovie(Fields details)
+  {
+    if (details.mMovieId < 0 || details.mTitle == null)
+      return null;
+
+    Movie med = new Movie();
+    med.setId(details.mMovieId);
+    med.setTitle(details.mTitle);
+    med.setDescription(details.mPlot);
+    // poster, or fallback to thumb
+    if (details.mPoster != null)
+      setArt(med, details.mPoster, "2:3", details.mFanart);
+    else
+      setArt(med, details.mThumb, "16:9", details.mFanart);
+
+    med.setXbmcUrl("videodb://movies/titles/" + details.mMovieId + "?showinfo=true");
+    med.setCategory(Media.MEDIA_TYPE_MOVIE);
+
+    med.setYear(details.mYear);
+    med.setRating(convertRating(details.mRating));
+    med.setDuration(details.mRuntime * 1000);
+    return med;
+  }
+
+  private TVShow createTVShow(Fields details)
+  {
+    if (details.mTVShowId < 0 || details.mTitle == null)
+      return null;
+
+    TVShow med = new TVShow();
+    med.setId(details.mTVShowId);
+    med.setTitle(details.mTitle);
+    med.setDescription(details.mPlot);
+    // poster, or fallback to thumb
+    if (details.mPoster != null)
+      setArt(med, details.mPoster, "2:3", details.mFanart);
+    else
+      setArt(med, details.mThumb, "16:9", details.mFanart);
+
+    med.setXbmcUrl("videodb://tvshows/titles/" + details.mTVShowId + "/");
+    med.setCategory(Media.MEDIA_TYPE_TVSHOW);
+
+    med.setYear(details.mYear);
+    med.setRating(convertRating(details.mRating));
+    return med;
+  }
+
+  private TVEpisode createTVEpisode(Fields details)
+  {
+    if (details.mEpisodeId < 0 || details.mTVShowId < 0 || details.mTitle == null)
+      return null;
+
+    TVEpisode med = new TVEpisode();
+    med.setId(details.mEpisodeId);
+    med.setTitle(details.mTitle);
+    med.setDescription(details.mPlot);
+    setArt(med, details.mThumb, "16:9", details.mFanart);
+
+    med.setXbmcUrl("videodb://tvshows/titles/" + details.mTVShowId + "/" + details.mEpisodeId + "?showinfo=true");
+    med.setCategory(Media.MEDIA_TYPE_TVEPISODE);
+
+    med.setShowTitle(details.mShowTitle);
+    med.setSeason(details.mSeason);
+    med.setEpisode(details.mEpisode);
+    med.setRating(convertRating(details.mRating));
+    med.setDuration(details.mRuntime * 1000);
+    med.setFirstaired(details.mFirstAired);
+    return med;
+  }
+
+  private Album createAlbum(Fields details)
+  {
+    if (details.mAlbumId < 0 || details.mTitle == null)
+      return null;
+
+    Album med = new Album();
+    med.setId(details.mAlbumId);
+    med.setTitle(details.mTitle);
+    med.setDescription(details.mDisplayArtist);
+    setArt(med, details.mThumb, "1:1", details.mFanart);
+
+    med.setXbmcUrl("musicdb://albums/" + details.mAlbumId + "/");
+    med.setCategory(Media.MEDIA_TYPE_ALBUM);
+    return med;
+  }
+
+  private Song createSong(Fields details)
+  {
+    if (details.mSongId < 0 || details.mTitle == null)
+      return null;
+
+    Song med = new Song();
+    med.setId(details.mSongId);
+    med.setTitle(details.mTitle);
+    med.setDescription(details.mDisplayArtist);
+    // album thumb, or fallback to albumartist.thumb then artist.thumb
+    String thumb = details.mAlbumThumb != null ? details.mAlbumThumb
+            : details.mAlbumArtistThumb != null ? details.mAlbumArtistThumb : details.mArtistThumb;
+    String fanart = details.mAlbumArtistFanart != null ? details.mAlbumArtistFanart : details.mArtistFanart;
+    setArt(med, thumb, "1:1", fanart);
+
+    String extension = "";
+    if (details.mFile != null && details.mFile.lastIndexOf('.') >= 0)
+      extension = details.mFile.substring(details.mFile.lastIndexOf('.'));
+
+    if (details.mAlbumId >= 0)
+      med.setXbmcUrl("musicdb://albums/" + details.mAlbumId + "/" + details.mSongId + extension);
+    else
+      med.setXbmcUrl("musicdb://songs/" + details.mSongId + extension);
+
+    med.setCategory(Media.MEDIA_TYPE_SONG);
+    return med;
+  }
+
+  private MusicVideo createMusicVideo(Fields details)
+  {
+    if (details.mMusicVideoId < 0 || details.mTitle == null)
+      return null;
+
+    MusicVideo med = new MusicVideo();
+    med.setId(details.mMusicVideoId);
+    med.setTitle(details.mTitle);
+    if (details.mArtist != null)
+      med.setDescription(details.mArtist);
+    setArt(med, details.mThumb, "1:1", details.mFanart);
+
+    med.setXbmcUrl("videodb://musicvideos/titles/" + details.mMusicVideoId);
+
+    if (details.mFile != null && !details.mFile.isEmpty())
+      med.setVideoUrl(mResolver.getImageUrl(details.mFile));
+
+    med.setCategory(Media.MEDIA_TYPE_MUSICVIDEO);
+    return med;
+  }
+
+  private void setArt(Media med, String card, String aspectRatio, String fanart)
+  {
+    if (card != null)
+    {
+      med.setCardImageUrl(mResolver.getImageUrl(card));
+      med.setCardImageAspectRatio(aspectRatio);
+    }
+    if (fanart != null)
+      med.setBackgroundImageUrl(mResolver.getImageUrl(fanart));
+  }
+
+  /**
+   * @return the details request of a library item type, null if it has none.
+   */
+  public static RequestTemplate detailsTemplate(String mediaType)
+  {
+    if (mediaType == null)
+      return null;
+    if (mediaType.equals("movie"))
+      return RETRIEVE_MOVIE_DETAILS;
+    if (mediaType.equals("episode"))
+      return RETRIEVE_EPISODE_DETAILS;
+    if (mediaType.equals("tvshow"))
+      return RETRIEVE_TVSHOW_DETAILS;
+    if (mediaType.equals("album"))
+      return RETRIEVE_ALBUM_DETAILS;
+    if (mediaType.equals("song"))
+      return RETRIEVE_SONG_DETAILS;
+    if (mediaType.equals("musicvideo"))
+      return RETRIEVE_MUSICVIDEO_DETAILS;
+    return null;
+  }
+
+  public static String extractKeyFromArtMap(JsonObject details, String key)
+  {
+    if (details.has("art") && !details.get("art").getAsJsonObject().isJsonNull() &&
+      details.get("art").getAsJsonObject().has(key) &&
+      !details.get("art").getAsJsonObject().get(key).getAsString().isEmpty())
+    {
+      return details.get("art").getAsJsonObject().get(key).getAsString();
+    }
+    return null;
+  }
+
+  private static String convertRating(double rating)
+  {
+    if (!(rating > 0.0))
+      return null;
+
+    return String.valueOf(rating / 2.0);
+  }
+
+  /**
+   * The members of a library item the models are made of, whatever its type, read in a
+   * single pass. Reused from item to item: every read starts from the defaults, the ids
+   * -1 and the art null when missing or empty.
+   */
+  private static final class Fields
+  {
+    long mMovieId;
+    long mTVShowId;
+    long mEpisodeId;
+    long mAlbumId;
+    long mSongId;
+    long mMusicVideoId;
+    String mTitle;
+    String mPlot;
+    String mDisplayArtist;
+    String mArtist;
+    String mShowTitle;
+    String mFirstAired;
+    String mFile;
+    String mYear;
+    double mRating;
+    int mRuntime;
+    int mSeason;
+    int mEpisode;
+
+    String mPoster;
+    String mThumb;
+    String mFanart;
+    String mAlbumThumb;
+    String mAlbumArtistThumb;
+    String mArtistThumb;
+    String mAlbumArtistFanart;
+    String mArtistFanart;
+
+    void read(JsonReader reader) throws IOException
+    {
+      mMovieId = mTVShowId = mEpisodeId = mAlbumId = mSongId = mMusicVideoId = -1;
+      mTitle = mPlot = mDisplayArtist = mArtist = mShowTitle = mFirstAired = mFile = mYear = null;
+      mRating = 0.0;
+      mRuntime = mSeason = mEpisode = 0;
+      mPoster = mThumb = mFanart = null;
+      mAlbumThumb = mAlbumArtistThumb = mArtistThumb = mAlbumArtistFanart = mArtistFanart = null;
+
+      reader.beginObject();
+      while (reader.hasNext())
+      {
+        switch (reader.nextName())
+        {
+          case "movieid":
+            mMovieId = JsonReaders.nextLong(reader, -1);
+            break;
+          case "tvshowid":
+            mTVShowId = JsonReaders.nextLong(reader, -1);
+            break;
+          case "episodeid":
+            mEpisodeId = JsonReaders.nextLong(reader, -1);
+            break;
+          case "albumid":
+            mAlbumId = JsonReaders.nextLong(reader, -1);
+            break;
+          case "songid":
+            mSongId = JsonReaders.nextLong(reader, -1);
+            break;
+          case "musicvideoid":
+            mMusicVideoId = JsonReaders.nextLong(reader, -1);
+            break;
+          case "title":
+            mTitle = JsonReaders.nextString(reader, null);
+            break;
+          case "plot":
+            mPlot = JsonReaders.nextString(reader, null);
+            break;
+          case "displayartist":
+            mDisplayArtist = JsonReaders.nextString(reader, null);
+            break;
+          case "artist":
+            mArtist = readFirst(reader);
+            break;
+          case "showtitle":
+            mShowTitle = JsonReaders.nextString(reader, null);
+            break;
+          case "firstaired":
+            mFirstAired = JsonReaders.nextString(reader, null);
+            break;
+          case "file":
+            mFile = JsonReaders.nextString(reader, null);
+            break;
+          case "year":
+            mYear = JsonReaders.nextString(reader, null);
+            break;
+          case "rating":
+            mRating = JsonReaders.nextDouble(reader, 0.0);
+            break;
+          case "runtime":
+            mRuntime = JsonReaders.nextInt(reader, 0);
+            break;
+          case "season":
+            mSeason = JsonReaders.nextInt(reader, 0);
+            break;
+          case "episode":
+            mEpisode = JsonReaders.nextInt(reader, 0);
+            break;
+          case "art":
+            readArt(reader);
+            break;
+          default:
+            reader.skipValue();
+            break;
+        }
+      }
+      reader.endObject();
+    }
+
+    private void readArt(JsonReader reader) throws IOException
+    {
+      if (reader.peek() != JsonToken.BEGIN_OBJECT)
+      {
+        reader.skipValue();
+        return;
+      }
+
+      reader.beginObject();
+      while (reader.hasNext())
+      {
+        switch (reader.nextName())
+        {
+          case "poster":
+            mPoster = nextArt(reader);
+            break;
+          case "thumb":
+            mThumb = nextArt(reader);
+            break;
+          case "fanart":
+            mFanart = nextArt(reader);
+            break;
+          case "album.thumb":
+            mAlbumThumb = nextArt(reader);
+            break;
+          case "albumartist.thumb":
+            mAlbumArtistThumb = nextArt(reader);
+            break;
+          case "artist.thumb":
+            mArtistThumb = nextArt(reader);
+            break;
+          case "albumartist.fanart":
+            mAlbumArtistFanart = nextArt(reader);
+            break;
+          case "artist.fanart":
+            mArtistFanart = nextArt(reader);
+            break;
+          default:
+            reader.skipValue();
+            break;
+        }
+      }
+      reader.endObject();
+    }
+
+    private static String nextArt(JsonReader reader) throws IOException
+    {
+      String url = JsonReaders.nextString(reader, null);
+      return url == null || url.isEmpty() ? null : url;
+    }
+
+    /**
+     * @return the first value of an array, or the value itself. null if none.
+     */
+    private static String readFirst(JsonReader reader) throws IOException
+    {
+      if (reader.peek() != JsonToken.BEGIN_ARRAY)
+        return JsonReaders.nextString(reader, null);
+
+      String first = null;
+      reader.beginArray();
+      if (reader.hasNext())
+        first = JsonReaders.nextString(reader, null);
+      while (reader.hasNext())
+        reader.skipValue();
+      reader.endArray();
+      return first;
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package org.xbmc.kodi.jsonrpc;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Lenient value accessors for {@link JsonReader}.
+ *
+ * <p>Kodi is not always consistent about the JSON type of a field (ids as strings,
+ * null instead of an empty string, ...). These helpers always consume exactly one
+ * value and fall back to a default instead of throwing.
+ */
+final class JsonReaders
+{
+  private JsonReaders()
+  {
+  }
+
+  static String nextString(JsonReader reader, String defValue) throws IOException
+  {
+    JsonToken token = reader.peek();
+    if (token == JsonToken.STRING || token == JsonToken.NUMBER)
+      return reader.nextString();
+    if (token == JsonToken.BOOLEAN)
+      return String.valueOf(reader.nextBoolean());
+
+    reader.skipValue();
+    return defValue;
+  }
+
+  static long nextLong(JsonReader reader, long defValue) throws IOException
+  {
+    JsonToken token = reader.peek();
+    if (token == JsonToken.NUMBER || token == JsonToken.STRING)
+    {
+      try
+      {
+        return reader.nextLong();
+      }
+      catch (NumberFormatException e)
+      {
+        // the value is buffered by the reader, consume it
+        reader.skipValue();
+        return defValue;
+      }
+    }
+
+    reader.skipValue();
+    return defValue;
+  }
+
+  static int nextInt(JsonReader reader, int defValue) throws IOException
+  {
+    long value = nextLong(reader, defValue);
+    if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+      return defValue;
+    return (int) value;
+  }
+
+  static double nextDouble(JsonReader reader, double defValue) throws IOException
+  {
+    JsonToken token = reader.peek();
+    if (token == JsonToken.NUMBER || token == JsonToken.STRING)
+    {
+      try
+      {
+        return reader.nextDouble();
+      }
+      catch (NumberFormatException e)
+      {
+        reader.skipValue();
+        return defValue;
+      }
+    }
+
+    reader.skipValue();
+    return defValue;
+  }
+}
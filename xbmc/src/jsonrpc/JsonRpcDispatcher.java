@@ -0,0 +1,282 @@
+package org.xbmc.kodi.jsonrpc;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Orders the transport calls of the process by priority.
+ *
+ * <p>Calls are queued in one of three lanes: interactive (search), normal (leanback
+ * recommendations) and background (channel sync, index building). At most
+ * {@link #MAX_ACTIVE} calls run at once, and each lane has its own bound too. The
+ * normal and background calls together never hold every slot: one is always left to
+ * the interactive lane, so a search never queues behind a sync. When a slot frees the
+ * most urgent waiting call runs; a call gains one lane of urgency every
+ * {@link #AGING_MS} it waits, so that a busy normal lane cannot starve the background
+ * one, but never overtakes the interactive lane.
+ *
+ * <p>A call cancelled while queued is dropped without running.
+ */
+public final class JsonRpcDispatcher
+{
+  public static final int LANE_INTERACTIVE = 0;
+  public static final int LANE_NORMAL = 1;
+  public static final int LANE_BACKGROUND = 2;
+  private static final String[] LANE_NAMES = { "interactive", "normal", "background" };
+
+  public static final int MAX_ACTIVE = 6;
+  // background as many as the media chunks fetched in parallel by a channel sync; the
+  // normal and background caps add up to less than MAX_ACTIVE
+  private static final int[] LANE_MAX_ACTIVE = { 6, 2, 3 };
+  public static final int QUEUE_SIZE = 64;
+  public static final long AGING_MS = 500;
+  private static final long KEEP_ALIVE_SECONDS = 30;
+
+  private static final JsonRpcDispatcher sInstance = new JsonRpcDispatcher(MAX_ACTIVE, LANE_MAX_ACTIVE, AGING_MS);
+
+  private static final class Entry
+  {
+    final FutureTask<?> mTask;
+    final Lane mLane;
+    final long mQueuedAt = now();
+
+    Entry(FutureTask<?> task, Lane lane)
+    {
+      mTask = task;
+      mLane = lane;
+    }
+  }
+
+  private static final class Lane
+  {
+    final int mIndex;
+    final int mMaxActive;
+    final ArrayDeque<Entry> mQueue = new ArrayDeque<>();
+    int mActive = 0;
+    long mDispatched = 0;
+    long mDropped = 0;
+    long mTotalWaitMs = 0;
+    long mMaxWaitMs = 0;
+
+    Lane(int index, int maxActive)
+    {
+      mIndex = index;
+      mMaxActive = maxActive;
+    }
+  }
+
+  private final Object mLock = new Object();
+  private final int mMaxActive;
+  // the slots the normal and background calls may hold together
+  private final int mSharedMaxActive;
+  private final long mAgingMs;
+  private final Lane[] mLanes;
+  private int mActive = 0;
+  private final ExecutorService mThreads;
+
+  JsonRpcDispatcher(int maxActive, int[] laneMaxActive, long agingMs)
+  {
+    mMaxActive = maxActive;
+    mSharedMaxActive = Math.max(1, maxActive - 1);
+    mAgingMs = agingMs;
+    mLanes = new Lane[laneMaxActive.length];
+    for (int i = 0; i < mLanes.length; ++i)
+      mLanes[i] = new Lane(i, laneMaxActive[i]);
+
+    final AtomicInteger count = new AtomicInteger(0);
+    // the number of running workers is bounded by mMaxActive, not by the pool
+    ThreadPoolExecutor threads = new ThreadPoolExecutor(
+            0,
+            Integer.MAX_VALUE,
+            KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(),
+            (r) -> {
+              Thread thread = new Thread(r, "Kodi-JsonRPC-Call-" + count.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    mThreads = threads;
+  }
+
+  public static JsonRpcDispatcher get()
+  {
+    return sInstance;
+  }
+
+  /**
+   * Queues a call.
+   *
+   * @param lane one of the LANE_*.
+   * @return the future of the call. Cancelling it drops the call if it did not start.
+   * @throws RejectedExecutionException if {@link #QUEUE_SIZE} calls already wait in the
+   *                                    lane, i.e. Kodi does not keep up.
+   */
+  public <V> Future<V> submit(int lane, Callable<V> call)
+  {
+    FutureTask<V> task = new FutureTask<>(call);
+    Entry start;
+    synchronized (mLock)
+    {
+      Lane queue = mLanes[lane];
+      if (queue.mQueue.size() >= QUEUE_SIZE)
+      {
+        dropCancelled(queue);
+        if (queue.mQueue.size() >= QUEUE_SIZE)
+          throw new RejectedExecutionException("JsonRpcDispatcher: " + LANE_NAMES[lane] + " lane full");
+      }
+      queue.mQueue.addLast(new Entry(task, queue));
+      start = poll();
+    }
+
+    if (start != null)
+    {
+      final Entry first = start;
+      mThreads.execute(() -> work(first));
+    }
+    return task;
+  }
+
+  public int getQueueDepth(int lane)
+  {
+    synchronized (mLock)
+    {
+      return mLanes[lane].mQueue.size();
+    }
+  }
+
+  /**
+   * @return the average time the calls of a lane waited before running.
+   */
+  public long getAverageWaitMs(int lane)
+  {
+    synchronized (mLock)
+    {
+      Lane queue = mLanes[lane];
+      return queue.mDispatched > 0 ? queue.mTotalWaitMs / queue.mDispatched : 0;
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    synchronized (mLock)
+    {
+      StringBuilder out = new StringBuilder("JsonRpcDispatcher{active=").append(mActive);
+      for (Lane lane : mLanes)
+      {
+        out.append(", ").append(LANE_NAMES[lane.mIndex]).append("={")
+                .append("queued=").append(lane.mQueue.size())
+                .append(", active=").append(lane.mActive)
+                .append(", dispatched=").append(lane.mDispatched)
+                .append(", dropped=").append(lane.mDropped)
+                .append(", avgWaitMs=").append(lane.mDispatched > 0 ? lane.mTotalWaitMs / lane.mDispatched : 0)
+                .append(", maxWaitMs=").append(lane.mMaxWaitMs)
+                .append('}');
+      }
+      return out.append('}').toString();
+    }
+  }
+
+  /**
+   * Runs calls as long as some are eligible, starting with the given one.
+   */
+  private void work(Entry entry)
+  {
+    while (entry != null)
+    {
+      // a FutureTask keeps the failures of the call to itself
+      entry.mTask.run();
+      synchronized (mLock)
+      {
+        --entry.mLane.mActive;
+        --mActive;
+        entry = poll();
+      }
+    }
+  }
+
+  /**
+   * Takes the most urgent eligible call, if a slot is free, and counts it as active.
+   * Must hold mLock.
+   */
+  private Entry poll()
+  {
+    if (mActive >= mMaxActive)
+      return null;
+
+    long now = now();
+    boolean shared = mActive - mLanes[LANE_INTERACTIVE].mActive < mSharedMaxActive;
+    Lane best = null;
+    long bestUrgency = Long.MAX_VALUE;
+    long bestQueuedAt = Long.MAX_VALUE;
+    for (Lane lane : mLanes)
+    {
+      if (lane.mActive >= lane.mMaxActive || (lane.mIndex != LANE_INTERACTIVE && !shared))
+        continue;
+      dropCancelledHead(lane);
+      Entry head = lane.mQueue.peekFirst();
+      if (head == null)
+        continue;
+
+      // lower is more urgent: the lane, less one per aging period waited, the other
+      // lanes staying behind the interactive one
+      long urgency = lane.mIndex - (now - head.mQueuedAt) / mAgingMs;
+      if (lane.mIndex != LANE_INTERACTIVE)
+        urgency = Math.max(urgency, LANE_INTERACTIVE + 1);
+      // the call waiting longest among equals
+      if (urgency < bestUrgency || (urgency == bestUrgency && head.mQueuedAt < bestQueuedAt))
+      {
+        best = lane;
+        bestUrgency = urgency;
+        bestQueuedAt = head.mQueuedAt;
+      }
+    }
+    if (best == null)
+      return null;
+
+    Entry entry = best.mQueue.pollFirst();
+    long waited = now - entry.mQueuedAt;
+    best.mTotalWaitMs += waited;
+    best.mMaxWaitMs = Math.max(best.mMaxWaitMs, waited);
+    ++best.mDispatched;
+    ++best.mActive;
+    ++mActive;
+    return entry;
+  }
+
+  private static void dropCancelledHead(Lane lane)
+  {
+    while (!lane.mQueue.isEmpty() && lane.mQueue.peekFirst().mTask.isCancelled())
+    {
+      lane.mQueue.pollFirst();
+      ++lane.mDropped;
+    }
+  }
+
+  private static void dropCancelled(Lane lane)
+  {
+    for (Iterator<Entry> it = lane.mQueue.iterator(); it.hasNext(); )
+    {
+      if (it.next().mTask.isCancelled())
+      {
+        it.remove();
+        ++lane.mDropped;
+      }
+    }
+  }
+
+  private static long now()
+  {
+    return System.nanoTime() / 1000000L;
+  }
+}
@@ -0,0 +1,76 @@
+package org.xbmc.kodi.jsonrpc;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process wide executor running the asynchronous JSON-RPC calls.
+ *
+ * <p>The pool is bounded both in threads and in queued calls. When the queue is full
+ * the call runs on the submitting thread, which throttles the producer instead of
+ * failing the request.
+ *
+ * <p>The blocking transport calls themselves run on the {@link JsonRpcDispatcher}.
+ */
+public final class JsonRpcExecutor
+{
+  public static final int THREADS = 4;
+  public static final int QUEUE_SIZE = 128;
+  private static final long KEEP_ALIVE_SECONDS = 30;
+
+  private static volatile ExecutorService sExecutor = null;
+
+  private JsonRpcExecutor()
+  {
+  }
+
+  public static ExecutorService get()
+  {
+    ExecutorService executor = sExecutor;
+    if (executor == null)
+    {
+      synchronized (JsonRpcExecutor.class)
+      {
+        executor = sExecutor;
+        if (executor == null)
+        {
+          ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                  THREADS,
+                  THREADS,
+                  KEEP_ALIVE_SECONDS,
+                  TimeUnit.SECONDS,
+                  new LinkedBlockingQueue<Runnable>(QUEUE_SIZE),
+                  new JsonRpcThreadFactory("Kodi-JsonRPC-"),
+                  new ThreadPoolExecutor.CallerRunsPolicy());
+          pool.allowCoreThreadTimeOut(true);
+          executor = pool;
+          sExecutor = executor;
+        }
+      }
+    }
+    return executor;
+  }
+
+  private static class JsonRpcThreadFactory implements ThreadFactory
+  {
+    private final String mPrefix;
+    private final AtomicInteger mCount = new AtomicInteger(0);
+
+    JsonRpcThreadFactory(String prefix)
+    {
+      mPrefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable r)
+    {
+      Thread thread = new Thread(r, mPrefix + mCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,305 @@
+package org.xbmc.kodi.jsonrpc;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Process wide view of whether the native JSON-RPC server answers.
+ *
+ * <p>The status is learnt both from explicit probes and from the outcome of every real
+ * call. Once the server is known up the status is trusted for {@link #STATUS_TTL_MS}
+ * without probing again. It is known down after a failed probe, or after
+ * {@link #FAILURE_THRESHOLD} calls failed in a row: a single slow call does not open
+ * the circuit.
+ *
+ * <p>While the circuit is open calls fail fast until the retry delay elapses. The
+ * circuit is then half open: the first caller becomes the probe, every other one keeps
+ * failing fast until the probe reports. The retry delay doubles every time the circuit
+ * opens again, from {@link #MIN_RETRY_MS} to {@link #MAX_RETRY_MS}.
+ */
+public final class JsonRpcHealthMonitor
+{
+  public static final int STATE_UNKNOWN = 0;
+  public static final int STATE_UP = 1;
+  public static final int STATE_DOWN = 2;
+
+  public static final long STATUS_TTL_MS = 30 * 1000;
+  public static final long MIN_RETRY_MS = 1000;
+  public static final long MAX_RETRY_MS = 60 * 1000;
+  public static final int FAILURE_THRESHOLD = 3;
+  // a probe which did not report by then is taken as lost
+  public static final long PROBE_TIMEOUT_MS = 30 * 1000;
+
+  public interface Listener
+  {
+    /**
+     * Called on the thread that observed the change, must not block.
+     */
+    void onAvailabilityChanged(boolean available);
+  }
+
+  private static final class Probe
+  {
+    final Thread mThread = Thread.currentThread();
+    final long mStartedAt = now();
+  }
+
+  private static final JsonRpcHealthMonitor sInstance = new JsonRpcHealthMonitor();
+
+  private final Object mLock = new Object();
+  private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<>();
+  private int mState = STATE_UNKNOWN;
+  private long mCheckedAt = 0;
+  private long mRetryAt = 0;
+  private int mFailures = 0;
+  private int mOpenings = 0;
+  // the caller let through to probe the server, the one call allowed while half open
+  private final AtomicReference<Probe> mProbe = new AtomicReference<>();
+
+  JsonRpcHealthMonitor()
+  {
+  }
+
+  public static JsonRpcHealthMonitor get()
+  {
+    return sInstance;
+  }
+
+  public void addListener(Listener listener)
+  {
+    mListeners.addIfAbsent(listener);
+  }
+
+  public void removeListener(Listener listener)
+  {
+    mListeners.remove(listener);
+  }
+
+  /**
+   * @return false while the circuit is open, i.e. a call is bound to fail. When the
+   * circuit is half open, true for the one caller which becomes the probe.
+   */
+  public boolean allowRequest()
+  {
+    synchronized (mLock)
+    {
+      if (mState != STATE_DOWN)
+        return true;
+      if (now() < mRetryAt)
+        return false;
+    }
+    return startProbe();
+  }
+
+  /**
+   * Same as {@link #allowRequest()} without becoming the probe.
+   *
+   * @return true while calls fail fast.
+   */
+  public boolean isOpen()
+  {
+    synchronized (mLock)
+    {
+      if (mState != STATE_DOWN)
+        return false;
+      if (now() < mRetryAt)
+        return true;
+    }
+    Probe probe = mProbe.get();
+    return probe != null && probe.mThread != Thread.currentThread() && !isLost(probe);
+  }
+
+  /**
+   * @return true if the calling thread is the probe and did not report yet.
+   */
+  public boolean isProbing()
+  {
+    Probe probe = mProbe.get();
+    return probe != null && probe.mThread == Thread.currentThread();
+  }
+
+  /**
+   * Returns the cached status when it is still valid, probes otherwise.
+   *
+   * @param probe issues a cheap request and tells whether it succeeded.
+   */
+  public boolean check(BooleanSupplier probe)
+  {
+    boolean known;
+    synchronized (mLock)
+    {
+      long now = now();
+      if (mState == STATE_UP && now - mCheckedAt < STATUS_TTL_MS)
+        return true;
+      if (mState == STATE_DOWN && now < mRetryAt)
+        return false;
+      known = mState == STATE_UP;
+    }
+    // someone else probes: the last status stands meanwhile
+    if (!startProbe())
+      return known;
+
+    boolean available;
+    try
+    {
+      available = probe.getAsBoolean();
+    }
+    catch (RuntimeException e)
+    {
+      available = false;
+    }
+
+    if (available)
+      reportSuccess();
+    else if (isProbing())
+      // unless the request of the probe reported the failure already
+      fail(true);
+    return available;
+  }
+
+  /**
+   * Waits until the server answers, probing as the backoff allows.
+   *
+   * @return false if it did not within the timeout, or if interrupted.
+   */
+  public boolean awaitAvailable(long timeoutMs, BooleanSupplier probe)
+  {
+    long deadline = now() + timeoutMs;
+    while (true)
+    {
+      if (check(probe))
+        return true;
+
+      synchronized (mLock)
+      {
+        long now = now();
+        if (now >= deadline)
+          return false;
+        if (mState == STATE_UP)
+          continue;
+
+        // until the next probe is allowed, or a probe of another caller reports
+        long until = mState == STATE_DOWN && mRetryAt > now ? mRetryAt : now + MIN_RETRY_MS;
+        try
+        {
+          mLock.wait(Math.max(1, Math.min(deadline, until) - now));
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+    }
+  }
+
+  public void reportSuccess()
+  {
+    boolean changed;
+    synchronized (mLock)
+    {
+      changed = mState != STATE_UP;
+      mState = STATE_UP;
+      mCheckedAt = now();
+      mFailures = 0;
+      mOpenings = 0;
+      mRetryAt = 0;
+      mProbe.set(null);
+      if (changed)
+        mLock.notifyAll();
+    }
+    if (changed)
+      notifyListeners(true);
+  }
+
+  /**
+   * Counts a failed call, the circuit opens after {@link #FAILURE_THRESHOLD} in a row or
+   * if the call was the probe.
+   */
+  public void reportFailure()
+  {
+    fail(false);
+  }
+
+  private void fail(boolean probe)
+  {
+    boolean changed;
+    synchronized (mLock)
+    {
+      ++mFailures;
+      mCheckedAt = now();
+      // while half open the only call is the probe
+      if (!probe && mState != STATE_DOWN && mFailures < FAILURE_THRESHOLD)
+        return;
+
+      changed = mState != STATE_DOWN;
+      mState = STATE_DOWN;
+      long delay = MIN_RETRY_MS << Math.min(mOpenings, 16);
+      mRetryAt = mCheckedAt + Math.min(delay, MAX_RETRY_MS);
+      ++mOpenings;
+      mProbe.set(null);
+      mLock.notifyAll();
+    }
+    if (changed)
+      notifyListeners(false);
+  }
+
+  public int getState()
+  {
+    synchronized (mLock)
+    {
+      return mState;
+    }
+  }
+
+  public int getConsecutiveFailures()
+  {
+    synchronized (mLock)
+    {
+      return mFailures;
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    synchronized (mLock)
+    {
+      return "JsonRpcHealthMonitor{"
+              + "state=" + mState
+              + ", failures=" + mFailures
+              + ", retryIn=" + Math.max(0, mRetryAt - now())
+              + '}';
+    }
+  }
+
+  /**
+   * Makes the caller the probe, unless another one probes already.
+   */
+  private boolean startProbe()
+  {
+    Probe current = mProbe.get();
+    if (current != null && current.mThread == Thread.currentThread())
+      return true;
+    if (current != null && !isLost(current))
+      return false;
+    return mProbe.compareAndSet(current, new Probe());
+  }
+
+  private static boolean isLost(Probe probe)
+  {
+    return now() - probe.mStartedAt >= PROBE_TIMEOUT_MS;
+  }
+
+  private void notifyListeners(boolean available)
+  {
+    for (Listener listener : mListeners)
+      listener.onAvailabilityChanged(available);
+  }
+
+  private static long now()
+  {
+    return System.nanoTime() / 1000000L;
+  }
+}
@@ -0,0 +1,270 @@
+package org.xbmc.kodi.jsonrpc;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * Process wide JSON-RPC instrumentation, per call site and per method.
+ *
+ * <p>Records the round trip latency, the request and response sizes, the parse time and
+ * the failures of every request. The method is the first "method" of the request; a
+ * batch is counted apart from the single requests of its first method. Sizes are in
+ * characters, or bytes for the responses read as UTF-8: the same for the ASCII bulk of
+ * JSON.
+ *
+ * <p>Recording takes no lock and allocates nothing once a method was seen, so it stays
+ * on in production. The call site is carried by the thread, see {@link #atSite(int,
+ * Supplier)}.
+ */
+public final class JsonRpcMetrics
+{
+  public static final int SITE_OTHER = 0;
+  public static final int SITE_SEARCH = 1;
+  public static final int SITE_SUGGESTIONS = 2;
+  public static final int SITE_FILES = 3;
+  public static final int SITE_MEDIAS = 4;
+  public static final int SITE_LEANBACK = 5;
+  public static final int SITE_RECOMMENDATIONS = 6;
+  private static final String[] SITE_NAMES =
+          { "other", "search", "suggestions", "files", "medias", "leanback", "recommendations" };
+
+  public static final int OUTCOME_OK = 0;
+  public static final int OUTCOME_ERROR = 1;
+  public static final int OUTCOME_TIMEOUT = 2;
+
+  // methods per site, a power of two
+  private static final int TABLE_SIZE = 64;
+
+  private static final JsonRpcMetrics sInstance = new JsonRpcMetrics();
+
+  private static final ThreadLocal<int[]> sSite = new ThreadLocal<int[]>()
+  {
+    @Override
+    protected int[] initialValue()
+    {
+      return new int[] { SITE_OTHER };
+    }
+  };
+
+  public static final class MethodStats
+  {
+    final String mMethod;
+    final boolean mBatch;
+    final LatencyHistogram mLatency = new LatencyHistogram();
+    final LatencyHistogram mParse = new LatencyHistogram();
+    final AtomicLong mErrors = new AtomicLong(0);
+    final AtomicLong mTimeouts = new AtomicLong(0);
+    final AtomicLong mRequestChars = new AtomicLong(0);
+    final AtomicLong mResponseChars = new AtomicLong(0);
+    final AtomicLong mMaxResponseChars = new AtomicLong(0);
+
+    MethodStats(String method, boolean batch)
+    {
+      mMethod = method;
+      mBatch = batch;
+    }
+
+    boolean matches(String request, int start, int end, boolean batch)
+    {
+      return mBatch == batch
+              && mMethod.length() == end - start
+              && request.regionMatches(start, mMethod, 0, end - start);
+    }
+
+    public LatencyHistogram getLatency()
+    {
+      return mLatency;
+    }
+
+    public LatencyHistogram getParseTime()
+    {
+      return mParse;
+    }
+
+    public long getErrorCount()
+    {
+      return mErrors.get();
+    }
+
+    public long getTimeoutCount()
+    {
+      return mTimeouts.get();
+    }
+  }
+
+  // by site, the method tables
+  private final AtomicReferenceArray<AtomicReferenceArray<MethodStats>> mTables;
+  // requests of a full table, or without a method
+  private final MethodStats[] mOverflow;
+
+  JsonRpcMetrics()
+  {
+    mTables = new AtomicReferenceArray<>(SITE_NAMES.length);
+    mOverflow = new MethodStats[SITE_NAMES.length];
+    for (int i = 0; i < SITE_NAMES.length; ++i)
+    {
+      mTables.set(i, new AtomicReferenceArray<MethodStats>(TABLE_SIZE));
+      mOverflow[i] = new MethodStats("?", false);
+    }
+  }
+
+  public static JsonRpcMetrics get()
+  {
+    return sInstance;
+  }
+
+  /**
+   * @return the call site of the thread, SITE_OTHER outside any.
+   */
+  public static int currentSite()
+  {
+    return sSite.get()[0];
+  }
+
+  /**
+   * Runs a call with the requests it issues on this thread counted for a site.
+   */
+  public static <V> V atSite(int site, Supplier<V> call)
+  {
+    int[] current = sSite.get();
+    int previous = current[0];
+    current[0] = site;
+    try
+    {
+      return call.get();
+    }
+    finally
+    {
+      current[0] = previous;
+    }
+  }
+
+  /**
+   * Records a round trip.
+   *
+   * @param responseLength -1 if the request failed.
+   * @param outcome        one of the OUTCOME_*.
+   */
+  public void recordRequest(int site, String request, long responseLength, long durationNs, int outcome)
+  {
+    MethodStats stats = stats(site, request);
+    stats.mLatency.record(durationNs);
+    stats.mRequestChars.addAndGet(request.length());
+    if (outcome == OUTCOME_TIMEOUT)
+      stats.mTimeouts.incrementAndGet();
+    else if (outcome == OUTCOME_ERROR)
+      stats.mErrors.incrementAndGet();
+
+    if (responseLength >= 0)
+    {
+      stats.mResponseChars.addAndGet(responseLength);
+      long max = stats.mMaxResponseChars.get();
+      while (responseLength > max && !stats.mMaxResponseChars.compareAndSet(max, responseLength))
+        max = stats.mMaxResponseChars.get();
+    }
+  }
+
+  /**
+   * Records the time taken to parse the response of a request.
+   */
+  public void recordParse(int site, String request, long durationNs)
+  {
+    stats(site, request).mParse.record(durationNs);
+  }
+
+  /**
+   * Writes every non empty statistic, one line per site and method.
+   */
+  public void dump(PrintWriter out)
+  {
+    out.println("JsonRpcMetrics:");
+    for (int site = 0; site < SITE_NAMES.length; ++site)
+    {
+      AtomicReferenceArray<MethodStats> table = mTables.get(site);
+      for (int i = 0; i < TABLE_SIZE; ++i)
+      {
+        MethodStats stats = table.get(i);
+        if (stats != null)
+          dump(out, site, stats);
+      }
+      if (mOverflow[site].mLatency.getCount() > 0)
+        dump(out, site, mOverflow[site]);
+    }
+  }
+
+  private static void dump(PrintWriter out, int site, MethodStats stats)
+  {
+    long count = Math.max(1, stats.mLatency.getCount());
+    out.println("  " + SITE_NAMES[site] + " " + stats.mMethod + (stats.mBatch ? "[batch]" : "")
+            + ": latency{" + stats.mLatency + "}"
+            + " parse{" + stats.mParse + "}"
+            + " errors=" + stats.mErrors.get()
+            + " timeouts=" + stats.mTimeouts.get()
+            + " avgRequest=" + stats.mRequestChars.get() / count
+            + " avgResponse=" + stats.mResponseChars.get() / count
+            + " maxResponse=" + stats.mMaxResponseChars.get());
+  }
+
+  private MethodStats stats(int site, String request)
+  {
+    if (site < 0 || site >= SITE_NAMES.length)
+      site = SITE_OTHER;
+
+    int start = methodStart(request);
+    int end = start < 0 ? -1 : request.indexOf('"', start);
+    if (end < 0)
+      return mOverflow[site];
+
+    int firstChar = 0;
+    while (firstChar < request.length() && Character.isWhitespace(request.charAt(firstChar)))
+      ++firstChar;
+    boolean batch = firstChar < request.length() && request.charAt(firstChar) == '[';
+
+    int hash = batch ? 1 : 0;
+    for (int i = start; i < end; ++i)
+      hash = 31 * hash + request.charAt(i);
+    hash ^= hash >>> 16;
+
+    AtomicReferenceArray<MethodStats> table = mTables.get(site);
+    for (int probe = 0; probe < TABLE_SIZE; ++probe)
+    {
+      int slot = (hash + probe) & (TABLE_SIZE - 1);
+      MethodStats stats = table.get(slot);
+      if (stats == null)
+      {
+        // first time seen: the only allocation
+        MethodStats created = new MethodStats(request.substring(start, end), batch);
+        if (table.compareAndSet(slot, null, created))
+          return created;
+        stats = table.get(slot);
+      }
+      if (stats.matches(request, start, end, batch))
+        return stats;
+    }
+    return mOverflow[site];
+  }
+
+  /**
+   * @return the offset of the value of the first "method" member, -1 if none.
+   */
+  private static int methodStart(String request)
+  {
+    int key = request.indexOf("\"method\"");
+    if (key < 0)
+      return -1;
+
+    int i = key + 8;
+    while (i < request.length() && Character.isWhitespace(request.charAt(i)))
+      ++i;
+    if (i >= request.length() || request.charAt(i) != ':')
+      return -1;
+    ++i;
+    while (i < request.length() && Character.isWhitespace(request.charAt(i)))
+      ++i;
+    if (i >= request.length() || request.charAt(i) != '"')
+      return -1;
+    return i + 1;
+  }
+}
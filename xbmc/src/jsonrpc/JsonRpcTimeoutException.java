@@ -0,0 +1,15 @@
+package org.xbmc.kodi.jsonrpc;
+
+/**
+ * Thrown when a JSON-RPC call is not answered by its {@link Deadline}.
+ *
+ * <p>Unlike a failure, reported as a null or empty result, a timeout leaves the call
+ * running in the background: its response may still arrive, and fill the caches.
+ */
+public class JsonRpcTimeoutException extends RuntimeException
+{
+  public JsonRpcTimeoutException(String message)
+  {
+    super(message);
+  }
+}
@@ -0,0 +1,18 @@
+package org.xbmc.kodi.jsonrpc;
+
+import java.io.IOException;
+
+/**
+ * Carries JSON-RPC requests to Kodi.
+ */
+public interface JsonRpcTransport
+{
+  /**
+   * Sends a request or a batch and waits for its response.
+   *
+   * @return the response, with the ids of the request. Null if the request has no id,
+   * i.e. nothing is answered.
+   * @throws IOException if Kodi cannot be reached.
+   */
+  String request(String jsonRequest) throws IOException;
+}
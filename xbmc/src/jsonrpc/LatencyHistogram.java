@@ -0,0 +1,88 @@
+package org.xbmc.kodi.jsonrpc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock and allocation free histogram of durations, with power of two buckets.
+ *
+ * <p>Bucket i counts the durations of [2^(i-1), 2^i) microseconds, bucket 0 those under
+ * 1 us and the last one everything from about 17 minutes up. Percentiles are therefore
+ * approximate: the upper bound of their bucket, never more than twice the actual value.
+ */
+public final class LatencyHistogram
+{
+  public static final int BUCKETS = 32;
+
+  private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+  private final AtomicLong mCount = new AtomicLong(0);
+  private final AtomicLong mSumUs = new AtomicLong(0);
+  private final AtomicLong mMaxUs = new AtomicLong(0);
+
+  public void record(long durationNs)
+  {
+    long us = Math.max(0, durationNs / 1000);
+    int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(us));
+    mBuckets.incrementAndGet(bucket);
+    mCount.incrementAndGet();
+    mSumUs.addAndGet(us);
+
+    long max = mMaxUs.get();
+    while (us > max && !mMaxUs.compareAndSet(max, us))
+      max = mMaxUs.get();
+  }
+
+  public long getCount()
+  {
+    return mCount.get();
+  }
+
+  public long getMeanUs()
+  {
+    long count = mCount.get();
+    return count > 0 ? mSumUs.get() / count : 0;
+  }
+
+  public long getMaxUs()
+  {
+    return mMaxUs.get();
+  }
+
+  /**
+   * @param fraction e.g. 0.99.
+   * @return the upper bound, in us, of the bucket holding the percentile, 0 if empty.
+   */
+  public long getPercentileUs(double fraction)
+  {
+    long[] counts = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; ++i)
+    {
+      counts[i] = mBuckets.get(i);
+      total += counts[i];
+    }
+    if (total == 0)
+      return 0;
+
+    long rank = (long) Math.ceil(fraction * total);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; ++i)
+    {
+      seen += counts[i];
+      if (seen >= rank)
+        return Math.min(1L << i, mMaxUs.get());
+    }
+    return mMaxUs.get();
+  }
+
+  @Override
+  public String toString()
+  {
+    return "n=" + getCount()
+            + " mean=" + getMeanUs() + "us"
+            + " p50=" + getPercentileUs(0.5) + "us"
+            + " p90=" + getPercentileUs(0.9) + "us"
+            + " p99=" + getPercentileUs(0.99) + "us"
+            + " max=" + getMaxUs() + "us";
+  }
+}
@@ -0,0 +1,35 @@
+package org.xbmc.kodi.jsonrpc;
+
+import java.util.List;
+
+/**
+ * Local copy of the items of the library, by media type (SearchHit.TYPE_*), kept in
+ * step by {@link LibrarySync}.
+ *
+ * <p>Implementations must be safe to read while a sync writes.
+ */
+public interface LibraryStore
+{
+  /**
+   * @return the latest "dateadded" of the items stored by the last successful sync of
+   * the type, null if it never synced.
+   */
+  String getWatermark(int type);
+
+  /**
+   * Replaces every item of a type, after a full listing.
+   */
+  void replace(int type, List<SearchHit> items, String watermark);
+
+  /**
+   * Adds the new items of a type and replaces the ones already stored, by id.
+   */
+  void update(int type, List<SearchHit> items, String watermark);
+
+  void remove(int type, long id);
+
+  /**
+   * @return the items of a type. They must not be modified.
+   */
+  List<SearchHit> getItems(int type);
+}
@@ -0,0 +1,426 @@
+package org.xbmc.kodi.jsonrpc;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.StringReader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.function.Function;
+
+/**
+ * Keeps a {@link LibraryStore} in step with the movies, tv shows, albums and artists of
+ * the library, asking Kodi only for what changed since the last sync.
+ *
+ * <p>Every media type has a watermark, the latest "dateadded" of its items stored. A
+ * sync asks for the items added since, the details of the items notified as updated,
+ * and drops the items notified as removed. The full listing is only fetched the first
+ * time, after notifications were missed or could not be read, when more items were
+ * updated than worth asking one by one, or when Kodi rejects the filter.
+ *
+ * <p>Kodi keeps no modification date: the items edited while no notification could be
+ * received, e.g. a title or art scraped again, only show in the full listing. A store
+ * kept from a previous run is therefore listed in full once, it answers meanwhile.
+ *
+ * <p>Kodi compares the dates as text: the items added the day of the watermark and the
+ * day before are asked again, which costs little and misses none.
+ */
+public final class LibrarySync
+{
+  public static final int TYPES = 4;
+
+  private static final int PAGE_SIZE = 1000;
+  // above, the updated items of a type are fetched with the full listing
+  private static final int MAX_UPDATED = 200;
+  private static final int DETAILS_CHUNK = 50;
+
+  // the types of the notifications, by SearchHit.TYPE_*
+  private static final String[] NOTIFIED_TYPES = {"movie", "tvshow", "album", "artist"};
+
+  private static final String[] PROPERTIES =
+  {
+    "[\"title\",\"originaltitle\",\"set\",\"tagline\",\"art\",\"year\",\"runtime\",\"dateadded\",\"cast\",\"director\"]",
+    "[\"title\",\"originaltitle\",\"plot\",\"art\",\"year\",\"dateadded\",\"cast\"]",
+    "[\"title\",\"displayartist\",\"albumlabel\",\"art\",\"dateadded\"]",
+    "[\"description\",\"art\",\"dateadded\"]"
+  };
+  private static final String[] LIST_METHODS =
+          {"VideoLibrary.GetMovies", "VideoLibrary.GetTVShows", "AudioLibrary.GetAlbums", "AudioLibrary.GetArtists"};
+  private static final String[] DETAILS_METHODS =
+          {"VideoLibrary.GetMovieDetails", "VideoLibrary.GetTVShowDetails", "AudioLibrary.GetAlbumDetails", "AudioLibrary.GetArtistDetails"};
+  private static final String[] ID_KEYS = {"movieid", "tvshowid", "albumid", "artistid"};
+
+  private static final RequestTemplate[] PAGE_REQUESTS = new RequestTemplate[TYPES];
+  private static final RequestTemplate[] ADDED_REQUESTS = new RequestTemplate[TYPES];
+  private static final RequestTemplate[] DETAILS_REQUESTS = new RequestTemplate[TYPES];
+
+  static
+  {
+    for (int type = 0; type < TYPES; ++type)
+    {
+      PAGE_REQUESTS[type] = RequestTemplate.compile(
+              "{\"jsonrpc\":\"2.0\",\"method\":\"" + LIST_METHODS[type] + "\",\"params\":{\"limits\":{\"start\":%d,\"end\":%d},\"properties\":"
+                      + PROPERTIES[type] + "},\"id\":\"index\"}");
+      ADDED_REQUESTS[type] = RequestTemplate.compile(
+              "{\"jsonrpc\":\"2.0\",\"method\":\"" + LIST_METHODS[type] + "\",\"params\":{\"filter\":{\"field\":\"dateadded\",\"operator\":\"after\",\"value\":\"%s\"},"
+                      + "\"limits\":{\"start\":%d,\"end\":%d},\"properties\":" + PROPERTIES[type] + "},\"id\":\"index\"}");
+      DETAILS_REQUESTS[type] = RequestTemplate.compile(
+              "{\"jsonrpc\":\"2.0\",\"method\":\"" + DETAILS_METHODS[type] + "\",\"params\":{\"" + ID_KEYS[type] + "\":%d,\"properties\":"
+                      + PROPERTIES[type] + "},\"id\":%d}");
+    }
+  }
+
+  private final LibraryStore mStore;
+
+  private final Object mLock = new Object();
+  private final boolean[] mPending = new boolean[TYPES];
+  private final boolean[] mFull = new boolean[TYPES];
+  private final List<Set<Long>> mUpdated = new ArrayList<>(TYPES);
+  private final List<Set<Long>> mRemoved = new ArrayList<>(TYPES);
+
+  public LibrarySync(LibraryStore store)
+  {
+    mStore = store;
+    for (int type = 0; type < TYPES; ++type)
+    {
+      // the store may be a persistent one: what changed since it was written is unknown
+      mPending[type] = true;
+      mFull[type] = true;
+      mUpdated.add(new LinkedHashSet<Long>());
+      mRemoved.add(new LinkedHashSet<Long>());
+    }
+  }
+
+  public LibraryStore getStore()
+  {
+    return mStore;
+  }
+
+  /**
+   * Records a library change notified by Kodi, e.g. "VideoLibrary.OnUpdate". The next
+   * sync of the types it concerns fetches it.
+   *
+   * @param notification the whole notification, for the item updated or removed.
+   */
+  public void onNotification(String method, String notification)
+  {
+    if (method == null)
+      return;
+
+    int first;
+    if (method.startsWith("VideoLibrary.On"))
+      first = SearchHit.TYPE_MOVIE;
+    else if (method.startsWith("AudioLibrary.On"))
+      first = SearchHit.TYPE_ALBUM;
+    else
+      return;
+
+    boolean updated = method.endsWith(".OnUpdate");
+    boolean removed = method.endsWith(".OnRemove");
+    String itemType = null;
+    long itemId = -1;
+    if (updated || removed)
+    {
+      try
+      {
+        JsonObject data = JsonParser.parseString(notification).getAsJsonObject()
+                .getAsJsonObject("params").getAsJsonObject("data");
+        // before Kodi 13, the item was wrapped
+        if (data.has("item"))
+          data = data.getAsJsonObject("item");
+        itemType = data.get("type").getAsString();
+        itemId = data.get("id").getAsLong();
+      }
+      catch (Exception e)
+      {
+        itemType = null;
+      }
+    }
+
+    synchronized (mLock)
+    {
+      // both types of the library: added items, e.g. by a scan, are caught by the watermark
+      for (int type = first; type < first + 2; ++type)
+      {
+        mPending[type] = true;
+        if ((updated || removed) && itemType == null)
+          mFull[type] = true;
+      }
+
+      int type = typeOf(itemType);
+      if (type < 0)
+        // e.g. an episode or a song: nothing beyond the items added
+        return;
+      if (updated)
+        mUpdated.get(type).add(itemId);
+      else if (removed)
+        mRemoved.get(type).add(itemId);
+    }
+  }
+
+  /**
+   * Has the next sync of every type fetch the full listing, e.g. once notifications
+   * were missed.
+   */
+  public void invalidate()
+  {
+    synchronized (mLock)
+    {
+      for (int type = 0; type < TYPES; ++type)
+      {
+        mPending[type] = true;
+        mFull[type] = true;
+      }
+    }
+  }
+
+  /**
+   * @return true if the type never synced or changed since its last sync.
+   */
+  public boolean isPending(int type)
+  {
+    synchronized (mLock)
+    {
+      return mPending[type];
+    }
+  }
+
+  /**
+   * Brings the items of a type in the store up to date. Not to be called concurrently.
+   *
+   * @param transport sends a request to Kodi and returns the response, or null.
+   * @return false if Kodi could not be asked: the type stays pending.
+   */
+  public boolean sync(int type, Function<String, String> transport)
+  {
+    boolean full;
+    Long[] updated;
+    Long[] removed;
+    synchronized (mLock)
+    {
+      full = mFull[type] || mStore.getWatermark(type) == null || mUpdated.get(type).size() > MAX_UPDATED;
+      updated = mUpdated.get(type).toArray(new Long[0]);
+      removed = mRemoved.get(type).toArray(new Long[0]);
+      // cleared first: a notification during the fetch marks the type pending again
+      mPending[type] = false;
+      mFull[type] = false;
+      mUpdated.get(type).clear();
+      mRemoved.get(type).clear();
+    }
+
+    boolean synced = (!full && syncChanges(type, transport, updated, removed)) || syncAll(type, transport);
+    if (!synced)
+    {
+      synchronized (mLock)
+      {
+        mPending[type] = true;
+        mFull[type] |= full;
+        for (Long id : updated)
+          mUpdated.get(type).add(id);
+        for (Long id : removed)
+          mRemoved.get(type).add(id);
+      }
+    }
+    return synced;
+  }
+
+  private boolean syncAll(int type, Function<String, String> transport)
+  {
+    List<SearchHit> items = fetchList(type, PAGE_REQUESTS[type], null, transport);
+    if (items == null)
+      return false;
+
+    mStore.replace(type, items, watermarkOf(items, null));
+    return true;
+  }
+
+  private boolean syncChanges(int type, Function<String, String> transport, Long[] updated, Long[] removed)
+  {
+    String watermark = mStore.getWatermark(type);
+    String after = dayBefore(watermark);
+    if (after == null)
+      return false;
+
+    List<SearchHit> items = fetchList(type, ADDED_REQUESTS[type], after, transport);
+    if (items == null)
+      return false;
+
+    // the ids fetched or to fetch
+    Set<Long> asked = new HashSet<>();
+    for (SearchHit item : items)
+      asked.add(item.getId());
+    List<Long> wanted = new ArrayList<>();
+    for (Long id : updated)
+    {
+      if (asked.add(id))
+        wanted.add(id);
+    }
+
+    for (int start = 0; start < wanted.size(); start += DETAILS_CHUNK)
+    {
+      if (!fetchDetails(type, wanted.subList(start, Math.min(start + DETAILS_CHUNK, wanted.size())), transport, items))
+        return false;
+    }
+
+    mStore.update(type, items, watermarkOf(items, watermark));
+    for (Long id : removed)
+      mStore.remove(type, id);
+    return true;
+  }
+
+  /**
+   * @param after the date of ADDED_REQUESTS, null for the other requests.
+   * @return the items, or null on failure.
+   */
+  private static List<SearchHit> fetchList(final int type, RequestTemplate template, String after,
+                                           Function<String, String> transport)
+  {
+    final List<SearchHit> items = new ArrayList<>();
+    final int[] total = {-1};
+    SearchResponseReader.Sink sink = new SearchResponseReader.Sink()
+    {
+      @Override
+      public boolean beginResponse(String requestId)
+      {
+        return true;
+      }
+
+      @Override
+      public boolean onHit(String requestId, SearchHit hit)
+      {
+        if (hit.getType() == type && hit.getId() >= 0)
+          items.add(hit.copy());
+        return true;
+      }
+
+      @Override
+      public void endResponse(String requestId, int pageTotal)
+      {
+        total[0] = pageTotal;
+      }
+    };
+
+    int start = 0;
+    do
+    {
+      RequestBuilder builder = RequestBuilder.obtain().begin(template);
+      if (after != null)
+        builder.arg(after);
+      String resp = transport.apply(builder.arg(start).arg(start + PAGE_SIZE).build());
+      if (resp == null)
+        return null;
+
+      try
+      {
+        if (!SearchResponseReader.readResponse(new StringReader(resp), "index", sink))
+          return null;
+      }
+      catch (Exception e)
+      {
+        e.printStackTrace();
+        return null;
+      }
+      start += PAGE_SIZE;
+    }
+    while (start < total[0]);
+
+    return items;
+  }
+
+  /**
+   * Adds the items of the ids to items. The ones Kodi no longer has are skipped.
+   *
+   * @return false on failure.
+   */
+  private static boolean fetchDetails(final int type, List<Long> ids, Function<String, String> transport,
+                                      final List<SearchHit> items)
+  {
+    RequestBuilder builder = RequestBuilder.obtain().beginBatch();
+    for (int i = 0; i < ids.size(); ++i)
+      builder.begin(DETAILS_REQUESTS[type]).arg(ids.get(i)).arg(i + 1);
+    String resp = transport.apply(builder.endBatch().build());
+    if (resp == null)
+      return false;
+
+    try
+    {
+      SearchResponseReader.readBatch(new StringReader(resp), new SearchResponseReader.Sink()
+      {
+        @Override
+        public boolean beginResponse(String requestId)
+        {
+          return true;
+        }
+
+        @Override
+        public boolean onHit(String requestId, SearchHit hit)
+        {
+          if (hit.getType() == type && hit.getId() >= 0)
+            items.add(hit.copy());
+          return true;
+        }
+      });
+      return true;
+    }
+    catch (Exception e)
+    {
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+  /**
+   * @return the latest of the "dateadded" of the items and the watermark. The dates
+   * are written "yyyy-MM-dd HH:mm:ss": they compare as text.
+   */
+  static String watermarkOf(List<SearchHit> items, String watermark)
+  {
+    for (SearchHit item : items)
+    {
+      String dateAdded = item.getDateAdded();
+      if (dateAdded != null && !dateAdded.isEmpty() && (watermark == null || dateAdded.compareTo(watermark) > 0))
+        watermark = dateAdded;
+    }
+    return watermark;
+  }
+
+  /**
+   * @return the day before the one of the watermark, "yyyy-MM-dd". null if it is not
+   * a date.
+   */
+  static String dayBefore(String watermark)
+  {
+    if (watermark == null || watermark.length() < 10)
+      return null;
+
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    format.setLenient(false);
+    try
+    {
+      long day = format.parse(watermark.substring(0, 10)).getTime();
+      return format.format(day - 24 * 60 * 60 * 1000L);
+    }
+    catch (ParseException e)
+    {
+      return null;
+    }
+  }
+
+  private static int typeOf(String notifiedType)
+  {
+    for (int type = 0; type < TYPES; ++type)
+    {
+      if (NOTIFIED_TYPES[type].equals(notifiedType))
+        return type;
+    }
+    return -1;
+  }
+}
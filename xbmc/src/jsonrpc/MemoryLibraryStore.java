@@ -0,0 +1,58 @@
+package org.xbmc.kodi.jsonrpc;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link LibraryStore} held in memory: lost with the process, the first sync after a
+ * start is a full one.
+ */
+public final class MemoryLibraryStore implements LibraryStore
+{
+  private static final int TYPES = 4;
+
+  private final List<Map<Long, SearchHit>> mItems = new ArrayList<>(TYPES);
+  private final String[] mWatermarks = new String[TYPES];
+
+  public MemoryLibraryStore()
+  {
+    for (int type = 0; type < TYPES; ++type)
+      mItems.add(new LinkedHashMap<Long, SearchHit>());
+  }
+
+  @Override
+  public synchronized String getWatermark(int type)
+  {
+    return mWatermarks[type];
+  }
+
+  @Override
+  public synchronized void replace(int type, List<SearchHit> items, String watermark)
+  {
+    mItems.get(type).clear();
+    update(type, items, watermark);
+  }
+
+  @Override
+  public synchronized void update(int type, List<SearchHit> items, String watermark)
+  {
+    Map<Long, SearchHit> stored = mItems.get(type);
+    for (SearchHit item : items)
+      stored.put(item.getId(), item);
+    mWatermarks[type] = watermark;
+  }
+
+  @Override
+  public synchronized void remove(int type, long id)
+  {
+    mItems.get(type).remove(id);
+  }
+
+  @Override
+  public synchronized List<SearchHit> getItems(int type)
+  {
+    return new ArrayList<>(mItems.get(type).values());
+  }
+}
@@ -0,0 +1,189 @@
+package org.xbmc.kodi.jsonrpc;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * Collapses bursts of queries, e.g. one per keystroke, into the newest one.
+ *
+ * <p>A query only runs once no newer query arrived for a quiet window. Callers whose
+ * query was superseded while waiting do not run theirs: they receive the result of the
+ * newest query of the burst. Whatever the typing speed, at most one query runs per
+ * quiet window.
+ *
+ * <p>A superseded caller waits no longer than its own {@link Deadline}, and stops
+ * waiting once it is cancelled.
+ *
+ * @param <V> the result type. The result is shared by all the callers of a burst and
+ *            must be treated as read-only.
+ */
+public final class QueryCoalescer<V>
+{
+  // how often a superseded caller checks whether it was cancelled
+  private static final long CANCEL_POLL_MS = 50;
+
+  private final long mQuietMs;
+  private final Object mLock = new Object();
+
+  // the newest query, its arrival and the result its burst is waiting for
+  private long mLatest = 0;
+  private long mLatestArrival = 0;
+  private CompletableFuture<V> mBurst = null;
+
+  private long mExecuted = 0;
+  private long mCoalesced = 0;
+
+  /**
+   * @param quietMs how long a query waits for a newer one. 0 runs every query at once.
+   */
+  public QueryCoalescer(long quietMs)
+  {
+    mQuietMs = quietMs;
+  }
+
+  /**
+   * Runs the query once the quiet window elapsed, unless a newer query arrives first.
+   *
+   * @return the result of the query, or of the newest query superseding it.
+   */
+  public V execute(String query, Function<String, V> work)
+  {
+    return execute(query, work, () -> false, null);
+  }
+
+  /**
+   * Same as {@link #execute(String, Function)} for a caller which may be cancelled.
+   *
+   * @param cancelled tells whether the caller was cancelled.
+   * @param empty     the result of a caller cancelled while waiting for the newest query.
+   * @throws JsonRpcTimeoutException if superseded and the newest query did not complete
+   *                                 by the deadline of the caller.
+   */
+  public V execute(String query, Function<String, V> work, BooleanSupplier cancelled, V empty)
+  {
+    if (mQuietMs <= 0)
+      return work.apply(query);
+
+    CompletableFuture<V> burst;
+    boolean superseded = false;
+    synchronized (mLock)
+    {
+      long sequence = ++mLatest;
+      mLatestArrival = now();
+      if (mBurst == null)
+        mBurst = new CompletableFuture<>();
+      burst = mBurst;
+      mLock.notifyAll();
+
+      while (true)
+      {
+        if (mLatest != sequence)
+        {
+          superseded = true;
+          ++mCoalesced;
+          break;
+        }
+
+        long remaining = mLatestArrival + mQuietMs - now();
+        if (remaining <= 0)
+        {
+          // queries arriving from now on start a new burst
+          mBurst = null;
+          ++mExecuted;
+          break;
+        }
+
+        try
+        {
+          mLock.wait(remaining);
+        }
+        catch (InterruptedException e)
+        {
+          // stop waiting, run right away
+          Thread.currentThread().interrupt();
+          mBurst = null;
+          ++mExecuted;
+          break;
+        }
+      }
+    }
+
+    if (superseded)
+      return await(burst, cancelled, empty);
+
+    try
+    {
+      V result = work.apply(query);
+      burst.complete(result);
+      return result;
+    }
+    catch (RuntimeException | Error e)
+    {
+      burst.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  private static <V> V await(CompletableFuture<V> burst, BooleanSupplier cancelled, V empty)
+  {
+    Deadline deadline = Deadline.current();
+    while (true)
+    {
+      if (cancelled.getAsBoolean())
+        return empty;
+
+      long waitMs = CANCEL_POLL_MS;
+      if (deadline != null)
+      {
+        if (deadline.isExpired())
+          throw new JsonRpcTimeoutException("QueryCoalescer: no result by the deadline of the caller");
+        waitMs = Math.max(1, Math.min(waitMs, deadline.remainingMs()));
+      }
+
+      try
+      {
+        return burst.get(waitMs, TimeUnit.MILLISECONDS);
+      }
+      catch (TimeoutException e)
+      {
+        // check again
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new JsonRpcTimeoutException("QueryCoalescer: interrupted");
+      }
+      catch (ExecutionException e)
+      {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException)
+          throw (RuntimeException) cause;
+        if (cause instanceof Error)
+          throw (Error) cause;
+        throw new RuntimeException(cause);
+      }
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    synchronized (mLock)
+    {
+      return "QueryCoalescer{"
+              + "quietMs=" + mQuietMs
+              + ", executed=" + mExecuted
+              + ", coalesced=" + mCoalesced
+              + '}';
+    }
+  }
+
+  private static long now()
+  {
+    return System.nanoTime() / 1000000L;
+  }
+}
@@ -0,0 +1,217 @@
+package org.xbmc.kodi.jsonrpc;
+
+/**
+ * Writes requests from {@link RequestTemplate}s into a reusable buffer.
+ *
+ * <pre>
+ *   String request = RequestBuilder.obtain()
+ *           .beginBatch()
+ *           .begin(MOVIE_DETAILS).arg(movieId).arg(1)
+ *           .begin(EPISODE_DETAILS).arg(episodeId).arg(2)
+ *           .endBatch()
+ *           .build();
+ * </pre>
+ *
+ * <p>Every thread owns one builder, returned by {@link #obtain()}. A builder must not
+ * be kept across calls, and building two requests at once on the same thread is not
+ * supported.
+ */
+public final class RequestBuilder
+{
+  private static final int INITIAL_CAPACITY = 1024;
+  // do not keep the buffer of an exceptionally large batch around
+  private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+  private static final ThreadLocal<RequestBuilder> sBuilders = new ThreadLocal<RequestBuilder>()
+  {
+    @Override
+    protected RequestBuilder initialValue()
+    {
+      return new RequestBuilder();
+    }
+  };
+
+  private StringBuilder mBuffer = new StringBuilder(INITIAL_CAPACITY);
+  private RequestTemplate mTemplate = null;
+  private int mSlot = 0;
+  private boolean mInBatch = false;
+  private int mBatchSize = 0;
+
+  private RequestBuilder()
+  {
+  }
+
+  /**
+   * @return the builder of the calling thread, reset.
+   */
+  public static RequestBuilder obtain()
+  {
+    RequestBuilder builder = sBuilders.get();
+    builder.reset();
+    return builder;
+  }
+
+  private void reset()
+  {
+    if (mBuffer.capacity() > MAX_RETAINED_CAPACITY)
+      mBuffer = new StringBuilder(INITIAL_CAPACITY);
+    mBuffer.setLength(0);
+    mTemplate = null;
+    mSlot = 0;
+    mInBatch = false;
+    mBatchSize = 0;
+  }
+
+  public RequestBuilder beginBatch()
+  {
+    finishTemplate();
+    mBuffer.append('[');
+    mInBatch = true;
+    mBatchSize = 0;
+    return this;
+  }
+
+  public RequestBuilder endBatch()
+  {
+    finishTemplate();
+    mBuffer.append(']');
+    mInBatch = false;
+    return this;
+  }
+
+  /**
+   * @return the number of requests added since {@link #beginBatch()}.
+   */
+  public int batchSize()
+  {
+    return mBatchSize;
+  }
+
+  /**
+   * Starts a request. Its slots are then filled in order with {@link #arg(CharSequence)},
+   * {@link #arg(long)}, {@link #json(CharSequence)} or {@link #fill(CharSequence)}.
+   */
+  public RequestBuilder begin(RequestTemplate template)
+  {
+    finishTemplate();
+    if (mInBatch && mBatchSize++ > 0)
+      mBuffer.append(',');
+
+    mTemplate = template;
+    mSlot = 0;
+    mBuffer.append(template.literal(0));
+    return this;
+  }
+
+  public RequestBuilder arg(CharSequence value)
+  {
+    if (nextSlot() == RequestTemplate.SLOT_STRING)
+      escape(value, mBuffer);
+    else
+      mBuffer.append(value);
+    return endSlot();
+  }
+
+  public RequestBuilder arg(long value)
+  {
+    // digits need no escaping, whatever the slot type
+    nextSlot();
+    mBuffer.append(value);
+    return endSlot();
+  }
+
+  public RequestBuilder json(CharSequence value)
+  {
+    if (nextSlot() != RequestTemplate.SLOT_JSON)
+      throw new IllegalStateException("RequestBuilder: slot " + mSlot + " is not a JSON slot");
+    mBuffer.append(value);
+    return endSlot();
+  }
+
+  /**
+   * Fills all the remaining slots of the current request with the same string.
+   */
+  public RequestBuilder fill(CharSequence value)
+  {
+    while (mTemplate != null && mSlot < mTemplate.getSlotCount())
+      arg(value);
+    return this;
+  }
+
+  public String build()
+  {
+    finishTemplate();
+    if (mInBatch)
+      throw new IllegalStateException("RequestBuilder: batch not ended");
+    return mBuffer.toString();
+  }
+
+  private int nextSlot()
+  {
+    if (mTemplate == null || mSlot >= mTemplate.getSlotCount())
+      throw new IllegalStateException("RequestBuilder: no slot left");
+    return mTemplate.slotType(mSlot);
+  }
+
+  private RequestBuilder endSlot()
+  {
+    ++mSlot;
+    mBuffer.append(mTemplate.literal(mSlot));
+    return this;
+  }
+
+  private void finishTemplate()
+  {
+    if (mTemplate != null && mSlot < mTemplate.getSlotCount())
+      throw new IllegalStateException("RequestBuilder: " + mTemplate.getMethod() + " has unfilled slots");
+    mTemplate = null;
+  }
+
+  /**
+   * Appends a string as the content of a JSON string literal.
+   */
+  static void escape(CharSequence value, StringBuilder out)
+  {
+    int length = value.length();
+    for (int i = 0; i < length; ++i)
+    {
+      char c = value.charAt(i);
+      switch (c)
+      {
+        case '"':
+          out.append("\\\"");
+          break;
+        case '\\':
+          out.append("\\\\");
+          break;
+        case '\n':
+          out.append("\\n");
+          break;
+        case '\r':
+          out.append("\\r");
+          break;
+        case '\t':
+          out.append("\\t");
+          break;
+        case '\b':
+          out.append("\\b");
+          break;
+        case '\f':
+          out.append("\\f");
+          break;
+        default:
+          if (c < 0x20)
+          {
+            out.append("\\u00");
+            out.append(Character.forDigit((c >> 4) & 0xf, 16));
+            out.append(Character.forDigit(c & 0xf, 16));
+          }
+          else
+          {
+            out.append(c);
+          }
+          break;
+      }
+    }
+  }
+}
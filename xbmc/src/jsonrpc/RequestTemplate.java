@@ -0,0 +1,196 @@
+package org.xbmc.kodi.jsonrpc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A JSON-RPC request compiled once into literal segments and typed slots.
+ *
+ * <p>Placeholders in the template source:
+ * <ul>
+ *   <li>{@code %s} - a string value, JSON escaped (the quotes belong to the template)</li>
+ *   <li>{@code %d} - an integer value</li>
+ *   <li>{@code %j} - a raw JSON fragment, written as is</li>
+ * </ul>
+ *
+ * <p>Templates are immutable and can be shared between threads. Requests are written
+ * with a {@link RequestBuilder}.
+ */
+public final class RequestTemplate
+{
+  public static final int SLOT_STRING = 0;
+  public static final int SLOT_NUMBER = 1;
+  public static final int SLOT_JSON = 2;
+
+  private static final Pattern METHOD_PATTERN = Pattern.compile("\"method\"\\s*:\\s*\"([^\"]+)\"");
+
+  private final String mMethod;
+  private final String[] mLiterals;
+  private final int[] mSlots;
+  private final String mConstant;
+
+  private RequestTemplate(String method, String[] literals, int[] slots)
+  {
+    mMethod = method;
+    mLiterals = literals;
+    mSlots = slots;
+    mConstant = slots.length == 0 ? literals[0] : null;
+  }
+
+  /**
+   * Compiles a template source.
+   *
+   * @param source the request, with {@code %s}, {@code %d} and {@code %j} placeholders.
+   * @return the compiled template.
+   * @throws IllegalArgumentException on an unknown placeholder.
+   */
+  public static RequestTemplate compile(String source)
+  {
+    List<String> literals = new ArrayList<>();
+    List<Integer> slots = new ArrayList<>();
+
+    StringBuilder literal = new StringBuilder();
+    for (int i = 0; i < source.length(); ++i)
+    {
+      char c = source.charAt(i);
+      if (c != '%')
+      {
+        literal.append(c);
+        continue;
+      }
+      if (++i >= source.length())
+        throw new IllegalArgumentException("RequestTemplate: dangling % in " + source);
+
+      switch (source.charAt(i))
+      {
+        case 's':
+          slots.add(SLOT_STRING);
+          break;
+        case 'd':
+          slots.add(SLOT_NUMBER);
+          break;
+        case 'j':
+          slots.add(SLOT_JSON);
+          break;
+        case '%':
+          literal.append('%');
+          continue;
+        default:
+          throw new IllegalArgumentException("RequestTemplate: unknown placeholder %" + source.charAt(i));
+      }
+      literals.add(literal.toString());
+      literal.setLength(0);
+    }
+    literals.add(literal.toString());
+
+    Matcher matcher = METHOD_PATTERN.matcher(source);
+    String method = matcher.find() ? matcher.group(1) : null;
+
+    int[] slotArray = new int[slots.size()];
+    for (int i = 0; i < slotArray.length; ++i)
+      slotArray[i] = slots.get(i);
+
+    return new RequestTemplate(method, literals.toArray(new String[0]), slotArray);
+  }
+
+  /**
+   * Binds a slot to a constant value, formatted according to the slot type.
+   *
+   * @return a new template without that slot.
+   */
+  public RequestTemplate bind(int slot, String value)
+  {
+    StringBuilder sb = new StringBuilder();
+    if (mSlots[slot] == SLOT_STRING)
+      RequestBuilder.escape(value, sb);
+    else
+      sb.append(value);
+
+    String[] literals = new String[mLiterals.length - 1];
+    int[] slots = new int[mSlots.length - 1];
+    for (int i = 0, j = 0; i < mSlots.length; ++i)
+    {
+      if (i == slot)
+        continue;
+      slots[j++] = mSlots[i];
+    }
+    for (int i = 0; i < slot; ++i)
+      literals[i] = mLiterals[i];
+    literals[slot] = mLiterals[slot] + sb + mLiterals[slot + 1];
+    for (int i = slot + 1; i < literals.length; ++i)
+      literals[i] = mLiterals[i + 1];
+
+    return new RequestTemplate(mMethod, literals, slots);
+  }
+
+  /**
+   * Splices another template into a {@code %j} slot. The slots of the inner template
+   * take the place of the bound slot.
+   *
+   * @return a new template.
+   */
+  public RequestTemplate bind(int slot, RequestTemplate inner)
+  {
+    if (mSlots[slot] != SLOT_JSON)
+      throw new IllegalArgumentException("RequestTemplate: slot " + slot + " is not a JSON slot");
+
+    int innerCount = inner.mSlots.length;
+    String[] literals = new String[mLiterals.length + innerCount - 1];
+    int[] slots = new int[mSlots.length - 1 + innerCount];
+
+    System.arraycopy(mSlots, 0, slots, 0, slot);
+    System.arraycopy(inner.mSlots, 0, slots, slot, innerCount);
+    System.arraycopy(mSlots, slot + 1, slots, slot + innerCount, mSlots.length - slot - 1);
+
+    System.arraycopy(mLiterals, 0, literals, 0, slot);
+    if (innerCount == 0)
+    {
+      literals[slot] = mLiterals[slot] + inner.mLiterals[0] + mLiterals[slot + 1];
+    }
+    else
+    {
+      literals[slot] = mLiterals[slot] + inner.mLiterals[0];
+      System.arraycopy(inner.mLiterals, 1, literals, slot + 1, innerCount - 1);
+      literals[slot + innerCount] = inner.mLiterals[innerCount] + mLiterals[slot + 1];
+    }
+    System.arraycopy(mLiterals, slot + 2, literals, slot + innerCount + 1, mLiterals.length - slot - 2);
+
+    return new RequestTemplate(mMethod, literals, slots);
+  }
+
+  /**
+   * @return the JSON-RPC method of the request, or null if the template has none.
+   */
+  public String getMethod()
+  {
+    return mMethod;
+  }
+
+  public int getSlotCount()
+  {
+    return mSlots.length;
+  }
+
+  /**
+   * @return the request itself, for templates without slots.
+   * @throws IllegalStateException if the template has slots.
+   */
+  public String request()
+  {
+    if (mConstant == null)
+      throw new IllegalStateException("RequestTemplate: " + mMethod + " has " + mSlots.length + " slots");
+    return mConstant;
+  }
+
+  String literal(int index)
+  {
+    return mLiterals[index];
+  }
+
+  int slotType(int index)
+  {
+    return mSlots[index];
+  }
+}
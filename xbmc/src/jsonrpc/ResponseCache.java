@@ -0,0 +1,323 @@
+package org.xbmc.kodi.jsonrpc;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of raw JSON-RPC responses, keyed by the exact request text.
+ *
+ * <p>Only requests whose methods all have a TTL are cached; a batch lives as long as
+ * the shortest TTL of its methods. The cache is bounded by an estimate of the memory
+ * held by its entries and evicts the least recently used ones first.
+ *
+ * <p>Entries are dropped by method prefix when Kodi reports library changes, see
+ * {@link #onNotification(String)}. A response requested before such a change but
+ * stored after it would bring stale data back: every invalidation starts a new
+ * generation, and a response is only stored if its request started in the current one.
+ */
+public final class ResponseCache
+{
+  // rough per entry overhead: entry, map node, two String headers
+  private static final int ENTRY_OVERHEAD = 96;
+
+  private final long mMaxBytes;
+  private final Map<String, Long> mTtls = new HashMap<>();
+  private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(32, 0.75f, true);
+  private long mBytes = 0;
+  private long mGeneration = 0;
+
+  private final AtomicLong mHits = new AtomicLong(0);
+  private final AtomicLong mMisses = new AtomicLong(0);
+  private final AtomicLong mEvictions = new AtomicLong(0);
+  private final AtomicLong mInvalidations = new AtomicLong(0);
+
+  private static class Entry
+  {
+    final String[] mMethods;
+    final String mResponse;
+    final long mExpiry;
+    final long mBytes;
+
+    Entry(String[] methods, String response, long expiry, long bytes)
+    {
+      mMethods = methods;
+      mResponse = response;
+      mExpiry = expiry;
+      mBytes = bytes;
+    }
+  }
+
+  public ResponseCache(long maxBytes)
+  {
+    mMaxBytes = maxBytes;
+  }
+
+  /**
+   * Sets how long the responses of a method stay valid. Methods without a TTL are never
+   * cached.
+   */
+  public synchronized ResponseCache setTtl(String method, long ttlMs)
+  {
+    mTtls.put(method, ttlMs);
+    return this;
+  }
+
+  /**
+   * @return the cached response, or null on a miss.
+   */
+  public String get(String request)
+  {
+    long now = now();
+    synchronized (this)
+    {
+      Entry entry = mEntries.get(request);
+      if (entry != null)
+      {
+        if (entry.mExpiry > now)
+        {
+          mHits.incrementAndGet();
+          return entry.mResponse;
+        }
+        remove(request, entry);
+      }
+    }
+    mMisses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * @return true if a response of that length to the request would be stored, e.g. to
+   * only decode the responses worth caching.
+   */
+  public boolean accepts(String request, long responseLength)
+  {
+    long bytes = 2L * (request.length() + responseLength) + ENTRY_OVERHEAD;
+    if (bytes > mMaxBytes / 4)
+      return false;
+
+    String[] methods = methodsOf(request);
+    if (methods.length == 0)
+      return false;
+    synchronized (this)
+    {
+      for (String method : methods)
+      {
+        if (!mTtls.containsKey(method))
+          return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the generation to pass to {@link #put(String, String, long)}, read before
+   * the request is sent.
+   */
+  public synchronized long getGeneration()
+  {
+    return mGeneration;
+  }
+
+  /**
+   * Stores a response if its request is cacheable. Error responses are not stored, nor
+   * the responses of requests sent before an invalidation.
+   *
+   * @param generation the generation when the request was sent.
+   */
+  public void put(String request, String response, long generation)
+  {
+    if (response == null || response.contains("\"error\":"))
+      return;
+
+    long bytes = 2L * (request.length() + response.length()) + ENTRY_OVERHEAD;
+    // a single huge directory listing would flush everything else
+    if (bytes > mMaxBytes / 4)
+      return;
+
+    String[] methods = methodsOf(request);
+    if (methods.length == 0)
+      return;
+
+    synchronized (this)
+    {
+      if (generation != mGeneration)
+        return;
+
+      long ttl = Long.MAX_VALUE;
+      for (String method : methods)
+      {
+        Long methodTtl = mTtls.get(method);
+        if (methodTtl == null)
+          return;
+        ttl = Math.min(ttl, methodTtl);
+      }
+
+      Entry previous = mEntries.get(request);
+      if (previous != null)
+        remove(request, previous);
+
+      mEntries.put(request, new Entry(methods, response, now() + ttl, bytes));
+      mBytes += bytes;
+
+      Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+      while (mBytes > mMaxBytes && it.hasNext())
+      {
+        Entry eldest = it.next().getValue();
+        it.remove();
+        mBytes -= eldest.mBytes;
+        mEvictions.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Drops every entry involving a method starting with the given prefix,
+   * e.g. "VideoLibrary.".
+   */
+  public synchronized void invalidate(String methodPrefix)
+  {
+    ++mGeneration;
+    Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+    while (it.hasNext())
+    {
+      Entry entry = it.next().getValue();
+      for (String method : entry.mMethods)
+      {
+        if (method.startsWith(methodPrefix))
+        {
+          it.remove();
+          mBytes -= entry.mBytes;
+          mInvalidations.incrementAndGet();
+          break;
+        }
+      }
+    }
+  }
+
+  public synchronized void invalidateAll()
+  {
+    ++mGeneration;
+    mInvalidations.addAndGet(mEntries.size());
+    mEntries.clear();
+    mBytes = 0;
+  }
+
+  /**
+   * Invalidation hook for Kodi notifications.
+   *
+   * <p>Video library changes drop the VideoLibrary responses, audio library changes the
+   * AudioLibrary ones. Directory listings can be smart playlists over either library, so
+   * they are dropped on any library change.
+   *
+   * @param method the notification method, e.g. "VideoLibrary.OnUpdate".
+   */
+  public void onNotification(String method)
+  {
+    if (method == null)
+      return;
+
+    if (method.startsWith("VideoLibrary.On"))
+    {
+      invalidate("VideoLibrary.");
+      invalidate("Files.");
+    }
+    else if (method.startsWith("AudioLibrary.On"))
+    {
+      invalidate("AudioLibrary.");
+      invalidate("Files.");
+    }
+  }
+
+  public long getHitCount()
+  {
+    return mHits.get();
+  }
+
+  public long getMissCount()
+  {
+    return mMisses.get();
+  }
+
+  public long getEvictionCount()
+  {
+    return mEvictions.get();
+  }
+
+  public long getInvalidationCount()
+  {
+    return mInvalidations.get();
+  }
+
+  public synchronized long getBytes()
+  {
+    return mBytes;
+  }
+
+  public synchronized int size()
+  {
+    return mEntries.size();
+  }
+
+  @Override
+  public synchronized String toString()
+  {
+    return "ResponseCache{"
+            + "entries=" + mEntries.size()
+            + ", bytes=" + mBytes + "/" + mMaxBytes
+            + ", hits=" + mHits.get()
+            + ", misses=" + mMisses.get()
+            + ", evictions=" + mEvictions.get()
+            + ", invalidations=" + mInvalidations.get()
+            + '}';
+  }
+
+  private void remove(String request, Entry entry)
+  {
+    mEntries.remove(request);
+    mBytes -= entry.mBytes;
+  }
+
+  /**
+   * Extracts the JSON-RPC methods of a request or batch. Sort specifications also have a
+   * "method" member ("title", "random", ...), only dotted names are JSON-RPC methods.
+   *
+   * @return no method at all for requests sorted randomly, their response is not a
+   * function of the request.
+   */
+  static String[] methodsOf(String request)
+  {
+    String[] methods = new String[0];
+    int from = 0;
+    while (true)
+    {
+      int key = request.indexOf("\"method\"", from);
+      if (key < 0)
+        break;
+      int start = request.indexOf('"', request.indexOf(':', key) + 1);
+      int end = start < 0 ? -1 : request.indexOf('"', start + 1);
+      if (end < 0)
+        break;
+
+      from = end + 1;
+      if (request.regionMatches(start + 1, "random\"", 0, 7))
+        return new String[0];
+      int dot = request.indexOf('.', start);
+      if (dot < 0 || dot > end)
+        continue;
+
+      String[] grown = new String[methods.length + 1];
+      System.arraycopy(methods, 0, grown, 0, methods.length);
+      grown[methods.length] = request.substring(start + 1, end);
+      methods = grown;
+    }
+    return methods;
+  }
+
+  private static long now()
+  {
+    return System.nanoTime() / 1000000L;
+  }
+}
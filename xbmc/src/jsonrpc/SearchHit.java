@@ -0,0 +1,254 @@
+package org.xbmc.kodi.jsonrpc;
+
+/**
+ * One library item decoded from a search style JSON-RPC response
+ * (VideoLibrary.GetMovies, VideoLibrary.GetTVShows, AudioLibrary.GetAlbums,
+ * AudioLibrary.GetArtists).
+ *
+ * <p>The decoder reuses a single instance for every item it reads, so consumers
+ * must copy whatever they need before returning from the callback. Items are only
+ * built outside of the decoder by the stores of the library, see {@link LibraryStore}.
+ */
+public final class SearchHit
+{
+  public static final int TYPE_MOVIE = 0;
+  public static final int TYPE_TVSHOW = 1;
+  public static final int TYPE_ALBUM = 2;
+  public static final int TYPE_ARTIST = 3;
+
+  private int type;
+  private long id;
+  private String title;
+  private String subtitle;
+  private String poster;
+  private String thumb;
+  private String fanart;
+  private int year;
+  private long runtime;
+  private String originalTitle;
+  private String set;
+  private String label;
+  private String dateAdded;
+  private String people;
+
+  public SearchHit()
+  {
+  }
+
+  public SearchHit(int type)
+  {
+    reset(type);
+  }
+
+  void reset(int type)
+  {
+    this.type = type;
+    this.id = -1;
+    this.title = "";
+    this.subtitle = "";
+    this.poster = null;
+    this.thumb = null;
+    this.fanart = null;
+    this.year = 0;
+    this.runtime = 0;
+    this.originalTitle = "";
+    this.set = "";
+    this.label = "";
+    this.dateAdded = "";
+    this.people = "";
+  }
+
+  /**
+   * @return a copy which is safe to keep past the decoder callback.
+   */
+  public SearchHit copy()
+  {
+    SearchHit hit = new SearchHit();
+    hit.type = type;
+    hit.id = id;
+    hit.title = title;
+    hit.subtitle = subtitle;
+    hit.poster = poster;
+    hit.thumb = thumb;
+    hit.fanart = fanart;
+    hit.year = year;
+    hit.runtime = runtime;
+    hit.originalTitle = originalTitle;
+    hit.set = set;
+    hit.label = label;
+    hit.dateAdded = dateAdded;
+    hit.people = people;
+    return hit;
+  }
+
+  public int getType()
+  {
+    return type;
+  }
+
+  public long getId()
+  {
+    return id;
+  }
+
+  public void setId(long id)
+  {
+    this.id = id;
+  }
+
+  public String getTitle()
+  {
+    return title;
+  }
+
+  public void setTitle(String title)
+  {
+    this.title = title;
+  }
+
+  /**
+   * @return the tagline for movies, the plot for tv shows, the display artist
+   * for albums and the description for artists.
+   */
+  public String getSubtitle()
+  {
+    return subtitle;
+  }
+
+  public void setSubtitle(String subtitle)
+  {
+    this.subtitle = subtitle;
+  }
+
+  public String getPoster()
+  {
+    return poster;
+  }
+
+  public void setPoster(String poster)
+  {
+    this.poster = poster;
+  }
+
+  public String getThumb()
+  {
+    return thumb;
+  }
+
+  public void setThumb(String thumb)
+  {
+    this.thumb = thumb;
+  }
+
+  public String getFanart()
+  {
+    return fanart;
+  }
+
+  public void setFanart(String fanart)
+  {
+    this.fanart = fanart;
+  }
+
+  /**
+   * @return the poster if there is one, otherwise the thumb, otherwise an empty string.
+   */
+  public String getCardImage()
+  {
+    if (poster != null)
+      return poster;
+    if (thumb != null)
+      return thumb;
+    return "";
+  }
+
+  public int getYear()
+  {
+    return year;
+  }
+
+  public void setYear(int year)
+  {
+    this.year = year;
+  }
+
+  /**
+   * @return the runtime in seconds, as reported by Kodi.
+   */
+  public long getRuntime()
+  {
+    return runtime;
+  }
+
+  public void setRuntime(long runtime)
+  {
+    this.runtime = runtime;
+  }
+
+  /**
+   * @return the original title of movies and tv shows, empty if not requested.
+   */
+  public String getOriginalTitle()
+  {
+    return originalTitle;
+  }
+
+  public void setOriginalTitle(String originalTitle)
+  {
+    this.originalTitle = originalTitle;
+  }
+
+  /**
+   * @return the movie set of movies, empty if not requested.
+   */
+  public String getSet()
+  {
+    return set;
+  }
+
+  public void setSet(String set)
+  {
+    this.set = set;
+  }
+
+  /**
+   * @return the record label of albums, empty if not requested.
+   */
+  public String getLabel()
+  {
+    return label;
+  }
+
+  public void setLabel(String label)
+  {
+    this.label = label;
+  }
+
+  /**
+   * @return when the item was added to the library, e.g. "2024-03-05 21:04:33", empty
+   * if not requested.
+   */
+  public String getDateAdded()
+  {
+    return dateAdded;
+  }
+
+  public void setDateAdded(String dateAdded)
+  {
+    this.dateAdded = dateAdded;
+  }
+
+  /**
+   * @return the actors and directors of movies and tv shows, one per line, empty if not
+   * requested.
+   */
+  public String getPeople()
+  {
+    return people;
+  }
+
+  public void setPeople(String people)
+  {
+    this.people = people;
+  }
+}
@@ -0,0 +1,333 @@
+package org.xbmc.kodi.jsonrpc;
+
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+/**
+ * Pull parser for the responses of the library search requests, and of the details
+ * requests of the same items (e.g. VideoLibrary.GetMovieDetails).
+ *
+ * <p>Items are decoded straight from the token stream into a reused {@link SearchHit}
+ * and handed to a {@link Sink}; no intermediate JSON tree is built. Once the sink
+ * reports it is full, the remaining items of that response are skipped without
+ * being decoded.
+ */
+public final class SearchResponseReader
+{
+  private static final String[] ITEMS_KEYS = {"movies", "tvshows", "albums", "artists"};
+  private static final String[] DETAILS_KEYS = {"moviedetails", "tvshowdetails", "albumdetails", "artistdetails"};
+  private static final String[] ID_KEYS = {"movieid", "tvshowid", "albumid", "artistid"};
+  private static final String[] TITLE_KEYS = {"title", "title", "title", "artist"};
+  private static final String[] SUBTITLE_KEYS = {"tagline", "plot", "displayartist", "description"};
+
+  public interface Sink
+  {
+    /**
+     * Called before the items of a response are read.
+     *
+     * @param requestId the id of the request the response belongs to.
+     * @return false to skip the whole response.
+     */
+    boolean beginResponse(String requestId);
+
+    /**
+     * Called for every decoded item. The hit is reused for the next item.
+     *
+     * @param requestId the id of the request the item belongs to.
+     * @param hit       the decoded item.
+     * @return false to skip the remaining items of the response.
+     */
+    boolean onHit(String requestId, SearchHit hit);
+
+    /**
+     * Called once the result of a response has been read, unless it was skipped.
+     *
+     * @param requestId the id of the request the response belongs to.
+     * @param total     the number of items matching the request on the server, which
+     *                  may exceed the items returned. -1 if the response has no limits.
+     */
+    default void endResponse(String requestId, int total)
+    {
+    }
+  }
+
+  private SearchResponseReader()
+  {
+  }
+
+  /**
+   * Reads a batch (JSON array) of responses.
+   *
+   * @return the number of responses carrying a result.
+   */
+  public static int readBatch(Reader in, Sink sink) throws IOException
+  {
+    JsonReader reader = new JsonReader(in);
+    SearchHit hit = new SearchHit();
+    int results = 0;
+
+    reader.beginArray();
+    while (reader.hasNext())
+    {
+      if (readEnvelope(reader, null, sink, hit))
+        ++results;
+    }
+    reader.endArray();
+
+    return results;
+  }
+
+  /**
+   * Reads a single response whose request id is already known to the caller.
+   *
+   * @return true if the response carried a result.
+   */
+  public static boolean readResponse(Reader in, String requestId, Sink sink) throws IOException
+  {
+    return readEnvelope(new JsonReader(in), requestId, sink, new SearchHit());
+  }
+
+  private static boolean readEnvelope(JsonReader reader, String requestId, Sink sink, SearchHit hit)
+          throws IOException
+  {
+    if (reader.peek() != JsonToken.BEGIN_OBJECT)
+    {
+      reader.skipValue();
+      return false;
+    }
+
+    String id = requestId;
+    String deferred = null;
+    boolean hasResult = false;
+
+    reader.beginObject();
+    while (reader.hasNext())
+    {
+      String name = reader.nextName();
+      if (requestId == null && name.equals("id"))
+      {
+        id = JsonReaders.nextString(reader, null);
+      }
+      else if (name.equals("result"))
+      {
+        hasResult = true;
+        if (id != null)
+          readResult(reader, id, sink, hit);
+        else
+          // Kodi writes the id first, but nothing guarantees it: keep the result aside
+          deferred = JsonParser.parseReader(reader).toString();
+      }
+      else
+      {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    if (deferred != null && id != null)
+      readResult(new JsonReader(new StringReader(deferred)), id, sink, hit);
+
+    return hasResult;
+  }
+
+  private static void readResult(JsonReader reader, String id, Sink sink, SearchHit hit)
+          throws IOException
+  {
+    if (reader.peek() != JsonToken.BEGIN_OBJECT || !sink.beginResponse(id))
+    {
+      reader.skipValue();
+      return;
+    }
+
+    int total = -1;
+    reader.beginObject();
+    while (reader.hasNext())
+    {
+      String name = reader.nextName();
+      if (name.equals("limits"))
+      {
+        total = readTotal(reader);
+        continue;
+      }
+
+      // the response of a details request, e.g. VideoLibrary.GetMovieDetails: one item
+      int detailsType = typeForKey(DETAILS_KEYS, name);
+      if (detailsType >= 0 && reader.peek() == JsonToken.BEGIN_OBJECT)
+      {
+        readItem(reader, detailsType, hit);
+        sink.onHit(id, hit);
+        continue;
+      }
+
+      int type = typeForKey(ITEMS_KEYS, name);
+      if (type < 0 || reader.peek() != JsonToken.BEGIN_ARRAY)
+      {
+        reader.skipValue();
+        continue;
+      }
+
+      boolean wanted = true;
+      reader.beginArray();
+      while (reader.hasNext())
+      {
+        if (!wanted || reader.peek() != JsonToken.BEGIN_OBJECT)
+        {
+          reader.skipValue();
+          continue;
+        }
+        readItem(reader, type, hit);
+        wanted = sink.onHit(id, hit);
+      }
+      reader.endArray();
+    }
+    reader.endObject();
+
+    sink.endResponse(id, total);
+  }
+
+  private static int readTotal(JsonReader reader) throws IOException
+  {
+    if (reader.peek() != JsonToken.BEGIN_OBJECT)
+    {
+      reader.skipValue();
+      return -1;
+    }
+
+    int total = -1;
+    reader.beginObject();
+    while (reader.hasNext())
+    {
+      if (reader.nextName().equals("total"))
+        total = JsonReaders.nextInt(reader, -1);
+      else
+        reader.skipValue();
+    }
+    reader.endObject();
+    return total;
+  }
+
+  private static void readItem(JsonReader reader, int type, SearchHit hit) throws IOException
+  {
+    hit.reset(type);
+
+    reader.beginObject();
+    while (reader.hasNext())
+    {
+      String name = reader.nextName();
+      if (name.equals(ID_KEYS[type]))
+        hit.setId(JsonReaders.nextLong(reader, -1));
+      else if (name.equals(TITLE_KEYS[type]))
+        hit.setTitle(JsonReaders.nextString(reader, ""));
+      else if (name.equals(SUBTITLE_KEYS[type]))
+        hit.setSubtitle(JsonReaders.nextString(reader, ""));
+      else if (name.equals("art"))
+        readArt(reader, hit);
+      else if (name.equals("year"))
+        hit.setYear(JsonReaders.nextInt(reader, 0));
+      else if (name.equals("runtime"))
+        hit.setRuntime(JsonReaders.nextLong(reader, 0));
+      else if (name.equals("originaltitle"))
+        hit.setOriginalTitle(JsonReaders.nextString(reader, ""));
+      else if (name.equals("set"))
+        hit.setSet(JsonReaders.nextString(reader, ""));
+      else if (name.equals("albumlabel"))
+        hit.setLabel(JsonReaders.nextString(reader, ""));
+      else if (name.equals("dateadded"))
+        hit.setDateAdded(JsonReaders.nextString(reader, ""));
+      else if (name.equals("cast") || name.equals("director"))
+        hit.setPeople(readNames(reader, hit.getPeople()));
+      else
+        reader.skipValue();
+    }
+    reader.endObject();
+  }
+
+  private static void readArt(JsonReader reader, SearchHit hit) throws IOException
+  {
+    if (reader.peek() != JsonToken.BEGIN_OBJECT)
+    {
+      reader.skipValue();
+      return;
+    }
+
+    reader.beginObject();
+    while (reader.hasNext())
+    {
+      String name = reader.nextName();
+      if (name.equals("poster"))
+        hit.setPoster(emptyToNull(JsonReaders.nextString(reader, null)));
+      else if (name.equals("thumb"))
+        hit.setThumb(emptyToNull(JsonReaders.nextString(reader, null)));
+      else if (name.equals("fanart"))
+        hit.setFanart(emptyToNull(JsonReaders.nextString(reader, null)));
+      else
+        reader.skipValue();
+    }
+    reader.endObject();
+  }
+
+  /**
+   * Appends the names of a "cast" (objects with a name) or "director" (strings) array
+   * to people, one per line.
+   */
+  private static String readNames(JsonReader reader, String people) throws IOException
+  {
+    if (reader.peek() != JsonToken.BEGIN_ARRAY)
+    {
+      reader.skipValue();
+      return people;
+    }
+
+    StringBuilder names = new StringBuilder(people);
+    reader.beginArray();
+    while (reader.hasNext())
+    {
+      String name = null;
+      if (reader.peek() == JsonToken.BEGIN_OBJECT)
+      {
+        reader.beginObject();
+        while (reader.hasNext())
+        {
+          if (reader.nextName().equals("name"))
+            name = JsonReaders.nextString(reader, null);
+          else
+            reader.skipValue();
+        }
+        reader.endObject();
+      }
+      else
+      {
+        name = JsonReaders.nextString(reader, null);
+      }
+
+      if (name != null && !name.isEmpty())
+      {
+        if (names.length() > 0)
+          names.append('\n');
+        names.append(name);
+      }
+    }
+    reader.endArray();
+    return names.toString();
+  }
+
+  private static int typeForKey(String[] keys, String key)
+  {
+    for (int i = 0; i < keys.length; ++i)
+    {
+      if (keys[i].equals(key))
+        return i;
+    }
+    return -1;
+  }
+
+  private static String emptyToNull(String value)
+  {
+    return value == null || value.isEmpty() ? null : value;
+  }
+}
@@ -0,0 +1,103 @@
+package org.xbmc.kodi.jsonrpc;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Deduplicates concurrent identical calls.
+ *
+ * <p>The first caller for a key runs the call; callers arriving with the same key while
+ * it is in flight wait for it and receive the very same result instance. Nothing is
+ * kept once the call completes, this is not a cache.
+ *
+ * <p>A caller waiting for the call of another one waits no longer than its own
+ * {@link Deadline}: the call may run on a slower lane, with a later deadline.
+ *
+ * @param <V> the result type. Shared results must be treated as read-only.
+ */
+public final class SingleFlight<V>
+{
+  private final ConcurrentHashMap<String, CompletableFuture<V>> mInFlight = new ConcurrentHashMap<>();
+  private final AtomicLong mCalls = new AtomicLong(0);
+  private final AtomicLong mShared = new AtomicLong(0);
+
+  public V execute(String key, Supplier<V> call)
+  {
+    CompletableFuture<V> own = new CompletableFuture<>();
+    CompletableFuture<V> inFlight = mInFlight.putIfAbsent(key, own);
+    if (inFlight != null)
+    {
+      mShared.incrementAndGet();
+      return await(inFlight);
+    }
+
+    mCalls.incrementAndGet();
+    try
+    {
+      V result = call.get();
+      own.complete(result);
+      return result;
+    }
+    catch (RuntimeException | Error e)
+    {
+      own.completeExceptionally(e);
+      throw e;
+    }
+    finally
+    {
+      mInFlight.remove(key, own);
+    }
+  }
+
+  private static <V> V await(CompletableFuture<V> inFlight)
+  {
+    Deadline deadline = Deadline.current();
+    try
+    {
+      if (deadline == null)
+        return inFlight.join();
+      return inFlight.get(deadline.remainingMs(), TimeUnit.MILLISECONDS);
+    }
+    catch (TimeoutException e)
+    {
+      // the call goes on for its own caller
+      throw new JsonRpcTimeoutException("SingleFlight: no response by the deadline of the caller");
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new JsonRpcTimeoutException("SingleFlight: interrupted");
+    }
+    catch (CompletionException | ExecutionException e)
+    {
+      // fail the way the call did
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      if (e.getCause() instanceof Error)
+        throw (Error) e.getCause();
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * @return the number of calls actually executed.
+   */
+  public long getCallCount()
+  {
+    return mCalls.get();
+  }
+
+  /**
+   * @return the number of callers served by a call already in flight.
+   */
+  public long getSharedCount()
+  {
+    return mShared.get();
+  }
+}
@@ -0,0 +1,288 @@
+package org.xbmc.kodi.jsonrpc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact file of string records by named section, mapped in memory when read: the
+ * last good state of something served at start, before Kodi answers.
+ *
+ * <p>Layout, big endian: the magic and version ints, the number of sections, then for
+ * every section its name, number of fields and records and the offset of its record
+ * table. A record table holds the offset of every record, a record the length (-1 for
+ * null) and UTF-8 bytes of every field. Only the fields read are decoded.
+ *
+ * <p>A file is written aside and renamed over the previous one: a reader sees either.
+ */
+public final class SnapshotFile
+{
+  private static final int MAGIC = 0x4B534E50;
+  private static final int VERSION = 1;
+
+  private final List<Section> mSections = new ArrayList<>();
+
+  public static final class Section
+  {
+    private final ByteBuffer mBuffer;
+    private final String mName;
+    private final int mFields;
+    private final int mRecords;
+    private final int mTable;
+
+    Section(ByteBuffer buffer, String name, int fields, int records, int table)
+    {
+      mBuffer = buffer;
+      mName = name;
+      mFields = fields;
+      mRecords = records;
+      mTable = table;
+    }
+
+    public String getName()
+    {
+      return mName;
+    }
+
+    public int getFieldCount()
+    {
+      return mFields;
+    }
+
+    public int size()
+    {
+      return mRecords;
+    }
+
+    /**
+     * @return the field of a record, null if it was written null.
+     */
+    public String getString(int record, int field)
+    {
+      int offset = mBuffer.getInt(mTable + 4 * record);
+      for (int i = 0; i < field; ++i)
+        offset += 4 + Math.max(0, mBuffer.getInt(offset));
+
+      int length = mBuffer.getInt(offset);
+      if (length < 0)
+        return null;
+      ByteBuffer bytes = mBuffer.duplicate();
+      bytes.position(offset + 4);
+      bytes.limit(offset + 4 + length);
+      return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    public int getInt(int record, int field, int defaultValue)
+    {
+      return (int) getLong(record, field, defaultValue);
+    }
+
+    public long getLong(int record, int field, long defaultValue)
+    {
+      String value = getString(record, field);
+      if (value == null)
+        return defaultValue;
+      try
+      {
+        return Long.parseLong(value);
+      }
+      catch (NumberFormatException e)
+      {
+        return defaultValue;
+      }
+    }
+  }
+
+  private SnapshotFile(ByteBuffer buffer) throws IOException
+  {
+    try
+    {
+      if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+        throw new IOException("SnapshotFile: not a snapshot");
+
+      int count = buffer.getInt(8);
+      int offset = 12;
+      for (int i = 0; i < count; ++i)
+      {
+        int nameLength = buffer.getShort(offset);
+        ByteBuffer name = buffer.duplicate();
+        name.position(offset + 2);
+        name.limit(offset + 2 + nameLength);
+        offset += 2 + nameLength;
+
+        int fields = buffer.getInt(offset);
+        int records = buffer.getInt(offset + 4);
+        int table = buffer.getInt(offset + 8);
+        offset += 12;
+        if (fields < 0 || records < 0 || table < 0 || (long) table + 4L * records > buffer.limit())
+          throw new IOException("SnapshotFile: truncated");
+        if (records > 0)
+        {
+          // the records follow one another: the last one ends within the file
+          long end = buffer.getInt(table + 4 * (records - 1));
+          for (int field = 0; field < fields; ++field)
+            end += 4 + Math.max(0, buffer.getInt((int) end));
+          if (end > buffer.limit())
+            throw new IOException("SnapshotFile: truncated");
+        }
+        mSections.add(new Section(buffer, StandardCharsets.UTF_8.decode(name).toString(), fields, records, table));
+      }
+    }
+    catch (IndexOutOfBoundsException | IllegalArgumentException e)
+    {
+      throw new IOException("SnapshotFile: truncated", e);
+    }
+  }
+
+  /**
+   * @return the snapshot, or null if there is none or it cannot be read.
+   */
+  public static SnapshotFile open(File file)
+  {
+    if (!file.isFile())
+      return null;
+
+    try (RandomAccessFile input = new RandomAccessFile(file, "r"))
+    {
+      // the mapping outlives the channel
+      MappedByteBuffer buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+      return new SnapshotFile(buffer);
+    }
+    catch (Exception e)
+    {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * @return the section, or null if the snapshot has none of that name.
+   */
+  public Section getSection(String name)
+  {
+    for (Section section : mSections)
+    {
+      if (section.getName().equals(name))
+        return section;
+    }
+    return null;
+  }
+
+  public static final class Writer
+  {
+    private final List<String> mNames = new ArrayList<>();
+    private final List<Integer> mFieldCounts = new ArrayList<>();
+    private final List<List<byte[][]>> mRecords = new ArrayList<>();
+
+    /**
+     * Starts a section, the records added next go to it.
+     */
+    public Writer beginSection(String name, int fields)
+    {
+      mNames.add(name);
+      mFieldCounts.add(fields);
+      mRecords.add(new ArrayList<byte[][]>());
+      return this;
+    }
+
+    /**
+     * @param values as many as the fields of the section, nulls allowed.
+     */
+    public Writer add(Object... values)
+    {
+      int fields = mFieldCounts.get(mFieldCounts.size() - 1);
+      if (values.length != fields)
+        throw new IllegalArgumentException("SnapshotFile: " + values.length + " values for " + fields + " fields");
+
+      byte[][] record = new byte[fields][];
+      for (int i = 0; i < fields; ++i)
+        record[i] = values[i] == null ? null : values[i].toString().getBytes(StandardCharsets.UTF_8);
+      mRecords.get(mRecords.size() - 1).add(record);
+      return this;
+    }
+
+    /**
+     * Replaces the file with the sections added.
+     *
+     * @return false on failure, the previous file being kept.
+     */
+    public boolean write(File file)
+    {
+      byte[][] names = new byte[mNames.size()][];
+      int header = 12;
+      for (int i = 0; i < names.length; ++i)
+      {
+        names[i] = mNames.get(i).getBytes(StandardCharsets.UTF_8);
+        header += 2 + names[i].length + 12;
+      }
+
+      int size = header;
+      for (List<byte[][]> records : mRecords)
+      {
+        size += 4 * records.size();
+        for (byte[][] record : records)
+        {
+          for (byte[] field : record)
+            size += 4 + (field != null ? field.length : 0);
+        }
+      }
+
+      ByteBuffer out = ByteBuffer.allocate(size);
+      out.putInt(MAGIC).putInt(VERSION).putInt(names.length);
+      int offset = header;
+      for (int i = 0; i < names.length; ++i)
+      {
+        List<byte[][]> records = mRecords.get(i);
+        out.putShort((short) names[i].length).put(names[i])
+                .putInt(mFieldCounts.get(i)).putInt(records.size()).putInt(offset);
+        offset += 4 * records.size();
+        for (byte[][] record : records)
+        {
+          for (byte[] field : record)
+            offset += 4 + (field != null ? field.length : 0);
+        }
+      }
+
+      for (List<byte[][]> records : mRecords)
+      {
+        int record = out.position() + 4 * records.size();
+        for (byte[][] fields : records)
+        {
+          out.putInt(record);
+          for (byte[] field : fields)
+            record += 4 + (field != null ? field.length : 0);
+        }
+        for (byte[][] fields : records)
+        {
+          for (byte[] field : fields)
+          {
+            out.putInt(field != null ? field.length : -1);
+            if (field != null)
+              out.put(field);
+          }
+        }
+      }
+
+      File temp = new File(file.getPath() + ".tmp");
+      try (FileOutputStream output = new FileOutputStream(temp))
+      {
+        output.write(out.array());
+        output.getFD().sync();
+      }
+      catch (Exception e)
+      {
+        e.printStackTrace();
+        temp.delete();
+        return false;
+      }
+      return temp.renameTo(file);
+    }
+  }
+}
@@ -0,0 +1,268 @@
+package org.xbmc.kodi.jsonrpc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Remembers the candidates of the last suggestion query of one search session, so that
+ * the next keystroke can often be answered without asking Kodi.
+ *
+ * <p>The suggestion requests use "contains" filters, hence the results for a query are
+ * a subset of the results for any query it contains. When every category of the last
+ * result was complete (Kodi returned all the items matching, not only the first page)
+ * the result for a longer query is obtained by filtering the candidates locally.
+ *
+ * <p>Categories filtered on fields which are not fetched (actor, director) can only be
+ * narrowed when they were empty.
+ *
+ * <p>Queries are compared in lower case, as Kodi matches them.
+ */
+public final class SuggestionContext
+{
+  // the library may have changed under us
+  private static final long MAX_AGE_MS = 60 * 1000;
+
+  public static final int FIELDS_NONE = 0;
+  public static final int FIELDS_TITLE = 1;
+  public static final int FIELDS_ORIGINAL_TITLE = 1 << 1;
+  public static final int FIELDS_SET = 1 << 2;
+  public static final int FIELDS_LABEL = 1 << 3;
+
+  private volatile Result mLast = null;
+  private volatile long mLastTime = 0;
+  private long mNarrowed = 0;
+  private long mFetched = 0;
+
+  /**
+   * The candidates of one category, i.e. of one request of the suggestion batch.
+   */
+  public static final class Category
+  {
+    private final String mRequestId;
+    private final int mFields;
+    private final List<SearchHit> mHits;
+    private int mTotal;
+
+    Category(String requestId, int fields, List<SearchHit> hits, int total)
+    {
+      mRequestId = requestId;
+      mFields = fields;
+      mHits = hits;
+      mTotal = total;
+    }
+
+    public String getRequestId()
+    {
+      return mRequestId;
+    }
+
+    public List<SearchHit> getHits()
+    {
+      return Collections.unmodifiableList(mHits);
+    }
+
+    /**
+     * @return true if every item matching on the server is in the candidates.
+     */
+    boolean isComplete()
+    {
+      return mTotal >= 0 && mTotal <= mHits.size();
+    }
+
+    boolean isNarrowable()
+    {
+      return isComplete() && (mFields != FIELDS_NONE || mHits.isEmpty());
+    }
+
+    Category narrow(String query)
+    {
+      List<SearchHit> hits = new ArrayList<>(mHits.size());
+      for (SearchHit hit : mHits)
+      {
+        if (matches(hit, query))
+          hits.add(hit);
+      }
+      return new Category(mRequestId, mFields, hits, hits.size());
+    }
+
+    private boolean matches(SearchHit hit, String query)
+    {
+      return ((mFields & FIELDS_TITLE) != 0 && contains(hit.getTitle(), query))
+              || ((mFields & FIELDS_ORIGINAL_TITLE) != 0 && contains(hit.getOriginalTitle(), query))
+              || ((mFields & FIELDS_SET) != 0 && contains(hit.getSet(), query))
+              || ((mFields & FIELDS_LABEL) != 0 && contains(hit.getLabel(), query));
+    }
+
+    private static boolean contains(String value, String query)
+    {
+      return value != null && value.toLowerCase(Locale.ROOT).contains(query);
+    }
+  }
+
+  /**
+   * The candidates of every category for a query, in batch order.
+   */
+  public static final class Result
+  {
+    private final String mQuery;
+    private final List<Category> mCategories;
+
+    Result(String query, List<Category> categories)
+    {
+      mQuery = query;
+      mCategories = categories;
+    }
+
+    public String getQuery()
+    {
+      return mQuery;
+    }
+
+    public List<Category> getCategories()
+    {
+      return Collections.unmodifiableList(mCategories);
+    }
+  }
+
+  /**
+   * Collects the candidates of a suggestion batch response.
+   */
+  public final class Collector implements SearchResponseReader.Sink
+  {
+    private final String mQuery;
+    private final String[] mRequestIds;
+    private final int[] mFields;
+    private final Category[] mCategories;
+
+    /**
+     * @param query      the query the batch was built for.
+     * @param requestIds the ids of the requests of the batch, in batch order.
+     * @param fields     for each request, the FIELDS_* its filter applies to.
+     */
+    public Collector(String query, String[] requestIds, int[] fields)
+    {
+      mQuery = normalize(query);
+      mRequestIds = requestIds;
+      mFields = fields;
+      mCategories = new Category[requestIds.length];
+    }
+
+    @Override
+    public boolean beginResponse(String requestId)
+    {
+      int index = indexOf(requestId);
+      if (index < 0)
+        return false;
+      mCategories[index] = new Category(requestId, mFields[index], new ArrayList<SearchHit>(), -1);
+      return true;
+    }
+
+    @Override
+    public boolean onHit(String requestId, SearchHit hit)
+    {
+      mCategories[indexOf(requestId)].mHits.add(hit.copy());
+      return true;
+    }
+
+    @Override
+    public void endResponse(String requestId, int total)
+    {
+      mCategories[indexOf(requestId)].mTotal = total;
+    }
+
+    /**
+     * Makes the collected candidates the last result of the session.
+     */
+    public Result commit()
+    {
+      List<Category> categories = new ArrayList<>(mCategories.length);
+      for (int i = 0; i < mCategories.length; ++i)
+      {
+        if (mCategories[i] != null)
+          categories.add(mCategories[i]);
+        else
+          // no result for this request, e.g. an error: never narrow from it
+          categories.add(new Category(mRequestIds[i], mFields[i], new ArrayList<SearchHit>(), -1));
+      }
+
+      Result result = new Result(mQuery, categories);
+      synchronized (SuggestionContext.this)
+      {
+        ++mFetched;
+      }
+      mLastTime = now();
+      mLast = result;
+      return result;
+    }
+
+    private int indexOf(String requestId)
+    {
+      for (int i = 0; i < mRequestIds.length; ++i)
+      {
+        if (mRequestIds[i].equals(requestId))
+          return i;
+      }
+      return -1;
+    }
+  }
+
+  /**
+   * Answers a query from the last result when it is safe to.
+   *
+   * @return the narrowed result, or null if Kodi has to be asked.
+   */
+  public Result narrow(String query)
+  {
+    Result last = mLast;
+    query = normalize(query);
+    if (last == null || query == null || now() - mLastTime > MAX_AGE_MS)
+      return null;
+    if (!query.contains(last.mQuery))
+      return null;
+
+    for (Category category : last.mCategories)
+    {
+      if (!category.isNarrowable())
+        return null;
+    }
+
+    List<Category> categories = new ArrayList<>(last.mCategories.size());
+    for (Category category : last.mCategories)
+      categories.add(category.narrow(query));
+
+    Result result = new Result(query, categories);
+    synchronized (this)
+    {
+      ++mNarrowed;
+    }
+    // keeps the time of the fetch: narrowing does not make the candidates fresher
+    mLast = result;
+    return result;
+  }
+
+  public void clear()
+  {
+    mLast = null;
+  }
+
+  @Override
+  public synchronized String toString()
+  {
+    return "SuggestionContext{"
+            + "fetched=" + mFetched
+            + ", narrowed=" + mNarrowed
+            + '}';
+  }
+
+  private static String normalize(String query)
+  {
+    return query != null ? query.toLowerCase(Locale.ROOT) : null;
+  }
+
+  private static long now()
+  {
+    return System.nanoTime() / 1000000L;
+  }
+}
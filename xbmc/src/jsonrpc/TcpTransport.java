@@ -0,0 +1,404 @@
+package org.xbmc.kodi.jsonrpc;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JSON-RPC over one long lived connection to the raw TCP port of Kodi (9090 by default).
+ *
+ * <p>Requests are pipelined: any number of callers write on the connection without
+ * waiting for each other, and responses are matched to them by id. Since callers
+ * reuse ids, every request id is replaced by an id unique to the connection on the way
+ * out and restored on the way back, for batches too. Notifications sent by Kodi on
+ * the same connection are handed to the listeners.
+ *
+ * <p>The connection is opened on first use and reopened after a failure, not before
+ * {@link #RETRY_MS} though, so that a disabled port fails fast. A request which could
+ * not connect, hence was never sent, fails with a {@link ConnectException}.
+ *
+ * <p>A request waits for its response until the timeout of the transport, or until the
+ * {@link Deadline} of its caller if that comes first.
+ */
+public final class TcpTransport implements JsonRpcTransport
+{
+  public static final int DEFAULT_PORT = 9090;
+  public static final int CONNECT_TIMEOUT_MS = 2000;
+  public static final long DEFAULT_TIMEOUT_MS = 30 * 1000;
+  public static final long RETRY_MS = 5 * 1000;
+
+  public interface NotificationListener
+  {
+    /**
+     * Called on the reading thread, must not block.
+     *
+     * @param method       e.g. "VideoLibrary.OnUpdate".
+     * @param notification the whole notification.
+     */
+    void onNotification(String method, String notification);
+  }
+
+  private static final class Pending
+  {
+    final CompletableFuture<String> mFuture = new CompletableFuture<>();
+    // connection ids and the caller ids they replace, as JSON text
+    final long[] mIds;
+    final String[] mOriginals;
+
+    Pending(int count)
+    {
+      mIds = new long[count];
+      mOriginals = new String[count];
+    }
+
+    String original(long id)
+    {
+      for (int i = 0; i < mIds.length; ++i)
+      {
+        if (mIds[i] == id)
+          return mOriginals[i];
+      }
+      return null;
+    }
+  }
+
+  private final String mHost;
+  private final int mPort;
+  private final long mTimeoutMs;
+
+  private final AtomicLong mNextId = new AtomicLong();
+  private final ConcurrentHashMap<Long, Pending> mPending = new ConcurrentHashMap<>();
+  private final CopyOnWriteArrayList<NotificationListener> mListeners = new CopyOnWriteArrayList<>();
+
+  private final Object mLock = new Object();
+  private Socket mSocket = null;
+  private OutputStream mOut = null;
+  private long mRetryAt = 0;
+  private boolean mClosed = false;
+
+  private final AtomicLong mRequests = new AtomicLong();
+  private final AtomicLong mNotifications = new AtomicLong();
+  private final AtomicLong mConnects = new AtomicLong();
+
+  public TcpTransport(String host, int port)
+  {
+    this(host, port, DEFAULT_TIMEOUT_MS);
+  }
+
+  /**
+   * @param timeoutMs how long a request waits for its response.
+   */
+  public TcpTransport(String host, int port, long timeoutMs)
+  {
+    mHost = host;
+    mPort = port;
+    mTimeoutMs = timeoutMs;
+  }
+
+  public void addListener(NotificationListener listener)
+  {
+    mListeners.addIfAbsent(listener);
+  }
+
+  public void removeListener(NotificationListener listener)
+  {
+    mListeners.remove(listener);
+  }
+
+  /**
+   * Opens the connection if it is not, e.g. to receive notifications before any request.
+   */
+  public void connect() throws IOException
+  {
+    output();
+  }
+
+  public boolean isConnected()
+  {
+    synchronized (mLock)
+    {
+      return mSocket != null;
+    }
+  }
+
+  @Override
+  public String request(String jsonRequest) throws IOException
+  {
+    int[] spans = JsonFrames.findMembers(jsonRequest, "id");
+    if (spans.length == 0)
+    {
+      write(jsonRequest);
+      return null;
+    }
+
+    Pending pending = new Pending(spans.length / 2);
+    StringBuilder rewritten = new StringBuilder(jsonRequest.length() + 8 * pending.mIds.length);
+    int last = 0;
+    for (int i = 0; i < pending.mIds.length; ++i)
+    {
+      int start = spans[2 * i];
+      int end = spans[2 * i + 1];
+      long id = mNextId.incrementAndGet();
+      pending.mIds[i] = id;
+      pending.mOriginals[i] = jsonRequest.substring(start, end);
+      rewritten.append(jsonRequest, last, start).append(id);
+      last = end;
+    }
+    rewritten.append(jsonRequest, last, jsonRequest.length());
+
+    long timeoutMs = mTimeoutMs;
+    Deadline deadline = Deadline.current();
+    if (deadline != null)
+      timeoutMs = Math.min(timeoutMs, deadline.remainingMs());
+
+    for (long id : pending.mIds)
+      mPending.put(id, pending);
+    try
+    {
+      write(rewritten.toString());
+      mRequests.incrementAndGet();
+      return pending.mFuture.get(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+    catch (TimeoutException e)
+    {
+      throw new SocketTimeoutException("TcpTransport: no response within " + timeoutMs + " ms");
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("TcpTransport: interrupted");
+    }
+    catch (ExecutionException e)
+    {
+      if (e.getCause() instanceof IOException)
+        throw (IOException) e.getCause();
+      throw new IOException(e.getCause());
+    }
+    finally
+    {
+      for (long id : pending.mIds)
+        mPending.remove(id);
+    }
+  }
+
+  /**
+   * Closes the connection for good, pending requests fail.
+   */
+  public void close()
+  {
+    Socket socket;
+    synchronized (mLock)
+    {
+      mClosed = true;
+      socket = mSocket;
+    }
+    if (socket != null)
+      disconnect(socket, new IOException("TcpTransport: closed"));
+  }
+
+  @Override
+  public String toString()
+  {
+    return "TcpTransport{"
+            + "address=" + mHost + ":" + mPort
+            + ", connected=" + isConnected()
+            + ", connects=" + mConnects.get()
+            + ", requests=" + mRequests.get()
+            + ", pending=" + mPending.size()
+            + ", notifications=" + mNotifications.get()
+            + '}';
+  }
+
+  private void write(String message) throws IOException
+  {
+    byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+    OutputStream out = output();
+    try
+    {
+      // one message at a time, in full, whatever the number of writers
+      synchronized (out)
+      {
+        out.write(bytes);
+        out.flush();
+      }
+    }
+    catch (IOException e)
+    {
+      Socket socket;
+      synchronized (mLock)
+      {
+        socket = mOut == out ? mSocket : null;
+      }
+      if (socket != null)
+        disconnect(socket, e);
+      throw e;
+    }
+  }
+
+  private OutputStream output() throws IOException
+  {
+    synchronized (mLock)
+    {
+      if (mClosed)
+        throw new ConnectException("TcpTransport: closed");
+      if (mSocket != null)
+        return mOut;
+      if (now() < mRetryAt)
+        throw new ConnectException("TcpTransport: " + mHost + ":" + mPort + " unreachable");
+
+      Socket socket = new Socket();
+      try
+      {
+        socket.connect(new InetSocketAddress(mHost, mPort), CONNECT_TIMEOUT_MS);
+        socket.setTcpNoDelay(true);
+        socket.setKeepAlive(true);
+        mOut = socket.getOutputStream();
+      }
+      catch (IOException e)
+      {
+        mRetryAt = now() + RETRY_MS;
+        try
+        {
+          socket.close();
+        }
+        catch (IOException ignored)
+        {
+        }
+        if (e instanceof ConnectException)
+          throw e;
+        // e.g. the connect timed out
+        ConnectException failure = new ConnectException("TcpTransport: " + e.getMessage());
+        failure.initCause(e);
+        throw failure;
+      }
+
+      mSocket = socket;
+      mConnects.incrementAndGet();
+      Thread reader = new Thread(() -> read(socket), "Kodi-JsonRPC-TCP");
+      reader.setDaemon(true);
+      reader.start();
+      return mOut;
+    }
+  }
+
+  private void read(Socket socket)
+  {
+    IOException failure = new IOException("TcpTransport: connection closed");
+    try
+    {
+      JsonFrames.FrameReader frames = new JsonFrames.FrameReader(
+              new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      StringBuilder message = new StringBuilder(4096);
+      while (frames.next(message))
+        dispatch(message);
+    }
+    catch (IOException e)
+    {
+      failure = e;
+    }
+    disconnect(socket, failure);
+  }
+
+  private void dispatch(StringBuilder message)
+  {
+    int[] spans = JsonFrames.findMembers(message, "id");
+    if (spans.length == 0)
+    {
+      int[] method = JsonFrames.findMembers(message, "method");
+      if (method.length == 0)
+        return;
+
+      mNotifications.incrementAndGet();
+      String name = JsonFrames.unquote(message, method[0], method[1]);
+      String notification = message.toString();
+      for (NotificationListener listener : mListeners)
+      {
+        try
+        {
+          listener.onNotification(name, notification);
+        }
+        catch (RuntimeException e)
+        {
+          e.printStackTrace();
+        }
+      }
+      return;
+    }
+
+    // a batch is answered at once, any of its ids leads to the caller
+    Pending pending = null;
+    for (int i = 0; i < spans.length && pending == null; i += 2)
+    {
+      long id = parseId(message, spans[i], spans[i + 1]);
+      if (id >= 0)
+        pending = mPending.get(id);
+    }
+    if (pending == null)
+      return;
+
+    StringBuilder response = new StringBuilder(message.length());
+    int last = 0;
+    for (int i = 0; i < spans.length; i += 2)
+    {
+      String original = pending.original(parseId(message, spans[i], spans[i + 1]));
+      if (original == null)
+        continue;
+      response.append(message, last, spans[i]).append(original);
+      last = spans[i + 1];
+    }
+    response.append(message, last, message.length());
+    pending.mFuture.complete(response.toString());
+  }
+
+  private void disconnect(Socket socket, IOException failure)
+  {
+    synchronized (mLock)
+    {
+      if (mSocket != socket)
+        return;
+      mSocket = null;
+      mOut = null;
+    }
+    try
+    {
+      socket.close();
+    }
+    catch (IOException ignored)
+    {
+    }
+    // requests written on this connection will never be answered
+    for (Pending pending : mPending.values())
+      pending.mFuture.completeExceptionally(failure);
+  }
+
+  private static long parseId(CharSequence message, int start, int end)
+  {
+    long id = 0;
+    for (int i = start; i < end; ++i)
+    {
+      char c = message.charAt(i);
+      if (c < '0' || c > '9' || i - start > 18)
+        return -1;
+      id = id * 10 + (c - '0');
+    }
+    return end > start ? id : -1;
+  }
+
+  private static long now()
+  {
+    return System.nanoTime() / 1000000L;
+  }
+}
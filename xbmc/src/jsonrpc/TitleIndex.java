@@ -0,0 +1,572 @@
+package org.xbmc.kodi.jsonrpc;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * In memory index of the movie, tv show, album and artist titles of the library, for
+ * answering suggestions without asking Kodi.
+ *
+ * <p>Titles are normalized (lower case, no accents, punctuation folded to spaces) and
+ * split into trigrams. Every media type has its own immutable segment holding the
+ * items and, for every trigram, the sorted list of the items containing it, stored in
+ * a single int array. A query counts the trigrams it shares with the items: items
+ * containing the whole query rank first, items sharing most of its trigrams follow,
+ * which tolerates a typo in queries of six characters or more.
+ *
+ * <p>Segments are built from the items of a {@link LibraryStore}, kept in step by a
+ * {@link LibrarySync}: a library notification only marks the segments of that library
+ * stale, and their replacement is built in the background from the changes alone. They
+ * keep answering meanwhile. A persistent store has them built at start from what it
+ * holds, before the sync, unless they were seeded already, e.g. from a snapshot.
+ */
+public final class TitleIndex
+{
+  private static final int TYPES = 4;
+  // separates the fields of an item, a query never contains it
+  private static final char FIELD_SEPARATOR = '\0';
+
+  private final Segment[] mSegments = new Segment[TYPES];
+  private final LibrarySync mSync;
+  private final AtomicBoolean mBuilding = new AtomicBoolean(false);
+  private volatile Runnable mOnSynced = null;
+
+  private static final ThreadLocal<Scratch> sScratch = new ThreadLocal<Scratch>()
+  {
+    @Override
+    protected Scratch initialValue()
+    {
+      return new Scratch();
+    }
+  };
+
+  public TitleIndex()
+  {
+    this(new LibrarySync(new MemoryLibraryStore()));
+  }
+
+  /**
+   * @param sync keeps the items indexed in step with the library.
+   */
+  public TitleIndex(LibrarySync sync)
+  {
+    mSync = sync;
+  }
+
+  /**
+   * @param onSynced run on the refresh thread once segments were rebuilt from a sync,
+   *                 null for none.
+   */
+  public void setOnSynced(Runnable onSynced)
+  {
+    mOnSynced = onSynced;
+  }
+
+  /**
+   * Builds the segment of a type from items kept aside, unless it was built already.
+   * The type stays to be synced.
+   */
+  public void seed(int type, List<SearchHit> items)
+  {
+    synchronized (mSegments)
+    {
+      if (mSegments[type] != null)
+        return;
+    }
+
+    Segment segment = new Segment(items.toArray(new SearchHit[0]));
+    synchronized (mSegments)
+    {
+      if (mSegments[type] == null)
+        mSegments[type] = segment;
+    }
+  }
+
+  /**
+   * @return the items indexed for a type, null if it was not yet. They must not be
+   * modified.
+   */
+  public List<SearchHit> getItems(int type)
+  {
+    synchronized (mSegments)
+    {
+      return mSegments[type] != null ? Arrays.asList(mSegments[type].mItems) : null;
+    }
+  }
+
+  /**
+   * @return true once every media type has been indexed.
+   */
+  public boolean isReady()
+  {
+    synchronized (mSegments)
+    {
+      for (Segment segment : mSegments)
+      {
+        if (segment == null)
+          return false;
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Marks the segments of a library stale after a Kodi notification,
+   * e.g. "VideoLibrary.OnUpdate".
+   *
+   * @param notification the whole notification, for the item updated or removed.
+   */
+  public void onNotification(String method, String notification)
+  {
+    mSync.onNotification(method, notification);
+  }
+
+  /**
+   * Marks every segment stale, to be built from the full library, e.g. once
+   * notifications were missed.
+   */
+  public void invalidate()
+  {
+    mSync.invalidate();
+  }
+
+  /**
+   * Builds the missing and stale segments in the background, unless a build is
+   * already running.
+   *
+   * @param transport sends a request to Kodi and returns the response, or null.
+   */
+  public void refresh(final Function<String, String> transport, Executor executor)
+  {
+    if (!needsRefresh() || !mBuilding.compareAndSet(false, true))
+      return;
+
+    executor.execute(() -> {
+      try
+      {
+        // first what a persistent store kept from the previous run, without asking Kodi
+        for (int type = 0; type < TYPES; ++type)
+        {
+          synchronized (mSegments)
+          {
+            if (mSegments[type] != null)
+              continue;
+          }
+
+          List<SearchHit> items = mSync.getStore().getItems(type);
+          if (!items.isEmpty())
+            seed(type, items);
+        }
+
+        boolean synced = false;
+        for (int type = 0; type < TYPES; ++type)
+        {
+          synchronized (mSegments)
+          {
+            if (mSegments[type] != null && !mSync.isPending(type))
+              continue;
+          }
+
+          // only the changes are fetched, the segment is rebuilt from the store
+          if (!mSync.sync(type, transport))
+            continue;
+          Segment segment = new Segment(mSync.getStore().getItems(type).toArray(new SearchHit[0]));
+          synchronized (mSegments)
+          {
+            mSegments[type] = segment;
+          }
+          synced = true;
+        }
+
+        Runnable onSynced = mOnSynced;
+        if (synced && onSynced != null)
+          onSynced.run();
+      }
+      finally
+      {
+        mBuilding.set(false);
+      }
+    });
+  }
+
+  private boolean needsRefresh()
+  {
+    synchronized (mSegments)
+    {
+      for (int type = 0; type < TYPES; ++type)
+      {
+        if (mSegments[type] == null || mSync.isPending(type))
+          return true;
+      }
+      return false;
+    }
+  }
+
+  /**
+   * @return the number of items indexed.
+   */
+  public int size()
+  {
+    int size = 0;
+    for (Segment segment : segments())
+      size += segment.mItems.length;
+    return size;
+  }
+
+  /**
+   * Finds the items whose title (or original title, movie set, album label) matches
+   * the query, best matches first.
+   */
+  public List<SearchHit> search(String query, int limit)
+  {
+    List<SearchHit> hits = new ArrayList<>();
+    String key = normalize(query);
+    if (key.isEmpty() || limit <= 0)
+      return hits;
+
+    Scratch scratch = sScratch.get();
+    scratch.reset(limit);
+    for (Segment segment : segments())
+      segment.search(key, scratch);
+
+    for (int i = 0; i < scratch.mCount; ++i)
+      hits.add(scratch.mHits[i]);
+    return hits;
+  }
+
+  private Segment[] segments()
+  {
+    List<Segment> segments = new ArrayList<>(TYPES);
+    synchronized (mSegments)
+    {
+      for (Segment segment : mSegments)
+      {
+        if (segment != null)
+          segments.add(segment);
+      }
+    }
+    return segments.toArray(new Segment[0]);
+  }
+
+  /**
+   * Lower cases, strips accents and folds everything but letters and digits into
+   * single spaces.
+   */
+  static String normalize(String value)
+  {
+    if (value == null || value.isEmpty())
+      return "";
+
+    String decomposed = Normalizer.normalize(value, Normalizer.Form.NFD);
+    StringBuilder out = new StringBuilder(decomposed.length());
+    boolean space = true;
+    for (int i = 0; i < decomposed.length(); ++i)
+    {
+      char c = decomposed.charAt(i);
+      if (Character.getType(c) == Character.NON_SPACING_MARK)
+        continue;
+
+      if (Character.isLetterOrDigit(c))
+      {
+        out.append(Character.toLowerCase(c));
+        space = false;
+      }
+      else if (!space)
+      {
+        out.append(' ');
+        space = true;
+      }
+    }
+
+    int length = out.length();
+    if (length > 0 && out.charAt(length - 1) == ' ')
+      out.setLength(length - 1);
+    return out.toString();
+  }
+
+  private static long trigram(CharSequence s, int i)
+  {
+    return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+  }
+
+  /**
+   * The index of one media type. Immutable once built.
+   */
+  private static final class Segment
+  {
+    final SearchHit[] mItems;
+    // normalized fields of each item, separated by FIELD_SEPARATOR
+    final String[] mKeys;
+
+    // open addressing table from trigram to its postings
+    final long[] mTrigrams;
+    final int[] mOffsets;
+    final int[] mLengths;
+    final int mMask;
+    // the item indexes of every trigram, ascending, one trigram after the other
+    final int[] mPostings;
+
+    Segment(SearchHit[] items)
+    {
+      mItems = items;
+      mKeys = new String[items.length];
+      for (int i = 0; i < items.length; ++i)
+        mKeys[i] = keyOf(items[i]);
+
+      // first pass: count the items of every trigram, last[] dedups within an item
+      int mask = 1023;
+      long[] trigrams = newTable(mask + 1);
+      int[] lengths = new int[mask + 1];
+      int[] last = new int[mask + 1];
+      int used = 0;
+      int postings = 0;
+      for (int item = 0; item < mKeys.length; ++item)
+      {
+        String key = mKeys[item];
+        for (int i = 0; i + 2 < key.length(); ++i)
+        {
+          long trigram = trigram(key, i);
+          int slot = probe(trigrams, mask, trigram);
+          if (trigrams[slot] != trigram)
+          {
+            if (2 * (used + 1) > mask + 1)
+            {
+              // keep the load under one half
+              int capacity = 2 * (mask + 1);
+              long[] grownTrigrams = newTable(capacity);
+              int[] grownLengths = new int[capacity];
+              int[] grownLast = new int[capacity];
+              for (int old = 0; old <= mask; ++old)
+              {
+                if (trigrams[old] == -1L)
+                  continue;
+                int moved = probe(grownTrigrams, capacity - 1, trigrams[old]);
+                grownTrigrams[moved] = trigrams[old];
+                grownLengths[moved] = lengths[old];
+                grownLast[moved] = last[old];
+              }
+              mask = capacity - 1;
+              trigrams = grownTrigrams;
+              lengths = grownLengths;
+              last = grownLast;
+              slot = probe(trigrams, mask, trigram);
+            }
+            trigrams[slot] = trigram;
+            last[slot] = -1;
+            ++used;
+          }
+
+          if (last[slot] != item)
+          {
+            last[slot] = item;
+            ++lengths[slot];
+            ++postings;
+          }
+        }
+      }
+
+      mMask = mask;
+      mTrigrams = trigrams;
+      mLengths = lengths;
+      mOffsets = new int[mask + 1];
+      int offset = 0;
+      for (int slot = 0; slot <= mask; ++slot)
+      {
+        mOffsets[slot] = offset;
+        offset += lengths[slot];
+      }
+
+      // second pass: fill, items are visited in order so every list ends up sorted
+      mPostings = new int[postings];
+      int[] fill = last;
+      Arrays.fill(fill, 0);
+      for (int item = 0; item < mKeys.length; ++item)
+      {
+        String key = mKeys[item];
+        for (int i = 0; i + 2 < key.length(); ++i)
+        {
+          int slot = probe(mTrigrams, mMask, trigram(key, i));
+          int start = mOffsets[slot];
+          if (fill[slot] == 0 || mPostings[start + fill[slot] - 1] != item)
+            mPostings[start + fill[slot]++] = item;
+        }
+      }
+    }
+
+    private static long[] newTable(int capacity)
+    {
+      long[] table = new long[capacity];
+      Arrays.fill(table, -1L);
+      return table;
+    }
+
+    /**
+     * @return the slot holding the trigram, or the empty slot where it belongs.
+     */
+    private static int probe(long[] table, int mask, long trigram)
+    {
+      int slot = (int) ((trigram * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+      while (table[slot] != trigram && table[slot] != -1L)
+        slot = (slot + 1) & mask;
+      return slot;
+    }
+
+    private static String keyOf(SearchHit hit)
+    {
+      StringBuilder key = new StringBuilder();
+      // leading spaces make word starts trigrams of their own
+      key.append(' ').append(normalize(hit.getTitle()));
+      appendField(key, hit.getOriginalTitle());
+      appendField(key, hit.getSet());
+      appendField(key, hit.getLabel());
+      return key.toString();
+    }
+
+    private static void appendField(StringBuilder key, String value)
+    {
+      String normalized = normalize(value);
+      if (!normalized.isEmpty())
+        key.append(FIELD_SEPARATOR).append(' ').append(normalized);
+    }
+
+    void search(String query, Scratch scratch)
+    {
+      if (query.length() < 3)
+      {
+        scan(query, scratch);
+        return;
+      }
+
+      int[] counts = scratch.counts(mItems.length);
+      int[] touched = scratch.touched(mItems.length);
+      int touchedCount = 0;
+      int trigrams = 0;
+      for (int i = 0; i + 2 < query.length(); ++i)
+      {
+        // a trigram repeated in the query is only counted once
+        if (query.indexOf(query.substring(i, i + 3)) < i)
+          continue;
+        ++trigrams;
+
+        long trigram = trigram(query, i);
+        int slot = probe(mTrigrams, mMask, trigram);
+        if (mTrigrams[slot] != trigram)
+          continue;
+        int end = mOffsets[slot] + mLengths[slot];
+        for (int p = mOffsets[slot]; p < end; ++p)
+        {
+          int item = mPostings[p];
+          if (counts[item]++ == 0)
+            touched[touchedCount++] = item;
+        }
+      }
+
+      // one typo breaks up to three trigrams, short queries must match exactly
+      int minShared = trigrams >= 4 ? Math.max(2, trigrams - 3) : trigrams;
+
+      for (int i = 0; i < touchedCount; ++i)
+      {
+        int item = touched[i];
+        int shared = counts[item];
+        counts[item] = 0;
+        if (shared < minShared)
+          continue;
+
+        int position = mKeys[item].indexOf(query);
+        int score;
+        if (position >= 0)
+          score = rank(mKeys[item], position) + 3 * shared;
+        else
+          score = 2 * shared;
+        scratch.offer(mItems[item], score - Math.min(mKeys[item].length(), 63));
+      }
+    }
+
+    /**
+     * Too short for trigrams: plain substring scan.
+     */
+    private void scan(String query, Scratch scratch)
+    {
+      for (int item = 0; item < mKeys.length; ++item)
+      {
+        int position = mKeys[item].indexOf(query);
+        if (position >= 0)
+          scratch.offer(mItems[item], rank(mKeys[item], position) - Math.min(mKeys[item].length(), 63));
+      }
+    }
+
+    private static int rank(String key, int position)
+    {
+      // exact matches above every fuzzy one, word starts above the rest
+      int score = 1 << 16;
+      if (key.charAt(position - 1) == ' ')
+        score += 1 << 12;
+      if (position == 1)
+        score += 1 << 8;
+      return score;
+    }
+  }
+
+  /**
+   * Per thread buffers of a query, kept between queries.
+   */
+  private static final class Scratch
+  {
+    int[] mCounts = new int[0];
+    int[] mTouched = new int[0];
+    SearchHit[] mHits = new SearchHit[0];
+    int[] mScores = new int[0];
+    int mCount;
+    int mLimit;
+
+    void reset(int limit)
+    {
+      if (mHits.length < limit)
+      {
+        mHits = new SearchHit[limit];
+        mScores = new int[limit];
+      }
+      Arrays.fill(mHits, null);
+      mCount = 0;
+      mLimit = limit;
+    }
+
+    int[] counts(int size)
+    {
+      if (mCounts.length < size)
+        mCounts = new int[size];
+      return mCounts;
+    }
+
+    int[] touched(int size)
+    {
+      if (mTouched.length < size)
+        mTouched = new int[size];
+      return mTouched;
+    }
+
+    /**
+     * Keeps the best mLimit hits, sorted by descending score.
+     */
+    void offer(SearchHit hit, int score)
+    {
+      if (mCount == mLimit && score <= mScores[mCount - 1])
+        return;
+
+      int i = mCount < mLimit ? mCount++ : mCount - 1;
+      while (i > 0 && mScores[i - 1] < score)
+      {
+        mHits[i] = mHits[i - 1];
+        mScores[i] = mScores[i - 1];
+        --i;
+      }
+      mHits[i] = hit;
+      mScores[i] = score;
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package org.xbmc.kodi.jsonrpc;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads UTF-8 text straight from a byte buffer, e.g. a response handed over by the
+ * native side, decoding it into the caller's buffer as it is read. The text is never
+ * held as a whole on the heap.
+ *
+ * <p>Reading moves the position of the buffer: pass a {@link ByteBuffer#duplicate()} to
+ * read a shared buffer.
+ */
+public final class Utf8BufferReader extends Reader
+{
+  private final ByteBuffer mBuffer;
+  private final CharsetDecoder mDecoder = StandardCharsets.UTF_8.newDecoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private boolean mFlushed = false;
+
+  public Utf8BufferReader(ByteBuffer buffer)
+  {
+    mBuffer = buffer;
+  }
+
+  /**
+   * @return the whole remaining text, for the callers which need it as a String.
+   */
+  public static String decode(ByteBuffer buffer)
+  {
+    return StandardCharsets.UTF_8.decode(buffer.duplicate()).toString();
+  }
+
+  @Override
+  public int read(char[] chars, int offset, int length) throws IOException
+  {
+    if (length == 0)
+      return 0;
+
+    CharBuffer out = CharBuffer.wrap(chars, offset, length);
+    // a char may need more room than left, e.g. half of a surrogate pair: loop until
+    // something was decoded or the input is done
+    while (out.position() == offset)
+    {
+      if (mFlushed)
+        return -1;
+
+      CoderResult result = mDecoder.decode(mBuffer, out, true);
+      if (result.isUnderflow())
+      {
+        result = mDecoder.flush(out);
+        if (result.isUnderflow())
+          mFlushed = true;
+      }
+      if (result.isOverflow() && out.position() == offset)
+        // not even room for one char: the caller asked for a single char of a pair
+        throw new IOException("Utf8BufferReader: read buffer too small");
+      if (result.isError())
+        result.throwException();
+    }
+    return out.position() - offset;
+  }
+
+  @Override
+  public void close()
+  {
+  }
+}